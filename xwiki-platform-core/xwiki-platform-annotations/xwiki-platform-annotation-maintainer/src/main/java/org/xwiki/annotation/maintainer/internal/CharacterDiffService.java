@@ -22,16 +22,21 @@
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.incava.util.diff.Diff;
-import org.incava.util.diff.Difference;
 import org.xwiki.annotation.maintainer.DiffService;
 import org.xwiki.annotation.maintainer.XDelta;
 import org.xwiki.component.annotation.Component;
 
 /**
  * DiffService implementation providing character level differences between content.
+ * <p>
+ * The common beginning and end of the contents are skipped and the rest is compared with the Myers difference
+ * algorithm, directly on the characters. When the contents are too different for this to be fast, the comparison is
+ * made on words instead, and if they are still too different the whole changed part is returned as a single
+ * difference.
  * 
  * @version $Id$
  * @since 2.3M1
@@ -39,65 +44,135 @@
 @Component(hints = {"default", "character" })
 public class CharacterDiffService implements DiffService
 {
+    /**
+     * The maximum number of added and deleted characters to look for before comparing words instead.
+     */
+    private static final int MAX_CHARACTER_COST = 1000;
+
+    /**
+     * The maximum number of added and deleted words to look for before giving up on finding the differences.
+     */
+    private static final int MAX_WORD_COST = 1000;
+
     @Override
     public Collection<XDelta> getDifferences(String previous, String current)
     {
-        // get differences at character level
-        // FIXME: do we want at character level or we'd better get word level, to have it working faster
         Collection<XDelta> deltas = new ArrayList<XDelta>();
-        List<Character> previousContent = new ArrayList<Character>();
-        for (int i = 0; i < previous.length(); ++i) {
-            previousContent.add(previous.charAt(i));
+
+        // skip the common beginning and end, which is most of the content for usual edits
+        int start = 0;
+        int minLength = Math.min(previous.length(), current.length());
+        while (start < minLength && previous.charAt(start) == current.charAt(start)) {
+            start++;
         }
-        List<Character> currentContent = new ArrayList<Character>();
-        for (int i = 0; i < current.length(); ++i) {
-            currentContent.add(current.charAt(i));
+        int end = 0;
+        while (end < minLength - start
+            && previous.charAt(previous.length() - end - 1) == current.charAt(current.length() - end - 1)) {
+            end++;
         }
-        Diff<Character> diff = new Diff<Character>(previousContent, currentContent);
+        int previousEnd = previous.length() - end;
+        int currentEnd = current.length() - end;
+        if (start == previousEnd && start == currentEnd) {
+            return deltas;
+        }
+
+        List<int[]> differences =
+            MyersDiff.diff(toCharacters(previous, start, previousEnd), toCharacters(current, start, currentEnd),
+                MAX_CHARACTER_COST);
+        if (differences == null) {
+            differences = getWordDifferences(previous.substring(start, previousEnd),
+                current.substring(start, currentEnd));
+        }
+
         // prepare the XDeltas for all diffs
-        for (Difference it : diff.diff()) {
-            XDelta delta = getDelta(previous, current, it);
-            if (delta != null) {
-                deltas.add(delta);
-            }
+        for (int[] difference : differences) {
+            deltas.add(new ChunksXDelta(start + difference[0], previous.substring(start + difference[0], start
+                + difference[1]), current.substring(start + difference[2], start + difference[3])));
         }
         return deltas;
     }
 
     /**
-     * Helper function to prepare an {@link XDelta} object for the passed content.
+     * @param content some content
+     * @param start the index of the first character to return
+     * @param end the index after the last character to return
+     * @return the characters of the content between {@code start} and {@code end}
+     */
+    private int[] toCharacters(String content, int start, int end)
+    {
+        int[] characters = new int[end - start];
+        for (int i = 0; i < characters.length; i++) {
+            characters[i] = content.charAt(start + i);
+        }
+        return characters;
+    }
+
+    /**
+     * Computes the differences between two contents at word level, when they are too different to be compared at
+     * character level.
      * 
      * @param previous the previous content
      * @param current the current content
-     * @param diff the difference to prepare the XDelta object for
-     * @return an {@link XDelta} object corresponding to {@code diff}
+     * @return the differences, as character ranges, see {@link MyersDiff#diff(int[], int[], int)}
      */
-    private XDelta getDelta(String previous, String current, Difference diff)
+    private List<int[]> getWordDifferences(String previous, String current)
     {
-        int position;
-        String original = "";
-        String modified = "";
+        Map<String, Integer> wordIds = new HashMap<String, Integer>();
+        List<Integer> previousBounds = new ArrayList<Integer>();
+        List<Integer> currentBounds = new ArrayList<Integer>();
+        int[] previousWords = toWords(previous, wordIds, previousBounds);
+        int[] currentWords = toWords(current, wordIds, currentBounds);
 
-        // deleted is from previous, added is in current
-
-        if (diff.getDeletedStart() == Difference.NONE || diff.getAddedStart() == Difference.NONE) {
-            // this diff doesn't make sense, ignore it
-            return null;
+        List<int[]> differences = MyersDiff.diff(previousWords, currentWords, MAX_WORD_COST);
+        if (differences == null) {
+            // too many changes, consider that everything changed
+            differences = new ArrayList<int[]>();
+            differences.add(new int[] {0, previousWords.length, 0, currentWords.length});
         }
 
-        position = diff.getDeletedStart();
-
-        // the content that was deleted
-        if (diff.getDeletedEnd() != Difference.NONE) {
-            original = previous.substring(diff.getDeletedStart(), diff.getDeletedEnd() + 1);
+        // convert the word indexes into character indexes
+        for (int[] difference : differences) {
+            difference[0] = previousBounds.get(difference[0]);
+            difference[1] = previousBounds.get(difference[1]);
+            difference[2] = currentBounds.get(difference[2]);
+            difference[3] = currentBounds.get(difference[3]);
         }
+        return differences;
+    }
 
-        // the content that was added
-        if (diff.getAddedEnd() != Difference.NONE) {
-            modified = current.substring(diff.getAddedStart(), diff.getAddedEnd() + 1);
+    /**
+     * Splits a content in words. A word is either a sequence of letters and digits or a single other character.
+     * 
+     * @param content the content to split
+     * @param wordIds the identifiers of the words already found, updated with the new words
+     * @param bounds filled with the index of the first character of each word, followed by the length of the content
+     * @return the identifiers of the words of the content
+     */
+    private int[] toWords(String content, Map<String, Integer> wordIds, List<Integer> bounds)
+    {
+        int index = 0;
+        while (index < content.length()) {
+            bounds.add(index);
+            if (Character.isLetterOrDigit(content.charAt(index))) {
+                do {
+                    index++;
+                } while (index < content.length() && Character.isLetterOrDigit(content.charAt(index)));
+            } else {
+                index++;
+            }
         }
+        bounds.add(content.length());
 
-        // else return the built chunk
-        return new ChunksXDelta(position, original, modified);
+        int[] words = new int[bounds.size() - 1];
+        for (int i = 0; i < words.length; i++) {
+            String word = content.substring(bounds.get(i), bounds.get(i + 1));
+            Integer id = wordIds.get(word);
+            if (id == null) {
+                id = wordIds.size();
+                wordIds.put(word, id);
+            }
+            words[i] = id;
+        }
+        return words;
     }
 }
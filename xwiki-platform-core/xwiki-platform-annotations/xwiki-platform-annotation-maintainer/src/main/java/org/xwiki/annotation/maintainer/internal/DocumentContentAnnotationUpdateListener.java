@@ -21,19 +21,36 @@
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.xwiki.annotation.maintainer.AnnotationMaintainer;
 import org.xwiki.annotation.maintainer.MaintainerServiceException;
+import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.bridge.DocumentModelBridge;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.ModelContext;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.observation.EventListener;
@@ -42,6 +59,10 @@
 /**
  * Event listener to listen to documents update events and update the annotations that are impacted by the document
  * <strong>content</strong> change, to update the selection and context to match the new document content. <br />
+ * The annotations are updated in a background thread so that saving a document is not delayed by the rendering and
+ * comparison of its versions. Several saves of the same document made before its annotations are updated are handled
+ * as a single change, from the content before the first save to the content after the last one. The update waits for
+ * the stored document to match the last save that has been notified, so that it does not work on an outdated content.
  * 
  * @version $Id$
  * @since 2.3M1
@@ -49,8 +70,70 @@
 @Component
 @Named("document-content-annotation-updater")
 @Singleton
-public class DocumentContentAnnotationUpdateListener implements EventListener
+public class DocumentContentAnnotationUpdateListener implements EventListener, Initializable, Disposable
 {
+    /**
+     * The number of times the update of the annotations is delayed when the stored document does not match the last
+     * notified save, before updating the annotations anyway.
+     */
+    private static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * The delay before checking again the stored document, in milliseconds.
+     */
+    private static final long RETRY_DELAY = 500;
+
+    /**
+     * The maximum time to wait for the pending updates when the component is disposed, in seconds.
+     */
+    private static final long DISPOSE_TIMEOUT = 60;
+
+    /**
+     * A change of the content of a document, waiting for its annotations to be updated.
+     */
+    private static class PendingUpdate
+    {
+        /**
+         * The content the annotations currently apply to.
+         */
+        private final String previousContent;
+
+        /**
+         * The document.
+         */
+        private final DocumentReference documentReference;
+
+        /**
+         * The latest content of the document.
+         */
+        private String content;
+
+        /**
+         * The version of the document after the latest save.
+         */
+        private String version;
+
+        /**
+         * The user who made the latest change.
+         */
+        private String user;
+
+        /**
+         * The number of times the update has been delayed because the stored document did not match the latest save.
+         */
+        private int attempts;
+
+        /**
+         * @param previousContent the content the annotations currently apply to
+         * @param documentReference the document
+         */
+        PendingUpdate(String previousContent, DocumentReference documentReference)
+        {
+            this.previousContent = previousContent;
+            this.documentReference = documentReference;
+        }
+    }
+
     /**
      * Entity reference serializer, to serialize the modified document reference to send to the annotations service.
      */
@@ -63,6 +146,30 @@ public class DocumentContentAnnotationUpdateListener implements EventListener
     @Inject
     private AnnotationMaintainer maintainer;
 
+    /**
+     * Used to get the user who modified the document and to make the annotation updates in their name.
+     */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * Used to set the context of the background thread.
+     */
+    @Inject
+    private Execution execution;
+
+    /**
+     * Used to initialize the context of the background thread.
+     */
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * Used to set the wiki of the document in the context of the background thread.
+     */
+    @Inject
+    private ModelContext modelContext;
+
     /**
      * The logger to log.
      */
@@ -70,17 +177,51 @@ public class DocumentContentAnnotationUpdateListener implements EventListener
     private Logger logger;
 
     /**
-     * Marks that there is currently an annotations update in progress so all the saves should not trigger a new update.
-     * All document edits that take place because of updating the annotations for the current document shouldn't be
-     * considered.
+     * The thread updating the annotations. All document edits that take place in this thread are made by the
+     * annotations updates and shouldn't be considered.
+     */
+    private volatile Thread updateThread;
+
+    /**
+     * The document content changes waiting to be handled, by serialized document reference.
      */
-    private volatile boolean isUpdating;
+    private final Map<String, PendingUpdate> pendingUpdates = new HashMap<String, PendingUpdate>();
+
+    /**
+     * Runs the annotations updates, one at a time.
+     */
+    private ScheduledExecutorService executor;
 
     /**
      * The events observed by this observation manager.
      */
     private final List<Event> eventsList = new ArrayList<Event>(Arrays.asList(new DocumentUpdatedEvent()));
 
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.executor = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+            .namingPattern("Annotation maintainer thread %d").daemon(true).priority(Thread.MIN_PRIORITY).build());
+    }
+
+    @Override
+    public void dispose()
+    {
+        // Let the pending updates run, the delayed ones included, instead of dropping them
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(DISPOSE_TIMEOUT, TimeUnit.SECONDS)) {
+                synchronized (this.pendingUpdates) {
+                    this.logger.warn("The annotations of documents [{}] have not been updated before shutdown",
+                        this.pendingUpdates.keySet());
+                }
+                this.executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     public List<Event> getEvents()
     {
@@ -100,25 +241,133 @@ public void onEvent(Event event, Object source, Object data)
 
         DocumentModelBridge previousDocument = currentDocument.getOriginalDocument();
 
-        // if it's not a modification triggered by the updates of the annotations while running the same annotation
-        // maintainer, and the difference is in the content of the document
-        if (!isUpdating && !previousDocument.getContent().equals(currentDocument.getContent())) {
-            isUpdating = true;
-            String content = currentDocument.getContent();
-            String previousContent = previousDocument.getContent();
-            // create the document reference
-            EntityReference docReference =
-                new EntityReference(currentDocument.getPageName(), EntityType.DOCUMENT, new EntityReference(
-                    currentDocument.getSpaceName(), EntityType.SPACE, new EntityReference(
-                        currentDocument.getWikiName(), EntityType.WIKI)));
-            // maintain the document annotations
+        // create the document reference
+        EntityReference wikiReference = new EntityReference(currentDocument.getWikiName(), EntityType.WIKI);
+        EntityReference docReference =
+            new EntityReference(currentDocument.getPageName(), EntityType.DOCUMENT, new EntityReference(
+                currentDocument.getSpaceName(), EntityType.SPACE, wikiReference));
+        final String target = serializer.serialize(docReference);
+
+        if (Thread.currentThread() == this.updateThread) {
+            // a modification triggered by the updates of the annotations: the changes still pending for this document
+            // now apply to the version it created
+            synchronized (this.pendingUpdates) {
+                PendingUpdate update = this.pendingUpdates.get(target);
+                if (update != null) {
+                    update.version = currentDocument.getVersion();
+                }
+            }
+        } else if (!previousDocument.getContent().equals(currentDocument.getContent())) {
+            // the difference is in the content of the document
+            synchronized (this.pendingUpdates) {
+                PendingUpdate update = this.pendingUpdates.get(target);
+                boolean isScheduled = update != null;
+                if (!isScheduled) {
+                    update = new PendingUpdate(previousDocument.getContent(), new DocumentReference(docReference));
+                    this.pendingUpdates.put(target, update);
+                }
+                update.content = currentDocument.getContent();
+                update.version = currentDocument.getVersion();
+                update.user = this.documentAccessBridge.getCurrentUser();
+                if (isScheduled) {
+                    // the update which is already scheduled will use the latest content
+                    return;
+                }
+            }
+
             try {
-                maintainer.updateAnnotations(serializer.serialize(docReference), previousContent, content);
-            } catch (MaintainerServiceException e) {
-                this.logger.warn(e.getMessage(), e);
-                // nothing else, just go further
+                this.executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        updateAnnotations(target);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (this.pendingUpdates) {
+                    this.pendingUpdates.remove(target);
+                }
+                this.logger.warn("The annotations of [{}] won't be updated since the maintainer is disposed", target);
+            }
+        }
+    }
+
+    /**
+     * Update the annotations of a document with the changes made to its content since the update was scheduled.
+     * 
+     * @param target the serialized reference of the document
+     */
+    private void updateAnnotations(String target)
+    {
+        this.updateThread = Thread.currentThread();
+        try {
+            this.executionContextManager.initialize(new ExecutionContext());
+
+            PendingUpdate update = takeUpdate(target);
+            if (update != null) {
+                this.modelContext.setCurrentEntityReference(update.documentReference.getWikiReference());
+                this.documentAccessBridge.setCurrentUser(update.user);
+
+                // maintain the document annotations
+                maintainer.updateAnnotations(target, update.previousContent, update.content);
+            }
+        } catch (MaintainerServiceException e) {
+            this.logger.warn(e.getMessage(), e);
+            // nothing else, just go further
+        } catch (ExecutionContextException e) {
+            this.logger.error("Failed to initialize the context for updating the annotations of [{}]", target, e);
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    /**
+     * Remove the pending update of a document, unless the stored document does not match the last notified save yet,
+     * in which case the update is delayed: the save of the newer version is about to be notified and its content has
+     * to be taken into account.
+     * 
+     * @param target the serialized reference of the document
+     * @return the update to apply, {@code null} if it has been delayed
+     */
+    private PendingUpdate takeUpdate(final String target)
+    {
+        PendingUpdate update;
+        synchronized (this.pendingUpdates) {
+            update = this.pendingUpdates.get(target);
+        }
+        if (update == null) {
+            return null;
+        }
+
+        String storedVersion = null;
+        try {
+            this.modelContext.setCurrentEntityReference(update.documentReference.getWikiReference());
+            storedVersion = this.documentAccessBridge.getDocument(update.documentReference).getVersion();
+        } catch (Exception e) {
+            this.logger.warn("Failed to load [{}] to check its version: {}", target, e.getMessage());
+        }
+
+        synchronized (this.pendingUpdates) {
+            if (storedVersion != null && !storedVersion.equals(update.version) && update.attempts < MAX_ATTEMPTS) {
+                try {
+                    this.executor.schedule(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            updateAnnotations(target);
+                        }
+                    }, RETRY_DELAY, TimeUnit.MILLISECONDS);
+                    update.attempts++;
+
+                    return null;
+                } catch (RejectedExecutionException e) {
+                    // disposed: update the annotations right away
+                }
             }
-            isUpdating = false;
+
+            return this.pendingUpdates.remove(target);
         }
     }
 }
@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.annotation.maintainer.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Implementation of the Myers O(ND) difference algorithm on sequences of tokens identified by integers (characters,
+ * word identifiers). The effort is bounded: when the sequences are too different the computation is abandoned, so that
+ * the caller can fall back on a coarser comparison.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+final class MyersDiff
+{
+    /**
+     * Utility class.
+     */
+    private MyersDiff()
+    {
+    }
+
+    /**
+     * Computes the differences between two sequences.
+     * 
+     * @param previous the previous sequence
+     * @param current the current sequence
+     * @param maxCost the maximum number of inserted and deleted tokens to look for
+     * @return the differences, each one as an array holding the start and end (exclusive) of the deleted tokens in
+     *         {@code previous} followed by the start and end (exclusive) of the added tokens in {@code current}, or
+     *         {@code null} if the sequences have more than {@code maxCost} differing tokens
+     */
+    static List<int[]> diff(int[] previous, int[] current, int maxCost)
+    {
+        int n = previous.length;
+        int m = current.length;
+        int max = Math.min(n + m, maxCost);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+
+        // The furthest reaching paths before each step, kept for the backtracking (only the diagonals in reach)
+        List<int[]> trace = new ArrayList<int[]>();
+        for (int d = 0; d <= max; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int x = isDown(v, offset, k, d) ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && previous[x] == current[y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(trace, n, m);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param v the furthest reaching paths
+     * @param offset the index of the diagonal 0 in {@code v}
+     * @param k the diagonal to reach
+     * @param d the current number of differences
+     * @return {@code true} if diagonal {@code k} is best reached by adding a token from the diagonal above,
+     *         {@code false} if it is best reached by deleting a token from the diagonal below
+     */
+    private static boolean isDown(int[] v, int offset, int k, int d)
+    {
+        return k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]);
+    }
+
+    /**
+     * Walks back the edit path to collect the differences.
+     * 
+     * @param trace the furthest reaching paths before each step
+     * @param n the length of the previous sequence
+     * @param m the length of the current sequence
+     * @return the differences, in order
+     */
+    private static List<int[]> backtrack(List<int[]> trace, int n, int m)
+    {
+        // Collect the common runs, from the end
+        List<int[]> runs = new ArrayList<int[]>();
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK = isDown(v, d + 1, k, d) ? k + 1 : k - 1;
+            int prevX = v[d + 1 + prevK];
+            int prevY = prevX - prevK;
+            // The common run ends at (x, y) and starts at the origin or right after the token inserted or deleted at
+            // this step
+            int length = x;
+            if (d > 0) {
+                length -= (prevK == k + 1) ? prevX : prevX + 1;
+            }
+            if (length > 0) {
+                runs.add(new int[] {x - length, y - length, length});
+            }
+            x = prevX;
+            y = prevY;
+        }
+
+        // The differences are the gaps between the common runs
+        List<int[]> differences = new ArrayList<int[]>();
+        int previousIndex = 0;
+        int currentIndex = 0;
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            int[] run = runs.get(i);
+            if (run[0] > previousIndex || run[1] > currentIndex) {
+                differences.add(new int[] {previousIndex, run[0], currentIndex, run[1]});
+            }
+            previousIndex = run[0] + run[2];
+            currentIndex = run[1] + run[2];
+        }
+        if (previousIndex < n || currentIndex < m) {
+            differences.add(new int[] {previousIndex, n, currentIndex, m});
+        }
+
+        return differences;
+    }
+}
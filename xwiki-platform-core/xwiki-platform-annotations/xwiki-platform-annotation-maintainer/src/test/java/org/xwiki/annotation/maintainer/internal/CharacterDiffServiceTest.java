@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.annotation.maintainer.internal;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.annotation.maintainer.XDelta;
+
+/**
+ * Unit tests for {@link CharacterDiffService}.
+ * 
+ * @version $Id$
+ */
+public class CharacterDiffServiceTest
+{
+    /**
+     * The diff service under test.
+     */
+    private CharacterDiffService diffService = new CharacterDiffService();
+
+    @Test
+    public void testNoDifference()
+    {
+        Assert.assertTrue(this.diffService.getDifferences("some content", "some content").isEmpty());
+        Assert.assertTrue(this.diffService.getDifferences("", "").isEmpty());
+    }
+
+    @Test
+    public void testCharacterDifferences()
+    {
+        Collection<XDelta> differences = this.diffService.getDifferences("The quick brown fox", "The quack brown cat");
+
+        Assert.assertEquals(2, differences.size());
+        Iterator<XDelta> it = differences.iterator();
+        assertDelta(6, "i", "a", it.next());
+        assertDelta(16, "fox", "cat", it.next());
+
+        assertDelta(4, "", "quick ", this.diffService.getDifferences("The fox", "The quick fox").iterator().next());
+        assertDelta(0, "The ", "", this.diffService.getDifferences("The fox", "fox").iterator().next());
+    }
+
+    @Test
+    public void testLargeDifferences()
+    {
+        StringBuilder previous = new StringBuilder();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            previous.append("word").append(i).append(' ');
+            current.append("word").append(i % 3 == 0 ? i : i + 1).append(' ');
+        }
+
+        Collection<XDelta> differences = this.diffService.getDifferences(previous.toString(), current.toString());
+
+        Assert.assertEquals(current.toString(), apply(previous.toString(), differences));
+    }
+
+    /**
+     * Asserts the properties of a difference.
+     * 
+     * @param offset the expected offset
+     * @param original the expected original content
+     * @param changed the expected changed content
+     * @param delta the difference to check
+     */
+    private void assertDelta(int offset, String original, String changed, XDelta delta)
+    {
+        Assert.assertEquals(offset, delta.getOffset());
+        Assert.assertEquals(original, delta.getOriginal());
+        Assert.assertEquals(changed, delta.getChanged());
+    }
+
+    /**
+     * @param previous the previous content
+     * @param differences the differences to apply
+     * @return the content obtained by applying the differences to {@code previous}
+     */
+    private String apply(String previous, Collection<XDelta> differences)
+    {
+        StringBuilder result = new StringBuilder();
+        int index = 0;
+        for (XDelta delta : differences) {
+            result.append(previous, index, delta.getOffset()).append(delta.getChanged());
+            index = delta.getOffset() + delta.getOriginal().length();
+        }
+        return result.append(previous.substring(index)).toString();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.annotation.maintainer.internal;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.annotation.maintainer.AnnotationMaintainer;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+/**
+ * Unit tests for {@link DocumentContentAnnotationUpdateListener}.
+ * 
+ * @version $Id$
+ */
+public class DocumentContentAnnotationUpdateListenerTest
+{
+    private static final String TARGET = "wiki:Space.Page";
+
+    @Rule
+    public MockitoComponentMockingRule<EventListener> mocker = new MockitoComponentMockingRule<EventListener>(
+        DocumentContentAnnotationUpdateListener.class);
+
+    private AnnotationMaintainer maintainer;
+
+    private DocumentAccessBridge documentAccessBridge;
+
+    private DocumentModelBridge storedDocument;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(any(EntityReference.class))).thenReturn(TARGET);
+
+        this.maintainer = this.mocker.getInstance(AnnotationMaintainer.class);
+
+        this.storedDocument = mock(DocumentModelBridge.class, "stored");
+        this.documentAccessBridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(this.documentAccessBridge.getDocument(new DocumentReference("wiki", "Space", "Page"))).thenReturn(
+            this.storedDocument);
+    }
+
+    private void save(String previousContent, String content, String version) throws Exception
+    {
+        DocumentModelBridge previousDocument = mock(DocumentModelBridge.class);
+        when(previousDocument.getContent()).thenReturn(previousContent);
+
+        DocumentModelBridge document = mock(DocumentModelBridge.class);
+        when(document.getOriginalDocument()).thenReturn(previousDocument);
+        when(document.getContent()).thenReturn(content);
+        when(document.getVersion()).thenReturn(version);
+        when(document.getWikiName()).thenReturn("wiki");
+        when(document.getSpaceName()).thenReturn("Space");
+        when(document.getPageName()).thenReturn("Page");
+
+        this.mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(), document, null);
+    }
+
+    /**
+     * Wait for the updates to be done.
+     */
+    private void dispose() throws Exception
+    {
+        ((Disposable) this.mocker.getComponentUnderTest()).dispose();
+    }
+
+    @Test
+    public void savesMadeBeforeTheUpdateAreCoalesced() throws Exception
+    {
+        // Block the update thread until all the saves are notified
+        final CountDownLatch saved = new CountDownLatch(1);
+        ExecutionContextManager executionContextManager = this.mocker.getInstance(ExecutionContextManager.class);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                saved.await();
+                return null;
+            }
+        }).when(executionContextManager).initialize(any(ExecutionContext.class));
+        when(this.storedDocument.getVersion()).thenReturn("3.1");
+
+        save("a", "b", "2.1");
+        save("b", "c", "3.1");
+        saved.countDown();
+
+        dispose();
+
+        verify(this.maintainer).updateAnnotations(TARGET, "a", "c");
+        verify(this.maintainer, times(1)).updateAnnotations(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void savesMadeByTheUpdateAreIgnored() throws Exception
+    {
+        final CountDownLatch updated = new CountDownLatch(1);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                // The annotations are saved with the document
+                save("b", "b2", "3.1");
+                updated.countDown();
+                return null;
+            }
+        }).when(this.maintainer).updateAnnotations(TARGET, "a", "b");
+        when(this.storedDocument.getVersion()).thenReturn("2.1");
+
+        save("a", "b", "2.1");
+        updated.await();
+
+        dispose();
+
+        verify(this.maintainer, times(1)).updateAnnotations(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void updateWaitsForTheStoredDocumentToMatchTheLastSave() throws Exception
+    {
+        // The document has been saved again but the event has not been received yet
+        when(this.storedDocument.getVersion()).thenReturn("3.1");
+        save("a", "b", "2.1");
+
+        verify(this.documentAccessBridge, timeout(5000)).getDocument(new DocumentReference("wiki", "Space", "Page"));
+        save("b", "c", "3.1");
+
+        dispose();
+
+        verify(this.maintainer).updateAnnotations(TARGET, "a", "c");
+        verify(this.maintainer, times(1)).updateAnnotations(anyString(), anyString(), anyString());
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.annotation.ComponentAnnotationLoader;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.internal.DefaultModelConfiguration;
+import org.xwiki.model.internal.reference.DefaultEntityReferenceValueProvider;
+import org.xwiki.model.internal.reference.DefaultStringEntityReferenceResolver;
+import org.xwiki.model.internal.reference.DefaultStringEntityReferenceSerializer;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.security.DefaultSecurityReferenceFactory;
+import org.xwiki.security.GroupSecurityReference;
+import org.xwiki.security.SecurityReference;
+import org.xwiki.security.UserSecurityReference;
+import org.xwiki.security.authorization.AccessDeniedException;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.DefaultAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.security.authorization.RuleState;
+import org.xwiki.security.authorization.SecurityEntryReader;
+import org.xwiki.security.authorization.SecurityRule;
+import org.xwiki.security.authorization.SecurityRuleEntry;
+import org.xwiki.security.authorization.cache.SecurityCacheRulesInvalidator;
+import org.xwiki.security.authorization.cache.internal.DefaultSecurityCache;
+import org.xwiki.security.authorization.cache.internal.DefaultSecurityCacheLoader;
+import org.xwiki.security.authorization.internal.DefaultAuthorizationSettler;
+import org.xwiki.security.internal.UserBridge;
+import org.xwiki.security.internal.XWikiBridge;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+/**
+ * Measure the access checks, done several times for each displayed document. The rights are read once and then taken
+ * from the security cache, which is the usual case. The check of a large set of documents one by one is also compared
+ * with its filtering at once, with the rights already cached or not.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AuthorizationBenchmark
+{
+    /**
+     * The components used to check the rights, the other components are mocked.
+     */
+    private static final List<Class< ? >> COMPONENTS = Arrays.<Class< ? >>asList(DefaultSecurityCache.class,
+        DefaultStringEntityReferenceResolver.class, DefaultStringEntityReferenceSerializer.class,
+        DefaultEntityReferenceValueProvider.class, DefaultModelConfiguration.class,
+        DefaultSecurityReferenceFactory.class, DefaultSecurityCacheLoader.class, DefaultAuthorizationSettler.class,
+        DefaultAuthorizationManager.class);
+
+    /**
+     * The number of spaces containing the documents.
+     */
+    private static final int SPACES = 8;
+
+    /**
+     * The number of documents in each space.
+     */
+    private static final int DOCUMENTS = 128;
+
+    /**
+     * The name of the wiki containing the documents.
+     */
+    private static final String WIKI = "xwiki";
+
+    /**
+     * The authorization manager being measured.
+     */
+    private AuthorizationManager authorizationManager;
+
+    /**
+     * The user whose rights are checked.
+     */
+    private DocumentReference user;
+
+    /**
+     * The documents on which the rights are checked.
+     */
+    private DocumentReference[] documents;
+
+    /**
+     * The documents of a space, filtered at once.
+     */
+    private List<DocumentReference> spaceDocuments;
+
+    /**
+     * The index of the next document to check.
+     */
+    private int index;
+
+    /**
+     * A large set of documents checked at once, with its own authorization manager so that its security cache can be
+     * emptied before each check without affecting the other benchmarks.
+     */
+    @State(Scope.Benchmark)
+    public static class DocumentSet
+    {
+        /**
+         * The number of documents in the set.
+         */
+        @Param({ "10000" })
+        public int size;
+
+        /**
+         * "warm" when the rights are already cached, "cold" when they have to be read for each check.
+         */
+        @Param({ "warm", "cold" })
+        public String cache;
+
+        /**
+         * The storage of the security cache, emptied before each check when the cache is cold.
+         */
+        private BenchmarkCache<Object> cacheStorage;
+
+        /**
+         * The authorization manager being measured.
+         */
+        private AuthorizationManager authorizationManager;
+
+        /**
+         * The documents to check, spread over the spaces of the wiki.
+         */
+        private List<DocumentReference> documents;
+
+        /**
+         * Create the authorization manager and the documents to check.
+         *
+         * @throws Exception when failing to create the components
+         */
+        @Setup
+        public void setUp() throws Exception
+        {
+            this.cacheStorage = new BenchmarkCache<Object>();
+            this.authorizationManager = createAuthorizationManager(this.cacheStorage);
+
+            this.documents = new ArrayList<DocumentReference>(this.size);
+            for (int i = 0; i < this.size; i++) {
+                this.documents.add(new DocumentReference(WIKI, "Space" + (i % SPACES), "Page" + i));
+            }
+        }
+
+        /**
+         * Forget the rights read by the previous check when the cache is cold.
+         */
+        @Setup(Level.Invocation)
+        public void emptyCache()
+        {
+            if ("cold".equals(this.cache)) {
+                this.cacheStorage.removeAll();
+            }
+        }
+    }
+
+    /**
+     * A rule giving the view and edit rights to all the users.
+     */
+    private static final class AllowRule implements SecurityRule
+    {
+        @Override
+        public boolean match(Right right)
+        {
+            return right == Right.VIEW || right == Right.EDIT;
+        }
+
+        @Override
+        public boolean match(GroupSecurityReference group)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean match(UserSecurityReference user)
+        {
+            return true;
+        }
+
+        @Override
+        public RuleState getState()
+        {
+            return RuleState.ALLOW;
+        }
+    }
+
+    /**
+     * The rules of an entity.
+     */
+    private static final class RuleEntry implements SecurityRuleEntry
+    {
+        /**
+         * The entity.
+         */
+        private final SecurityReference reference;
+
+        /**
+         * The rules of the entity.
+         */
+        private final Collection<SecurityRule> rules;
+
+        /**
+         * @param reference the entity
+         * @param rules the rules of the entity
+         */
+        private RuleEntry(SecurityReference reference, Collection<SecurityRule> rules)
+        {
+            this.reference = reference;
+            this.rules = rules;
+        }
+
+        @Override
+        public SecurityReference getReference()
+        {
+            return this.reference;
+        }
+
+        @Override
+        public Collection<SecurityRule> getRules()
+        {
+            return this.rules;
+        }
+
+        @Override
+        public boolean isEmpty()
+        {
+            return this.rules.isEmpty();
+        }
+    }
+
+    /**
+     * Create the authorization manager and the documents to check.
+     *
+     * @throws Exception when failing to create the components
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.authorizationManager = createAuthorizationManager(new BenchmarkCache<Object>());
+
+        this.user = new DocumentReference(WIKI, "XWiki", "User");
+        this.documents = new DocumentReference[SPACES * DOCUMENTS];
+        this.spaceDocuments = new ArrayList<DocumentReference>();
+        for (int i = 0; i < this.documents.length; i++) {
+            this.documents[i] = new DocumentReference(WIKI, "Space" + (i / DOCUMENTS), "Page" + i);
+            if (i < DOCUMENTS) {
+                this.spaceDocuments.add(this.documents[i]);
+            }
+        }
+    }
+
+    /**
+     * Create an authorization manager with rules defined only at the wiki level.
+     *
+     * @param cacheStorage the storage of the security cache
+     * @return the authorization manager
+     * @throws Exception when failing to create the components
+     */
+    private static AuthorizationManager createAuthorizationManager(BenchmarkCache<Object> cacheStorage)
+        throws Exception
+    {
+        MockitoComponentManager componentManager = new MockitoComponentManager();
+        componentManager.registerMemoryConfigurationSource();
+
+        CacheManager cacheManager = componentManager.registerMockComponent(CacheManager.class);
+        when(cacheManager.createNewCache(any(CacheConfiguration.class))).thenReturn(cacheStorage);
+
+        XWikiBridge xwikiBridge = componentManager.registerMockComponent(XWikiBridge.class);
+        when(xwikiBridge.getMainWikiReference()).thenReturn(new WikiReference(WIKI));
+
+        UserBridge userBridge = componentManager.registerMockComponent(UserBridge.class);
+        when(userBridge.getAllGroupsFor(any(UserSecurityReference.class), any(WikiReference.class))).thenReturn(
+            Collections.<GroupSecurityReference>emptyList());
+
+        final Collection<SecurityRule> wikiRules = Collections.<SecurityRule>singletonList(new AllowRule());
+        SecurityEntryReader reader = componentManager.registerMockComponent(SecurityEntryReader.class);
+        when(reader.read(any(SecurityReference.class))).thenAnswer(new Answer<SecurityRuleEntry>()
+        {
+            @Override
+            public SecurityRuleEntry answer(InvocationOnMock invocation)
+            {
+                SecurityReference reference = (SecurityReference) invocation.getArguments()[0];
+
+                return new RuleEntry(reference, reference.getType() == EntityType.WIKI ? wikiRules
+                    : Collections.<SecurityRule>emptyList());
+            }
+        });
+
+        componentManager.registerMockComponent(SecurityCacheRulesInvalidator.class);
+
+        ComponentAnnotationLoader loader = new ComponentAnnotationLoader();
+        for (Class< ? > componentClass : COMPONENTS) {
+            for (ComponentDescriptor< ? > descriptor : loader.getComponentsDescriptors(componentClass)) {
+                componentManager.registerComponent(descriptor);
+            }
+        }
+
+        return componentManager.getInstance(AuthorizationManager.class);
+    }
+
+    /**
+     * @return the next document to check
+     */
+    private DocumentReference next()
+    {
+        this.index = (this.index + 1) % this.documents.length;
+
+        return this.documents[this.index];
+    }
+
+    /**
+     * Check the view right of the user on a document.
+     *
+     * @throws AccessDeniedException if the user is not allowed to view the document, should never happen
+     */
+    @Benchmark
+    public void checkAccess() throws AccessDeniedException
+    {
+        this.authorizationManager.checkAccess(Right.VIEW, this.user, next());
+    }
+
+    /**
+     * @return true if the user can view a document
+     */
+    @Benchmark
+    public boolean hasAccess()
+    {
+        return this.authorizationManager.hasAccess(Right.VIEW, this.user, next());
+    }
+
+    /**
+     * @return the documents of a space that the user can view, the same space being checked again and again, as
+     *         when displaying a list of documents
+     */
+    @Benchmark
+    public List<DocumentReference> filterAccessible()
+    {
+        return this.authorizationManager.filterAccessible(Right.VIEW, this.user, this.spaceDocuments);
+    }
+
+    /**
+     * @param set the documents to check
+     * @return the number of documents of the set that the user can view, each document being checked on its own
+     */
+    @Benchmark
+    public int hasAccessForEachDocument(DocumentSet set)
+    {
+        int count = 0;
+        for (DocumentReference document : set.documents) {
+            if (set.authorizationManager.hasAccess(Right.VIEW, this.user, document)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @param set the documents to check
+     * @return the documents of the set that the user can view, checked at once
+     */
+    @Benchmark
+    public List<DocumentReference> filterAccessibleDocuments(DocumentSet set)
+    {
+        return set.authorizationManager.filterAccessible(Right.VIEW, this.user, set.documents);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+
+/**
+ * A cache without eviction, so that the measures don't depend on a cache implementation.
+ *
+ * @param <T> the type of the cached values
+ * @version $Id$
+ * @since 5.3M1
+ */
+class BenchmarkCache<T> implements Cache<T>
+{
+    /**
+     * The cached values.
+     */
+    private final Map<String, T> values = new ConcurrentHashMap<String, T>();
+
+    /**
+     * The listener notified of the removed entries.
+     */
+    private CacheEntryListener<T> listener;
+
+    @Override
+    public void set(String key, T value)
+    {
+        this.values.put(key, value);
+    }
+
+    @Override
+    public T get(String key)
+    {
+        return this.values.get(key);
+    }
+
+    @Override
+    public void remove(final String key)
+    {
+        final T value = this.values.remove(key);
+        if (value != null && this.listener != null) {
+            this.listener.cacheEntryRemoved(new CacheEntryEvent<T>()
+            {
+                @Override
+                public Cache<T> getCache()
+                {
+                    return BenchmarkCache.this;
+                }
+
+                @Override
+                public CacheEntry<T> getEntry()
+                {
+                    return new CacheEntry<T>()
+                    {
+                        @Override
+                        public Cache<T> getCache()
+                        {
+                            return BenchmarkCache.this;
+                        }
+
+                        @Override
+                        public String getKey()
+                        {
+                            return key;
+                        }
+
+                        @Override
+                        public T getValue()
+                        {
+                            return value;
+                        }
+                    };
+                }
+            });
+        }
+    }
+
+    @Override
+    public void removeAll()
+    {
+        this.values.clear();
+    }
+
+    @Override
+    public void addCacheEntryListener(CacheEntryListener<T> cacheEntryListener)
+    {
+        this.listener = cacheEntryListener;
+    }
+
+    @Override
+    public void removeCacheEntryListener(CacheEntryListener<T> cacheEntryListener)
+    {
+        this.listener = null;
+    }
+
+    @Override
+    public void dispose()
+    {
+        removeAll();
+    }
+}
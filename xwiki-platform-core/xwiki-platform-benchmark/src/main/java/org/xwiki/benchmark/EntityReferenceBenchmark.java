@@ -0,0 +1,179 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.internal.reference.DefaultStringEntityReferenceResolver;
+import org.xwiki.model.internal.reference.DefaultStringEntityReferenceSerializer;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceValueProvider;
+
+/**
+ * Measure the resolution and serialization of entity references, which are done several times for each document
+ * which is displayed.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EntityReferenceBenchmark
+{
+    /**
+     * The number of different references used, so that the measures don't only depend on a single reference.
+     */
+    private static final int SIZE = 1024;
+
+    /**
+     * The resolver being measured.
+     */
+    private DefaultStringEntityReferenceResolver resolver;
+
+    /**
+     * The serializer being measured.
+     */
+    private DefaultStringEntityReferenceSerializer serializer;
+
+    /**
+     * The serialized references.
+     */
+    private String[] strings;
+
+    /**
+     * References which have never been serialized before being measured.
+     */
+    private DocumentReference[] references;
+
+    /**
+     * The references, indexed by themselves, used to measure the lookups.
+     */
+    private Map<EntityReference, EntityReference> map;
+
+    /**
+     * The index of the next reference to use.
+     */
+    private int index;
+
+    /**
+     * Create the resolver and serializer and the references to use.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.resolver = new DefaultStringEntityReferenceResolver();
+        ReflectionUtils.setFieldValue(this.resolver, "provider", new EntityReferenceValueProvider()
+        {
+            @Override
+            public String getDefaultValue(EntityType type)
+            {
+                // The benchmarked references are complete
+                return "xwiki";
+            }
+        });
+        this.serializer = new DefaultStringEntityReferenceSerializer();
+
+        this.strings = new String[SIZE];
+        this.references = new DocumentReference[SIZE];
+        this.map = new HashMap<EntityReference, EntityReference>();
+        for (int i = 0; i < SIZE; i++) {
+            this.strings[i] = String.format("wiki%d:Space%d.Page%d", i % 4, i % 32, i);
+            DocumentReference reference = new DocumentReference("wiki" + (i % 4), "Space" + (i % 32), "Page" + i);
+            this.references[i] = reference;
+            this.map.put(reference, reference);
+        }
+    }
+
+    /**
+     * @return the index of the next reference to use
+     */
+    private int next()
+    {
+        this.index = (this.index + 1) & (SIZE - 1);
+
+        return this.index;
+    }
+
+    /**
+     * @return the resolved reference
+     */
+    @Benchmark
+    public EntityReference resolve()
+    {
+        return this.resolver.resolve(this.strings[next()], EntityType.DOCUMENT);
+    }
+
+    /**
+     * @return the serialized reference, the same references are serialized again and again as in a real request
+     */
+    @Benchmark
+    public String serialize()
+    {
+        return this.serializer.serialize(this.references[next()]);
+    }
+
+    /**
+     * @return the serialized reference, serializing a reference which has just been created
+     */
+    @Benchmark
+    public String serializeNew()
+    {
+        int i = next();
+
+        return this.serializer.serialize(new DocumentReference(this.references[i]));
+    }
+
+    /**
+     * @return the serialized reference after resolving its string representation
+     */
+    @Benchmark
+    public String roundTrip()
+    {
+        return this.serializer.serialize(this.resolver.resolve(this.strings[next()], EntityType.DOCUMENT));
+    }
+
+    /**
+     * @return the reference found using an equal reference which has just been resolved
+     */
+    @Benchmark
+    public EntityReference lookup()
+    {
+        return this.map.get(new DocumentReference(this.resolver.resolve(this.strings[next()], EntityType.DOCUMENT)));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.localization.Translation;
+import org.xwiki.localization.TranslationBundle;
+import org.xwiki.localization.TranslationBundleContext;
+import org.xwiki.localization.internal.AbstractCachedTranslationBundle;
+import org.xwiki.localization.internal.DefaultLocalizationManager;
+import org.xwiki.localization.internal.DefaultLocalizedTranslationBundle;
+import org.xwiki.localization.internal.DefaultTranslation;
+import org.xwiki.localization.internal.LocalizedTranslationBundle;
+import org.xwiki.localization.internal.message.DefaultTranslationMessage;
+import org.xwiki.localization.message.TranslationMessageElement;
+
+/**
+ * Measure the lookup of translations, done for each translated message displayed in a page. The translations are
+ * spread among several bundles and some of them are only available in a parent locale, as usual.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LocalizationBenchmark
+{
+    /**
+     * The number of bundles.
+     */
+    private static final int BUNDLES = 5;
+
+    /**
+     * The number of translations in each bundle.
+     */
+    private static final int KEYS = 500;
+
+    /**
+     * The locale of the default translations, all the translations are defined for it.
+     */
+    private static final Locale DEFAULT_LOCALE = Locale.ROOT;
+
+    /**
+     * A locale for which only some translations are defined.
+     */
+    private static final Locale PARTIAL_LOCALE = Locale.FRENCH;
+
+    /**
+     * The key of a translation of the first bundle.
+     */
+    private static final String FIRST_BUNDLE_KEY = getKey("bundle0", 42);
+
+    /**
+     * The key of a translation of the last bundle.
+     */
+    private static final String LAST_BUNDLE_KEY = getKey("bundle" + (BUNDLES - 1), 42);
+
+    /**
+     * The key of a translation of the last bundle which is only defined for the default locale.
+     */
+    private static final String DEFAULT_ONLY_KEY = getKey("bundle" + (BUNDLES - 1), 43);
+
+    /**
+     * The translation manager being measured.
+     */
+    private DefaultLocalizationManager localizationManager;
+
+    /**
+     * A bundle providing translations generated for the benchmark.
+     */
+    private static final class BenchmarkTranslationBundle extends AbstractCachedTranslationBundle
+    {
+        /**
+         * The context of the translations.
+         */
+        private final TranslationBundleContext context;
+
+        /**
+         * @param id the identifier of the bundle
+         * @param priority the priority of the bundle
+         * @param context the context of the translations
+         */
+        private BenchmarkTranslationBundle(String id, int priority, TranslationBundleContext context)
+        {
+            super(id, priority);
+
+            this.context = context;
+        }
+
+        @Override
+        protected LocalizedTranslationBundle createBundle(Locale locale)
+        {
+            DefaultLocalizedTranslationBundle bundle = new DefaultLocalizedTranslationBundle(this, locale);
+            if (locale.equals(DEFAULT_LOCALE) || locale.equals(PARTIAL_LOCALE)) {
+                // Only half of the translations are available in the partial locale
+                int step = locale.equals(DEFAULT_LOCALE) ? 1 : 2;
+                for (int i = 0; i < KEYS; i += step) {
+                    String key = getKey(getId(), i);
+                    DefaultTranslationMessage message = new DefaultTranslationMessage(key + ' ' + locale,
+                        Collections.<TranslationMessageElement>emptyList());
+                    bundle.addTranslation(new DefaultTranslation(this.context, bundle, key, message));
+                }
+            }
+
+            return bundle;
+        }
+    }
+
+    /**
+     * @param bundleId the identifier of the bundle defining the translation
+     * @param index the index of the translation in the bundle
+     * @return the translation key
+     */
+    private static String getKey(String bundleId, int index)
+    {
+        return bundleId + ".key" + index;
+    }
+
+    /**
+     * Create the translation manager and its bundles.
+     */
+    @Setup
+    public void setUp()
+    {
+        final List<TranslationBundle> bundles = new ArrayList<TranslationBundle>();
+        TranslationBundleContext context = new TranslationBundleContext()
+        {
+            @Override
+            public Collection<TranslationBundle> getBundles()
+            {
+                return bundles;
+            }
+
+            @Override
+            public void addBundle(TranslationBundle bundle)
+            {
+                bundles.add(bundle);
+                Collections.sort(bundles);
+            }
+        };
+        for (int i = 0; i < BUNDLES; i++) {
+            context.addBundle(new BenchmarkTranslationBundle("bundle" + i, i, context));
+        }
+
+        this.localizationManager = new DefaultLocalizationManager();
+        ReflectionUtils.setFieldValue(this.localizationManager, "bundleContext", context);
+    }
+
+    /**
+     * @return a translation of the first bundle
+     */
+    @Benchmark
+    public Translation getTranslation()
+    {
+        return this.localizationManager.getTranslation(FIRST_BUNDLE_KEY, PARTIAL_LOCALE);
+    }
+
+    /**
+     * @return a translation of the last bundle
+     */
+    @Benchmark
+    public Translation getTranslationFromLastBundle()
+    {
+        return this.localizationManager.getTranslation(LAST_BUNDLE_KEY, PARTIAL_LOCALE);
+    }
+
+    /**
+     * @return a translation which is only available in the default locale, after looking for it in the parent locales
+     */
+    @Benchmark
+    public Translation getTranslationFromParentLocale()
+    {
+        return this.localizationManager.getTranslation(DEFAULT_ONLY_KEY, Locale.FRANCE);
+    }
+
+    /**
+     * @return null, the translation doesn't exist
+     */
+    @Benchmark
+    public Translation getMissingTranslation()
+    {
+        return this.localizationManager.getTranslation("missing.key", Locale.FRANCE);
+    }
+}
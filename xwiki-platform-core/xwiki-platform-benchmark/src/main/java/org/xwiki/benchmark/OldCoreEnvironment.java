@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Initialize what is needed to manipulate documents without a database, the same way as the XML document update
+ * plugin.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+final class OldCoreEnvironment
+{
+    /**
+     * The resource containing the document used by the benchmarks.
+     */
+    private static final String DOCUMENT = "/document.xml";
+
+    /**
+     * The context, shared by all the benchmarks run by the same JVM.
+     */
+    private static XWikiContext context;
+
+    /**
+     * Utility class.
+     */
+    private OldCoreEnvironment()
+    {
+    }
+
+    /**
+     * @return the context to use to manipulate documents, initialized on the first call
+     * @throws Exception when failing to initialize the components
+     */
+    static synchronized XWikiContext getContext() throws Exception
+    {
+        if (context == null) {
+            EmbeddableComponentManager ecm = new EmbeddableComponentManager();
+            ecm.initialize(OldCoreEnvironment.class.getClassLoader());
+            Utils.setComponentManager(ecm);
+
+            XWikiContext xcontext = new XWikiContext();
+            xcontext.put(ComponentManager.class.getName(), ecm);
+
+            ExecutionContext econtext = new ExecutionContext();
+            // Bridge with old XWiki Context, required for old code.
+            xcontext.declareInExecutionContext(econtext);
+            Utils.<ExecutionContextManager> getComponent(ExecutionContextManager.class).initialize(econtext);
+
+            xcontext.setWiki(new XWiki());
+
+            context = xcontext;
+        }
+
+        return context;
+    }
+
+    /**
+     * @return the XML of the document used by the benchmarks
+     * @throws IOException when failing to read the document
+     */
+    static String getDocumentXML() throws IOException
+    {
+        InputStream stream = OldCoreEnvironment.class.getResourceAsStream(DOCUMENT);
+        try {
+            return IOUtils.toString(stream, "UTF-8");
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Load the document used by the benchmarks and register the classes of its objects in the context so that they
+     * are serialized with the objects.
+     *
+     * @return the document used by the benchmarks
+     * @throws Exception when failing to load the document
+     */
+    static XWikiDocument loadDocument() throws Exception
+    {
+        XWikiContext xcontext = getContext();
+        String xml = getDocumentXML();
+
+        XWikiDocument document = new XWikiDocument(new DocumentReference("xwiki", "Benchmark", "Document"));
+        document.fromXML(xml);
+
+        Document domdoc = new SAXReader().read(IOUtils.toInputStream(xml, "UTF-8"));
+        for (Object object : domdoc.getRootElement().elements("object")) {
+            BaseClass bclass = new BaseClass();
+            bclass.fromXML(((Element) object).element("class"));
+            xcontext.addBaseClass(bclass);
+        }
+
+        return document;
+    }
+}
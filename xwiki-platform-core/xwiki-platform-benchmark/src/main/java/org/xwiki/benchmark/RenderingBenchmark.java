@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Measure the rendering of a document kept in memory, without any database access. The macros are not executed, so
+ * that the measures only depend on the parser and the renderer.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenderingBenchmark
+{
+    /**
+     * The document to render.
+     */
+    private XWikiDocument document;
+
+    /**
+     * The parser of the document syntax.
+     */
+    private Parser parser;
+
+    /**
+     * The XHTML renderer.
+     */
+    private BlockRenderer renderer;
+
+    /**
+     * The parsed content of the document.
+     */
+    private XDOM xdom;
+
+    /**
+     * Load the document and lookup the parser and the renderer.
+     *
+     * @throws Exception when failing to load the document or to lookup the components
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.document = OldCoreEnvironment.loadDocument();
+        this.parser = Utils.getComponent(Parser.class, this.document.getSyntax().toIdString());
+        this.renderer = Utils.getComponent(BlockRenderer.class, Syntax.XHTML_1_0.toIdString());
+        this.xdom = parse();
+    }
+
+    /**
+     * @return the parsed content of the document
+     * @throws Exception when failing to parse the content
+     */
+    @Benchmark
+    public XDOM parse() throws Exception
+    {
+        return this.parser.parse(new StringReader(this.document.getContent()));
+    }
+
+    /**
+     * @return the XHTML rendering of the parsed content of the document
+     */
+    @Benchmark
+    public String render()
+    {
+        return render(this.xdom);
+    }
+
+    /**
+     * @return the XHTML rendering of the document, using the parsed content cached by the document
+     */
+    @Benchmark
+    public String renderDocument()
+    {
+        return render(this.document.getXDOM());
+    }
+
+    /**
+     * @return the XHTML rendering of the content of the document, parsed again
+     * @throws Exception when failing to parse the content
+     */
+    @Benchmark
+    public String parseAndRender() throws Exception
+    {
+        return render(parse());
+    }
+
+    /**
+     * @param content the content to render
+     * @return the XHTML rendering of the content
+     */
+    private String render(XDOM content)
+    {
+        WikiPrinter printer = new DefaultWikiPrinter();
+        this.renderer.render(content, printer);
+
+        return printer.toString();
+    }
+}
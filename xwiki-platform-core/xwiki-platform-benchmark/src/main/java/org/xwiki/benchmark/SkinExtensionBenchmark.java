@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xpn.xwiki.web.sx.CssExtension;
+import com.xpn.xwiki.web.sx.JsExtension;
+import com.xpn.xwiki.web.sx.SxCompressor;
+
+/**
+ * Measure the compression of the JavaScript and CSS skin extensions, done each time an extension is requested
+ * without being in the cache of the browser.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SkinExtensionBenchmark
+{
+    /**
+     * The JavaScript compressor.
+     */
+    private SxCompressor jsCompressor;
+
+    /**
+     * The CSS compressor.
+     */
+    private SxCompressor cssCompressor;
+
+    /**
+     * The JavaScript code to compress.
+     */
+    private String javaScript;
+
+    /**
+     * The CSS code to compress.
+     */
+    private String css;
+
+    /**
+     * Read the code to compress.
+     *
+     * @throws IOException when failing to read the code
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        this.jsCompressor = new JsExtension().getCompressor();
+        this.cssCompressor = new CssExtension().getCompressor();
+        this.javaScript = read("/sample.js");
+        this.css = read("/sample.css");
+    }
+
+    /**
+     * @param resource the name of the resource to read
+     * @return the content of the resource
+     * @throws IOException when failing to read the resource
+     */
+    private String read(String resource) throws IOException
+    {
+        InputStream stream = getClass().getResourceAsStream(resource);
+        try {
+            return IOUtils.toString(stream, "UTF-8");
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * @return the compressed JavaScript code
+     */
+    @Benchmark
+    public String compressJavaScript()
+    {
+        return this.jsCompressor.compress(this.javaScript);
+    }
+
+    /**
+     * @return the compressed CSS code
+     */
+    @Benchmark
+    public String compressCSS()
+    {
+        return this.cssCompressor.compress(this.css);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.component.descriptor.DefaultComponentDescriptor;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.internal.macro.wikibridge.DefaultWikiMacro;
+import org.xwiki.rendering.macro.Macro;
+import org.xwiki.rendering.macro.MacroId;
+import org.xwiki.rendering.macro.descriptor.DefaultContentDescriptor;
+import org.xwiki.rendering.macro.wikibridge.WikiMacro;
+import org.xwiki.rendering.macro.wikibridge.WikiMacroDescriptor;
+import org.xwiki.rendering.macro.wikibridge.WikiMacroParameterDescriptor;
+import org.xwiki.rendering.macro.wikibridge.WikiMacroParameters;
+import org.xwiki.rendering.macro.wikibridge.WikiMacroVisibility;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.rendering.transformation.MacroTransformationContext;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Measure the cost of a wiki macro call, excluding the scripts it may contain: a macro with a static content and a
+ * macro calling other macros, both used as a block and inline.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WikiMacroBenchmark
+{
+    /**
+     * The identifier of the macro with a static content.
+     */
+    private static final String STATIC_MACRO = "benchmarkstatic";
+
+    /**
+     * The identifier of the macro calling the macro with a static content.
+     */
+    private static final String NESTED_MACRO = "benchmarknested";
+
+    /**
+     * The macro with a static content.
+     */
+    private WikiMacro staticMacro;
+
+    /**
+     * The macro calling the macro with a static content.
+     */
+    private WikiMacro nestedMacro;
+
+    /**
+     * Setup and execute the wiki macros.
+     *
+     * @throws Exception when failing to setup the wiki macros
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        XWikiContext xcontext = OldCoreEnvironment.getContext();
+        ExecutionContext econtext = new ExecutionContext();
+        xcontext.declareInExecutionContext(econtext);
+        Utils.<Execution> getComponent(Execution.class).setContext(econtext);
+
+        ComponentManager componentManager = Utils.getComponentManager();
+        this.staticMacro = createMacro(STATIC_MACRO,
+            "This is **bold** with a [[link>>Space.Page]] and an image [[image:image.png]].\n\n"
+                + "|=Column 1|=Column 2\n|Cell 1|Cell 2\n\n* item 1\n* item 2\n** item 2.1", componentManager);
+        this.nestedMacro = createMacro(NESTED_MACRO,
+            "{{" + STATIC_MACRO + "/}}\n\nSome **text** and {{" + STATIC_MACRO + "/}} inline.", componentManager);
+
+        // Register the macro with a static content so that it can be called by the other macro
+        DefaultComponentDescriptor<WikiMacro> descriptor = new DefaultComponentDescriptor<WikiMacro>();
+        descriptor.setRoleType(Macro.class);
+        descriptor.setRoleHint(STATIC_MACRO);
+        componentManager.registerComponent(descriptor, this.staticMacro);
+    }
+
+    /**
+     * @param id the identifier of the macro
+     * @param content the content of the macro
+     * @param componentManager the component manager used by the macro
+     * @return the wiki macro
+     * @throws Exception when failing to parse the content of the macro
+     */
+    private WikiMacro createMacro(String id, String content, ComponentManager componentManager) throws Exception
+    {
+        WikiMacroDescriptor descriptor =
+            new WikiMacroDescriptor(new MacroId(id), id, id, "Benchmark", WikiMacroVisibility.GLOBAL,
+                new DefaultContentDescriptor(false), Collections.<WikiMacroParameterDescriptor> emptyList());
+        Parser parser = Utils.getComponent(Parser.class, Syntax.XWIKI_2_1.toIdString());
+
+        return new DefaultWikiMacro(new DocumentReference("xwiki", "Benchmark", id), null, true, descriptor,
+            parser.parse(new StringReader(content)), Syntax.XWIKI_2_1, componentManager);
+    }
+
+    /**
+     * @param macro the macro to execute
+     * @param inline whether the macro is called inline
+     * @return the result of the macro
+     * @throws Exception when failing to execute the macro
+     */
+    private List<Block> execute(WikiMacro macro, boolean inline) throws Exception
+    {
+        MacroBlock macroBlock = new MacroBlock(macro.getId(), Collections.<String, String> emptyMap(), inline);
+        Block root = inline ? new ParagraphBlock(Collections.<Block> singletonList(macroBlock)) : macroBlock;
+
+        MacroTransformationContext context = new MacroTransformationContext();
+        context.setCurrentMacroBlock(macroBlock);
+        context.setXDOM(new XDOM(Collections.singletonList(root)));
+        context.setInline(inline);
+        context.setSyntax(Syntax.XWIKI_2_1);
+        context.setId("benchmark");
+
+        return macro.execute(new WikiMacroParameters(), null, context);
+    }
+
+    /**
+     * @return the result of the macro with a static content
+     * @throws Exception when failing to execute the macro
+     */
+    @Benchmark
+    public List<Block> executeStatic() throws Exception
+    {
+        return execute(this.staticMacro, false);
+    }
+
+    /**
+     * @return the result of the macro with a static content, called inline
+     * @throws Exception when failing to execute the macro
+     */
+    @Benchmark
+    public List<Block> executeStaticInline() throws Exception
+    {
+        return execute(this.staticMacro, true);
+    }
+
+    /**
+     * @return the result of the macro calling other macros
+     * @throws Exception when failing to execute the macro
+     */
+    @Benchmark
+    public List<Block> executeNested() throws Exception
+    {
+        return execute(this.nestedMacro, false);
+    }
+
+    /**
+     * @return the result of the macro calling other macros, called inline
+     * @throws Exception when failing to execute the macro
+     */
+    @Benchmark
+    public List<Block> executeNestedInline() throws Exception
+    {
+        return execute(this.nestedMacro, true);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.query.xwql.internal.hql.XWQLtoHQLTranslator;
+
+/**
+ * Measure the translation of XWQL queries to HQL, done each time a XWQL query is executed.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XWQLBenchmark
+{
+    /**
+     * A short query, as used by most of the scripts.
+     */
+    private static final String SHORT_QUERY = "where doc.space = 'Main' order by doc.fullName";
+
+    /**
+     * A query on objects.
+     */
+    private static final String OBJECT_QUERY = "select doc.fullName, user.email from Document as doc, "
+        + "doc.object('XWiki.XWikiUsers') as user where user.first_name like :name and doc.space = 'XWiki' "
+        + "order by lower(user.last_name)";
+
+    /**
+     * The translator being measured.
+     */
+    private XWQLtoHQLTranslator translator;
+
+    /**
+     * Create the translator, the types of the object properties are mocked.
+     */
+    @Setup
+    public void setUp()
+    {
+        final DocumentAccessBridge bridge = mock(DocumentAccessBridge.class);
+        when(bridge.getPropertyType(anyString(), anyString())).thenReturn("StringProperty");
+        when(bridge.isPropertyCustomMapped(anyString(), anyString())).thenReturn(false);
+
+        this.translator = new XWQLtoHQLTranslator()
+        {
+            @Override
+            public DocumentAccessBridge getDocumentAccessBridge()
+            {
+                return bridge;
+            }
+        };
+    }
+
+    /**
+     * @return the translated short query
+     * @throws Exception when failing to translate the query
+     */
+    @Benchmark
+    public String translateShortQuery() throws Exception
+    {
+        return this.translator.translate(SHORT_QUERY);
+    }
+
+    /**
+     * @return the translated query on objects
+     * @throws Exception when failing to translate the query
+     */
+    @Benchmark
+    public String translateObjectQuery() throws Exception
+    {
+        return this.translator.translate(OBJECT_QUERY);
+    }
+}
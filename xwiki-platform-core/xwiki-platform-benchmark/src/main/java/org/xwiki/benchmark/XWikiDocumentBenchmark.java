@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Measure the XML serialization of documents, used when importing and exporting documents and when storing the
+ * document archives.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XWikiDocumentBenchmark
+{
+    /**
+     * The context containing the classes of the objects of the document.
+     */
+    private XWikiContext context;
+
+    /**
+     * The document to serialize.
+     */
+    private XWikiDocument document;
+
+    /**
+     * The XML of the document to parse.
+     */
+    private String xml;
+
+    /**
+     * Load the document to use.
+     *
+     * @throws Exception when failing to load the document
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        this.context = OldCoreEnvironment.getContext();
+        this.document = OldCoreEnvironment.loadDocument();
+        this.xml = toXML();
+    }
+
+    /**
+     * @return the XML of the document, with its objects and without rendering nor versions
+     * @throws Exception when failing to serialize the document
+     */
+    @Benchmark
+    public String toXML() throws Exception
+    {
+        return this.document.toXML(true, false, true, false, this.context);
+    }
+
+    /**
+     * @return the document parsed from its XML
+     * @throws Exception when failing to parse the document
+     */
+    @Benchmark
+    public XWikiDocument fromXML() throws Exception
+    {
+        XWikiDocument parsedDocument = new XWikiDocument(this.document.getDocumentReference());
+        parsedDocument.fromXML(this.xml);
+
+        return parsedDocument;
+    }
+
+    /**
+     * @return the XML of the document after parsing it
+     * @throws Exception when failing to parse or serialize the document
+     */
+    @Benchmark
+    public String roundTrip() throws Exception
+    {
+        return fromXML().toXML(true, false, true, false, this.context);
+    }
+}
@@ -41,6 +41,17 @@
      */
     void writeImage(ImageId imageId, byte[] imageData) throws MacroExecutionException;
 
+    /**
+     * Check if an image has already been written for the passed id and can be reused instead of generating the chart
+     * again.
+     *
+     * @param imageId the image id that we use to generate a unique storage location
+     * @return true if the image is available in the storage
+     * @throws MacroExecutionException if an error happened when computing the location
+     * @since 5.3M1
+     */
+    boolean exists(ImageId imageId) throws MacroExecutionException;
+
     /**
      * Compute the URL to use to access the stored generate chart image.
      *
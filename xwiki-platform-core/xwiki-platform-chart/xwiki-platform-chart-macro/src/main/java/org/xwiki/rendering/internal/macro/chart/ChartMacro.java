@@ -23,6 +23,8 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -87,6 +89,12 @@ public class ChartMacro extends AbstractMacro<ChartMacroParameters>
     @Named("tmp")
     private ChartImageWriter imageWriter;
 
+    /**
+     * The locks used to make sure the same chart is generated only once when several threads render it concurrently,
+     * indexed by image id.
+     */
+    private final ConcurrentMap<String, Object> generationLocks = new ConcurrentHashMap<String, Object>();
+
     /**
      * Create and initialize the descriptor of the macro.
      */
@@ -106,10 +114,10 @@ public boolean supportsInlineMode()
     public List<Block> execute(ChartMacroParameters macroParams, String content, MacroTransformationContext context)
         throws MacroExecutionException
     {
-        // Generate the chart image in a temporary location.
-        generateChart(macroParams, content, context);
+        // Generate the chart image in a temporary location (unless it has already been generated).
+        ImageId imageId = generateChart(macroParams, content, context);
 
-        String imageLocation = this.imageWriter.getURL(new ImageId(macroParams));
+        String imageLocation = this.imageWriter.getURL(imageId);
         String title = macroParams.getTitle();
         ResourceReference reference = new ResourceReference(imageLocation, ResourceType.URL);
         ImageBlock imageBlock = new ImageBlock(new ResourceReference(imageLocation, ResourceType.URL), true);
@@ -129,14 +137,16 @@ public List<Block> execute(ChartMacroParameters macroParams, String content, Mac
     }
 
     /**
-     * Builds the chart image according to the specifications passed in.
+     * Builds the chart image according to the specifications passed in. The chart is not generated again if an image
+     * already exists for the same parameters and data.
      *
      * @param parameters the macro parameters
      * @param content the macro content
      * @param context the macro transformation context, used for example to find out the current document reference
+     * @return the id of the chart image
      * @throws MacroExecutionException if an error occurs while generating / saving the chart image
      */
-    private void generateChart(ChartMacroParameters parameters, String content, MacroTransformationContext context)
+    private ImageId generateChart(ChartMacroParameters parameters, String content, MacroTransformationContext context)
         throws MacroExecutionException
     {
         String source = computeSource(parameters.getSource(), content);
@@ -153,8 +163,44 @@ private void generateChart(ChartMacroParameters parameters, String content, Macr
 
         dataSource.buildDataset(content, sourceParameters, context);
 
+        ImageId imageId = new ImageId(parameters, dataSource.getDataHash());
+
+        if (imageId.isReusable()) {
+            // Make sure concurrent renderings of the same chart generate it only once.
+            Object lock = new Object();
+            Object existingLock = this.generationLocks.putIfAbsent(imageId.getId(), lock);
+            if (existingLock != null) {
+                lock = existingLock;
+            }
+            try {
+                synchronized (lock) {
+                    if (!this.imageWriter.exists(imageId)) {
+                        writeChart(imageId, dataSource, sourceParameters);
+                    }
+                }
+            } finally {
+                this.generationLocks.remove(imageId.getId(), lock);
+            }
+        } else {
+            writeChart(imageId, dataSource, sourceParameters);
+        }
+
+        return imageId;
+    }
+
+    /**
+     * Generate the chart image and save it.
+     *
+     * @param imageId the id of the chart image
+     * @param dataSource the data source holding the chart model
+     * @param sourceParameters the chart parameters
+     * @throws MacroExecutionException if an error occurs while generating / saving the chart image
+     */
+    private void writeChart(ImageId imageId, DataSource dataSource, Map<String, String> sourceParameters)
+        throws MacroExecutionException
+    {
         try {
-            this.imageWriter.writeImage(new ImageId(parameters),
+            this.imageWriter.writeImage(imageId,
                 this.chartGenerator.generate(dataSource.getChartModel(), sourceParameters));
         } catch (ChartGeneratorException e) {
             throw new MacroExecutionException("Error while rendering chart", e);
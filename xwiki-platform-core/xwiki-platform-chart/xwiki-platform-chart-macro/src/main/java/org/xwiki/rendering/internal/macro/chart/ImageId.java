@@ -19,10 +19,16 @@
  */
 package org.xwiki.rendering.internal.macro.chart;
 
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import org.xwiki.rendering.macro.chart.ChartMacroParameters;
 
 /**
- * Compute a unique id for the image that the chart macro generates.
+ * Compute a unique id for the image that the chart macro generates. The id is a hash of the macro parameters and of
+ * the data the chart is built from so that charts which have already been generated can be reused as is.
  *
  * @version $Id$
  * @since 4.2M1
@@ -30,25 +36,114 @@
 public class ImageId
 {
     /**
-     * @see ImageId#ImageId(org.xwiki.rendering.macro.chart.ChartMacroParameters)
+     * The algorithm used to compute the id.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * The encoding used to convert the parameters into bytes before hashing them.
+     */
+    private static final String DIGEST_ENCODING = "UTF-8";
+
+    /**
+     * @see ImageId#ImageId(org.xwiki.rendering.macro.chart.ChartMacroParameters, String)
      */
     private ChartMacroParameters macroParameters;
 
+    /**
+     * @see ImageId#ImageId(org.xwiki.rendering.macro.chart.ChartMacroParameters, String)
+     */
+    private String dataHash;
+
+    /**
+     * The computed id.
+     */
+    private String id;
+
     /**
      * @param macroParameters the chart macro parameters
+     * @param dataHash the hash of the data used to generate the chart (see
+     *            {@link org.xwiki.rendering.internal.macro.chart.source.DataSource#getDataHash()})
+     * @since 5.3M1
      */
-    public ImageId(ChartMacroParameters macroParameters)
+    public ImageId(ChartMacroParameters macroParameters, String dataHash)
     {
         this.macroParameters = macroParameters;
+        this.dataHash = dataHash;
     }
 
     /**
-     * Compute a unique id based on the macro parameters.
+     * Compute a unique id based on the macro parameters and the chart data.
      *
      * @return the unique image id used for storing the generated chart image
      */
     public String getId()
     {
-        return String.format("%s", Math.abs(this.macroParameters.hashCode()));
+        if (this.id == null) {
+            if (isReusable()) {
+                this.id = computeHash();
+            } else {
+                // We can't identify the chart data so make sure the image is not shared with another chart.
+                this.id = String.format("%s", Math.abs(this.macroParameters.hashCode()));
+            }
+        }
+
+        return this.id;
+    }
+
+    /**
+     * @return true if the id identifies the chart data and can thus be used to reuse an already generated image
+     * @since 5.3M1
+     */
+    public boolean isReusable()
+    {
+        return this.dataHash != null;
+    }
+
+    /**
+     * @return the hash of the macro parameters and the chart data
+     */
+    private String computeHash()
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            update(digest, this.macroParameters.getTitle());
+            update(digest, String.valueOf(this.macroParameters.getWidth()));
+            update(digest, String.valueOf(this.macroParameters.getHeight()));
+            update(digest, this.macroParameters.getType());
+            update(digest, this.macroParameters.getSource());
+            update(digest, this.macroParameters.getParams());
+            update(digest, this.dataHash);
+
+            return new BigInteger(1, digest.digest()).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen since SHA-256 is required to be available in any JVM
+            throw new RuntimeException("Failed to compute the chart image id", e);
+        } catch (UnsupportedEncodingException e) {
+            // Should never happen since UTF-8 is required to be available in any JVM
+            throw new RuntimeException("Failed to compute the chart image id", e);
+        }
+    }
+
+    /**
+     * @param digest the digest to update
+     * @param value the value to add to the digest, can be {@code null}
+     * @throws UnsupportedEncodingException if UTF-8 is not supported
+     */
+    private void update(MessageDigest digest, String value) throws UnsupportedEncodingException
+    {
+        // Use different separators for null and empty values so that they lead to different ids.
+        if (value != null) {
+            digest.update(value.getBytes(DIGEST_ENCODING));
+            digest.update((byte) 0);
+        } else {
+            digest.update((byte) 1);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return getId();
     }
 }
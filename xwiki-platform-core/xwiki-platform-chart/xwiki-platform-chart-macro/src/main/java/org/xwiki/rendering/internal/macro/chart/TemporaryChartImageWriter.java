@@ -23,14 +23,24 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.environment.Environment;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.ModelContext;
@@ -40,6 +50,12 @@
 
 /**
  * Save generated Chart images to a temporary storage location.
+ * <p>
+ * Since image ids identify the chart parameters and data, the images are also stored in the permanent directory so
+ * that they are reused instead of being generated again, even after a restart. The copy served to the browser by the
+ * temporary resource action is restored from the permanent one when needed. The total size of the stored images is
+ * bounded: when it exceeds the configured maximum (see {@link #MAX_STORAGE_SIZE_PROPERTY}) the least recently used
+ * images are deleted.
  *
  * @version $Id$
  * @since 4.2M3
@@ -72,11 +88,55 @@ public class TemporaryChartImageWriter implements ChartImageWriter
     private static final String PAGE = "page";
 
     /**
-     * Used to get the temporary directory.
+     * The name of the configuration property holding the maximum total size (in megabytes) of the stored chart images.
+     */
+    private static final String MAX_STORAGE_SIZE_PROPERTY = "rendering.macro.chart.maxStorageSize";
+
+    /**
+     * The default maximum total size (in megabytes) of the stored chart images.
+     */
+    private static final int DEFAULT_MAX_STORAGE_SIZE = 100;
+
+    /**
+     * The extension of the stored chart images.
+     */
+    private static final String IMAGE_EXTENSION = ".png";
+
+    /**
+     * The stored images and their size, in least recently used order. Lazily initialized from the content of the
+     * storage directory, see {@link #getStoredImages()}.
+     */
+    private Map<File, Long> storedImages;
+
+    /**
+     * The total size of the stored images.
+     */
+    private long storageSize;
+
+    /**
+     * The maximum total size (in bytes) of the stored images, read from the configuration along with the stored images.
+     */
+    private long maxStorageSize;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * Used to get the permanent and temporary directories.
      */
     @Inject
     private Environment environment;
 
+    /**
+     * Used to read the maximum size of the storage.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
     /**
      * Used to get the current wiki.
      */
@@ -94,23 +154,153 @@ public void writeImage(ImageId imageId, byte[] imageData) throws MacroExecutionE
     {
         File imageFile = getStorageLocation(imageId);
 
-        FileOutputStream fos = null;
         try {
-            fos = new FileOutputStream(imageFile);
-            fos.write(imageData);
-            fos.close();
+            writeFile(imageFile, imageData);
+            // The temporary resource action only serves files from the temporary directory.
+            writeFile(getTemporaryLocation(imageFile), imageData);
         } catch (IOException e) {
             throw new MacroExecutionException("Failed to write the generated chart image", e);
+        }
+
+        addStoredImage(imageFile, imageData.length);
+    }
+
+    /**
+     * Write a file through a temporary file so that it's never read half written.
+     *
+     * @param file the file to write
+     * @param data the content of the file
+     * @throws IOException if writing the file fails
+     */
+    private void writeFile(File file, byte[] data) throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        FileOutputStream fos = null;
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            fos = new FileOutputStream(tmpFile);
+            fos.write(data);
+            fos.close();
+            if (!tmpFile.renameTo(file)) {
+                // Some file systems don't support replacing an existing file
+                FileUtils.deleteQuietly(file);
+                if (!tmpFile.renameTo(file)) {
+                    throw new IOException(String.format("Failed to move [%s] to [%s]", tmpFile, file));
+                }
+            }
         } finally {
             IOUtils.closeQuietly(fos);
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    @Override
+    public boolean exists(ImageId imageId) throws MacroExecutionException
+    {
+        File imageFile = getStorageLocation(imageId);
+
+        synchronized (this) {
+            Map<File, Long> images = getStoredImages();
+            // Mark the image as recently used
+            Long size = images.remove(imageFile);
+            if (size == null) {
+                return false;
+            } else if (!imageFile.exists()) {
+                // The image has been removed by someone else
+                this.storageSize -= size;
+                return false;
+            }
+            images.put(imageFile, size);
+        }
+
+        // The temporary directory may have been cleaned (e.g. on restart) since the image was stored.
+        File temporaryFile = getTemporaryLocation(imageFile);
+        if (!temporaryFile.exists()) {
+            try {
+                writeFile(temporaryFile, FileUtils.readFileToByteArray(imageFile));
+            } catch (IOException e) {
+                this.logger.warn("Failed to restore the chart image [{}]: {}", imageFile, e.getMessage());
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Register a newly written image and delete the least recently used images if the storage is full.
+     *
+     * @param imageFile the image file
+     * @param size the size of the image
+     */
+    private synchronized void addStoredImage(File imageFile, long size)
+    {
+        Map<File, Long> images = getStoredImages();
+
+        Long previousSize = images.put(imageFile, size);
+        if (previousSize != null) {
+            this.storageSize -= previousSize;
+        }
+        this.storageSize += size;
+
+        Iterator<Map.Entry<File, Long>> it = images.entrySet().iterator();
+        while (this.storageSize > this.maxStorageSize && it.hasNext()) {
+            Map.Entry<File, Long> entry = it.next();
+            if (!entry.getKey().equals(imageFile)) {
+                FileUtils.deleteQuietly(entry.getKey());
+                FileUtils.deleteQuietly(getTemporaryLocation(entry.getKey()));
+                this.storageSize -= entry.getValue();
+                it.remove();
+            }
         }
     }
 
+    /**
+     * @return the stored images, loaded from the storage directory the first time
+     */
+    private Map<File, Long> getStoredImages()
+    {
+        if (this.storedImages == null) {
+            this.storedImages = new LinkedHashMap<File, Long>();
+            this.storageSize = 0;
+            this.maxStorageSize =
+                this.configuration.getProperty(MAX_STORAGE_SIZE_PROPERTY, DEFAULT_MAX_STORAGE_SIZE) * 1024L * 1024L;
+
+            File rootDirectory = new File(this.environment.getPermanentDirectory(), MODULE_NAME);
+            if (rootDirectory.isDirectory()) {
+                List<File> files = new ArrayList<File>(
+                    FileUtils.listFiles(rootDirectory, new String[] {IMAGE_EXTENSION.substring(1)}, true));
+                // Oldest first
+                Collections.sort(files, new Comparator<File>()
+                {
+                    @Override
+                    public int compare(File file1, File file2)
+                    {
+                        return Long.valueOf(file1.lastModified()).compareTo(file2.lastModified());
+                    }
+                });
+                for (File file : files) {
+                    long size = file.length();
+                    this.storedImages.put(file, size);
+                    this.storageSize += size;
+                }
+            }
+
+            this.logger.debug("Found [{}] chart images ([{}] bytes) in the storage", this.storedImages.size(),
+                this.storageSize);
+        }
+
+        return this.storedImages;
+    }
+
     /**
      * Compute the location where to store the generated chart image.
      *
      * @param imageId the image id that we use to generate a unique storage location
-     * @return the location where to store the generated chart image
+     * @return the location where to store the generated chart image, in the permanent directory
      * @throws MacroExecutionException if an error happened when computing the location
      */
     protected File getStorageLocation(ImageId imageId) throws MacroExecutionException
@@ -118,20 +308,33 @@ protected File getStorageLocation(ImageId imageId) throws MacroExecutionExceptio
         File directory;
         try {
             String currentWiki = URLEncoder.encode(getCurrentWiki(), DEFAULT_ENCODING);
-            // TODO: We need to decide if it's ok to use the the hardcoded "space/page" or if we want to use the
-            // current document in which case we need to extract it from the XDOM. The reason I haven't done it
-            // by default is because it takes more time and the image id seems unique enough to not cause collisions.
-            directory = new File(this.environment.getTemporaryDirectory(),
-                String.format("temp/%s/%s/%s/%s", MODULE_NAME, currentWiki, SPACE, PAGE));
-            directory.mkdirs();
+            directory = new File(this.environment.getPermanentDirectory(),
+                String.format("%s/%s", MODULE_NAME, currentWiki));
         } catch (Exception e) {
             // Should not happen since UTF8 encoding should always be present
             throw new MacroExecutionException("Failed to compute chart image location", e);
         }
-        File locationFile = new File(directory, String.format("%s.png", imageId.getId()));
+        File locationFile = new File(directory, imageId.getId() + IMAGE_EXTENSION);
         return locationFile;
     }
 
+    /**
+     * Compute the location from where the temporary resource action serves a stored chart image.
+     *
+     * @param imageFile the stored chart image, see {@link #getStorageLocation(ImageId)}
+     * @return the location of the copy of the stored chart image in the temporary directory
+     */
+    protected File getTemporaryLocation(File imageFile)
+    {
+        // The name of the parent directory is the encoded wiki name.
+        String currentWiki = imageFile.getParentFile().getName();
+        // TODO: We need to decide if it's ok to use the the hardcoded "space/page" or if we want to use the
+        // current document in which case we need to extract it from the XDOM. The reason I haven't done it
+        // by default is because it takes more time and the image id seems unique enough to not cause collisions.
+        return new File(this.environment.getTemporaryDirectory(), String.format("temp/%s/%s/%s/%s/%s", MODULE_NAME,
+            currentWiki, SPACE, PAGE, imageFile.getName()));
+    }
+
     /**
      * @return the current wiki
      * @throws MacroExecutionException if the current wiki couldn't be found
@@ -62,6 +62,11 @@ public abstract class AbstractDataSource implements DataSource
      */
     private SimpleChartModel chartModel;
 
+    /**
+     * A hash of the data the chart model has been built from.
+     */
+    private String dataHash;
+
     /**
      * A configuration object for time zone and locale.
      */
@@ -190,6 +195,22 @@ public ChartModel getChartModel()
         return chartModel;
     }
 
+    @Override
+    public String getDataHash()
+    {
+        return dataHash;
+    }
+
+    /**
+     * Set the hash of the data the chart model has been built from.
+     *
+     * @param dataHash the hash of the data
+     */
+    protected void setDataHash(String dataHash)
+    {
+        this.dataHash = dataHash;
+    }
+
     /**
      * Set the chart model.
      *
@@ -61,4 +61,14 @@ void buildDataset(String macroContent, Map<String, String> parameters, MacroTran
      * @return the {@link ChartModel} for the dataset.
      */
     ChartModel getChartModel();
+
+    /**
+     * {@link #buildDataset} must be called before this method.
+     *
+     * @return a hash of the data the dataset has been built from, used to recognize charts which have already been
+     *         generated, or {@code null} if the data source doesn't support it (in which case the chart is always
+     *         regenerated)
+     * @since 5.3M1
+     */
+    String getDataHash();
 }
\ No newline at end of file
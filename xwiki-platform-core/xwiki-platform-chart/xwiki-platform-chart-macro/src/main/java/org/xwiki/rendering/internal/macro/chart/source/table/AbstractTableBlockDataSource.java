@@ -19,6 +19,10 @@
  */
 package org.xwiki.rendering.internal.macro.chart.source.table;
 
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -123,6 +127,21 @@ public abstract class AbstractTableBlockDataSource extends AbstractDataSource
      */
     private String series;
 
+    /**
+     * The algorithm used to compute the hash of the table data.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * The encoding used to convert the cell content into bytes before hashing it.
+     */
+    private static final String DIGEST_ENCODING = "UTF-8";
+
+    /**
+     * Accumulates the content of the cells read while building the dataset.
+     */
+    private MessageDigest dataDigest;
+
     /**
      * Used to convert cell blocks in plain text so that it can be converted to numbers.
      */
@@ -136,6 +155,13 @@ public void buildDataset(String macroContent, Map<String, String> parameters, Ma
     {
         validateParameters(parameters);
 
+        try {
+            this.dataDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen since SHA-256 is required to be available in any JVM
+            throw new MacroExecutionException("Failed to compute the hash of the chart data", e);
+        }
+
         TableBlock tableBlock = getTableBlock(macroContent, context);
 
         int[] dataRange = getDataRange(tableBlock);
@@ -170,6 +196,8 @@ public void buildDataset(String macroContent, Map<String, String> parameters, Ma
         buildDataset(tableBlock, dataRange, datasetBuilder);
 
         setDataset(datasetBuilder.getDataset());
+
+        setDataHash(new BigInteger(1, this.dataDigest.digest()).toString(16));
     }
 
     /**
@@ -337,7 +365,19 @@ private String cellContentAsString(TableCellBlock cell)
     {
         WikiPrinter printer = new DefaultWikiPrinter();
         this.plainTextBlockRenderer.render(cell.getChildren(), printer);
-        return printer.toString();
+        String content = printer.toString();
+
+        // Every cell which ends up in the dataset goes through here so it's enough to identify the chart data.
+        if (this.dataDigest != null) {
+            try {
+                this.dataDigest.update(content.getBytes(DIGEST_ENCODING));
+            } catch (UnsupportedEncodingException e) {
+                // Should never happen since UTF-8 is required to be available in any JVM
+            }
+            this.dataDigest.update((byte) 0);
+        }
+
+        return content;
     }
 
     /**
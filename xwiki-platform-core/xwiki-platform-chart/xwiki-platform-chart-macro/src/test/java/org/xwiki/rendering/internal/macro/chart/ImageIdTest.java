@@ -33,14 +33,45 @@
 public class ImageIdTest
 {
     /**
-     * Verify id are different even when using same parameters (but different instances of parameters).
+     * Verify id are different when the data hash is unknown even when using same parameters (but different instances
+     * of parameters).
      */
     @Test
-    public void testGetIdWithSameParametersButDifferentInstances()
+    public void testGetIdWithSameParametersButDifferentInstancesAndNoDataHash()
     {
         ChartMacroParameters parameters1 = new ChartMacroParameters();
         ChartMacroParameters parameters2 = new ChartMacroParameters();
 
-        Assert.assertFalse(new ImageId(parameters1).getId().equals(new ImageId(parameters2).getId()));
+        Assert.assertFalse(new ImageId(parameters1, null).getId().equals(new ImageId(parameters2, null).getId()));
+    }
+
+    @Test
+    public void testGetIdWithSameParametersAndSameData()
+    {
+        ChartMacroParameters parameters1 = new ChartMacroParameters();
+        parameters1.setType("line");
+        ChartMacroParameters parameters2 = new ChartMacroParameters();
+        parameters2.setType("line");
+
+        Assert.assertEquals(new ImageId(parameters1, "data").getId(), new ImageId(parameters2, "data").getId());
+    }
+
+    @Test
+    public void testGetIdWithDifferentData()
+    {
+        ChartMacroParameters parameters = new ChartMacroParameters();
+
+        Assert.assertFalse(new ImageId(parameters, "data1").getId().equals(new ImageId(parameters, "data2").getId()));
+    }
+
+    @Test
+    public void testGetIdWithDifferentParameters()
+    {
+        ChartMacroParameters parameters1 = new ChartMacroParameters();
+        parameters1.setType("line");
+        ChartMacroParameters parameters2 = new ChartMacroParameters();
+        parameters2.setType("pie");
+
+        Assert.assertFalse(new ImageId(parameters1, "data").getId().equals(new ImageId(parameters2, "data").getId()));
     }
 }
@@ -21,10 +21,14 @@
 
 import java.io.File;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.environment.Environment;
 import org.xwiki.model.ModelContext;
 import org.xwiki.model.reference.DocumentReference;
@@ -46,6 +50,18 @@
     public MockitoComponentMockingRule<TemporaryChartImageWriter> componentManager =
         new MockitoComponentMockingRule<TemporaryChartImageWriter>(TemporaryChartImageWriter.class);
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ConfigurationSource configuration;
+
+    @Before
+    public void configure() throws Exception
+    {
+        this.configuration = this.componentManager.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(this.configuration.getProperty("rendering.macro.chart.maxStorageSize", 100)).thenReturn(100);
+    }
+
     @Test
     public void getStorageLocation() throws Exception
     {
@@ -54,12 +70,15 @@ public void getStorageLocation() throws Exception
         when(modelContext.getCurrentEntityReference()).thenReturn(currentWikiReference);
 
         Environment environment = this.componentManager.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(new File("/permdir"));
         when(environment.getTemporaryDirectory()).thenReturn(new File("/tmpdir"));
 
-        File location = this.componentManager.getComponentUnderTest().getStorageLocation(
-            new ImageId(new ChartMacroParameters()));
-        Assert.assertTrue("Got: " + location.toString(),
-            location.toString().matches("/tmpdir/temp/chart/wiki/space/page/.*\\.png"));
+        TemporaryChartImageWriter writer = this.componentManager.getComponentUnderTest();
+        File location = writer.getStorageLocation(new ImageId(new ChartMacroParameters(), "hash"));
+        Assert.assertTrue("Got: " + location.toString(), location.toString().matches("/permdir/chart/wiki/.*\\.png"));
+
+        File temporaryLocation = writer.getTemporaryLocation(location);
+        Assert.assertEquals(new File("/tmpdir/temp/chart/wiki/space/page/" + location.getName()), temporaryLocation);
     }
 
     @Test
@@ -73,7 +92,67 @@ public void getURL() throws Exception
         when(dab.getDocumentURL(new DocumentReference("wiki", "space", "page"), "temp", null, null)).thenReturn(
             "temp/Space/Page");
 
-        String location = this.componentManager.getComponentUnderTest().getURL(new ImageId(new ChartMacroParameters()));
+        String location =
+            this.componentManager.getComponentUnderTest().getURL(new ImageId(new ChartMacroParameters(), "hash"));
         Assert.assertTrue("Got: " + location, location.toString().matches("temp/Space/Page/chart/.*\\.png"));
     }
+
+    @Test
+    public void writeImageAndExists() throws Exception
+    {
+        ModelContext modelContext = this.componentManager.getInstance(ModelContext.class);
+        when(modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("wiki"));
+
+        Environment environment = this.componentManager.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.temporaryFolder.newFolder("permanent"));
+        when(environment.getTemporaryDirectory()).thenReturn(this.temporaryFolder.newFolder("temporary"));
+
+        ImageId imageId = new ImageId(new ChartMacroParameters(), "hash");
+        TemporaryChartImageWriter writer = this.componentManager.getComponentUnderTest();
+
+        Assert.assertFalse(writer.exists(imageId));
+
+        writer.writeImage(imageId, new byte[] {1, 2, 3});
+
+        Assert.assertTrue(writer.exists(imageId));
+        File imageFile = writer.getStorageLocation(imageId);
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, FileUtils.readFileToByteArray(imageFile));
+        Assert.assertArrayEquals(new byte[] {1, 2, 3},
+            FileUtils.readFileToByteArray(writer.getTemporaryLocation(imageFile)));
+
+        // The served copy is restored when the temporary directory has been cleaned.
+        FileUtils.forceDelete(writer.getTemporaryLocation(imageFile));
+        Assert.assertTrue(writer.exists(imageId));
+        Assert.assertArrayEquals(new byte[] {1, 2, 3},
+            FileUtils.readFileToByteArray(writer.getTemporaryLocation(imageFile)));
+
+        // The image is not known anymore once it has been removed from the storage.
+        FileUtils.forceDelete(writer.getStorageLocation(imageId));
+        Assert.assertFalse(writer.exists(imageId));
+    }
+
+    @Test
+    public void deleteLeastRecentlyUsedImages() throws Exception
+    {
+        ModelContext modelContext = this.componentManager.getInstance(ModelContext.class);
+        when(modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("wiki"));
+
+        Environment environment = this.componentManager.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.temporaryFolder.newFolder("permanent"));
+        when(environment.getTemporaryDirectory()).thenReturn(this.temporaryFolder.newFolder("temporary"));
+
+        // Only one of the images fits in the storage.
+        when(this.configuration.getProperty("rendering.macro.chart.maxStorageSize", 100)).thenReturn(1);
+
+        ImageId imageId1 = new ImageId(new ChartMacroParameters(), "hash1");
+        ImageId imageId2 = new ImageId(new ChartMacroParameters(), "hash2");
+        TemporaryChartImageWriter writer = this.componentManager.getComponentUnderTest();
+
+        writer.writeImage(imageId1, new byte[600 * 1024]);
+        writer.writeImage(imageId2, new byte[600 * 1024]);
+
+        Assert.assertFalse(writer.exists(imageId1));
+        Assert.assertFalse(writer.getTemporaryLocation(writer.getStorageLocation(imageId1)).exists());
+        Assert.assertTrue(writer.exists(imageId2));
+    }
 }
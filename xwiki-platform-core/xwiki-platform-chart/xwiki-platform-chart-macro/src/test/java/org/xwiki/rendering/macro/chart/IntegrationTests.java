@@ -25,6 +25,7 @@
 import org.mockito.Mockito;
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.display.internal.DocumentDisplayer;
 import org.xwiki.display.internal.DocumentDisplayerParameters;
 import org.xwiki.model.ModelContext;
@@ -57,6 +58,10 @@
     @RenderingTestSuite.Initialized
     public void initialize(MockitoComponentManager componentManager) throws Exception
     {
+        ConfigurationSource configuration =
+            componentManager.registerMockComponent(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("rendering.macro.chart.maxStorageSize", 100)).thenReturn(100);
+
         ModelContext modelContext = componentManager.registerMockComponent(ModelContext.class);
         when(modelContext.getCurrentEntityReference()).thenReturn(new WikiReference("currentWiki"));
 
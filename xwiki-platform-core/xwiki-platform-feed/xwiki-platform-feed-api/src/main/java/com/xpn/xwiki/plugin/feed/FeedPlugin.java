@@ -23,6 +23,7 @@
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -30,11 +31,23 @@
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.Cache;
@@ -55,6 +68,8 @@
 import com.sun.syndication.feed.synd.SyndFeedImpl;
 import com.sun.syndication.feed.synd.SyndImage;
 import com.sun.syndication.feed.synd.SyndImageImpl;
+import com.sun.syndication.fetcher.impl.FeedFetcherCache;
+import com.sun.syndication.fetcher.impl.LinkedHashMapFeedInfoCache;
 import com.sun.syndication.io.SyndFeedOutput;
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
@@ -74,7 +89,30 @@ public class FeedPlugin extends XWikiDefaultPlugin implements XWikiPluginInterfa
 
     private int refreshPeriod;
 
-    private Map<String, UpdateThread> updateThreads = new HashMap<String, UpdateThread>();
+    private Map<String, UpdateThread> updateThreads = new ConcurrentHashMap<String, UpdateThread>();
+
+    /**
+     * The ETag and Last-Modified values of the updated feeds, used to make conditional requests. The values are kept
+     * per wiki and space since a feed which didn't change for a space may still have to be saved in another one.
+     */
+    private ConcurrentMap<String, FeedFetcherCache> feedInfoCaches =
+        new ConcurrentHashMap<String, FeedFetcherCache>();
+
+    /**
+     * Fetches the feeds to update concurrently, the number of threads is bounded so that a space with many feeds
+     * doesn't open too many connections at once.
+     */
+    private ExecutorService fetchExecutor;
+
+    /**
+     * Runs the periodic updates started with {@link #startUpdateFeedsInSpace(String, boolean, int, XWikiContext)}.
+     */
+    private ScheduledExecutorService updateScheduler;
+
+    /**
+     * The number of threads running the periodic updates of the different spaces.
+     */
+    private static final int UPDATE_THREADS = 4;
 
     private Converter syntaxConverter;
 
@@ -150,6 +188,32 @@ public void flushCache()
             this.feedCache.dispose();
         }
         this.feedCache = null;
+        this.feedInfoCaches.clear();
+
+        shutdownExecutors();
+    }
+
+    /**
+     * Stops the running updates and releases the fetch and update threads so that they don't leak when the plugin is
+     * flushed or reloaded. The executors are created again the next time they are needed.
+     */
+    private synchronized void shutdownExecutors()
+    {
+        for (UpdateThread updateThread : this.updateThreads.values()) {
+            updateThread.stopUpdate();
+        }
+        this.updateThreads.clear();
+
+        if (this.updateScheduler != null) {
+            // Cancels the periodic updates, an update already running is allowed to finish
+            this.updateScheduler.shutdown();
+            this.updateScheduler = null;
+        }
+        if (this.fetchExecutor != null) {
+            // The feeds already submitted are still fetched so that the updates waiting for them can complete
+            this.fetchExecutor.shutdown();
+            this.fetchExecutor = null;
+        }
     }
 
     @Override
@@ -291,29 +355,128 @@ public SyndFeed getFeedForce(String sfeed, boolean ignoreInvalidFeeds, XWikiCont
     {
         try {
             URL feedURL = new URL(sfeed);
-            XWikiFeedFetcher feedFetcher = new XWikiFeedFetcher();
-            feedFetcher.setUserAgent(context.getWiki().Param("xwiki.plugins.feed.useragent",
-                context.getWiki().getHttpUserAgent(context)));
-            SyndFeed feed =
-                feedFetcher.retrieveFeed(
-                    feedURL,
-                    (int) context.getWiki().ParamAsLong("xwiki.plugins.feed.timeout",
-                        context.getWiki().getHttpTimeout(context)));
-            return feed;
+            return createFeedFetcher(null, context).retrieveFeed(feedURL, getFeedTimeout(context));
         } catch (Exception ex) {
-            if (ignoreInvalidFeeds) {
-                @SuppressWarnings("unchecked")
-                Map<String, Exception> map = (Map<String, Exception>) context.get("invalidFeeds");
-                if (map == null) {
-                    map = new HashMap<String, Exception>();
-                    context.put("invalidFeeds", map);
-                }
-                map.put(sfeed, ex);
+            return handleInvalidFeed(sfeed, ex, ignoreInvalidFeeds, context);
+        }
+    }
 
-                return null;
+    private SyndFeed handleInvalidFeed(String sfeed, Exception ex, boolean ignoreInvalidFeeds, XWikiContext context)
+        throws IOException
+    {
+        if (ignoreInvalidFeeds) {
+            @SuppressWarnings("unchecked")
+            Map<String, Exception> map = (Map<String, Exception>) context.get("invalidFeeds");
+            if (map == null) {
+                map = new HashMap<String, Exception>();
+                context.put("invalidFeeds", map);
             }
+            map.put(sfeed, ex);
 
-            throw new java.io.IOException("Error processing " + sfeed + ": " + ex.getMessage());
+            return null;
+        }
+
+        throw new java.io.IOException("Error processing " + sfeed + ": " + ex.getMessage());
+    }
+
+    private XWikiFeedFetcher createFeedFetcher(FeedFetcherCache feedInfoCache, XWikiContext context)
+    {
+        XWikiFeedFetcher feedFetcher = new XWikiFeedFetcher(feedInfoCache);
+        feedFetcher.setUserAgent(context.getWiki().Param("xwiki.plugins.feed.useragent",
+            context.getWiki().getHttpUserAgent(context)));
+
+        return feedFetcher;
+    }
+
+    private FeedFetcherCache getFeedInfoCache(String space, XWikiContext context)
+    {
+        String key = context.getDatabase() + ":" + space;
+        FeedFetcherCache feedInfoCache = this.feedInfoCaches.get(key);
+        if (feedInfoCache == null) {
+            // Bounded, the oldest feeds are simply retrieved again without condition
+            feedInfoCache = new LinkedHashMapFeedInfoCache();
+            FeedFetcherCache existingCache = this.feedInfoCaches.putIfAbsent(key, feedInfoCache);
+            if (existingCache != null) {
+                feedInfoCache = existingCache;
+            }
+        }
+
+        return feedInfoCache;
+    }
+
+    private int getFeedTimeout(XWikiContext context)
+    {
+        return (int) context.getWiki().ParamAsLong("xwiki.plugins.feed.timeout",
+            context.getWiki().getHttpTimeout(context));
+    }
+
+    private synchronized ExecutorService getFetchExecutor(XWikiContext context)
+    {
+        if (this.fetchExecutor == null) {
+            int threads = (int) context.getWiki().ParamAsLong("xwiki.plugins.feed.fetchthreads", 4);
+            this.fetchExecutor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new BasicThreadFactory.Builder().namingPattern("XWiki feed fetcher %d").daemon(true).build());
+        }
+
+        return this.fetchExecutor;
+    }
+
+    /**
+     * Starts retrieving the passed feeds in the background. Unless the update is forced, the feeds which didn't change
+     * since they were last retrieved are not downloaded again and their future value is {@code null}.
+     * 
+     * @param feedurls the URLs of the feeds to retrieve
+     * @param force {@code true} to retrieve the feeds even if they were not modified
+     * @param space the space where the feed entries are saved
+     * @param context the XWiki context
+     * @return the feeds being retrieved, indexed by URL
+     */
+    private Map<String, Future<SyndFeed>> fetchFeeds(Collection<String> feedurls, final boolean force, String space,
+        XWikiContext context)
+    {
+        Map<String, Future<SyndFeed>> feeds = new HashMap<String, Future<SyndFeed>>();
+        final int timeout = getFeedTimeout(context);
+        FeedFetcherCache feedInfoCache = getFeedInfoCache(space, context);
+        for (final String feedurl : feedurls) {
+            if (!feeds.containsKey(feedurl)) {
+                final XWikiFeedFetcher feedFetcher = createFeedFetcher(feedInfoCache, context);
+                feeds.put(feedurl, getFetchExecutor(context).submit(new Callable<SyndFeed>()
+                {
+                    @Override
+                    public SyndFeed call() throws Exception
+                    {
+                        URL feedURL = new URL(feedurl);
+                        return force ? feedFetcher.retrieveFeed(feedURL, timeout)
+                            : feedFetcher.retrieveFeedIfModified(feedURL, timeout);
+                    }
+                }));
+            }
+        }
+
+        return feeds;
+    }
+
+    private void forgetFeedInfo(String feedurl, String space, XWikiContext context)
+    {
+        try {
+            getFeedInfoCache(space, context).remove(new URL(feedurl));
+        } catch (MalformedURLException e) {
+            // The feed was not retrieved
+        }
+    }
+
+    private SyndFeed getFetchedFeed(String feedurl, Future<SyndFeed> fetchedFeed, XWikiContext context)
+        throws IOException
+    {
+        try {
+            return fetchedFeed.get();
+        } catch (ExecutionException e) {
+            Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            return handleInvalidFeed(feedurl, cause, true, context);
+        } catch (InterruptedException e) {
+            fetchedFeed.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrieving " + feedurl);
         }
     }
 
@@ -351,30 +514,53 @@ public int updateFeeds(String feedDoc, boolean fullContent, boolean oneDocPerEnt
         getAggregatorURLClass(context);
 
         XWikiDocument doc = context.getWiki().getDocument(feedDoc, context);
+
+        return updateFeeds(doc, fetchFeeds(getFeedURLs(doc), force, space, context), fullContent, oneDocPerEntry, force,
+            space, context);
+    }
+
+    private List<String> getFeedURLs(XWikiDocument feedDoc)
+    {
+        List<String> feedurls = new ArrayList<String>();
+        Vector<BaseObject> objs = feedDoc.getObjects("XWiki.AggregatorURLClass");
+        if (objs != null) {
+            for (BaseObject obj : objs) {
+                if (obj != null) {
+                    feedurls.add(obj.getStringValue("url"));
+                }
+            }
+        }
+
+        return feedurls;
+    }
+
+    private int updateFeeds(XWikiDocument doc, Map<String, Future<SyndFeed>> fetchedFeeds, boolean fullContent,
+        boolean oneDocPerEntry, boolean force, String space, XWikiContext context) throws XWikiException
+    {
         Vector<BaseObject> objs = doc.getObjects("XWiki.AggregatorURLClass");
         if (objs == null) {
             return 0;
         }
 
         int total = 0;
-        int nbfeeds = 0;
-        int nbfeedsErrors = 0;
+        boolean updated = false;
         for (BaseObject obj : objs) {
             if (obj != null) {
                 String feedurl = obj.getStringValue("url");
                 String feedname = obj.getStringValue("name");
-                nbfeeds++;
-                int nb = updateFeed(feedDoc, feedname, feedurl, fullContent, oneDocPerEntry, force, space, context);
+                int nb =
+                    updateFeed(doc.getFullName(), feedname, feedurl, fetchedFeeds.get(feedurl), fullContent,
+                        oneDocPerEntry, force, space, context);
                 if (nb != -1) {
                     total += nb;
-                } else {
-                    nbfeedsErrors++;
                 }
 
                 UpdateThread updateThread = this.updateThreads.get(context.getDatabase() + ":" + space);
                 if (updateThread != null) {
-                    updateThread.setNbLoadedFeeds(nbfeeds + updateThread.getNbLoadedFeeds());
-                    updateThread.setNbLoadedFeedsErrors(nbfeedsErrors + updateThread.getNbLoadedFeedsErrors());
+                    updateThread.setNbLoadedFeeds(updateThread.getNbLoadedFeeds() + 1);
+                    if (nb == -1) {
+                        updateThread.setNbLoadedFeedsErrors(updateThread.getNbLoadedFeedsErrors() + 1);
+                    }
                 }
                 if (context.get("feedimgurl") != null) {
                     obj.set("imgurl", context.get("feedimgurl"), context);
@@ -382,11 +568,15 @@ public int updateFeeds(String feedDoc, boolean fullContent, boolean oneDocPerEnt
                 }
                 obj.set("nb", new Integer(nb), context);
                 obj.set("date", new Date(), context);
-
-                // Update original document
-                context.getWiki().saveDocument(doc, context);
+                updated = true;
             }
         }
+
+        if (updated) {
+            // Update original document once all its feeds are updated
+            context.getWiki().saveDocument(doc, context);
+        }
+
         return total;
     }
 
@@ -402,28 +592,46 @@ public int updateFeedsInSpace(String space, boolean fullContent, boolean oneDocP
         int total = 0;
         List<String> feedDocList = context.getWiki().getStore().searchDocumentsNames(sql, context);
         if (feedDocList != null) {
-            for (int i = 0; i < feedDocList.size(); i++) {
-                String feedDocName = feedDocList.get(i);
+            // Start fetching the feeds of all the documents so that they are retrieved concurrently
+            List<XWikiDocument> feedDocs = new ArrayList<XWikiDocument>();
+            Set<String> feedurls = new LinkedHashSet<String>();
+            for (String feedDocName : feedDocList) {
                 try {
-                    total += updateFeeds(feedDocName, fullContent, oneDocPerEntry, force, space, context);
+                    XWikiDocument feedDoc = context.getWiki().getDocument(feedDocName, context);
+                    feedDocs.add(feedDoc);
+                    feedurls.addAll(getFeedURLs(feedDoc));
                 } catch (XWikiException e) {
-                    // an exception occurred while updating feedDocName, don't fail completely, put the exception in the
-                    // context and then pass to the next feed
-                    @SuppressWarnings("unchecked")
-                    Map<String, Exception> map = (Map<String, Exception>) context.get("updateFeedError");
-                    if (map == null) {
-                        map = new HashMap<String, Exception>();
-                        context.put("updateFeedError", map);
-                    }
-                    map.put(feedDocName, e);
-                    // and log it
-                    LOGGER.error("Failed to update feeds in document " + feedDocName, e);
+                    handleUpdateFeedsError(feedDocName, e, context);
+                }
+            }
+            Map<String, Future<SyndFeed>> fetchedFeeds = fetchFeeds(feedurls, force, space, context);
+
+            for (XWikiDocument feedDoc : feedDocs) {
+                try {
+                    total += updateFeeds(feedDoc, fetchedFeeds, fullContent, oneDocPerEntry, force, space, context);
+                } catch (XWikiException e) {
+                    handleUpdateFeedsError(feedDoc.getFullName(), e, context);
                 }
             }
         }
         return total;
     }
 
+    private void handleUpdateFeedsError(String feedDocName, XWikiException e, XWikiContext context)
+    {
+        // an exception occurred while updating feedDocName, don't fail completely, put the exception in the
+        // context and then pass to the next feed
+        @SuppressWarnings("unchecked")
+        Map<String, Exception> map = (Map<String, Exception>) context.get("updateFeedError");
+        if (map == null) {
+            map = new HashMap<String, Exception>();
+            context.put("updateFeedError", map);
+        }
+        map.put(feedDocName, e);
+        // and log it
+        LOGGER.error("Failed to update feeds in document " + feedDocName, e);
+    }
+
     public boolean startUpdateFeedsInSpace(String space, boolean fullContent, int scheduleTimer, XWikiContext context)
         throws XWikiException
     {
@@ -431,14 +639,26 @@ public boolean startUpdateFeedsInSpace(String space, boolean fullContent, int sc
         if (updateThread == null) {
             updateThread = new UpdateThread(space, fullContent, scheduleTimer, this, context);
             this.updateThreads.put(context.getDatabase() + ":" + space, updateThread);
-            Thread thread = new Thread(updateThread);
-            thread.start();
+            updateThread.setScheduledUpdate(getUpdateScheduler().scheduleWithFixedDelay(updateThread, 0,
+                Math.max(1, scheduleTimer), TimeUnit.MILLISECONDS));
             return true;
         } else {
             return false;
         }
     }
 
+    private synchronized ScheduledExecutorService getUpdateScheduler()
+    {
+        if (this.updateScheduler == null) {
+            // The feeds of each update are fetched concurrently so a few threads are enough to run the updates of
+            // several spaces without a slow one delaying all the others
+            this.updateScheduler = Executors.newScheduledThreadPool(UPDATE_THREADS,
+                new BasicThreadFactory.Builder().namingPattern("XWiki feed update %d").daemon(true).build());
+        }
+
+        return this.updateScheduler;
+    }
+
     public void stopUpdateFeedsInSpace(String space, XWikiContext context) throws XWikiException
     {
         UpdateThread updateThread = this.updateThreads.get(context.getDatabase() + ":" + space);
@@ -491,12 +711,24 @@ public int updateFeed(String feedname, String feedurl, boolean fullContent, bool
 
     public int updateFeed(String feedDocumentName, String feedname, String feedurl, boolean fullContent,
         boolean oneDocPerEntry, boolean force, String space, XWikiContext context)
+    {
+        Map<String, Future<SyndFeed>> fetchedFeeds = fetchFeeds(Collections.singleton(feedurl), force, space, context);
+
+        return updateFeed(feedDocumentName, feedname, feedurl, fetchedFeeds.get(feedurl), fullContent,
+            oneDocPerEntry, force, space, context);
+    }
+
+    /**
+     * @return the number of saved entries, 0 if the feed is invalid or was not modified, -1 if the update failed
+     */
+    private int updateFeed(String feedDocumentName, String feedname, String feedurl, Future<SyndFeed> fetchedFeed,
+        boolean fullContent, boolean oneDocPerEntry, boolean force, String space, XWikiContext context)
     {
         try {
             // Make sure we have this class
             getFeedEntryClass(context);
 
-            SyndFeed feed = getFeedForce(feedurl, true, context);
+            SyndFeed feed = getFetchedFeed(feedurl, fetchedFeed, context);
             if (feed != null) {
                 if (feed.getImage() != null) {
                     context.put("feedimgurl", feed.getImage().getUrl());
@@ -514,6 +746,8 @@ public int updateFeed(String feedDocumentName, String feedname, String feedurl,
                 context.put("updateFeedError", map);
             }
             map.put(feedurl, e);
+            // Retrieve the whole feed next time since its entries may not have been saved
+            forgetFeedInfo(feedurl, space, context);
         }
         return -1;
     }
@@ -522,7 +756,7 @@ private int saveFeed(String feedDocumentName, String feedname, String feedurl, S
         boolean oneDocPerEntry, boolean force, String space, XWikiContext context) throws XWikiException
     {
         XWikiDocument doc = null;
-        Vector<BaseObject> objs = null;
+        Map<String, BaseObject> objsByTitle = null;
         int nbtotal = 0;
 
         String prefix = space + ".Feed";
@@ -530,7 +764,7 @@ private int saveFeed(String feedDocumentName, String feedname, String feedurl, S
             doc =
                 context.getWiki().getDocument(
                     prefix + "_" + context.getWiki().clearName(feedname, true, true, context), context);
-            objs = doc.getObjects("XWiki.FeedEntryClass");
+            objsByTitle = indexEntriesByTitle(doc.getObjects("XWiki.FeedEntryClass"), context);
             if (!StringUtils.isBlank(doc.getContent())) {
                 this.prepareFeedEntryDocument(doc, context);
             }
@@ -576,9 +810,10 @@ private int saveFeed(String feedDocumentName, String feedname, String feedurl, S
                     context.getWiki().saveDocument(doc, context);
                 }
             } else {
-                BaseObject obj = postExist(objs, entry, context);
+                String title = context.getWiki().clearName(entry.getTitle(), true, true, context);
+                BaseObject obj = objsByTitle.get(title);
                 if (obj == null) {
-                    saveEntry(feedname, feedurl, entry, doc, fullContent, context);
+                    objsByTitle.put(title, saveEntry(feedname, feedurl, entry, doc, fullContent, context));
                     nbtotal++;
                 } else if (force) {
                     saveEntry(feedname, feedurl, entry, doc, obj, fullContent, context);
@@ -761,12 +996,14 @@ public BaseClass getFeedEntryClass(XWikiContext context) throws XWikiException
 
     }
 
-    private void saveEntry(String feedname, String feedurl, SyndEntry entry, XWikiDocument doc, boolean fullContent,
-        XWikiContext context) throws XWikiException
+    private BaseObject saveEntry(String feedname, String feedurl, SyndEntry entry, XWikiDocument doc,
+        boolean fullContent, XWikiContext context) throws XWikiException
     {
         int id = doc.createNewObject("XWiki.FeedEntryClass", context);
         BaseObject obj = doc.getObject("XWiki.FeedEntryClass", id);
         saveEntry(feedname, feedurl, entry, doc, obj, fullContent, context);
+
+        return obj;
     }
 
     private void saveEntry(String feedname, String feedurl, SyndEntry entry, XWikiDocument doc, BaseObject obj,
@@ -852,27 +1089,35 @@ private void saveEntry(String feedname, String feedurl, SyndEntry entry, XWikiDo
         }
     }
 
-    private BaseObject postExist(Vector<BaseObject> objs, SyndEntry entry, XWikiContext context)
+    /**
+     * Indexes the existing entries of a feed document by cleaned title so that each retrieved entry is looked up in
+     * constant time instead of being compared with all the existing entries.
+     * 
+     * @param objs the existing entries, may be null
+     * @param context the XWiki context
+     * @return the entries indexed by cleaned title, the first entry is kept when several have the same title
+     */
+    private Map<String, BaseObject> indexEntriesByTitle(Vector<BaseObject> objs, XWikiContext context)
     {
-        if (objs == null) {
-            return null;
-        }
-        String title = context.getWiki().clearName(entry.getTitle(), true, true, context);
-        for (BaseObject obj : objs) {
-            if (obj != null) {
-                String title2 = obj.getStringValue("title");
-                if (title2 == null) {
-                    title2 = "";
-                } else {
-                    title2 = context.getWiki().clearName(title2, true, true, context);
-                }
+        Map<String, BaseObject> objsByTitle = new HashMap<String, BaseObject>();
+        if (objs != null) {
+            for (BaseObject obj : objs) {
+                if (obj != null) {
+                    String title = obj.getStringValue("title");
+                    if (title == null) {
+                        title = "";
+                    } else {
+                        title = context.getWiki().clearName(title, true, true, context);
+                    }
 
-                if (title2.compareTo(title) == 0) {
-                    return obj;
+                    if (!objsByTitle.containsKey(title)) {
+                        objsByTitle.put(title, obj);
+                    }
                 }
             }
         }
-        return null;
+
+        return objsByTitle;
     }
 
     public List<com.xpn.xwiki.api.Object> search(String query, XWikiContext context) throws XWikiException
@@ -20,6 +20,7 @@
 package com.xpn.xwiki.plugin.feed;
 
 import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
 
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
@@ -59,6 +60,11 @@ public class UpdateThread extends AbstractXWikiRunnable
 
     private XWikiContext xwikiContext;
 
+    /**
+     * The periodic execution of this update, cancelled when the update is stopped.
+     */
+    private ScheduledFuture< ? > scheduledUpdate;
+
     public UpdateThread(String space, boolean fullContent, int scheduleTimer, FeedPlugin feedPlugin,
         XWikiContext context)
     {
@@ -72,8 +78,17 @@ public UpdateThread(String space, boolean fullContent, int scheduleTimer, FeedPl
     @Override
     protected void declareProperties(ExecutionContext executionContext)
     {
-        xwikiContext.declareInExecutionContext(executionContext);
-        xwikiContext = null;
+        // The update is run periodically so each run gets its own copy of the context
+        xwikiContext.clone().declareInExecutionContext(executionContext);
+    }
+
+    /**
+     * @param scheduledUpdate the periodic execution of this update
+     * @since 5.3M1
+     */
+    public void setScheduledUpdate(ScheduledFuture< ? > scheduledUpdate)
+    {
+        this.scheduledUpdate = scheduledUpdate;
     }
 
 
@@ -151,10 +166,13 @@ public Exception getException()
 
     public void stopUpdate()
     {
+        stopUpdate = true;
+        if (scheduledUpdate != null) {
+            scheduledUpdate.cancel(false);
+        }
         if (!updateInProgress) {
-            feedPlugin.removeUpdateThread(space, this, getXWikiContext());
+            feedPlugin.removeUpdateThread(space, this, xwikiContext);
         }
-        stopUpdate = true;
     }
 
     public int getNbLoadedFeeds()
@@ -180,17 +198,10 @@ public void setNbLoadedFeedsErrors(int nbLoadedFeedsErrors)
     @Override
     protected void runInternal()
     {
-        while (true) {
-            update();
-            if (stopUpdate) {
-                feedPlugin.removeUpdateThread(space, this, getXWikiContext());
-                break;
-            }
-            try {
-                Thread.sleep(scheduleTimer);
-            } catch (InterruptedException e) {
-                break;
-            }
+        // Called by the feed plugin scheduler every scheduleTimer milliseconds
+        update();
+        if (stopUpdate) {
+            feedPlugin.removeUpdateThread(space, this, getXWikiContext());
         }
     }
 }
@@ -114,6 +114,28 @@ public SyndFeed retrieveFeed(URL feedUrl)
      */
     public SyndFeed retrieveFeed(URL feedUrl, int timeout)
         throws IllegalArgumentException, IOException, FeedException, FetcherException
+    {
+        return retrieveFeed(feedUrl, timeout, false);
+    }
+
+    /**
+     * Retrieves the feed only if it changed since the last time it was retrieved. The ETag and Last-Modified values
+     * kept in the feed info cache are sent with the request so that the server can answer that the feed was not
+     * modified without sending it again.
+     * 
+     * @param feedUrl the URL of the feed
+     * @param timeout the connection and read timeout in milliseconds, 0 for no timeout
+     * @return the feed, or {@code null} if it was not modified since the last time it was retrieved
+     * @since 5.3M1
+     */
+    public SyndFeed retrieveFeedIfModified(URL feedUrl, int timeout)
+        throws IllegalArgumentException, IOException, FeedException, FetcherException
+    {
+        return retrieveFeed(feedUrl, timeout, true);
+    }
+
+    private SyndFeed retrieveFeed(URL feedUrl, int timeout, boolean ifModified)
+        throws IllegalArgumentException, IOException, FeedException, FetcherException
     {
         if (feedUrl == null) {
             throw new IllegalArgumentException("null is not a valid URL");
@@ -159,7 +181,9 @@ public SyndFeed retrieveFeed(URL feedUrl, int timeout)
                 // Note that syndFeedInfo will be null if it is not in the cache
                 SyndFeedInfo syndFeedInfo = cache.getFeedInfo(feedUrl);
                 if (syndFeedInfo != null) {
-                    method.setRequestHeader("If-None-Match", syndFeedInfo.getETag());
+                    if (syndFeedInfo.getETag() != null) {
+                        method.setRequestHeader("If-None-Match", syndFeedInfo.getETag());
+                    }
 
                     if (syndFeedInfo.getLastModified() instanceof String) {
                         method.setRequestHeader("If-Modified-Since", (String) syndFeedInfo.getLastModified());
@@ -172,6 +196,12 @@ public SyndFeed retrieveFeed(URL feedUrl, int timeout)
                 fireEvent(FetcherEvent.EVENT_TYPE_FEED_POLLED, urlStr);
                 handleErrorCodes(statusCode);
 
+                if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && syndFeedInfo != null) {
+                    // Keep the cached validators since the response doesn't have to repeat them
+                    fireEvent(FetcherEvent.EVENT_TYPE_FEED_UNCHANGED, urlStr);
+                    return ifModified ? null : syndFeedInfo.getSyndFeed();
+                }
+
                 SyndFeed feed = getFeed(syndFeedInfo, urlStr, method, statusCode);
 
                 syndFeedInfo = buildSyndFeedInfo(feedUrl, urlStr, method, feed, statusCode);
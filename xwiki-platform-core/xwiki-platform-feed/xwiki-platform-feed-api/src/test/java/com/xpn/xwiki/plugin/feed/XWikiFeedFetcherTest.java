@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.feed;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.fetcher.impl.LinkedHashMapFeedInfoCache;
+
+/**
+ * Unit tests for {@link XWikiFeedFetcher}, run against a local HTTP server serving a fixture feed.
+ * 
+ * @version $Id$
+ */
+public class XWikiFeedFetcherTest
+{
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+
+    private URL feedURL;
+
+    private AtomicInteger fullResponses = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final byte[] feed = IOUtils.toByteArray(getClass().getResourceAsStream("/feed.xml"));
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/feed.xml", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    fullResponses.incrementAndGet();
+                    exchange.getResponseHeaders().set("Content-Type", "application/rss+xml; charset=UTF-8");
+                    exchange.getResponseHeaders().set("ETag", ETAG);
+                    exchange.sendResponseHeaders(200, feed.length);
+                    OutputStream body = exchange.getResponseBody();
+                    body.write(feed);
+                    body.close();
+                }
+                exchange.close();
+            }
+        });
+        this.server.start();
+
+        this.feedURL = new URL("http://localhost:" + this.server.getAddress().getPort() + "/feed.xml");
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void retrieveFeedIfModified() throws Exception
+    {
+        XWikiFeedFetcher fetcher = new XWikiFeedFetcher(new LinkedHashMapFeedInfoCache());
+
+        SyndFeed feed = fetcher.retrieveFeedIfModified(this.feedURL, 5000);
+        Assert.assertEquals("Test Feed", feed.getTitle());
+        Assert.assertEquals(2, feed.getEntries().size());
+
+        // The server answers that the feed was not modified
+        Assert.assertNull(fetcher.retrieveFeedIfModified(this.feedURL, 5000));
+        Assert.assertNull(fetcher.retrieveFeedIfModified(this.feedURL, 5000));
+        Assert.assertEquals(1, this.fullResponses.get());
+
+        // The cached feed is returned when the feed is requested unconditionally
+        Assert.assertSame(feed, fetcher.retrieveFeed(this.feedURL, 5000));
+        Assert.assertEquals(1, this.fullResponses.get());
+    }
+
+    @Test
+    public void retrieveFeedWithoutCache() throws Exception
+    {
+        XWikiFeedFetcher fetcher = new XWikiFeedFetcher();
+
+        Assert.assertEquals(2, fetcher.retrieveFeedIfModified(this.feedURL, 5000).getEntries().size());
+        Assert.assertEquals(2, fetcher.retrieveFeedIfModified(this.feedURL, 5000).getEntries().size());
+        Assert.assertEquals(2, this.fullResponses.get());
+    }
+}
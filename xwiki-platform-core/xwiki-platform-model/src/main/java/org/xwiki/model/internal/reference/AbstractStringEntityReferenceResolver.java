@@ -93,45 +93,42 @@ public EntityReference resolve(String entityReferenceRepresentation, EntityType
             representation = new StringBuilder(entityReferenceRepresentation);
         }
 
-        EntityReference reference = null;
         char[] separatorsForType = SEPARATORS.get(type);
         EntityType[] entityTypesForType = ENTITYTYPES.get(type);
 
+        // The names of the segments, from this reference to the root
+        String[] names = new String[separatorsForType.length + 1];
+
         // Iterate over the representation string looking for iterators in the correct order (rightmost separator
         // looked for first).
         for (int i = 0; i < separatorsForType.length; i++) {
-            String name;
             if (representation.length() > 0) {
-                name = getSegmentName(representation, separatorsForType[i], entityTypesForType[i], parameters);
+                names[i] = getSegmentName(representation, separatorsForType[i], entityTypesForType[i], parameters);
             } else {
                 // There's no definition for the current segment use default values
-                name = resolveDefaultValue(entityTypesForType[i], parameters);
-            }
-
-            if (name != null) {
-                EntityReference newReference = new EntityReference(name, entityTypesForType[i]);
-                if (reference != null) {
-                    reference = reference.appendParent(newReference);
-                } else {
-                    reference = newReference;
-                }
+                names[i] = resolveDefaultValue(entityTypesForType[i], parameters);
             }
         }
 
         // Handle last entity reference's name
-        String name;
         if (representation.length() > 0) {
-            name = StringUtils.replaceEach(representation.toString(), ESCAPEMATCHING, ESCAPEMATCHINGREPLACE);
+            names[separatorsForType.length] =
+                StringUtils.replaceEach(representation.toString(), ESCAPEMATCHING, ESCAPEMATCHINGREPLACE);
         } else {
-            name = resolveDefaultValue(entityTypesForType[separatorsForType.length], parameters);
+            names[separatorsForType.length] =
+                resolveDefaultValue(entityTypesForType[separatorsForType.length], parameters);
         }
 
-        if (name != null) {
-            EntityReference newReference = new EntityReference(name, entityTypesForType[separatorsForType.length]);
-            if (reference != null) {
-                reference = reference.appendParent(newReference);
-            } else {
-                reference = newReference;
+        // Create the references from the root so that the parents don't have to be copied, the wiki and space parents
+        // are shared
+        EntityReference reference = null;
+        for (int i = names.length - 1; i >= 0; i--) {
+            if (names[i] != null) {
+                if (i > 0) {
+                    reference = EntityReferenceInterner.getReference(names[i], entityTypesForType[i], reference);
+                } else {
+                    reference = new EntityReference(names[i], entityTypesForType[i], reference);
+                }
             }
         }
 
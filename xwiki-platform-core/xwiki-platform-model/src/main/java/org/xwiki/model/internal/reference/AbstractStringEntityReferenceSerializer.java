@@ -38,13 +38,44 @@ public String serialize(EntityReference reference, Object... parameters)
             return null;
         }
 
+        // References are immutable so the representation can be computed only once when it only depends on the
+        // reference
+        boolean cacheable = parameters.length == 0 && isReferenceOnly();
+        if (cacheable) {
+            String cached = EntityReferenceSerializationCache.getInstance().get(reference, getClass());
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         StringBuilder representation = new StringBuilder();
 
         for (EntityReference currentReference : reference.getReversedReferenceChain()) {
             serializeEntityReference(currentReference, representation, currentReference == reference, parameters);
         }
 
-        return representation.toString();
+        String result = representation.toString();
+
+        if (cacheable) {
+            EntityReferenceSerializationCache.getInstance().set(reference, getClass(), result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Indicate if the representation produced by this serializer only depends on the serialized reference (and not on
+     * the context for example), in which case it's cached in the reference when no parameter is passed.
+     * <p>
+     * Implementations must not opt in for their subclasses, which might depend on something else: they should compare
+     * {@link #getClass()} with their own class.
+     *
+     * @return true if the representation only depends on the serialized reference, false by default
+     * @since 5.3M1
+     */
+    protected boolean isReferenceOnly()
+    {
+        return false;
     }
 
     /**
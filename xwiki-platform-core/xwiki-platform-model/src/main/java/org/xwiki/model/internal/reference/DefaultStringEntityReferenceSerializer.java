@@ -40,6 +40,12 @@
 @Component
 public class DefaultStringEntityReferenceSerializer extends AbstractStringEntityReferenceSerializer
 {
+    @Override
+    protected boolean isReferenceOnly()
+    {
+        return getClass() == DefaultStringEntityReferenceSerializer.class;
+    }
+
     @Override
     protected void serializeEntityReference(EntityReference currentReference, StringBuilder representation,
         boolean isLastReference, Object... parameters)
@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.model.internal.reference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+
+/**
+ * Share the wiki and space references which are the parents of most of the resolved references. The same instances
+ * are reused with their cached hash code and string representations, and the typed instances don't have to be created
+ * again when the resolved reference is converted into a document reference.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+final class EntityReferenceInterner
+{
+    /**
+     * The maximum number of shared references, the shared references are forgotten when it is reached so that the
+     * memory used stays bounded.
+     */
+    private static final int MAX_SIZE = 10000;
+
+    /**
+     * The shared references.
+     */
+    private static final ConcurrentMap<EntityReference, EntityReference> REFERENCES =
+        new ConcurrentHashMap<EntityReference, EntityReference>();
+
+    /**
+     * Utility class.
+     */
+    private EntityReferenceInterner()
+    {
+    }
+
+    /**
+     * @param name the name of the reference
+     * @param type the type of the reference
+     * @param parent the parent of the reference, may be null
+     * @return a shared reference for wikis and spaces of a wiki, a new reference otherwise
+     */
+    static EntityReference getReference(String name, EntityType type, EntityReference parent)
+    {
+        EntityReference reference;
+        if (type == EntityType.WIKI && parent == null) {
+            reference = new WikiReference(name);
+        } else if (type == EntityType.SPACE && parent instanceof WikiReference) {
+            reference = new SpaceReference(name, (WikiReference) parent);
+        } else {
+            return new EntityReference(name, type, parent);
+        }
+
+        EntityReference sharedReference = REFERENCES.get(reference);
+        if (sharedReference == null) {
+            if (REFERENCES.size() >= MAX_SIZE) {
+                REFERENCES.clear();
+            }
+            sharedReference = REFERENCES.putIfAbsent(reference, reference);
+            if (sharedReference == null) {
+                sharedReference = reference;
+            }
+        }
+
+        return sharedReference;
+    }
+}
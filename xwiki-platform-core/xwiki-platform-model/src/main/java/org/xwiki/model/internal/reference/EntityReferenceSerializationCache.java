@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.model.internal.reference;
+
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Give the string serializers access to the string representations cached in {@link EntityReference} without making
+ * them part of the public API of the reference. The only implementation is registered by {@link EntityReference}.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+public abstract class EntityReferenceSerializationCache
+{
+    /**
+     * The implementation registered by {@link EntityReference}.
+     */
+    private static volatile EntityReferenceSerializationCache instance;
+
+    /**
+     * @return the implementation registered by {@link EntityReference}
+     */
+    public static EntityReferenceSerializationCache getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Called once by {@link EntityReference} when the class is initialized.
+     * 
+     * @param cache the implementation accessing the cache of the references
+     */
+    public static synchronized void setInstance(EntityReferenceSerializationCache cache)
+    {
+        if (instance != null) {
+            throw new IllegalStateException("The entity reference serialization cache is already registered");
+        }
+
+        instance = cache;
+    }
+
+    /**
+     * @param reference the serialized reference
+     * @param key the key identifying the serializer
+     * @return the cached string representation, null if there is none
+     */
+    public abstract String get(EntityReference reference, Object key);
+
+    /**
+     * @param reference the serialized reference
+     * @param key the key identifying the serializer
+     * @param serialization the string representation of the reference produced by the serializer
+     */
+    public abstract void set(EntityReference reference, Object key, String serialization);
+}
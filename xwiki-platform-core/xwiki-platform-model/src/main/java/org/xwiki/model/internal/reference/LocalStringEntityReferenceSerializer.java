@@ -37,6 +37,12 @@
 @Component("local")
 public class LocalStringEntityReferenceSerializer extends DefaultStringEntityReferenceSerializer
 {
+    @Override
+    protected boolean isReferenceOnly()
+    {
+        return getClass() == LocalStringEntityReferenceSerializer.class;
+    }
+
     @Override
     protected void serializeEntityReference(EntityReference currentReference, StringBuilder representation,
         boolean isLastReference, Object... parameters)
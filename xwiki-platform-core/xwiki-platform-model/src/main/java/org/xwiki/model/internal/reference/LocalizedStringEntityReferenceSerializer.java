@@ -31,6 +31,12 @@
  */
 public class LocalizedStringEntityReferenceSerializer extends DefaultStringEntityReferenceSerializer
 {
+    @Override
+    protected boolean isReferenceOnly()
+    {
+        return getClass() == LocalizedStringEntityReferenceSerializer.class;
+    }
+
     @Override
     protected void serializeEntityReference(EntityReference currentReference, StringBuilder representation,
         boolean isLastReference, Object... parameters)
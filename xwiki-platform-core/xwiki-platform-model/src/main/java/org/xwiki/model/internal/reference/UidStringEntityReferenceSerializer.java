@@ -45,6 +45,12 @@
 @Singleton
 public class UidStringEntityReferenceSerializer extends AbstractStringEntityReferenceSerializer
 {
+    @Override
+    protected boolean isReferenceOnly()
+    {
+        return getClass() == UidStringEntityReferenceSerializer.class;
+    }
+
     @Override
     protected void serializeEntityReference(EntityReference currentReference, StringBuilder representation,
         boolean isLastReference, Object... parameters)
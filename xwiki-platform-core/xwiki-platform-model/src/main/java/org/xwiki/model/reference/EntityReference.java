@@ -29,6 +29,7 @@
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.internal.reference.EntityReferenceSerializationCache;
 import org.xwiki.model.internal.reference.LocalizedStringEntityReferenceSerializer;
 
 /**
@@ -51,6 +52,24 @@ public class EntityReference implements Serializable, Cloneable, Comparable<Enti
      */
     private static final long serialVersionUID = 2L;
 
+    static {
+        // Only the serializers are allowed to access the cached string representations
+        EntityReferenceSerializationCache.setInstance(new EntityReferenceSerializationCache()
+        {
+            @Override
+            public String get(EntityReference reference, Object key)
+            {
+                return reference.getCachedSerialization(key);
+            }
+
+            @Override
+            public void set(EntityReference reference, Object key, String serialization)
+            {
+                reference.setCachedSerialization(key, serialization);
+            }
+        });
+    }
+
     /**
      * Name of this entity.
      */
@@ -71,6 +90,18 @@ public class EntityReference implements Serializable, Cloneable, Comparable<Enti
      */
     private Map<String, Serializable> parameters;
 
+    /**
+     * Cached hash code, 0 when not computed yet. References are used as keys in many maps and caches and the hash code
+     * depends on the whole parents chain.
+     */
+    private transient int cachedHashCode;
+
+    /**
+     * Cached string representations of this reference, as pairs of serializer key and representation. Copied on
+     * write so that it can be read without locking.
+     */
+    private transient volatile Object[] serializations;
+
     /**
      * Clone an EntityReference.
      *
@@ -182,6 +213,7 @@ protected void setName(String name)
             throw new IllegalArgumentException("An Entity Reference name cannot be null or empty");
         }
         this.name = name;
+        resetCache();
     }
 
     /**
@@ -203,6 +235,7 @@ public final String getName()
     protected void setParent(EntityReference parent)
     {
         this.parent = parent;
+        resetCache();
     }
 
     /**
@@ -224,6 +257,7 @@ protected void setType(EntityType type)
             throw new IllegalArgumentException("An Entity Reference type cannot be null");
         }
         this.type = type;
+        resetCache();
     }
 
     /**
@@ -272,6 +306,63 @@ protected void setParameter(String name, Serializable value)
                 parameters = null;
             }
         }
+        resetCache();
+    }
+
+    /**
+     * Forget the cached hash code and string representations, called when the reference is modified during its
+     * construction.
+     */
+    private void resetCache()
+    {
+        this.cachedHashCode = 0;
+        this.serializations = null;
+    }
+
+    /**
+     * Get a string representation of this reference previously stored with
+     * {@link #setCachedSerialization(Object, String)}. Used by the serializers whose result only depends on the
+     * reference to avoid serializing the same reference again and again.
+     *
+     * @param key the key identifying the serializer
+     * @return the cached string representation, null if there is none
+     */
+    private String getCachedSerialization(Object key)
+    {
+        Object[] cache = this.serializations;
+        if (cache != null) {
+            for (int i = 0; i < cache.length; i += 2) {
+                if (cache[i] == key) {
+                    return (String) cache[i + 1];
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Remember a string representation of this reference. Since a reference is immutable the representation only has
+     * to be computed once by a serializer whose result only depends on the reference.
+     *
+     * @param key the key identifying the serializer
+     * @param serialization the string representation of this reference produced by the serializer
+     */
+    private void setCachedSerialization(Object key, String serialization)
+    {
+        Object[] cache = this.serializations;
+        Object[] newCache;
+        if (cache == null) {
+            newCache = new Object[2];
+        } else {
+            newCache = new Object[cache.length + 2];
+            System.arraycopy(cache, 0, newCache, 0, cache.length);
+        }
+        newCache[newCache.length - 2] = key;
+        newCache[newCache.length - 1] = serialization;
+
+        // Concurrent updates might lose an entry, it will simply be computed again
+        this.serializations = newCache;
     }
 
     /**
@@ -403,6 +494,11 @@ public boolean equals(Object obj)
 
         EntityReference ref = (EntityReference) obj;
 
+        // Comparing the cached hash codes is cheap and most of the compared references are different
+        if (this.cachedHashCode != 0 && ref.cachedHashCode != 0 && this.cachedHashCode != ref.cachedHashCode) {
+            return false;
+        }
+
         return name.equals(ref.name) && type.equals(ref.type)
             && (parent == null ? ref.parent == null : parent.equals(ref.parent))
             && (parameters == null ? ref.parameters == null : parameters.equals(ref.parameters));
@@ -411,12 +507,18 @@ public boolean equals(Object obj)
     @Override
     public int hashCode()
     {
-        return new HashCodeBuilder(3, 17)
-            .append(getName())
-            .append(getType())
-            .append(getParent())
-            .append(this.parameters)
-            .toHashCode();
+        int hash = this.cachedHashCode;
+        if (hash == 0) {
+            hash = new HashCodeBuilder(3, 17)
+                .append(getName())
+                .append(getType())
+                .append(getParent())
+                .append(this.parameters)
+                .toHashCode();
+            this.cachedHashCode = hash;
+        }
+
+        return hash;
     }
 
     @Override
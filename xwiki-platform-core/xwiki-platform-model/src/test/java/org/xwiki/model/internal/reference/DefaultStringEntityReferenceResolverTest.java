@@ -27,10 +27,13 @@
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.ClassPropertyReference;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceValueProvider;
 import org.xwiki.model.reference.ObjectPropertyReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
 
 /**
  * Unit tests for {@link DefaultStringEntityReferenceResolver}.
@@ -83,6 +86,19 @@ public void setUp()
         }});
     }
 
+    @Test
+    public void testResolveSharesWikiAndSpaceReferences()
+    {
+        EntityReference reference1 = resolver.resolve("wiki:space.page1", EntityType.DOCUMENT);
+        EntityReference reference2 = resolver.resolve("wiki:space.page2", EntityType.DOCUMENT);
+
+        Assert.assertTrue(reference1.getParent() instanceof SpaceReference);
+        Assert.assertTrue(reference1.getRoot() instanceof WikiReference);
+        Assert.assertSame(reference1.getParent(), reference2.getParent());
+        Assert.assertEquals(new DocumentReference("wiki", "space", "page1"), reference1);
+        Assert.assertSame(reference1.getParent(), new DocumentReference(reference1).getParent());
+    }
+
     @Test
     public void testResolveDocumentReference() throws Exception
     {
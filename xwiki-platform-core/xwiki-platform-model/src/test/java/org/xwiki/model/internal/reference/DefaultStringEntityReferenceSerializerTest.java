@@ -86,6 +86,43 @@ public void setUp()
             }});
     }
 
+    @Test
+    public void testSerializeIsCached() throws Exception
+    {
+        EntityReference reference = resolver.resolve("wiki:space.page", EntityType.DOCUMENT);
+
+        String serialization = serializer.serialize(reference);
+        Assert.assertEquals("wiki:space.page", serialization);
+        Assert.assertSame(serialization, serializer.serialize(reference));
+        Assert.assertEquals("space.page", new LocalStringEntityReferenceSerializer().serialize(reference));
+        Assert.assertSame(serialization, serializer.serialize(reference));
+    }
+
+    @Test
+    public void testSerializeIsNotCachedBySubclass() throws Exception
+    {
+        final StringBuilder suffix = new StringBuilder("1");
+        EntityReferenceSerializer<String> subclassSerializer = new DefaultStringEntityReferenceSerializer()
+        {
+            @Override
+            protected void serializeEntityReference(EntityReference currentReference, StringBuilder representation,
+                boolean isLastReference, Object... parameters)
+            {
+                super.serializeEntityReference(currentReference, representation, isLastReference, parameters);
+                if (isLastReference) {
+                    representation.append(suffix);
+                }
+            }
+        };
+
+        EntityReference reference = resolver.resolve("wiki:space.page", EntityType.DOCUMENT);
+
+        Assert.assertEquals("wiki:space.page1", subclassSerializer.serialize(reference));
+        suffix.append('2');
+        Assert.assertEquals("wiki:space.page12", subclassSerializer.serialize(reference));
+        Assert.assertEquals("wiki:space.page", serializer.serialize(reference));
+    }
+
     @Test
     public void testSerializeDocumentReference() throws Exception
     {
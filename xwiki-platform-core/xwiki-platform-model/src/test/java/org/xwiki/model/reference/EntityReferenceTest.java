@@ -28,11 +28,13 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 
 import org.junit.Test;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.internal.reference.EntityReferenceSerializationCache;
 
 import org.junit.Assert;
 
@@ -451,4 +453,45 @@ public void testToString()
         EntityReference reference5 = new EntityReference("attachment", EntityType.ATTACHMENT, reference1);
         Assert.assertEquals("Attachment wiki:space.page@attachment", reference5.toString());
     }
+
+    @Test
+    public void testHashCodeAndEqualsAfterSerialization() throws Exception
+    {
+        EntityReference reference = new DocumentReference("wiki", "space", "page");
+        EntityReference other = new DocumentReference("wiki", "space", "other");
+        int hashCode = reference.hashCode();
+
+        Assert.assertEquals(hashCode, reference.hashCode());
+        Assert.assertFalse(reference.equals(other));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(reference);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        EntityReference deserialized = (EntityReference) ois.readObject();
+        ois.close();
+
+        Assert.assertEquals(reference, deserialized);
+        Assert.assertEquals(hashCode, deserialized.hashCode());
+        Assert.assertEquals(new DocumentReference(reference, Locale.FRENCH).hashCode(),
+            new DocumentReference("wiki", "space", "page", Locale.FRENCH).hashCode());
+        Assert.assertFalse(reference.equals(new DocumentReference(reference, Locale.FRENCH)));
+    }
+
+    @Test
+    public void testCachedSerialization()
+    {
+        EntityReference reference = new EntityReference("page", EntityType.DOCUMENT);
+
+        EntityReferenceSerializationCache cache = EntityReferenceSerializationCache.getInstance();
+
+        Assert.assertNull(cache.get(reference, "key1"));
+
+        cache.set(reference, "key1", "value1");
+        cache.set(reference, "key2", "value2");
+
+        Assert.assertEquals("value1", cache.get(reference, "key1"));
+        Assert.assertEquals("value2", cache.get(reference, "key2"));
+    }
 }
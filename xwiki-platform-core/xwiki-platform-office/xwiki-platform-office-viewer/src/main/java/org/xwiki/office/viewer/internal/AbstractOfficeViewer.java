@@ -24,6 +24,8 @@
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 
@@ -45,6 +47,10 @@
 
 /**
  * An abstract implementation of {@link OfficeViewer} which provides caching and other utility functions.
+ * <p>
+ * Views are cached in memory and persisted through the {@link OfficeDocumentViewStore} so that an office document is
+ * converted only once per version and view parameters, even across restarts. Concurrent requests for the same view
+ * wait for a single conversion.
  * 
  * @since 2.5M2
  * @version $Id$
@@ -92,11 +98,22 @@ public abstract class AbstractOfficeViewer implements OfficeViewer, Initializabl
     @Inject
     private Logger logger;
 
+    /**
+     * Used to persist the views.
+     */
+    @Inject
+    private OfficeDocumentViewStore viewStore;
+
     /**
      * Office document view cache.
      */
     private Cache<OfficeDocumentView> cache;
 
+    /**
+     * The locks used to make sure a view is created only once when requested concurrently, indexed by cache key.
+     */
+    private final ConcurrentMap<String, Object> creationLocks = new ConcurrentHashMap<String, Object>();
+
     @Override
     public void initialize() throws InitializationException
     {
@@ -123,6 +140,8 @@ public XDOM createView(AttachmentReference attachmentReference, Map<String, Stri
             if (view != null) {
                 cache.remove(cacheKey);
             }
+            // Remove the stored views as well.
+            viewStore.delete(attachmentReference);
             throw new Exception(String.format("Attachment [%s] does not exist.", attachmentReference));
         }
 
@@ -134,10 +153,9 @@ public XDOM createView(AttachmentReference attachmentReference, Map<String, Stri
             view = null;
         }
 
-        // If a view in not available, build one and cache it.
+        // If a view in not available, load or build one and cache it.
         if (view == null) {
-            view = createOfficeDocumentView(attachmentReference, parameters);
-            cache.set(cacheKey, view);
+            view = getOfficeDocumentView(cacheKey, attachmentReference, currentVersion, parameters);
         }
 
         // We have to clone the cached XDOM to protect it from the rendering transformations. For instance, macro
@@ -145,6 +163,80 @@ public XDOM createView(AttachmentReference attachmentReference, Map<String, Stri
         return view.getXDOM().clone();
     }
 
+    /**
+     * Loads the view from the store or creates it, making sure the office document is converted only once when the
+     * view is requested concurrently.
+     * 
+     * @param cacheKey the key used to cache the view
+     * @param attachmentReference reference to the attachment to be viewed
+     * @param version the current version of the attachment
+     * @param parameters implementation specific view parameters
+     * @return the view of the specified attachment
+     * @throws Exception if an error occurs while creating the view
+     */
+    private OfficeDocumentView getOfficeDocumentView(String cacheKey, AttachmentReference attachmentReference,
+        String version, Map<String, String> parameters) throws Exception
+    {
+        Object lock = new Object();
+        Object existingLock = creationLocks.putIfAbsent(cacheKey, lock);
+        if (existingLock != null) {
+            lock = existingLock;
+        }
+
+        try {
+            synchronized (lock) {
+                // The view might have been created while we were waiting.
+                OfficeDocumentView view = cache.get(cacheKey);
+                if (view == null || !version.equals(view.getVersion())) {
+                    view = loadOfficeDocumentView(attachmentReference, version, parameters);
+                    if (view == null) {
+                        view = createOfficeDocumentView(attachmentReference, parameters);
+                        storeOfficeDocumentView(view, parameters);
+                    }
+                    cache.set(cacheKey, view);
+                }
+
+                return view;
+            }
+        } finally {
+            creationLocks.remove(cacheKey, lock);
+        }
+    }
+
+    /**
+     * @param attachmentReference reference to the attachment to be viewed
+     * @param version the current version of the attachment
+     * @param parameters implementation specific view parameters
+     * @return the stored view or {@code null} if the view hasn't been stored or can't be loaded
+     */
+    private OfficeDocumentView loadOfficeDocumentView(AttachmentReference attachmentReference, String version,
+        Map<String, String> parameters)
+    {
+        try {
+            if (viewStore.exists(attachmentReference, version, parameters)) {
+                return viewStore.load(attachmentReference, version, parameters,
+                    getTemporaryDirectory(attachmentReference));
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to load the stored view of [{}]. Converting it again.", attachmentReference, e);
+        }
+
+        return null;
+    }
+
+    /**
+     * @param view the view to store
+     * @param parameters implementation specific view parameters
+     */
+    private void storeOfficeDocumentView(OfficeDocumentView view, Map<String, String> parameters)
+    {
+        try {
+            viewStore.store(view, parameters);
+        } catch (Exception e) {
+            logger.warn("Failed to store the view of [{}].", view.getAttachmentReference(), e);
+        }
+    }
+
     /**
      * @param attachmentReference reference to the attachment to be viewed
      * @param viewParameters implementation specific view parameters
@@ -0,0 +1,326 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.office.viewer.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+/**
+ * Stores office document views in the permanent directory. The view content is serialized in XWiki 2.1 syntax (the
+ * XDOM produced by the office importer is meant to be saved as wiki content anyway) and the view artifacts (e.g.
+ * images) are stored next to it.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Singleton
+public class DefaultOfficeDocumentViewStore implements OfficeDocumentViewStore
+{
+    /**
+     * Default encoding used for encoding wiki, space, page and attachment names and for the stored content.
+     */
+    private static final String DEFAULT_ENCODING = "UTF-8";
+
+    /**
+     * The name of the directory where views are stored, inside the permanent directory.
+     */
+    private static final String MODULE_NAME = "officeviewer";
+
+    /**
+     * The name of the file holding the version of the attachment the view corresponds to.
+     */
+    private static final String VERSION_FILE = "version.txt";
+
+    /**
+     * The name of the file holding the view content.
+     */
+    private static final String CONTENT_FILE = "content.xwiki";
+
+    /**
+     * The name of the directory holding the view artifacts.
+     */
+    private static final String ARTIFACTS_DIRECTORY = "artifacts";
+
+    /**
+     * The syntax used to serialize the view content.
+     */
+    private static final String SYNTAX = "xwiki/2.1";
+
+    /**
+     * Used to access the permanent directory.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * Used to serialize the view content.
+     */
+    @Inject
+    @Named(SYNTAX)
+    private BlockRenderer renderer;
+
+    /**
+     * Used to parse the stored view content.
+     */
+    @Inject
+    @Named(SYNTAX)
+    private Parser parser;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    @Override
+    public boolean exists(AttachmentReference attachmentReference, String version, Map<String, String> parameters)
+    {
+        try {
+            File versionFile = new File(getViewDirectory(attachmentReference, parameters), VERSION_FILE);
+
+            return versionFile.isFile() && version.equals(FileUtils.readFileToString(versionFile, DEFAULT_ENCODING));
+        } catch (Exception e) {
+            this.logger.warn("Failed to read the version of the stored view of [{}]: {}", attachmentReference,
+                e.getMessage());
+
+            return false;
+        }
+    }
+
+    @Override
+    public OfficeDocumentView load(AttachmentReference attachmentReference, String version,
+        Map<String, String> parameters, File temporaryDirectory) throws Exception
+    {
+        if (!exists(attachmentReference, version, parameters)) {
+            return null;
+        }
+
+        File viewDirectory = getViewDirectory(attachmentReference, parameters);
+
+        XDOM xdom;
+        Reader reader = new InputStreamReader(new FileInputStream(new File(viewDirectory, CONTENT_FILE)),
+            DEFAULT_ENCODING);
+        try {
+            xdom = this.parser.parse(reader);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+
+        // Restore the artifacts where the view expects them.
+        Set<File> temporaryFiles = new HashSet<File>();
+        File[] artifacts = new File(viewDirectory, ARTIFACTS_DIRECTORY).listFiles();
+        if (artifacts != null) {
+            for (File artifact : artifacts) {
+                File temporaryFile = new File(temporaryDirectory, artifact.getName());
+                if (!temporaryFile.exists() || temporaryFile.length() != artifact.length()) {
+                    FileUtils.copyFile(artifact, temporaryFile);
+                }
+                temporaryFile.deleteOnExit();
+                temporaryFiles.add(temporaryFile);
+            }
+        }
+
+        return new OfficeDocumentView(attachmentReference, version, xdom, temporaryFiles);
+    }
+
+    @Override
+    public void store(OfficeDocumentView view, Map<String, String> parameters) throws Exception
+    {
+        File viewDirectory = getViewDirectory(view.getAttachmentReference(), parameters);
+
+        // Write the view in a separate directory first so that a partially written view is never loaded.
+        File newViewDirectory = new File(viewDirectory.getParentFile(), viewDirectory.getName() + ".new");
+        FileUtils.deleteQuietly(newViewDirectory);
+        try {
+            WikiPrinter printer = new DefaultWikiPrinter();
+            this.renderer.render(view.getXDOM(), printer);
+            FileUtils.writeStringToFile(new File(newViewDirectory, CONTENT_FILE), printer.toString(),
+                DEFAULT_ENCODING);
+
+            File artifactsDirectory = new File(newViewDirectory, ARTIFACTS_DIRECTORY);
+            for (File temporaryFile : view.getTemporaryFiles()) {
+                FileUtils.copyFile(temporaryFile, new File(artifactsDirectory, temporaryFile.getName()));
+            }
+
+            // The version file is written last since it marks the view as complete.
+            FileUtils.writeStringToFile(new File(newViewDirectory, VERSION_FILE), view.getVersion(),
+                DEFAULT_ENCODING);
+
+            FileUtils.deleteDirectory(viewDirectory);
+            FileUtils.moveDirectory(newViewDirectory, viewDirectory);
+        } finally {
+            FileUtils.deleteQuietly(newViewDirectory);
+        }
+    }
+
+    @Override
+    public void delete(AttachmentReference attachmentReference)
+    {
+        try {
+            File attachmentDirectory = getAttachmentDirectory(attachmentReference);
+            FileUtils.deleteDirectory(attachmentDirectory);
+
+            // Don't leave the directories of the deleted documents behind.
+            File documentDirectory = attachmentDirectory.getParentFile();
+            String[] attachmentDirectories = documentDirectory.list();
+            if (attachmentDirectories != null && attachmentDirectories.length == 0) {
+                documentDirectory.delete();
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to delete the stored views of [{}]: {}", attachmentReference, e.getMessage());
+        }
+    }
+
+    @Override
+    public Collection<AttachmentReference> getStoredAttachments(DocumentReference documentReference)
+    {
+        List<AttachmentReference> attachmentReferences = new ArrayList<AttachmentReference>();
+        try {
+            String[] attachmentDirectories = getDocumentDirectory(documentReference).list();
+            if (attachmentDirectories != null) {
+                for (String attachmentDirectory : attachmentDirectories) {
+                    attachmentReferences.add(new AttachmentReference(URLDecoder.decode(attachmentDirectory,
+                        DEFAULT_ENCODING), documentReference));
+                }
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to list the stored views of [{}]: {}", documentReference, e.getMessage());
+        }
+
+        return attachmentReferences;
+    }
+
+    /**
+     * @param documentReference reference to the document holding the office attachments
+     * @return the directory where the views of the attachments of the specified document are stored
+     * @throws UnsupportedEncodingException if UTF-8 is not supported (should never happen)
+     */
+    private File getDocumentDirectory(DocumentReference documentReference) throws UnsupportedEncodingException
+    {
+        // Encode to avoid illegal characters in file paths.
+        String wiki = URLEncoder.encode(documentReference.getWikiReference().getName(), DEFAULT_ENCODING);
+        String space = URLEncoder.encode(documentReference.getParent().getName(), DEFAULT_ENCODING);
+        String page = URLEncoder.encode(documentReference.getName(), DEFAULT_ENCODING);
+
+        String path = String.format("%s/%s/%s/%s", MODULE_NAME, wiki, space, page);
+
+        return new File(this.environment.getPermanentDirectory(), path);
+    }
+
+    /**
+     * @param attachmentReference reference to the office attachment
+     * @return the directory where the views of the specified attachment are stored
+     * @throws UnsupportedEncodingException if UTF-8 is not supported (should never happen)
+     */
+    private File getAttachmentDirectory(AttachmentReference attachmentReference) throws UnsupportedEncodingException
+    {
+        return new File(getDocumentDirectory(attachmentReference.getDocumentReference()),
+            URLEncoder.encode(attachmentReference.getName(), DEFAULT_ENCODING));
+    }
+
+    /**
+     * @param attachmentReference reference to the office attachment
+     * @param parameters the view parameters
+     * @return the directory where the view of the specified attachment is stored for the given parameters
+     * @throws Exception if UTF-8 or SHA-1 are not supported (should never happen)
+     */
+    private File getViewDirectory(AttachmentReference attachmentReference, Map<String, String> parameters)
+        throws Exception
+    {
+        return new File(getAttachmentDirectory(attachmentReference), getParametersDigest(parameters));
+    }
+
+    /**
+     * Unlike the hash code of the parameters map, the digest of the sorted parameters is stable across restarts and
+     * JVMs and is very unlikely to be the same for two different sets of parameters, which would mix up their views.
+     * 
+     * @param parameters the view parameters
+     * @return the name of the directory where the view is stored for the given parameters
+     * @throws NoSuchAlgorithmException if SHA-1 is not supported (should never happen)
+     * @throws UnsupportedEncodingException if UTF-8 is not supported (should never happen)
+     */
+    private String getParametersDigest(Map<String, String> parameters)
+        throws NoSuchAlgorithmException, UnsupportedEncodingException
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        for (Map.Entry<String, String> parameter : new TreeMap<String, String>(parameters).entrySet()) {
+            update(digest, parameter.getKey());
+            update(digest, parameter.getValue());
+        }
+        byte[] hash = digest.digest();
+
+        StringBuilder builder = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Add a nullable value to the digest, separated from the next one so that different parameters can't produce the
+     * same digest input.
+     * 
+     * @param digest the digest of the parameters
+     * @param value the value to add, can be null
+     * @throws UnsupportedEncodingException if UTF-8 is not supported (should never happen)
+     */
+    private void update(MessageDigest digest, String value) throws UnsupportedEncodingException
+    {
+        if (value != null) {
+            digest.update((byte) 1);
+            digest.update(value.getBytes(DEFAULT_ENCODING));
+        }
+        digest.update((byte) 0);
+    }
+}
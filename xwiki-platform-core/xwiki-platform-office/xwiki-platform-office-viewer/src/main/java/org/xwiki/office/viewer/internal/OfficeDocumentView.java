@@ -104,4 +104,13 @@ public XDOM getXDOM()
     {
         return this.xdom;
     }
+
+    /**
+     * @return the temporary files used by this view
+     * @since 5.3M1
+     */
+    public Set<File> getTemporaryFiles()
+    {
+        return this.temporaryFiles;
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.office.viewer.internal;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Persists office document views so that they survive restarts and cache evictions, sparing the (costly) conversion
+ * of the office document by the office server.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Role
+public interface OfficeDocumentViewStore
+{
+    /**
+     * @param attachmentReference reference to the office attachment
+     * @param version the version of the attachment
+     * @param parameters the view parameters
+     * @return {@code true} if a view of the specified attachment version has been stored for the given parameters
+     */
+    boolean exists(AttachmentReference attachmentReference, String version, Map<String, String> parameters);
+
+    /**
+     * Loads a stored view. The files referenced by the view (e.g. images) are restored in the given directory.
+     * 
+     * @param attachmentReference reference to the office attachment
+     * @param version the version of the attachment
+     * @param parameters the view parameters
+     * @param temporaryDirectory the directory where to restore the files used by the view
+     * @return the stored view or {@code null} if no view of the specified attachment version has been stored
+     * @throws Exception if loading the view fails
+     */
+    OfficeDocumentView load(AttachmentReference attachmentReference, String version, Map<String, String> parameters,
+        File temporaryDirectory) throws Exception;
+
+    /**
+     * Stores a view, replacing any view previously stored for the same attachment and parameters.
+     * 
+     * @param view the view to store
+     * @param parameters the view parameters
+     * @throws Exception if storing the view fails
+     */
+    void store(OfficeDocumentView view, Map<String, String> parameters) throws Exception;
+
+    /**
+     * Removes all the views stored for the specified attachment.
+     * 
+     * @param attachmentReference reference to the office attachment
+     */
+    void delete(AttachmentReference attachmentReference);
+
+    /**
+     * @param documentReference reference to a document
+     * @return the attachments of the specified document which have stored views
+     */
+    Collection<AttachmentReference> getStoredAttachments(DocumentReference documentReference);
+}
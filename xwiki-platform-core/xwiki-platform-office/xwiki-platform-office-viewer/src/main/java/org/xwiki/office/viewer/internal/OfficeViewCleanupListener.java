@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.office.viewer.internal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Removes the stored views of the office attachments which have been deleted, either alone or with their document, so
+ * that they don't pile up in the permanent directory. Deleting an attachment saves its document so the deleted
+ * attachments are the ones with a stored view which the saved document doesn't have anymore.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Named("officeViewCleanup")
+@Singleton
+public class OfficeViewCleanupListener implements EventListener
+{
+    /**
+     * The events to listen to.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event> asList(new DocumentUpdatedEvent(),
+        new DocumentDeletedEvent());
+
+    /**
+     * Used to access the attachments of the saved document.
+     */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * Used to remove the views of the deleted attachments.
+     */
+    @Inject
+    private OfficeDocumentViewStore viewStore;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    @Override
+    public String getName()
+    {
+        return "officeViewCleanup";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return EVENTS;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        DocumentReference documentReference = ((DocumentModelBridge) source).getDocumentReference();
+        try {
+            // A deleted document has no attachments anymore, unless only one of its translations has been deleted.
+            Set<AttachmentReference> attachmentReferences =
+                new HashSet<AttachmentReference>(this.documentAccessBridge.getAttachmentReferences(documentReference));
+
+            for (AttachmentReference storedAttachmentReference : this.viewStore
+                .getStoredAttachments(documentReference)) {
+                if (!attachmentReferences.contains(storedAttachmentReference)) {
+                    this.viewStore.delete(storedAttachmentReference);
+                }
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to remove the stored views of the deleted office attachments of [{}]",
+                documentReference, e);
+        }
+    }
+}
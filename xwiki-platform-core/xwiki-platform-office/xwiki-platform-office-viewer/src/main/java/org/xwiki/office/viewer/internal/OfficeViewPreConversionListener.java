@@ -0,0 +1,246 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.office.viewer.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.office.viewer.OfficeViewer;
+import org.xwiki.officeimporter.converter.OfficeConverter;
+import org.xwiki.officeimporter.server.OfficeServer;
+import org.xwiki.officeimporter.server.OfficeServer.ServerState;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Converts office attachments in the background as soon as they are uploaded so that the first view doesn't have to
+ * wait for the office server. Disabled by default, see {@link #PROPERTY_ENABLED}.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Named("officeViewPreConversion")
+@Singleton
+public class OfficeViewPreConversionListener implements EventListener, Disposable
+{
+    /**
+     * The name of the configuration property used to enable the pre-conversion.
+     */
+    public static final String PROPERTY_ENABLED = "officeviewer.preConversion.enabled";
+
+    /**
+     * The view parameters used for pre-conversion, matching the default parameters of the office macro.
+     */
+    private static final Map<String, String> VIEW_PARAMETERS = Collections.singletonMap("filterStyles", "true");
+
+    /**
+     * The events to listen to.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event> asList(new DocumentCreatedEvent(),
+        new DocumentUpdatedEvent());
+
+    /**
+     * Used to read the configuration.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to access the attachments of the saved document.
+     */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * Used to know if an attachment is an office document which can be converted.
+     */
+    @Inject
+    private OfficeServer officeServer;
+
+    /**
+     * Used to know if a view has already been created.
+     */
+    @Inject
+    private OfficeDocumentViewStore viewStore;
+
+    /**
+     * Used to create the views. Lazily looked up to not initialize the viewer too early.
+     */
+    @Inject
+    private Provider<OfficeViewer> officeViewerProvider;
+
+    /**
+     * Used to initialize the execution context of the conversion thread.
+     */
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * Used to set the execution context of the conversion thread.
+     */
+    @Inject
+    private Execution execution;
+
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The thread converting the office attachments. A single thread is enough since the office server processes one
+     * document at a time anyway.
+     */
+    private ExecutorService executor;
+
+    @Override
+    public String getName()
+    {
+        return "officeViewPreConversion";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return EVENTS;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (!this.configuration.getProperty(PROPERTY_ENABLED, Boolean.FALSE)
+            || this.officeServer.getState() != ServerState.CONNECTED) {
+            return;
+        }
+
+        DocumentModelBridge document = (DocumentModelBridge) source;
+        try {
+            for (AttachmentReference attachmentReference : this.documentAccessBridge
+                .getAttachmentReferences(document.getDocumentReference())) {
+                if (isOfficeDocument(attachmentReference.getName())) {
+                    String version = this.documentAccessBridge.getAttachmentVersion(attachmentReference);
+                    if (!this.viewStore.exists(attachmentReference, version, VIEW_PARAMETERS)) {
+                        getExecutor().execute(new PreConversion(attachmentReference));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            this.logger.warn("Failed to schedule the conversion of the office attachments of [{}]",
+                document.getDocumentReference(), e);
+        }
+    }
+
+    /**
+     * @param fileName the attachment file name
+     * @return {@code true} if the file extension is supported by the office server
+     */
+    private boolean isOfficeDocument(String fileName)
+    {
+        OfficeConverter officeConverter = this.officeServer.getConverter();
+        if (officeConverter != null) {
+            String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+            return officeConverter.getFormatRegistry().getFormatByExtension(extension) != null;
+        }
+        return false;
+    }
+
+    /**
+     * @return the executor used to run the conversions
+     */
+    private synchronized ExecutorService getExecutor()
+    {
+        if (this.executor == null) {
+            BasicThreadFactory factory =
+                new BasicThreadFactory.Builder().namingPattern("XWiki office view pre-conversion thread")
+                    .daemon(true).priority(Thread.MIN_PRIORITY).build();
+            this.executor = Executors.newSingleThreadExecutor(factory);
+        }
+
+        return this.executor;
+    }
+
+    @Override
+    public synchronized void dispose() throws ComponentLifecycleException
+    {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates the view of an office attachment.
+     */
+    private class PreConversion implements Runnable
+    {
+        /**
+         * The office attachment to convert.
+         */
+        private final AttachmentReference attachmentReference;
+
+        /**
+         * @param attachmentReference the office attachment to convert
+         */
+        PreConversion(AttachmentReference attachmentReference)
+        {
+            this.attachmentReference = attachmentReference;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                executionContextManager.initialize(new ExecutionContext());
+                try {
+                    // The view is stored as a side effect of its creation.
+                    officeViewerProvider.get().createView(this.attachmentReference, VIEW_PARAMETERS);
+                } finally {
+                    execution.removeContext();
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to convert office attachment [{}]", this.attachmentReference, e);
+            }
+        }
+    }
+}
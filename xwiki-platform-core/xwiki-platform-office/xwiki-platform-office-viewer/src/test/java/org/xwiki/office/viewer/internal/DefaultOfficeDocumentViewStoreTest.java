@@ -0,0 +1,212 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.office.viewer.internal;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+/**
+ * Test case for {@link DefaultOfficeDocumentViewStore}.
+ * 
+ * @version $Id$
+ */
+public class DefaultOfficeDocumentViewStoreTest
+{
+    /**
+     * An attachment reference to be used in tests.
+     */
+    private static final AttachmentReference ATTACHMENT_REFERENCE = new AttachmentReference("Test file.ppt",
+        new DocumentReference("xwiki", "Main", "Test"));
+
+    /**
+     * Default view parameters.
+     */
+    private static final Map<String, String> VIEW_PARAMETERS = Collections.singletonMap("filterStyles", "true");
+
+    /**
+     * A component manager that automatically mocks all dependencies of {@link DefaultOfficeDocumentViewStore}.
+     */
+    @Rule
+    public MockitoComponentMockingRule<OfficeDocumentViewStore> mocker =
+        new MockitoComponentMockingRule<OfficeDocumentViewStore>(DefaultOfficeDocumentViewStore.class);
+
+    /**
+     * Used to create the permanent and temporary directories.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test fixture.
+     * 
+     * @throws Exception in case of an exception raised during the fixture preparation
+     */
+    @Before
+    public void configure() throws Exception
+    {
+        Environment environment = mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(folder.newFolder("permanent"));
+
+        BlockRenderer renderer = mocker.getInstance(BlockRenderer.class, "xwiki/2.1");
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                ((WikiPrinter) invocation.getArguments()[1]).print("content");
+                return null;
+            }
+        }).when(renderer).render(any(Block.class), any(WikiPrinter.class));
+
+        Parser parser = mocker.getInstance(Parser.class, "xwiki/2.1");
+        when(parser.parse(any(Reader.class))).thenReturn(new XDOM(new ArrayList<Block>()));
+    }
+
+    /**
+     * Tests storing and loading a view with an artifact.
+     * 
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testStoreAndLoad() throws Exception
+    {
+        File artifact = new File(folder.newFolder("temporary"), "slide0.png");
+        FileUtils.writeStringToFile(artifact, "image");
+        OfficeDocumentView view =
+            new OfficeDocumentView(ATTACHMENT_REFERENCE, "1.1", new XDOM(new ArrayList<Block>()),
+                Collections.singleton(artifact));
+
+        OfficeDocumentViewStore store = mocker.getComponentUnderTest();
+        Assert.assertFalse(store.exists(ATTACHMENT_REFERENCE, "1.1", VIEW_PARAMETERS));
+
+        store.store(view, VIEW_PARAMETERS);
+
+        Assert.assertTrue(store.exists(ATTACHMENT_REFERENCE, "1.1", VIEW_PARAMETERS));
+        Assert.assertFalse(store.exists(ATTACHMENT_REFERENCE, "1.2", VIEW_PARAMETERS));
+        Assert.assertFalse(store.exists(ATTACHMENT_REFERENCE, "1.1", Collections.<String, String> emptyMap()));
+
+        // Simulate a restart which cleaned the temporary directory.
+        File restoreDirectory = folder.newFolder("restored");
+        OfficeDocumentView loadedView = store.load(ATTACHMENT_REFERENCE, "1.1", VIEW_PARAMETERS, restoreDirectory);
+
+        Assert.assertEquals("1.1", loadedView.getVersion());
+        Assert.assertEquals(Collections.singleton(new File(restoreDirectory, "slide0.png")),
+            loadedView.getTemporaryFiles());
+        Assert.assertEquals("image", FileUtils.readFileToString(new File(restoreDirectory, "slide0.png")));
+
+        Assert.assertNull(store.load(ATTACHMENT_REFERENCE, "1.2", VIEW_PARAMETERS, restoreDirectory));
+    }
+
+    /**
+     * Tests deleting the stored views of an attachment.
+     * 
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testDelete() throws Exception
+    {
+        OfficeDocumentView view =
+            new OfficeDocumentView(ATTACHMENT_REFERENCE, "1.1", new XDOM(new ArrayList<Block>()),
+                Collections.<File> emptySet());
+
+        OfficeDocumentViewStore store = mocker.getComponentUnderTest();
+        store.store(view, VIEW_PARAMETERS);
+        store.delete(ATTACHMENT_REFERENCE);
+
+        Assert.assertFalse(store.exists(ATTACHMENT_REFERENCE, "1.1", VIEW_PARAMETERS));
+    }
+
+    /**
+     * Tests that the view is found whatever the order of its parameters.
+     * 
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testParametersOrder() throws Exception
+    {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("filterStyles", "true");
+        parameters.put("ownerDocument", "Main.Test");
+        OfficeDocumentView view =
+            new OfficeDocumentView(ATTACHMENT_REFERENCE, "1.1", new XDOM(new ArrayList<Block>()),
+                Collections.<File> emptySet());
+
+        OfficeDocumentViewStore store = mocker.getComponentUnderTest();
+        store.store(view, parameters);
+
+        Map<String, String> reversedParameters = new LinkedHashMap<String, String>();
+        reversedParameters.put("ownerDocument", "Main.Test");
+        reversedParameters.put("filterStyles", "true");
+        Assert.assertTrue(store.exists(ATTACHMENT_REFERENCE, "1.1", reversedParameters));
+
+        // The separators make sure the parameters can't be mixed up.
+        Assert.assertFalse(store.exists(ATTACHMENT_REFERENCE, "1.1",
+            Collections.singletonMap("filterStyles", "trueownerDocumentMain.Test")));
+    }
+
+    /**
+     * Tests listing the attachments which have stored views.
+     * 
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testGetStoredAttachments() throws Exception
+    {
+        OfficeDocumentView view =
+            new OfficeDocumentView(ATTACHMENT_REFERENCE, "1.1", new XDOM(new ArrayList<Block>()),
+                Collections.<File> emptySet());
+
+        OfficeDocumentViewStore store = mocker.getComponentUnderTest();
+        DocumentReference documentReference = ATTACHMENT_REFERENCE.getDocumentReference();
+        Assert.assertTrue(store.getStoredAttachments(documentReference).isEmpty());
+
+        store.store(view, VIEW_PARAMETERS);
+        Assert.assertEquals(Collections.singletonList(ATTACHMENT_REFERENCE),
+            store.getStoredAttachments(documentReference));
+
+        store.delete(ATTACHMENT_REFERENCE);
+        Assert.assertTrue(store.getStoredAttachments(documentReference).isEmpty());
+    }
+}
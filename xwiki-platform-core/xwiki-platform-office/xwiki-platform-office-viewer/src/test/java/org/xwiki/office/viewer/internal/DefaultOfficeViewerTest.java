@@ -106,6 +106,11 @@
      */
     private Cache<OfficeDocumentView> cache;
 
+    /**
+     * The mock {@link OfficeDocumentViewStore} instance used in tests.
+     */
+    private OfficeDocumentViewStore viewStore;
+
     /**
      * Test fixture.
      * 
@@ -124,6 +129,7 @@ public void configure() throws Exception
 
         documentAccessBridge = mocker.getInstance(DocumentAccessBridge.class);
         officeDocumentBuilder = mocker.getInstance(XDOMOfficeDocumentBuilder.class);
+        viewStore = mocker.getInstance(OfficeDocumentViewStore.class);
     }
 
     /**
@@ -144,6 +150,8 @@ public void testViewNonExistingOfficeAttachment() throws Exception
         } catch (Exception e) {
             Assert.assertEquals(String.format("Attachment [%s] does not exist.", ATTACHMENT_REFERENCE), e.getMessage());
         }
+
+        verify(viewStore).delete(ATTACHMENT_REFERENCE);
     }
 
     /**
@@ -171,6 +179,38 @@ public void testViewExistingOfficeAttachmentWithCacheMiss() throws Exception
         mocker.getComponentUnderTest().createView(ATTACHMENT_REFERENCE, DEFAULT_VIEW_PARAMETERS);
 
         verify(cache).set(eq(CACHE_KEY), notNull(OfficeDocumentView.class));
+        verify(viewStore).store(notNull(OfficeDocumentView.class), eq(DEFAULT_VIEW_PARAMETERS));
+    }
+
+    /**
+     * Tests creating a view for an office attachment which is not cached but has been stored (e.g. before a restart).
+     * 
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testViewExistingOfficeAttachmentWithCacheMissAndStoredView() throws Exception
+    {
+        Environment environment = mocker.getInstance(Environment.class);
+        when(environment.getTemporaryDirectory()).thenReturn(new File(System.getProperty("java.io.tmpdir")));
+
+        when(cache.get(CACHE_KEY)).thenReturn(null);
+        when(documentAccessBridge.getAttachmentReferences(ATTACHMENT_REFERENCE.getDocumentReference())).thenReturn(
+            Arrays.asList(ATTACHMENT_REFERENCE));
+        when(documentAccessBridge.getAttachmentVersion(ATTACHMENT_REFERENCE)).thenReturn(ATTACHMENT_VERSION);
+
+        OfficeDocumentView officeDocumentView =
+            new OfficeDocumentView(ATTACHMENT_REFERENCE, ATTACHMENT_VERSION, new XDOM(new ArrayList<Block>()),
+                new HashSet<File>());
+        when(viewStore.exists(ATTACHMENT_REFERENCE, ATTACHMENT_VERSION, DEFAULT_VIEW_PARAMETERS)).thenReturn(true);
+        when(viewStore.load(eq(ATTACHMENT_REFERENCE), eq(ATTACHMENT_VERSION), eq(DEFAULT_VIEW_PARAMETERS),
+            any(File.class))).thenReturn(officeDocumentView);
+
+        Assert.assertNotNull(mocker.getComponentUnderTest().createView(ATTACHMENT_REFERENCE, DEFAULT_VIEW_PARAMETERS));
+
+        // The office document must not be converted again.
+        verify(documentAccessBridge, never()).getAttachmentContent(ATTACHMENT_REFERENCE);
+        verify(viewStore, never()).store(any(OfficeDocumentView.class), anyMap());
+        verify(cache).set(CACHE_KEY, officeDocumentView);
     }
 
     /**
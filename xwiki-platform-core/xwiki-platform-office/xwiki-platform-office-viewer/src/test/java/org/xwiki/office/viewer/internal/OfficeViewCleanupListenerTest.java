@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.office.viewer.internal;
+
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+/**
+ * Test case for {@link OfficeViewCleanupListener}.
+ * 
+ * @version $Id$
+ */
+public class OfficeViewCleanupListenerTest
+{
+    /**
+     * The document holding the office attachments.
+     */
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("xwiki", "Main", "Test");
+
+    /**
+     * An office attachment which is kept.
+     */
+    private static final AttachmentReference KEPT_ATTACHMENT = new AttachmentReference("kept.ppt",
+        DOCUMENT_REFERENCE);
+
+    /**
+     * An office attachment which is deleted.
+     */
+    private static final AttachmentReference DELETED_ATTACHMENT = new AttachmentReference("deleted.doc",
+        DOCUMENT_REFERENCE);
+
+    /**
+     * A component manager that automatically mocks all dependencies of {@link OfficeViewCleanupListener}.
+     */
+    @Rule
+    public MockitoComponentMockingRule<EventListener> mocker = new MockitoComponentMockingRule<EventListener>(
+        OfficeViewCleanupListener.class);
+
+    /**
+     * The saved or deleted document.
+     */
+    private DocumentModelBridge document;
+
+    /**
+     * Used to remove the views.
+     */
+    private OfficeDocumentViewStore viewStore;
+
+    /**
+     * Test fixture.
+     * 
+     * @throws Exception in case of an exception raised during the fixture preparation
+     */
+    @Before
+    public void configure() throws Exception
+    {
+        this.document = mock(DocumentModelBridge.class);
+        when(this.document.getDocumentReference()).thenReturn(DOCUMENT_REFERENCE);
+
+        this.viewStore = mocker.getInstance(OfficeDocumentViewStore.class);
+        when(this.viewStore.getStoredAttachments(DOCUMENT_REFERENCE)).thenReturn(
+            Arrays.asList(KEPT_ATTACHMENT, DELETED_ATTACHMENT));
+    }
+
+    /**
+     * Tests that only the views of the deleted attachments are removed when a document is saved.
+     * 
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testDeleteAttachment() throws Exception
+    {
+        DocumentAccessBridge documentAccessBridge = mocker.getInstance(DocumentAccessBridge.class);
+        when(documentAccessBridge.getAttachmentReferences(DOCUMENT_REFERENCE)).thenReturn(
+            Collections.singletonList(KEPT_ATTACHMENT));
+
+        mocker.getComponentUnderTest().onEvent(new DocumentUpdatedEvent(DOCUMENT_REFERENCE), this.document, null);
+
+        verify(this.viewStore).delete(DELETED_ATTACHMENT);
+        verify(this.viewStore, never()).delete(KEPT_ATTACHMENT);
+    }
+
+    /**
+     * Tests that all the views of a deleted document are removed.
+     * 
+     * @throws Exception if an error occurs
+     */
+    @Test
+    public void testDeleteDocument() throws Exception
+    {
+        DocumentAccessBridge documentAccessBridge = mocker.getInstance(DocumentAccessBridge.class);
+        when(documentAccessBridge.getAttachmentReferences(DOCUMENT_REFERENCE)).thenReturn(
+            Collections.<AttachmentReference> emptyList());
+
+        mocker.getComponentUnderTest().onEvent(new DocumentDeletedEvent(DOCUMENT_REFERENCE), this.document, null);
+
+        verify(this.viewStore).delete(KEPT_ATTACHMENT);
+        verify(this.viewStore).delete(DELETED_ATTACHMENT);
+    }
+}
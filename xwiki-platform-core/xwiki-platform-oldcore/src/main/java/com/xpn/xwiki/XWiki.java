@@ -39,6 +39,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
@@ -51,6 +52,9 @@
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 import java.util.zip.ZipOutputStream;
 
@@ -149,7 +153,11 @@
 import com.xpn.xwiki.internal.event.XObjectPropertyEvent;
 import com.xpn.xwiki.internal.event.XObjectPropertyUpdatedEvent;
 import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+import com.xpn.xwiki.internal.mandatory.MandatoryDocumentsUpdater;
+import com.xpn.xwiki.internal.preferences.PreferenceCache;
+import com.xpn.xwiki.internal.template.CachedTemplate;
 import com.xpn.xwiki.internal.template.PrivilegedTemplateRenderer;
+import com.xpn.xwiki.internal.template.TemplateCache;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.PropertyInterface;
 import com.xpn.xwiki.objects.classes.BaseClass;
@@ -288,7 +296,12 @@ public class XWiki implements EventListener
     private String fullNameSQL;
 
     // These are caches in order to improve finding virtual wikis
-    private List<String> virtualWikiList = new ArrayList<String>();
+    private List<String> virtualWikiList = new CopyOnWriteArrayList<String>();
+
+    /**
+     * The locks used to initialize each wiki only once.
+     */
+    private final ConcurrentMap<String, Object> wikiInitializationLocks = new ConcurrentHashMap<String, Object>();
 
     /**
      * The cache containing the names of the wikis already initialized.
@@ -355,6 +368,16 @@ public class XWiki implements EventListener
     private PrivilegedTemplateRenderer privilegedTemplateRenderer = Utils
         .getComponent(PrivilegedTemplateRenderer.class);
 
+    /**
+     * Remember where templates are resolved and what they contain. Lazily looked up, see {@link #getTemplateCache()}.
+     */
+    private TemplateCache templateCache;
+
+    /**
+     * Remember the resolved wiki, space and user preferences. Lazily looked up, see {@link #getPreferenceCache()}.
+     */
+    private PreferenceCache preferenceCache;
+
     private ResourceManager resourceManager = Utils.getComponent((Type) ResourceManager.class);
 
     /**
@@ -794,21 +817,7 @@ public void initXWiki(XWikiConfig config, XWikiContext context, XWikiEngineConte
     private void initializeMandatoryClasses(XWikiContext context) throws XWikiException
     {
         if (context.get("initdone") == null) {
-            List<MandatoryDocumentInitializer> initializers =
-                Utils.getComponentList(MandatoryDocumentInitializer.class);
-
-            for (MandatoryDocumentInitializer initializer : initializers) {
-                DocumentReference documentReference =
-                    this.currentReferenceDocumentReferenceResolver.resolve(initializer.getDocumentReference());
-
-                if (documentReference.getWikiReference().getName().equals(context.getDatabase())) {
-                    XWikiDocument document = context.getWiki().getDocument(documentReference, context);
-
-                    if (initializer.updateDocument(document)) {
-                        saveDocument(document, context);
-                    }
-                }
-            }
+            Utils.getComponent(MandatoryDocumentsUpdater.class).updateMandatoryDocuments(context);
         }
     }
 
@@ -863,28 +872,47 @@ public void updateDatabase(String wikiName, boolean force, boolean initClasses,
             }
 
             context.setDatabase(wikiName);
-            synchronized (wikiName) {
-                if (!wikiList.contains(wikiName)) {
-                    wikiList.add(wikiName);
-
-                    // Make sure these classes exists
-                    if (initClasses) {
-                        initializeMandatoryClasses(context);
-                        getPluginManager().virtualInit(context);
-                        getRenderingEngine().virtualInit(context);
-                    }
+            // Don't wait for the initialization of the wiki when it's already in progress in the current thread or in
+            // a thread it's waiting for
+            if (!wikiList.contains(wikiName)) {
+                initializeWiki(wikiName, initClasses, wikiList, context);
+            }
+        } finally {
+            context.setDatabase(database);
+        }
+    }
 
-                    // Add initdone which will allow to
-                    // bypass some initializations
-                    context.put("initdone", "1");
+    /**
+     * Initialize the wiki if no other thread did it, the wiki being initialized at most once at the same time.
+     */
+    private void initializeWiki(String wikiName, boolean initClasses, List<String> wikiList, XWikiContext context)
+        throws XWikiException
+    {
+        Object lock = new Object();
+        Object existingLock = this.wikiInitializationLocks.putIfAbsent(wikiName, lock);
+        if (existingLock != null) {
+            lock = existingLock;
+        }
 
-                    // Send event to notify listeners that the subwiki is ready
-                    ObservationManager observationManager = Utils.getComponent((Type) ObservationManager.class);
-                    observationManager.notify(new WikiReadyEvent(wikiName), wikiName, context);
+        synchronized (lock) {
+            if (!wikiList.contains(wikiName)) {
+                wikiList.add(wikiName);
+
+                // Make sure these classes exists
+                if (initClasses) {
+                    initializeMandatoryClasses(context);
+                    getPluginManager().virtualInit(context);
+                    getRenderingEngine().virtualInit(context);
                 }
+
+                // Add initdone which will allow to
+                // bypass some initializations
+                context.put("initdone", "1");
+
+                // Send event to notify listeners that the subwiki is ready
+                ObservationManager observationManager = Utils.getComponent((Type) ObservationManager.class);
+                observationManager.notify(new WikiReadyEvent(wikiName), wikiName, context);
             }
-        } finally {
-            context.setDatabase(database);
         }
     }
 
@@ -1350,6 +1378,8 @@ public XWikiDocument getDocument(EntityReference reference, XWikiContext context
 
     public XWikiDocument getDocument(XWikiDocument doc, XWikiContext context) throws XWikiException
     {
+        markDocumentAsRead(doc.getDocumentReference(), context);
+
         String database = context.getDatabase();
         try {
             if (doc.getDocumentReference().getWikiReference().getName() != null) {
@@ -1362,6 +1392,23 @@ public XWikiDocument getDocument(XWikiDocument doc, XWikiContext context) throws
         }
     }
 
+    /**
+     * Tell the code listening to the documents read in this context that this one is used.
+     * 
+     * @param reference the reference of the document which is read
+     * @param context the XWiki context
+     * @see XWikiContext#READ_DOCUMENTS_KEY
+     */
+    private void markDocumentAsRead(DocumentReference reference, XWikiContext context)
+    {
+        @SuppressWarnings("unchecked")
+        Collection<DocumentReference> readDocuments =
+            (Collection<DocumentReference>) context.get(XWikiContext.READ_DOCUMENTS_KEY);
+        if (readDocuments != null) {
+            readDocuments.add(reference);
+        }
+    }
+
     public XWikiDocument getDocument(XWikiDocument doc, String revision, XWikiContext context) throws XWikiException
     {
         XWikiDocument newdoc;
@@ -1684,46 +1731,93 @@ public String evaluateTemplate(String template, XWikiContext context) throws IOE
             return "";
         }
 
-        String content = getResourceContent(template);
-        return privilegedTemplateRenderer.evaluateTemplate(content, template);
+        CachedTemplate cachedTemplate = getTemplateCache().getResourceTemplate(template);
+        if (cachedTemplate == null) {
+            cachedTemplate = new CachedTemplate(getResourceContent(template), template);
+            getTemplateCache().setResourceTemplate(template, cachedTemplate);
+        }
+
+        return privilegedTemplateRenderer.evaluateTemplate(cachedTemplate.getContent(), template);
     }
 
     public String parseTemplate(String template, String skin, XWikiContext context)
     {
+        String content = getSkinTemplateContent(template, skin, context);
+        if (content != null) {
+            // Use "" as namespace to register macros in global namespace. That way it can be used in a renderer
+            // content not parsed at the same level.
+            return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"), context);
+        }
+
+        return null;
+    }
+
+    /**
+     * Resolve the content of a template for the passed skin, looking first in the skin document (object property,
+     * then attachment) and then in the skin directory of the webapp. The result (including the fact that the template
+     * does not exist in this skin) is cached until the skin document is modified.
+     * 
+     * @param template the name of the template
+     * @param skin the skin
+     * @param context the XWiki context
+     * @return the content of the template or {@code null} if the skin does not provide this template
+     */
+    private String getSkinTemplateContent(String template, String skin, XWikiContext context)
+    {
+        DocumentReference skinReference;
         try {
-            DocumentReference skinReference = this.currentMixedDocumentReferenceResolver.resolve(skin);
-            XWikiDocument doc = getDocument(skinReference, context);
-            if (!doc.isNew()) {
-                // Try parsing the object property
-                BaseObject object =
-                    doc.getXObject(new DocumentReference(doc.getDocumentReference().getWikiReference().getName(),
-                        SYSTEM_SPACE, "XWikiSkins"));
-                if (object != null) {
-                    String content = object.getStringValue(template);
-                    if (StringUtils.isNotBlank(content)) {
-                        // Let's use this template
-                        // Use "" as namespace to register macros in global namespace. That way it
-                        // can be used in a renderer content not parsed at the same level.
-                        return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"),
-                            context);
+            skinReference = this.currentMixedDocumentReferenceResolver.resolve(skin);
+        } catch (Exception e) {
+            LOGGER.debug("Failed to resolve skin reference [{}]", skin, e);
+
+            return loadSkinTemplate(template, skin, null, context).getContent();
+        }
+
+        TemplateCache cache = getTemplateCache();
+        CachedTemplate cachedTemplate = cache.getSkinTemplate(skinReference, template);
+        if (cachedTemplate == null) {
+            cachedTemplate = loadSkinTemplate(template, skin, skinReference, context);
+            cache.setSkinTemplate(skinReference, template, cachedTemplate);
+        }
+
+        return cachedTemplate.getContent();
+    }
+
+    private CachedTemplate loadSkinTemplate(String template, String skin, DocumentReference skinReference,
+        XWikiContext context)
+    {
+        if (skinReference != null) {
+            try {
+                XWikiDocument doc = getDocument(skinReference, context);
+                if (!doc.isNew()) {
+                    // Try parsing the object property
+                    BaseObject object =
+                        doc.getXObject(new DocumentReference(doc.getDocumentReference().getWikiReference().getName(),
+                            SYSTEM_SPACE, "XWikiSkins"));
+                    if (object != null) {
+                        String content = object.getStringValue(template);
+                        if (StringUtils.isNotBlank(content)) {
+                            // Let's use this template
+                            return new CachedTemplate(content, "object of skin document [" + skinReference + "]");
+                        }
                     }
-                }
-                // Try parsing a document attachment
-                XWikiAttachment attachment = doc.getAttachment(template);
-                if (attachment != null) {
-                    // It's impossible to know the real attachemtn encoding, but let's assume that they respect the
-                    // standard and use UTF-8 (which is required for the files located on the filesystem)
-                    String content = IOUtils.toString(attachment.getContentInputStream(context), DEFAULT_ENCODING);
-                    if (StringUtils.isNotBlank(content)) {
-                        // Let's use this template
-                        // Use "" as namespace to register macros in global namespace. That way it
-                        // can be used in a renderer content not parsed at the same level.
-                        return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"),
-                            context);
+                    // Try parsing a document attachment
+                    XWikiAttachment attachment = doc.getAttachment(template);
+                    if (attachment != null) {
+                        // It's impossible to know the real attachment encoding, but let's assume that they respect
+                        // the standard and use UTF-8 (which is required for the files located on the filesystem)
+                        String content =
+                            IOUtils.toString(attachment.getContentInputStream(context), DEFAULT_ENCODING);
+                        if (StringUtils.isNotBlank(content)) {
+                            // Let's use this template
+                            return new CachedTemplate(content, "attachment of skin document [" + skinReference
+                                + "]");
+                        }
                     }
                 }
+            } catch (Exception e) {
+                LOGGER.debug("Failed to load template [{}] from skin document [{}]", template, skinReference, e);
             }
-        } catch (Exception e) {
         }
 
         // Try parsing a file located in the directory with the same name.
@@ -1735,18 +1829,34 @@ public String parseTemplate(String template, String skin, XWikiContext context)
             // This is a safe assumption, as templates found under /templates/ are treated
             // separately, and there is no need to have templates in another place.
             if (path.startsWith("/skins/")) {
-                String content = getResourceContent(path);
-                // Use "" as namespace to register macros in global namespace. That way it can be
-                // used in a renderer content not parsed at the same level.
-                return XWikiVelocityRenderer.evaluate(content, "", (VelocityContext) context.get("vcontext"), context);
+                return new CachedTemplate(getResourceContent(path), path);
             } else {
                 LOGGER.warn("Illegal access, tried to use file [" + path + "] as a template."
                     + " Possible break-in attempt!");
             }
         } catch (Exception e) {
+            LOGGER.debug("Failed to load template [{}] from skin directory [{}]", template, skin, e);
         }
 
-        return null;
+        return CachedTemplate.NOT_FOUND;
+    }
+
+    private PreferenceCache getPreferenceCache()
+    {
+        if (this.preferenceCache == null) {
+            this.preferenceCache = Utils.getComponent(PreferenceCache.class);
+        }
+
+        return this.preferenceCache;
+    }
+
+    private TemplateCache getTemplateCache()
+    {
+        if (this.templateCache == null) {
+            this.templateCache = Utils.getComponent(TemplateCache.class);
+        }
+
+        return this.templateCache;
     }
 
     public String renderTemplate(String template, String skin, XWikiContext context)
@@ -2102,25 +2212,15 @@ public String getXWikiPreference(String prefname, String fallback_param, String
     {
         try {
             DocumentReference xwikiPreferencesReference = getPreferencesDocumentReference(context);
-            XWikiDocument doc = getDocument(xwikiPreferencesReference, context);
-            // First we try to get a translated preference object
-            BaseObject object =
-                doc.getXObject(xwikiPreferencesReference, "default_language", context.getLanguage(), true);
-            String result = "";
-
-            if (object != null) {
-                try {
-                    result = object.getStringValue(prefname);
-                } catch (Exception e) {
-                    LOGGER.warn("Exception while getting wiki preference [{}]", prefname, e);
-                }
-            }
-            // If empty we take it from the default pref object
-            if (result.equals("")) {
-                object = doc.getXObject();
-                if (object != null) {
-                    result = object.getStringValue(prefname);
-                }
+            String result =
+                getPreferenceCache().getPreference(xwikiPreferencesReference, context.getLanguage(), prefname);
+            if (result == null) {
+                long version = getPreferenceCache().getVersion();
+                result = resolveXWikiPreference(xwikiPreferencesReference, prefname, context);
+                getPreferenceCache().setPreference(xwikiPreferencesReference, context.getLanguage(), prefname,
+                    result, version);
+            } else {
+                markDocumentAsRead(xwikiPreferencesReference, context);
             }
 
             if (!result.equals("")) {
@@ -2132,6 +2232,33 @@ public String getXWikiPreference(String prefname, String fallback_param, String
         return Param(fallback_param, default_value);
     }
 
+    private String resolveXWikiPreference(DocumentReference xwikiPreferencesReference, String prefname,
+        XWikiContext context) throws XWikiException
+    {
+        XWikiDocument doc = getDocument(xwikiPreferencesReference, context);
+        // First we try to get a translated preference object
+        BaseObject object =
+            doc.getXObject(xwikiPreferencesReference, "default_language", context.getLanguage(), true);
+        String result = "";
+
+        if (object != null) {
+            try {
+                result = object.getStringValue(prefname);
+            } catch (Exception e) {
+                LOGGER.warn("Exception while getting wiki preference [{}]", prefname, e);
+            }
+        }
+        // If empty we take it from the default pref object
+        if (result.equals("")) {
+            object = doc.getXObject();
+            if (object != null) {
+                result = object.getStringValue(prefname);
+            }
+        }
+
+        return result;
+    }
+
     public String getXWikiPreference(String prefname, String default_value, XWikiContext context)
     {
         return getXWikiPreference(prefname, "", default_value, context);
@@ -2155,15 +2282,27 @@ public String getSpacePreference(String preference, String space, String default
         // doc is not set).
         if (space != null) {
             try {
-                XWikiDocument doc = getDocument(new LocalDocumentReference(space, "WebPreferences"), context);
-
-                // First we try to get a translated preference object
-                DocumentReference xwikiPreferencesReference = getPreferencesDocumentReference(context);
-                BaseObject object =
-                    doc.getXObject(xwikiPreferencesReference, "default_language", context.getLanguage(), true);
-                String result = "";
-                if (object != null) {
-                    result = object.getStringValue(preference);
+                DocumentReference spacePreferencesReference =
+                    this.currentReferenceDocumentReferenceResolver.resolve(new LocalDocumentReference(space,
+                        "WebPreferences"));
+                String result =
+                    getPreferenceCache().getPreference(spacePreferencesReference, context.getLanguage(), preference);
+                if (result == null) {
+                    long version = getPreferenceCache().getVersion();
+                    XWikiDocument doc = getDocument(spacePreferencesReference, context);
+
+                    // First we try to get a translated preference object
+                    DocumentReference xwikiPreferencesReference = getPreferencesDocumentReference(context);
+                    BaseObject object =
+                        doc.getXObject(xwikiPreferencesReference, "default_language", context.getLanguage(), true);
+                    result = "";
+                    if (object != null) {
+                        result = object.getStringValue(preference);
+                    }
+                    getPreferenceCache().setPreference(spacePreferencesReference, context.getLanguage(), preference,
+                        result, version);
+                } else {
+                    markDocumentAsRead(spacePreferencesReference, context);
                 }
 
                 if (!result.equals("")) {
@@ -2178,10 +2317,18 @@ public String getSpacePreference(String preference, String space, String default
 
     public String getUserPreference(String prefname, XWikiContext context)
     {
+        DocumentReference userReference = context.getUserReference();
         try {
-            XWikiDocument userdoc = getDocument(context.getUserReference(), context);
-            if (userdoc != null) {
-                String result = userdoc.getStringValue("XWiki.XWikiUsers", prefname);
+            if (userReference != null) {
+                String result = getPreferenceCache().getPreference(userReference, null, prefname);
+                if (result == null) {
+                    long version = getPreferenceCache().getVersion();
+                    XWikiDocument userdoc = getDocument(userReference, context);
+                    result = userdoc.getStringValue("XWiki.XWikiUsers", prefname);
+                    getPreferenceCache().setPreference(userReference, null, prefname, result, version);
+                } else {
+                    markDocumentAsRead(userReference, context);
+                }
                 if ((!result.equals("")) && (!result.equals("---"))) {
                     return result;
                 }
@@ -2681,7 +2828,7 @@ public int getUserPreferenceAsInt(String prefname, XWikiContext context)
     public void flushCache(XWikiContext context)
     {
         // We need to flush the virtual wiki list
-        this.virtualWikiList = new ArrayList<String>();
+        this.virtualWikiList = new CopyOnWriteArrayList<String>();
         // We need to flush the server Cache
         if (this.virtualWikiMap != null) {
             this.virtualWikiMap.dispose();
@@ -2693,6 +2840,12 @@ public void flushCache(XWikiContext context)
             this.groupService.flushCache();
         }
 
+        // We need to flush the resolved templates
+        getTemplateCache().flush();
+
+        // We need to flush the resolved preferences
+        getPreferenceCache().flush();
+
         // If we use the Cache Store layer.. we need to flush it
         XWikiStoreInterface store = getStore();
         if ((store != null) && (store instanceof XWikiCacheStoreInterface)) {
@@ -86,6 +86,15 @@ public class XWikiContext extends Hashtable<Object, Object>
 
     public static final String EXECUTIONCONTEXT_KEY = "xwikicontext";
 
+    /**
+     * The name of the context property holding the collection where the references of the documents loaded with
+     * {@link XWiki#getDocument(XWikiDocument, XWikiContext)} are added. Code needing to know the documents it depends
+     * on (like the cache macro) puts a mutable {@code Collection<DocumentReference>} in the context while it executes.
+     *
+     * @since 5.3M1
+     */
+    public static final String READ_DOCUMENTS_KEY = "readDocumentReferences";
+
     /** Logging helper object. */
     protected static final Logger LOGGER = LoggerFactory.getLogger(XWikiContext.class);
 
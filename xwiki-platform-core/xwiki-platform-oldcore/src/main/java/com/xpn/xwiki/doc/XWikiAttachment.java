@@ -342,8 +342,8 @@ public void setMetaDataDirty(boolean metaDataDirty)
     public String toStringXML(boolean bWithAttachmentContent, boolean bWithVersions, XWikiContext context)
         throws XWikiException
     {
-        // This is very bad. baos holds the entire attachment on the heap, then it makes a copy when toByteArray
-        // is called, then String forces us to make a copy when we construct a new String.
+        // This is very bad. baos holds the entire attachment on the heap, then String forces us to make a copy when
+        // we decode it (decoding the buffer in place at least spares the copy toByteArray would make).
         // Unfortunately this can't be fixed because jrcs demands the content as a String.
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
@@ -352,9 +352,7 @@ public String toStringXML(boolean bWithAttachmentContent, boolean bWithVersions,
             wr.writeDocumentStart(doc);
             toXML(wr, bWithAttachmentContent, bWithVersions, context);
             wr.writeDocumentEnd(doc);
-            byte[] array = baos.toByteArray();
-            baos = null;
-            return new String(array, context.getWiki().getEncoding());
+            return baos.toString(context.getWiki().getEncoding());
         } catch (IOException e) {
             e.printStackTrace();
             return "";
@@ -986,12 +986,18 @@ public String getRenderedContent(Syntax targetSyntax, boolean isolateVelocityMac
         String renderedContent = getRenderingCache().getRenderedContent(getDocumentReference(), content, context);
 
         if (renderedContent == null) {
-            DocumentDisplayerParameters parameters = new DocumentDisplayerParameters();
-            parameters.setTransformationContextIsolated(isolateVelocityMacros);
-            // Render the translated content (matching the current language) using this document's syntax.
-            parameters.setContentTranslated(tdoc != this);
-            XDOM contentXDOM = getDocumentDisplayer().display(this, parameters);
-            renderedContent = renderXDOM(contentXDOM, targetSyntax);
+            RequestProfiler profiler = Utils.getComponent(RequestProfiler.class);
+            long profilerStart = profiler.start();
+            try {
+                DocumentDisplayerParameters parameters = new DocumentDisplayerParameters();
+                parameters.setTransformationContextIsolated(isolateVelocityMacros);
+                // Render the translated content (matching the current language) using this document's syntax.
+                parameters.setContentTranslated(tdoc != this);
+                XDOM contentXDOM = getDocumentDisplayer().display(this, parameters);
+                renderedContent = renderXDOM(contentXDOM, targetSyntax);
+            } finally {
+                profiler.end(RequestProfiler.RENDERING, profilerStart);
+            }
             getRenderingCache().setRenderedContent(getDocumentReference(), content, renderedContent, context);
         }
 
@@ -1057,6 +1063,8 @@ public String getRenderedContent(String text, String sourceSyntaxId, String targ
 
         if (result == null) {
             Map<String, Object> backup = null;
+            RequestProfiler profiler = Utils.getComponent(RequestProfiler.class);
+            long profilerStart = profiler.start();
             try {
                 // We have to render the given text in the context of this document. Check if this document is already
                 // on the context (same Java object reference). We don't check if the document references are equal
@@ -1089,6 +1097,7 @@ public String getRenderedContent(String text, String sourceSyntaxId, String targ
                 if (backup != null) {
                     restoreContext(backup, context);
                 }
+                profiler.end(RequestProfiler.RENDERING, profilerStart);
             }
         }
 
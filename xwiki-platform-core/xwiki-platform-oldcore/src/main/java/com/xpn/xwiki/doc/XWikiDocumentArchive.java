@@ -21,9 +21,13 @@
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
@@ -48,6 +52,35 @@
  */
 public class XWikiDocumentArchive
 {
+    /** Minimum number of versions between two full versions, also used for small documents. */
+    private static final int MIN_NODES_PER_FULL = 5;
+
+    /** Maximum number of versions between two full versions. */
+    private static final int MAX_NODES_PER_FULL = 20;
+
+    /** Documents whose XML is smaller than this number of characters always use {@link #MIN_NODES_PER_FULL}. */
+    private static final int SMALL_DOCUMENT_SIZE = 8192;
+
+    /** Number of reconstructed versions kept in {@link #VERSION_XML_CACHE}. */
+    private static final int VERSION_XML_CACHE_SIZE = 50;
+
+    /**
+     * The XML of the versions recently rebuilt from patches. The XML of a given version never changes so entries
+     * don't need to be invalidated, the key includes the date and author of the version so that a version recreated
+     * after its history has been reset (or its document deleted) is not mixed up with the previous one.
+     */
+    private static final Map<String, String> VERSION_XML_CACHE =
+        Collections.synchronizedMap(new LinkedHashMap<String, String>(VERSION_XML_CACHE_SIZE, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+            {
+                return size() > VERSION_XML_CACHE_SIZE;
+            }
+        });
+
     /** =docId. */
     private long id;
 
@@ -131,21 +164,130 @@ protected XWikiRCSNodeContent makePatch(XWikiRCSNodeInfo newnode, XWikiDocument
         XWikiRCSNodeInfo latestNode = getLatestNode();
         if (latestNode != null) {
             int nodesCount = getNodes().size();
-            int nodesPerFull =
-                context.getWiki() == null ? 5 : Integer.parseInt(context.getWiki().getConfig()
-                    .getProperty("xwiki.store.rcs.nodesPerFull", "5"));
-            if (nodesPerFull <= 0 || (nodesCount % nodesPerFull) != 0) {
-                XWikiRCSNodeContent latestContent = latestNode.getContent(context);
-                latestContent.getPatch().setDiffVersion(latestContent.getPatch().getContent(),
-                    doc, context);
-                latestNode.setContent(latestContent);
-                updateNode(latestNode);
-                getUpdatedNodeContents().add(latestContent);
+            String configuredNodesPerFull =
+                context.getWiki() == null ? null : context.getWiki().getConfig()
+                    .getProperty("xwiki.store.rcs.nodesPerFull");
+            if (configuredNodesPerFull != null) {
+                int nodesPerFull = Integer.parseInt(configuredNodesPerFull.trim());
+                if (nodesPerFull <= 0 || (nodesCount % nodesPerFull) != 0) {
+                    XWikiRCSNodeContent latestContent = latestNode.getContent(context);
+                    latestContent.getPatch().setDiffVersion(latestContent.getPatch().getContent(),
+                        doc, context);
+                    latestNode.setContent(latestContent);
+                    updateNode(latestNode);
+                    getUpdatedNodeContents().add(latestContent);
+                }
+            } else {
+                int documentSize = result.getPatch().getContent().length();
+                if (getDiffCount(latestNode.getVersion()) + 1 < getNodesPerFull(nodesCount, documentSize)) {
+                    XWikiRCSNodeContent latestContent = latestNode.getContent(context);
+                    String latestXml = latestContent.getPatch().getContent();
+                    XWikiPatch diff = new XWikiPatch().setDiffVersion(latestXml, doc, context);
+                    // A patch which is not much smaller than the version itself is not worth the cost of applying it
+                    if (diff.getContent().length() * 2 < latestXml.length()) {
+                        latestContent.setPatch(diff);
+                        latestNode.setContent(latestContent);
+                        updateNode(latestNode);
+                        getUpdatedNodeContents().add(latestContent);
+                    }
+                }
             }
         }
         return result;
     }
 
+    /**
+     * Compute how many versions can be stored as patches between two full versions. The interval grows with the square
+     * root of the history length, which balances the number of full versions stored with the number of patches to apply
+     * for reading a version. Small documents are cheap to store in full so they always use the minimum interval.
+     * <p>
+     * The {@code xwiki.store.rcs.nodesPerFull} configuration property, when set, overrides this computation.
+     * 
+     * @param nodesCount the number of versions in the history
+     * @param documentSize the size of the XML of the document
+     * @return the maximum number of patches to apply on a full version for reading any version
+     * @since 5.3M1
+     */
+    public static int getNodesPerFull(int nodesCount, int documentSize)
+    {
+        if (documentSize < SMALL_DOCUMENT_SIZE) {
+            return MIN_NODES_PER_FULL;
+        }
+
+        return Math.max(MIN_NODES_PER_FULL, Math.min(MAX_NODES_PER_FULL, (int) Math.sqrt(nodesCount)));
+    }
+
+    /**
+     * @param version a version of the history
+     * @return the number of patches stored right before the given version, up to the previous full version
+     */
+    private int getDiffCount(Version version)
+    {
+        // tailMap is inclusive and goes from the given version to the oldest one
+        Iterator<XWikiRCSNodeInfo> it = versionToNode.tailMap(version).values().iterator();
+        it.next();
+        int count = 0;
+        while (it.hasNext() && it.next().isDiff()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Store as full versions the patches which are too far from a full version, so that reading any version of the
+     * history requires to apply at most {@link #getNodesPerFull(int, int)} patches. This is used to upgrade the
+     * histories saved before the interval between full versions was adapted to the documents. The modified nodes need
+     * to be saved after.
+     * 
+     * @param context used for loading the nodes content
+     * @return the number of patches converted to full versions
+     * @throws XWikiException if the history cannot be read
+     * @since 5.3M1
+     */
+    public int updateFullVersions(XWikiContext context) throws XWikiException
+    {
+        if (versionToNode.isEmpty()) {
+            return 0;
+        }
+
+        // From the latest version (which is always full) to the oldest one
+        List<XWikiRCSNodeContent> contents =
+            loadRCSNodeContents(versionToNode.firstKey(), versionToNode.lastKey(), context);
+        int nodesCount = versionToNode.size();
+        int converted = 0;
+        int diffCount = 0;
+        List<String> text = new ArrayList<String>();
+        for (XWikiRCSNodeContent content : contents) {
+            content.getPatch().patch(text);
+            if (!content.getPatch().isDiff()) {
+                diffCount = 0;
+            } else if (++diffCount >= getNodesPerFull(nodesCount, getSize(text))) {
+                content.getPatch().setFullVersion(ToString.arrayToString(text.toArray()));
+                XWikiRCSNodeInfo node = getNode(content.getId().getVersion());
+                node.setContent(content);
+                updateNode(node);
+                getUpdatedNodeContents().add(content);
+                diffCount = 0;
+                converted++;
+            }
+        }
+
+        return converted;
+    }
+
+    /**
+     * @param text the lines of a version
+     * @return the number of characters of the version
+     */
+    private static int getSize(List<String> text)
+    {
+        int size = 0;
+        for (String line : text) {
+            size += line.length() + 1;
+        }
+        return size;
+    }
+
     /** @return {@link XWikiDocument#getId()} - primary key */
     public long getId()
     {
@@ -359,13 +501,32 @@ public String getVersionXml(Version version, XWikiContext context) throws XWikiE
     {
         Version nearestFullVersion = getNearestFullVersion(version);
 
+        // Versions stored in full are cheap to get, only the ones rebuilt from patches are worth caching
+        String cacheKey = null;
+        if (!version.equals(nearestFullVersion)) {
+            XWikiRCSNodeInfo nodeInfo = getNode(version);
+            if (nodeInfo != null && nodeInfo.getDate() != null) {
+                cacheKey =
+                    getId() + ":" + version + ":" + nodeInfo.getDate().getTime() + ":" + nodeInfo.getAuthor();
+                String xml = VERSION_XML_CACHE.get(cacheKey);
+                if (xml != null) {
+                    return xml;
+                }
+            }
+        }
+
         List<XWikiRCSNodeContent> lstContent = loadRCSNodeContents(nearestFullVersion, version, context);
         List<String> origText = new ArrayList<String>();
         for (XWikiRCSNodeContent nodeContent : lstContent) {
             nodeContent.getPatch().patch(origText);
         }
 
-        return ToString.arrayToString(origText.toArray());
+        String xml = ToString.arrayToString(origText.toArray());
+        if (cacheKey != null) {
+            VERSION_XML_CACHE.put(cacheKey, xml);
+        }
+
+        return xml;
     }
 
     /**
@@ -439,9 +600,33 @@ public Version getNearestFullVersion(Version ver)
     private List<XWikiRCSNodeContent> loadRCSNodeContents(Version vfrom, Version vto, XWikiContext context)
         throws XWikiException
     {
+        Collection<XWikiRCSNodeInfo> nodes = getNodes(vfrom, vto);
+
+        // Load in one query the contents which are not already in memory, instead of one query per node
+        Map<XWikiRCSNodeId, XWikiRCSNodeContent> loaded = new HashMap<XWikiRCSNodeId, XWikiRCSNodeContent>();
+        if (context != null && context.getWiki() != null) {
+            List<XWikiRCSNodeId> missing = new ArrayList<XWikiRCSNodeId>();
+            for (XWikiRCSNodeInfo nodeInfo : nodes) {
+                if (nodeInfo.getContent(null) == null) {
+                    missing.add(nodeInfo.getId());
+                }
+            }
+            if (missing.size() > 1) {
+                for (XWikiRCSNodeContent nodeContent : context.getWiki().getVersioningStore()
+                    .loadRCSNodeContents(missing, true, context)) {
+                    loaded.put(nodeContent.getId(), nodeContent);
+                }
+            }
+        }
+
         List<XWikiRCSNodeContent> result = new ArrayList<XWikiRCSNodeContent>();
-        for (XWikiRCSNodeInfo nodeInfo : getNodes(vfrom, vto)) {
-            XWikiRCSNodeContent nodeContent = nodeInfo.getContent(context);
+        for (XWikiRCSNodeInfo nodeInfo : nodes) {
+            XWikiRCSNodeContent nodeContent = loaded.get(nodeInfo.getId());
+            if (nodeContent != null) {
+                nodeInfo.setContent(nodeContent);
+            } else {
+                nodeContent = nodeInfo.getContent(context);
+            }
             result.add(nodeContent);
         }
         return result;
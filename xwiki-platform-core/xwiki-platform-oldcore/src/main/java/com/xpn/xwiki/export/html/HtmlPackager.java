@@ -25,12 +25,20 @@
 import java.lang.reflect.Type;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.velocity.VelocityContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,9 +47,13 @@
 import org.xwiki.context.ExecutionContextException;
 import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.environment.Environment;
+import org.xwiki.job.event.status.PopLevelProgressEvent;
+import org.xwiki.job.event.status.PushLevelProgressEvent;
+import org.xwiki.job.event.status.StepProgressEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.velocity.VelocityManager;
 
 import com.xpn.xwiki.XWikiContext;
@@ -91,6 +103,21 @@
      */
     private static final String ZIPPATH_SEPARATOR = "/";
 
+    /**
+     * Name of the context property containing the Velocity context.
+     */
+    private static final String CONTEXT_VCONTEXT = "vcontext";
+
+    /**
+     * The configuration property containing the number of pages rendered at the same time.
+     */
+    private static final String THREADS_PROPERTY = "xwiki.action.export.html.threads";
+
+    /**
+     * The default number of pages rendered at the same time.
+     */
+    private static final int DEFAULT_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
     /**
      * The name of the package for which packager append ".zip".
      */
@@ -168,17 +195,17 @@ public void addPages(Collection<String> pages)
     }
 
     /**
-     * Add rendered document to ZIP stream.
+     * Render a document.
      * 
      * @param pageName the name (used with {@link com.xpn.xwiki.XWiki#getDocument(String, XWikiContext)}) of the page to
      *            render.
-     * @param zos the ZIP output stream.
      * @param context the XWiki context.
      * @param vcontext the Velocity context.
+     * @return the rendered document or null if the document does not exist
      * @throws XWikiException error when rendering document.
      * @throws IOException error when rendering document.
      */
-    private void renderDocument(String pageName, ZipOutputStream zos, XWikiContext context, VelocityContext vcontext)
+    private RenderedDocument renderDocument(String pageName, XWikiContext context, VelocityContext vcontext)
         throws XWikiException, IOException
     {
         DocumentReferenceResolver<String> resolver = Utils.getComponent(DocumentReferenceResolver.TYPE_STRING, "current");
@@ -187,7 +214,7 @@ private void renderDocument(String pageName, ZipOutputStream zos, XWikiContext c
 
         if (doc.isNew()) {
             // Skip non-existing documents.
-            return;
+            return null;
         }
 
         String zipname = doc.getDocumentReference().getWikiReference().getName();
@@ -202,9 +229,6 @@ private void renderDocument(String pageName, ZipOutputStream zos, XWikiContext c
 
         zipname += ".html";
 
-        ZipEntry zipentry = new ZipEntry(zipname);
-        zos.putNextEntry(zipentry);
-
         String originalDatabase = context.getDatabase();
         try {
             context.setDatabase(doc.getDocumentReference().getWikiReference().getName());
@@ -218,15 +242,62 @@ private void renderDocument(String pageName, ZipOutputStream zos, XWikiContext c
 
             String content = context.getWiki().evaluateTemplate("view.vm", context);
 
-            zos.write(content.getBytes(context.getWiki().getEncoding()));
-            zos.closeEntry();
+            return new RenderedDocument(zipname, content.getBytes(context.getWiki().getEncoding()));
         } finally {
             context.setDatabase(originalDatabase);
         }
     }
 
+    /**
+     * Render a document in the current thread, using its own copy of the XWiki context and its own Execution Context
+     * so that several documents can be rendered at the same time.
+     * 
+     * @param pageName the name of the page to render
+     * @param context the XWiki context used to render the documents, cloned for this document
+     * @param originalExecutionContext the Execution Context of the export request, cloned for this document
+     * @return the rendered document or null if the document does not exist
+     * @throws XWikiException error when rendering document
+     * @throws IOException error when rendering document
+     * @throws ExecutionContextException error when initializing the Execution Context
+     */
+    private RenderedDocument renderDocument(String pageName, XWikiContext context,
+        ExecutionContext originalExecutionContext) throws XWikiException, IOException, ExecutionContextException
+    {
+        ExecutionContextManager ecim = Utils.getComponent(ExecutionContextManager.class);
+        Execution execution = Utils.getComponent(Execution.class);
+
+        XWikiContext renderContext = context.clone();
+
+        // Use a clean new Execution Context since we don't want the main Execution Context to be used for rendering
+        // the HTML pages to export. Note that the new Execution Context automatically gets initialized with a new
+        // Velocity Context by the VelocityRequestInitializer class.
+        ExecutionContext executionContext = ecim.clone(originalExecutionContext);
+
+        // Bridge with old XWiki Context, required for legacy code.
+        executionContext.setProperty("xwikicontext", renderContext);
+
+        execution.setContext(executionContext);
+
+        try {
+            VelocityManager velocityManager = Utils.getComponent(VelocityManager.class);
+
+            // At this stage we have a clean Velocity Context
+            VelocityContext vcontext = velocityManager.getVelocityContext();
+            renderContext.put(CONTEXT_VCONTEXT, vcontext);
+
+            return renderDocument(pageName, renderContext, vcontext);
+        } finally {
+            execution.removeContext();
+        }
+    }
+
     /**
      * Init provided {@link ExportURLFactory} and add rendered documents to ZIP stream.
+     * <p>
+     * The documents are rendered by a bounded pool of threads (see the "xwiki.action.export.html.threads" configuration
+     * property) and written to the ZIP stream by the current thread in the order they were submitted. Only a limited
+     * number of rendered documents is waiting to be written at a given time. The progress is reported through the job
+     * progress events and the export is stopped when the current thread is interrupted.
      * 
      * @param zos the ZIP output stream.
      * @param tempdir the directory where to copy attached files.
@@ -238,50 +309,102 @@ private void renderDocument(String pageName, ZipOutputStream zos, XWikiContext c
     private void renderDocuments(ZipOutputStream zos, File tempdir, ExportURLFactory urlf, XWikiContext context)
         throws XWikiException, IOException
     {
-        ExecutionContextManager ecim = Utils.getComponent(ExecutionContextManager.class);
         Execution execution = Utils.getComponent(Execution.class);
+        ObservationManager observation = Utils.getComponent(ObservationManager.class);
 
-        VelocityContext oldVelocityContext = (VelocityContext) context.get("vcontext");
+        final XWikiContext renderContext = context.clone();
+        renderContext.put("action", "view");
+        // The documents are rendered by other threads, each of them has to use its own store session
+        renderContext.remove("hibsession");
+        renderContext.remove("hibtransaction");
 
-        try {
-            XWikiContext renderContext = context.clone();
-            renderContext.put("action", "view");
+        urlf.init(this.pages, tempdir, renderContext);
+        renderContext.setURLFactory(urlf);
 
-            ExecutionContext executionContext = ecim.clone(execution.getContext());
+        final ExecutionContext executionContext = execution.getContext();
 
-            // Bridge with old XWiki Context, required for legacy code.
-            executionContext.setProperty("xwikicontext", renderContext);
+        int threads = getThreadCount(context);
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            new BasicThreadFactory.Builder().namingPattern("XWiki HTML export thread %d").daemon(true).build());
 
-            // Push a clean new Execution Context since we don't want the main Execution Context to be used for
-            // rendering the HTML pages to export. It's cleaner to isolate it as we do. Note that the new
-            // Execution Context automatically gets initialized with a new Velocity Context by
-            // the VelocityRequestInitializer class.
-            execution.pushContext(executionContext);
+        observation.notify(new PushLevelProgressEvent(this.pages.size()), this);
 
-            try {
+        try {
+            Queue<Future<RenderedDocument>> renderings = new LinkedList<Future<RenderedDocument>>();
+            for (final String pageName : this.pages) {
+                // Don't keep too many rendered documents in memory
+                if (renderings.size() >= threads * 2) {
+                    addToZip(renderings.remove(), zos);
+                    observation.notify(new StepProgressEvent(), this);
+                }
 
-                VelocityManager velocityManager = Utils.getComponent(VelocityManager.class);
+                renderings.add(executor.submit(new Callable<RenderedDocument>()
+                {
+                    @Override
+                    public RenderedDocument call() throws Exception
+                    {
+                        return renderDocument(pageName, renderContext, executionContext);
+                    }
+                }));
+            }
 
-                // At this stage we have a clean Velocity Context
-                VelocityContext vcontext = velocityManager.getVelocityContext();
+            while (!renderings.isEmpty()) {
+                addToZip(renderings.remove(), zos);
+                observation.notify(new StepProgressEvent(), this);
+            }
+        } finally {
+            executor.shutdownNow();
 
-                urlf.init(this.pages, tempdir, renderContext);
-                renderContext.setURLFactory(urlf);
+            observation.notify(new PopLevelProgressEvent(), this);
+        }
+    }
 
-                for (String pageName : this.pages) {
-                    renderDocument(pageName, zos, renderContext, vcontext);
-                } 
-            } finally {
-                execution.popContext();
+    /**
+     * Wait for the rendering of a document and add it to the ZIP stream.
+     * 
+     * @param rendering the rendering of the document
+     * @param zos the ZIP output stream
+     * @throws XWikiException error when rendering the document
+     * @throws IOException error when writing the document
+     */
+    private void addToZip(Future<RenderedDocument> rendering, ZipOutputStream zos) throws XWikiException, IOException
+    {
+        RenderedDocument document;
+        try {
+            document = rendering.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "The HTML export has been interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof XWikiException) {
+                throw (XWikiException) e.getCause();
+            } else if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof ExecutionContextException) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT, XWikiException.ERROR_XWIKI_INIT_FAILED,
+                    "Failed to initialize Execution Context", e.getCause());
             }
-        } catch (ExecutionContextException e) {
-            throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT, XWikiException.ERROR_XWIKI_INIT_FAILED,
-                "Failed to initialize Execution Context", e);
-        } finally {
-            // We must ensure that the new request we've used is removed so that the current
-            // thread can continue to use its original Execution Context.
-            context.put("vcontext", oldVelocityContext);
+
+            throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Failed to render document", e.getCause());
         }
+
+        if (document != null) {
+            zos.putNextEntry(new ZipEntry(document.getZipName()));
+            zos.write(document.getContent());
+            zos.closeEntry();
+        }
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return the number of pages rendered at the same time
+     */
+    private int getThreadCount(XWikiContext context)
+    {
+        return (int) Math.max(1, context.getWiki().ParamAsLong(THREADS_PROPERTY, DEFAULT_THREADS));
     }
 
     /**
@@ -433,4 +556,46 @@ private static void addDirToZip(File directory, ZipOutputStream out, String base
             }
         }
     }
+
+    /**
+     * A rendered document waiting to be added to the ZIP package.
+     */
+    private static final class RenderedDocument
+    {
+        /**
+         * The path of the document in the ZIP package.
+         */
+        private final String zipName;
+
+        /**
+         * The rendered document.
+         */
+        private final byte[] content;
+
+        /**
+         * @param zipName the path of the document in the ZIP package
+         * @param content the rendered document
+         */
+        RenderedDocument(String zipName, byte[] content)
+        {
+            this.zipName = zipName;
+            this.content = content;
+        }
+
+        /**
+         * @return the path of the document in the ZIP package
+         */
+        String getZipName()
+        {
+            return this.zipName;
+        }
+
+        /**
+         * @return the rendered document
+         */
+        byte[] getContent()
+        {
+            return this.content;
+        }
+    }
 }
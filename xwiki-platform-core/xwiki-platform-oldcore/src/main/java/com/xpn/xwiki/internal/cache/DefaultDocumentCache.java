@@ -20,9 +20,11 @@
 package com.xpn.xwiki.internal.cache;
 
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 
@@ -34,6 +36,8 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
@@ -46,6 +50,9 @@
 /**
  * Specialized cache component related to documents. It automatically clean the cache when the document is related.
  * <p>
+ * The values are always added and invalidated while holding the lock of the cache so that a value computed before a
+ * document modification can be rejected with {@link #set(Object, long, DocumentReference, Object...)}.
+ * <p>
  * TODO: add support for dependencies
  * 
  * @param <C> the type of the data stored in the cache
@@ -84,18 +91,84 @@ public List<Event> getEvents()
         @Override
         public void onEvent(Event event, Object source, Object data)
         {
-            String documentReferenceString = ((AbstractDocumentEvent) event).getEventFilter().getFilter();
+            invalidate(((AbstractDocumentEvent) event).getEventFilter().getFilter());
+        }
+    }
 
-            Collection<String> keys = mappingCache.get(documentReferenceString);
+    /**
+     * A cached value and the document it is bound to.
+     * 
+     * @param <C> the type of the data stored in the cache
+     * @version $Id$
+     */
+    private static class Value<C>
+    {
+        /**
+         * The serialized reference of the document the value is bound to.
+         */
+        private final String documentReference;
+
+        /**
+         * The cached data.
+         */
+        private final C data;
+
+        /**
+         * @param documentReference the serialized reference of the document the value is bound to
+         * @param data the cached data
+         */
+        Value(String documentReference, C data)
+        {
+            this.documentReference = documentReference;
+            this.data = data;
+        }
+    }
 
-            if (keys != null) {
-                for (String key : keys) {
-                    cache.remove(key);
-                }
+    /**
+     * Forget the keys of the values evicted from the cache.
+     * <p>
+     * This can be called by the cache implementation while it holds its own locks so it must not synchronize on the
+     * document cache.
+     * 
+     * @version $Id$
+     */
+    private class EvictionListener implements CacheEntryListener<Value<C>>
+    {
+        @Override
+        public void cacheEntryAdded(CacheEntryEvent<Value<C>> event)
+        {
+            // Keys are registered when the value is set.
+        }
+
+        @Override
+        public void cacheEntryRemoved(CacheEntryEvent<Value<C>> event)
+        {
+            Value<C> value = event.getEntry().getValue();
 
-                mappingCache.remove(documentReferenceString);
+            if (value != null) {
+                Set<String> keys = mapping.get(value.documentReference);
+
+                if (keys != null) {
+                    String key = event.getEntry().getKey();
+
+                    keys.remove(key);
+
+                    if (cache.get(key) != null) {
+                        // The value has been set again in the meantime.
+                        addKey(value.documentReference, key);
+                    } else {
+                        // Only remove the set if it's still empty, see #addKey().
+                        mapping.remove(value.documentReference, Collections.emptySet());
+                    }
+                }
             }
         }
+
+        @Override
+        public void cacheEntryModified(CacheEntryEvent<Value<C>> event)
+        {
+            // The key does not change.
+        }
     }
 
     /**
@@ -124,12 +197,20 @@ public void onEvent(Event event, Object source, Object data)
     /**
      * The actual cache object.
      */
-    private Cache<C> cache;
+    private Cache<Value<C>> cache;
 
     /**
-     * The cache used to follow multiple cache entries related to the same document.
+     * The keys of the cache entries related to each document.
+     * <p>
+     * This is not a cache on its own: keys are only forgotten when the matching value is removed or evicted, otherwise
+     * a document modification could leave values which are not bound to any document anymore.
      */
-    private Cache<Collection<String>> mappingCache;
+    private final ConcurrentMap<String, Set<String>> mapping = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * Incremented each time some entries are invalidated, see {@link #getVersion()}.
+     */
+    private volatile long version;
 
     /**
      * The identifier of the cache and event listener.
@@ -142,11 +223,7 @@ public void create(CacheConfiguration cacheConfiguration) throws CacheException
         this.name = cacheConfiguration.getConfigurationId();
 
         this.cache = this.cacheManager.createNewCache(cacheConfiguration);
-
-        CacheConfiguration mappingCacheConfiguration = (CacheConfiguration) cacheConfiguration.clone();
-        mappingCacheConfiguration.setConfigurationId(cacheConfiguration.getConfigurationId() + ".mapping");
-
-        this.mappingCache = this.cacheManager.createNewCache(mappingCacheConfiguration);
+        this.cache.addCacheEntryListener(new EvictionListener());
 
         this.observationManager.addListener(this.listener);
     }
@@ -156,25 +233,80 @@ public void create(CacheConfiguration cacheConfiguration) throws CacheException
     @Override
     public C get(DocumentReference documentReference, Object... extensions)
     {
-        return this.cache.get(getKey(documentReference, extensions));
+        Value<C> value = this.cache.get(getKey(documentReference, extensions));
+
+        return value != null ? value.data : null;
     }
 
     @Override
-    public void set(C data, DocumentReference documentReference, Object... extensions)
+    public long getVersion()
     {
-        String key = getKey(documentReference, extensions);
-        this.cache.set(key, data);
+        return this.version;
+    }
 
+    @Override
+    public synchronized void set(C data, DocumentReference documentReference, Object... extensions)
+    {
+        String key = getKey(documentReference, extensions);
         String documentReferenceString = this.serializer.serialize(documentReference);
 
-        Collection<String> keys = this.mappingCache.get(documentReferenceString);
+        this.cache.set(key, new Value<C>(documentReferenceString, data));
+        addKey(documentReferenceString, key);
+    }
 
-        if (keys == null) {
-            keys = new HashSet<String>();
-            this.mappingCache.set(documentReferenceString, keys);
+    @Override
+    public synchronized boolean set(C data, long expectedVersion, DocumentReference documentReference,
+        Object... extensions)
+    {
+        // The data may have been computed from a document which has been modified (and thus invalidated) since.
+        if (expectedVersion != this.version) {
+            return false;
         }
 
-        keys.add(key);
+        set(data, documentReference, extensions);
+
+        return true;
+    }
+
+    /**
+     * Remember that the provided key is related to the provided document.
+     * 
+     * @param documentReference the serialized reference of the document
+     * @param key the key of the cache entry
+     */
+    private void addKey(String documentReference, String key)
+    {
+        Set<String> keys;
+        do {
+            keys = this.mapping.get(documentReference);
+            if (keys == null) {
+                keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                Set<String> existingKeys = this.mapping.putIfAbsent(documentReference, keys);
+                if (existingKeys != null) {
+                    keys = existingKeys;
+                }
+            }
+            keys.add(key);
+            // The set may have been removed by the eviction listener while it was empty.
+        } while (this.mapping.get(documentReference) != keys);
+    }
+
+    /**
+     * Remove all the entries related to the provided document.
+     * 
+     * @param documentReference the serialized reference of the document
+     */
+    private synchronized void invalidate(String documentReference)
+    {
+        ++this.version;
+
+        Set<String> keys = this.mapping.remove(documentReference);
+
+        if (keys != null) {
+            for (String key : keys) {
+                this.cache.remove(key);
+            }
+        }
     }
 
     /**
@@ -213,31 +345,25 @@ private String escape(String str)
     }
 
     @Override
-    public void remove(C data, DocumentReference documentReference, Object... extensions)
+    public synchronized void remove(C data, DocumentReference documentReference, Object... extensions)
     {
-        String key = getKey(documentReference, extensions);
-        this.cache.remove(key);
-
-        String documentReferenceString = serializer.serialize(documentReference);
-
-        Collection<String> keys = mappingCache.get(documentReferenceString);
-
-        if (keys != null) {
-            keys.remove(key);
-        }
+        // The eviction listener forgets the key.
+        this.cache.remove(getKey(documentReference, extensions));
     }
 
     @Override
-    public void removeAll()
+    public synchronized void removeAll()
     {
+        ++this.version;
+
         this.cache.removeAll();
-        this.mappingCache.removeAll();
+        this.mapping.clear();
     }
 
     @Override
     public void dispose()
     {
         this.cache.dispose();
-        this.mappingCache.dispose();
+        this.mapping.clear();
     }
 }
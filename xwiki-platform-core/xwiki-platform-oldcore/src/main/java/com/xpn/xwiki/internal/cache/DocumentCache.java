@@ -64,6 +64,29 @@
      */
     void set(C data, DocumentReference documentReference, Object... extensions);
 
+    /**
+     * The version is incremented each time some entries are removed because a document has been modified. Read it
+     * before computing the data and pass it to {@link #set(Object, long, DocumentReference, Object...)} to avoid
+     * caching data computed from a document modified in the meantime.
+     * 
+     * @return the current version of the cache
+     * @since 5.3M1
+     */
+    long getVersion();
+
+    /**
+     * Add a new value or overwrite the existing one associated with the provided key, unless some entries have been
+     * invalidated since the provided version has been read.
+     * 
+     * @param data the data to store
+     * @param version the value returned by {@link #getVersion()} before computing the data
+     * @param documentReference the reference of the document
+     * @param extensions the extensions to the document reference
+     * @return true if the value has been stored, false if it was computed from an outdated document
+     * @since 5.3M1
+     */
+    boolean set(C data, long version, DocumentReference documentReference, Object... extensions);
+
     /**
      * Remove from the cache the value associated to the provided key elements.
      * 
@@ -0,0 +1,456 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.mandatory;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.MandatoryDocumentInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.user.api.XWikiRightService;
+
+/**
+ * Default implementation of {@link MandatoryDocumentsUpdater}.
+ * <p>
+ * When the "xwiki.mandatorydocuments.skipUnchanged" configuration property is enabled, a fingerprint of the
+ * initializers (and of the version of the code providing them) is recorded in a hidden document of each wiki once its
+ * mandatory documents have been updated, so that it's shared by all the members of a cluster. The update is then
+ * skipped as long as the fingerprint does not change and all the mandatory documents exist. The documents are updated
+ * concurrently when the "xwiki.mandatorydocuments.threads" configuration property is greater than 1.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Singleton
+public class DefaultMandatoryDocumentsUpdater implements MandatoryDocumentsUpdater, Disposable
+{
+    /**
+     * The space of the document holding the fingerprint of the initializers used for the last update.
+     */
+    private static final String FINGERPRINT_SPACE = "XWiki";
+
+    /**
+     * The name of the document holding the fingerprint of the initializers used for the last update.
+     */
+    private static final String FINGERPRINT_PAGE = "MandatoryDocumentsFingerprint";
+
+    /**
+     * The version used for the classes which don't come from a released jar.
+     */
+    private static final String SNAPSHOT = "-SNAPSHOT";
+
+    /**
+     * Indicate if the current thread is updating a mandatory document, in which case the updates it triggers are not
+     * sent to the pool to avoid waiting for a thread of the pool from a thread of the pool.
+     */
+    private static final ThreadLocal<Boolean> UPDATE_THREAD = new ThreadLocal<Boolean>();
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<EntityReference> resolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The threads updating the documents, lazily created.
+     */
+    private ExecutorService executor;
+
+    @Override
+    public void dispose()
+    {
+        synchronized (this) {
+            if (this.executor != null) {
+                this.executor.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    public void updateMandatoryDocuments(XWikiContext context) throws XWikiException
+    {
+        Map<DocumentReference, List<MandatoryDocumentInitializer>> documents = getMandatoryDocuments(context);
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        String wiki = context.getDatabase();
+        String fingerprint = null;
+        if ("1".equals(context.getWiki().Param("xwiki.mandatorydocuments.skipUnchanged", "0"))) {
+            fingerprint = getFingerprint(documents);
+            if (fingerprint != null && fingerprint.equals(readFingerprint(context))
+                && exist(documents.keySet(), context)) {
+                this.logger.debug("Mandatory documents of wiki [{}] are up to date", wiki);
+
+                return;
+            }
+        }
+
+        int threads = (int) context.getWiki().ParamAsLong("xwiki.mandatorydocuments.threads", 1);
+        if (threads > 1 && documents.size() > 1 && UPDATE_THREAD.get() == null) {
+            updateDocuments(documents, threads, context);
+        } else {
+            for (Map.Entry<DocumentReference, List<MandatoryDocumentInitializer>> entry : documents.entrySet()) {
+                updateDocument(entry.getKey(), entry.getValue(), context);
+            }
+        }
+
+        if (fingerprint != null) {
+            writeFingerprint(fingerprint, context);
+        }
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return the initializers of the current wiki indexed by the document they update
+     * @throws XWikiException when failing to lookup the initializers
+     */
+    private Map<DocumentReference, List<MandatoryDocumentInitializer>> getMandatoryDocuments(XWikiContext context)
+        throws XWikiException
+    {
+        List<MandatoryDocumentInitializer> initializers;
+        try {
+            initializers = this.componentManagerProvider.get().getInstanceList(MandatoryDocumentInitializer.class);
+        } catch (ComponentLookupException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Failed to lookup mandatory document initializers", e);
+        }
+
+        Map<DocumentReference, List<MandatoryDocumentInitializer>> documents =
+            new LinkedHashMap<DocumentReference, List<MandatoryDocumentInitializer>>();
+        for (MandatoryDocumentInitializer initializer : initializers) {
+            DocumentReference documentReference = this.resolver.resolve(initializer.getDocumentReference());
+
+            if (documentReference.getWikiReference().getName().equals(context.getDatabase())) {
+                List<MandatoryDocumentInitializer> documentInitializers = documents.get(documentReference);
+                if (documentInitializers == null) {
+                    documentInitializers = new ArrayList<MandatoryDocumentInitializer>();
+                    documents.put(documentReference, documentInitializers);
+                }
+                documentInitializers.add(initializer);
+            }
+        }
+
+        return documents;
+    }
+
+    /**
+     * @param reference the reference of the document to update
+     * @param initializers the initializers of the document
+     * @param context the XWiki context
+     * @throws XWikiException when failing to load or save the document
+     */
+    private void updateDocument(DocumentReference reference, List<MandatoryDocumentInitializer> initializers,
+        XWikiContext context) throws XWikiException
+    {
+        XWikiDocument document = context.getWiki().getDocument(reference, context);
+
+        boolean modified = false;
+        for (MandatoryDocumentInitializer initializer : initializers) {
+            modified |= initializer.updateDocument(document);
+        }
+
+        if (modified) {
+            context.getWiki().saveDocument(document, context);
+        }
+    }
+
+    /**
+     * Update the documents using a bounded pool of threads, each document with its own copy of the XWiki context.
+     * 
+     * @param documents the initializers indexed by the document they update
+     * @param threads the maximum number of threads to use
+     * @param context the XWiki context
+     * @throws XWikiException when failing to update one of the documents
+     */
+    private void updateDocuments(Map<DocumentReference, List<MandatoryDocumentInitializer>> documents, int threads,
+        XWikiContext context) throws XWikiException
+    {
+        ExecutorService updateExecutor = getExecutor(threads);
+
+        Map<DocumentReference, Future<Void>> results = new LinkedHashMap<DocumentReference, Future<Void>>();
+        for (final Map.Entry<DocumentReference, List<MandatoryDocumentInitializer>> entry : documents.entrySet()) {
+            final XWikiContext documentContext = context.clone();
+            // Each thread has to use its own store session
+            documentContext.remove("hibsession");
+            documentContext.remove("hibtransaction");
+            results.put(entry.getKey(), updateExecutor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    updateDocumentInThread(entry.getKey(), entry.getValue(), documentContext);
+
+                    return null;
+                }
+            }));
+        }
+
+        XWikiException failure = null;
+        try {
+            for (Map.Entry<DocumentReference, Future<Void>> result : results.entrySet()) {
+                try {
+                    result.getValue().get();
+                } catch (ExecutionException e) {
+                    this.logger.error("Failed to update mandatory document [{}]", result.getKey(), e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause() instanceof XWikiException ? (XWikiException) e.getCause()
+                            : new XWikiException(XWikiException.MODULE_XWIKI, XWikiException.ERROR_XWIKI_UNKNOWN,
+                                "Failed to update mandatory document [" + result.getKey() + "]", e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new XWikiException(XWikiException.MODULE_XWIKI, XWikiException.ERROR_XWIKI_UNKNOWN,
+                "Interrupted while updating the mandatory documents of wiki [" + context.getDatabase() + "]", e);
+        } finally {
+            for (Future<Void> result : results.values()) {
+                result.cancel(true);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Update a document in a thread of the pool.
+     * 
+     * @param reference the reference of the document to update
+     * @param initializers the initializers of the document
+     * @param context the copy of the XWiki context to use in this thread
+     * @throws XWikiException when failing to load or save the document
+     */
+    private void updateDocumentInThread(DocumentReference reference,
+        List<MandatoryDocumentInitializer> initializers, XWikiContext context) throws XWikiException
+    {
+        ExecutionContext executionContext = new ExecutionContext();
+        context.declareInExecutionContext(executionContext);
+        this.execution.setContext(executionContext);
+        UPDATE_THREAD.set(Boolean.TRUE);
+
+        try {
+            updateDocument(reference, initializers, context);
+        } finally {
+            UPDATE_THREAD.remove();
+            this.execution.removeContext();
+        }
+    }
+
+    /**
+     * @param threads the number of threads of the pool when it's created
+     * @return the threads updating the documents
+     */
+    private synchronized ExecutorService getExecutor(int threads)
+    {
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(threads, new BasicThreadFactory.Builder()
+                .namingPattern("XWiki mandatory documents update thread %d").daemon(true).build());
+        }
+
+        return this.executor;
+    }
+
+    /**
+     * @param documents the initializers indexed by the document they update
+     * @return a fingerprint of the initializers and of their versions, {@code null} if the version of one of the
+     *         initializers is unknown
+     */
+    String getFingerprint(Map<DocumentReference, List<MandatoryDocumentInitializer>> documents)
+    {
+        // Sorted so that the fingerprint does not depend on the order of the components
+        Map<String, String> entries = new TreeMap<String, String>();
+        for (Map.Entry<DocumentReference, List<MandatoryDocumentInitializer>> entry : documents.entrySet()) {
+            StringBuilder builder = new StringBuilder();
+            for (MandatoryDocumentInitializer initializer : entry.getValue()) {
+                String version = getVersion(initializer.getClass());
+                if (version == null) {
+                    return null;
+                }
+                builder.append(initializer.getClass().getName()).append('@').append(version).append(';');
+            }
+            entries.put(this.localSerializer.serialize(entry.getKey()), builder.toString());
+        }
+
+        return DigestUtils.md5Hex(entries.toString());
+    }
+
+    /**
+     * @param initializerClass the class of an initializer
+     * @return the version of the code providing the class, {@code null} if it's unknown
+     */
+    private String getVersion(Class< ? > initializerClass)
+    {
+        Package initializerPackage = initializerClass.getPackage();
+        String version = initializerPackage != null ? initializerPackage.getImplementationVersion() : null;
+        if (version != null && !version.endsWith(SNAPSHOT)) {
+            return version;
+        }
+
+        // Snapshot or unknown version: rely on the last modification date of the file providing the class
+        CodeSource codeSource = initializerClass.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation() != null
+            && "file".equals(codeSource.getLocation().getProtocol())) {
+            try {
+                File file = new File(codeSource.getLocation().toURI());
+                if (file.isDirectory()) {
+                    file = new File(file, initializerClass.getName().replace('.', '/') + ".class");
+                }
+                if (file.exists()) {
+                    return String.valueOf(file.lastModified());
+                }
+            } catch (URISyntaxException e) {
+                this.logger.debug("Failed to locate class [{}]", initializerClass, e);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param references the references of the mandatory documents
+     * @param context the XWiki context
+     * @return true if all the documents exist in the current wiki
+     */
+    private boolean exist(Iterable<DocumentReference> references, XWikiContext context)
+    {
+        List<String> fullNames = new ArrayList<String>();
+        for (DocumentReference reference : references) {
+            fullNames.add(this.localSerializer.serialize(reference));
+        }
+
+        String where = "where doc.fullName in (" + StringUtils.repeat("?", ", ", fullNames.size()) + ")";
+        try {
+            return context.getWiki().getStore().countDocuments(where, fullNames, context) == fullNames.size();
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to check the mandatory documents of wiki [{}]: {}", context.getDatabase(),
+                e.getMessage());
+
+            return false;
+        }
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return the reference of the document holding the fingerprint of the current wiki
+     */
+    private DocumentReference getFingerprintReference(XWikiContext context)
+    {
+        return new DocumentReference(context.getDatabase(), FINGERPRINT_SPACE, FINGERPRINT_PAGE);
+    }
+
+    /**
+     * @param context the XWiki context
+     * @return the fingerprint recorded the last time the mandatory documents of the current wiki were updated,
+     *         {@code null} if none
+     */
+    private String readFingerprint(XWikiContext context)
+    {
+        try {
+            XWikiDocument document = context.getWiki().getDocument(getFingerprintReference(context), context);
+            if (!document.isNew()) {
+                return StringUtils.trimToNull(document.getContent());
+            }
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to read the mandatory documents fingerprint of wiki [{}]: {}",
+                context.getDatabase(), e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * @param fingerprint the fingerprint of the initializers used to update the mandatory documents of the wiki
+     * @param context the XWiki context
+     */
+    private void writeFingerprint(String fingerprint, XWikiContext context)
+    {
+        try {
+            XWikiDocument document = context.getWiki().getDocument(getFingerprintReference(context), context);
+            if (fingerprint.equals(StringUtils.trim(document.getContent())) && !document.isNew()) {
+                return;
+            }
+
+            if (document.getCreatorReference() == null) {
+                document.setCreator(XWikiRightService.SUPERADMIN_USER);
+            }
+            if (document.getAuthorReference() == null) {
+                document.setAuthorReference(document.getCreatorReference());
+            }
+            document.setSyntax(Syntax.PLAIN_1_0);
+            document.setHidden(true);
+            document.setContent(fingerprint);
+
+            context.getWiki().saveDocument(document, "Mandatory documents updated", true, context);
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to write the mandatory documents fingerprint of wiki [{}]: {}",
+                context.getDatabase(), e.getMessage());
+        }
+    }
+}
@@ -17,12 +17,29 @@
  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
-package com.xpn.xwiki.store;
+package com.xpn.xwiki.internal.mandatory;
 
-public class XWikiBatcherFactory
+import org.xwiki.component.annotation.Role;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Make sure the documents provided by the {@link com.xpn.xwiki.doc.MandatoryDocumentInitializer} components exist and
+ * are up to date in a wiki. Called when the wiki is initialized, that is when XWiki starts for the main wiki and on
+ * first access for the other wikis.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Role
+public interface MandatoryDocumentsUpdater
 {
+    /**
+     * Update the mandatory documents of the current wiki.
+     * 
+     * @param context the XWiki context, pointing to the wiki to update
+     * @throws XWikiException when failing to load or save a mandatory document
+     */
+    void updateMandatoryDocuments(XWikiContext context) throws XWikiException;
 }
-/*
- * public class XWikiBatcherFactory extends BatchingBatcherFactory { public Batcher createBatcher(ConnectionManager
- * cmgr, Interceptor interceptor) { return new XWikiBatcher( cmgr, interceptor ); } }
- */
@@ -0,0 +1,353 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+import com.xpn.xwiki.monitor.ProfileStatistics;
+import com.xpn.xwiki.monitor.RequestProfile;
+import com.xpn.xwiki.monitor.RequestProfiler;
+
+/**
+ * Default request profiler, the profiles are attached to the thread handling the request. The statistics are exposed
+ * through JMX and the requests slower than a configured threshold are logged with the details of their profile.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Singleton
+public class DefaultRequestProfiler implements RequestProfiler, RequestProfilerMBean, Initializable, Disposable
+{
+    /**
+     * The name of the profiler in JMX.
+     */
+    private static final String MBEAN_NAME = "org.xwiki:type=RequestProfiler";
+
+    /**
+     * Prefix of the configuration properties of the profiler.
+     */
+    private static final String PROPNAME_PREFIX = "core.profiler.";
+
+    /**
+     * Name of the property indicating which proportion of the requests are profiled.
+     */
+    private static final String PROPNAME_SAMPLE_RATE = PROPNAME_PREFIX + "sampleRate";
+
+    /**
+     * Name of the property indicating the duration above which a request is logged.
+     */
+    private static final String PROPNAME_SLOW_REQUEST_THRESHOLD = PROPNAME_PREFIX + "slowRequestThreshold";
+
+    /**
+     * Used to read the sampling and slow request configuration.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to log the slow requests.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The profile of the request handled by each thread.
+     */
+    private final ThreadLocal<RequestProfile> currentProfile = new ThreadLocal<RequestProfile>();
+
+    /**
+     * The profiles of the running requests, by thread.
+     */
+    private final Map<Thread, RequestProfile> activeProfiles = new ConcurrentHashMap<Thread, RequestProfile>();
+
+    /**
+     * The statistics of the profiled requests, by category.
+     */
+    private final Map<String, ProfileStatistics> statistics = new LinkedHashMap<String, ProfileStatistics>();
+
+    /**
+     * The number of requests handled.
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * The number of requests profiled.
+     */
+    private final AtomicLong profiledRequestCount = new AtomicLong();
+
+    /**
+     * The number of requests slower than the threshold.
+     */
+    private final AtomicLong slowRequestCount = new AtomicLong();
+
+    /**
+     * The total duration of the requests, in milliseconds.
+     */
+    private final AtomicLong totalDuration = new AtomicLong();
+
+    /**
+     * One request out of this number is profiled, 0 means that profiling is disabled.
+     */
+    private volatile int sampleRate;
+
+    /**
+     * The duration in milliseconds above which a request is logged, 0 means that slow requests are not logged.
+     */
+    private volatile long slowRequestThreshold;
+
+    /**
+     * Whether the profiler has been registered in JMX.
+     */
+    private boolean registered;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.sampleRate = this.configuration.getProperty(PROPNAME_SAMPLE_RATE, 0);
+        this.slowRequestThreshold = this.configuration.getProperty(PROPNAME_SLOW_REQUEST_THRESHOLD, 0L);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new StandardMBean(this, RequestProfilerMBean.class), new ObjectName(MBEAN_NAME));
+            this.registered = true;
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the request profiler in JMX: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.registered) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+            } catch (JMException e) {
+                this.logger.debug("Failed to unregister the request profiler from JMX", e);
+            }
+        }
+    }
+
+    @Override
+    public void startRequest(String action, String url)
+    {
+        int rate = this.sampleRate;
+        long count = this.requestCount.incrementAndGet();
+        RequestProfile profile =
+            new RequestProfile(action, url, Thread.currentThread().getName(), rate > 0 && count % rate == 0);
+
+        this.currentProfile.set(profile);
+        this.activeProfiles.put(Thread.currentThread(), profile);
+    }
+
+    @Override
+    public RequestProfile endRequest()
+    {
+        RequestProfile profile = this.currentProfile.get();
+        if (profile == null) {
+            return null;
+        }
+
+        this.currentProfile.remove();
+        this.activeProfiles.remove(Thread.currentThread());
+
+        profile.end();
+        this.totalDuration.addAndGet(profile.getDuration());
+        if (profile.isDetailed()) {
+            this.profiledRequestCount.incrementAndGet();
+            synchronized (this.statistics) {
+                for (Map.Entry<String, ProfileStatistics> entry : profile.getStatistics().entrySet()) {
+                    ProfileStatistics categoryStatistics = this.statistics.get(entry.getKey());
+                    if (categoryStatistics == null) {
+                        categoryStatistics = new ProfileStatistics();
+                        this.statistics.put(entry.getKey(), categoryStatistics);
+                    }
+                    categoryStatistics.add(entry.getValue());
+                }
+            }
+        }
+
+        long threshold = this.slowRequestThreshold;
+        if (threshold > 0 && profile.getDuration() >= threshold) {
+            this.slowRequestCount.incrementAndGet();
+            this.logger.warn("Slow request: {}", profile);
+        }
+
+        return profile;
+    }
+
+    @Override
+    public long start()
+    {
+        RequestProfile profile = this.currentProfile.get();
+
+        return profile != null && profile.isDetailed() ? System.nanoTime() : -1;
+    }
+
+    @Override
+    public void end(String category, long start)
+    {
+        if (start >= 0) {
+            RequestProfile profile = this.currentProfile.get();
+            if (profile != null) {
+                profile.add(category, System.nanoTime() - start);
+            }
+        }
+    }
+
+    @Override
+    public void count(String category)
+    {
+        RequestProfile profile = this.currentProfile.get();
+        if (profile != null && profile.isDetailed()) {
+            profile.add(category, 0);
+        }
+    }
+
+    @Override
+    public RequestProfile getCurrentProfile()
+    {
+        RequestProfile profile = this.currentProfile.get();
+
+        return profile != null && profile.isDetailed() ? profile : null;
+    }
+
+    @Override
+    public Map<String, ProfileStatistics> getStatistics()
+    {
+        Map<String, ProfileStatistics> copy = new LinkedHashMap<String, ProfileStatistics>();
+        synchronized (this.statistics) {
+            for (Map.Entry<String, ProfileStatistics> entry : this.statistics.entrySet()) {
+                ProfileStatistics categoryStatistics = new ProfileStatistics();
+                categoryStatistics.add(entry.getValue());
+                copy.put(entry.getKey(), categoryStatistics);
+            }
+        }
+
+        return copy;
+    }
+
+    @Override
+    public long getRequestCount()
+    {
+        return this.requestCount.get();
+    }
+
+    @Override
+    public long getProfiledRequestCount()
+    {
+        return this.profiledRequestCount.get();
+    }
+
+    @Override
+    public long getSlowRequestCount()
+    {
+        return this.slowRequestCount.get();
+    }
+
+    @Override
+    public long getAverageRequestDuration()
+    {
+        long count = this.requestCount.get() - this.activeProfiles.size();
+
+        return count > 0 ? this.totalDuration.get() / count : 0;
+    }
+
+    @Override
+    public int getSampleRate()
+    {
+        return this.sampleRate;
+    }
+
+    @Override
+    public void setSampleRate(int sampleRate)
+    {
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public long getSlowRequestThreshold()
+    {
+        return this.slowRequestThreshold;
+    }
+
+    @Override
+    public void setSlowRequestThreshold(long slowRequestThreshold)
+    {
+        this.slowRequestThreshold = slowRequestThreshold;
+    }
+
+    @Override
+    public String[] getOperationStatistics()
+    {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, ProfileStatistics> entry : getStatistics().entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue());
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public String[] getActiveRequests()
+    {
+        List<String> lines = new ArrayList<String>();
+        for (RequestProfile profile : this.activeProfiles.values()) {
+            lines.add(profile.getThreadName() + ": " + profile.getAction() + ' ' + profile.getURL() + " ("
+                + profile.getDuration() + " ms)");
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public void reset()
+    {
+        this.requestCount.set(this.activeProfiles.size());
+        this.profiledRequestCount.set(0);
+        this.slowRequestCount.set(0);
+        this.totalDuration.set(0);
+        synchronized (this.statistics) {
+            this.statistics.clear();
+        }
+    }
+}
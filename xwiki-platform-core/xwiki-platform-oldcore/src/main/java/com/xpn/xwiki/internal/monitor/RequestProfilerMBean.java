@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.monitor;
+
+/**
+ * The JMX interface of the request profiler.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+public interface RequestProfilerMBean
+{
+    /**
+     * @return the number of requests handled since the last reset
+     */
+    long getRequestCount();
+
+    /**
+     * @return the number of requests which have been profiled since the last reset
+     */
+    long getProfiledRequestCount();
+
+    /**
+     * @return the number of requests which took longer than the slow request threshold since the last reset
+     */
+    long getSlowRequestCount();
+
+    /**
+     * @return the average duration of the requests in milliseconds
+     */
+    long getAverageRequestDuration();
+
+    /**
+     * @return one request out of this number is profiled, 0 means that profiling is disabled
+     */
+    int getSampleRate();
+
+    /**
+     * @param sampleRate one request out of this number is profiled, 0 disables profiling
+     */
+    void setSampleRate(int sampleRate);
+
+    /**
+     * @return the duration in milliseconds above which a request is logged as slow, 0 means that slow requests are
+     *         not logged
+     */
+    long getSlowRequestThreshold();
+
+    /**
+     * @param slowRequestThreshold the duration in milliseconds above which a request is logged as slow, 0 disables
+     *            the log
+     */
+    void setSlowRequestThreshold(long slowRequestThreshold);
+
+    /**
+     * @return the statistics of the operations made by the profiled requests, one line per category
+     */
+    String[] getOperationStatistics();
+
+    /**
+     * @return the requests which are currently running
+     */
+    String[] getActiveRequests();
+
+    /**
+     * Reset the counters and statistics.
+     */
+    void reset();
+}
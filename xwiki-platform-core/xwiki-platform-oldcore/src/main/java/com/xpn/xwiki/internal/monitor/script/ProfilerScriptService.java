@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.monitor.script;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.script.service.ScriptService;
+
+import com.xpn.xwiki.monitor.ProfileStatistics;
+import com.xpn.xwiki.monitor.RequestProfile;
+import com.xpn.xwiki.monitor.RequestProfiler;
+
+/**
+ * Exposes the {@link RequestProfiler} to scripts.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Named("profiler")
+@Singleton
+public class ProfilerScriptService implements ScriptService
+{
+    /**
+     * The profiler.
+     */
+    @Inject
+    private RequestProfiler profiler;
+
+    /**
+     * Used to check programming rights.
+     */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * @return the profile of the current request so far, null if the current request is not profiled
+     */
+    public RequestProfile getCurrentProfile()
+    {
+        return this.profiler.getCurrentProfile();
+    }
+
+    /**
+     * @return the statistics of the operations made by all the profiled requests, by category, or an empty map if
+     *         the current document doesn't have programming rights
+     */
+    public Map<String, ProfileStatistics> getStatistics()
+    {
+        if (!this.documentAccessBridge.hasProgrammingRights()) {
+            return Collections.emptyMap();
+        }
+
+        return this.profiler.getStatistics();
+    }
+}
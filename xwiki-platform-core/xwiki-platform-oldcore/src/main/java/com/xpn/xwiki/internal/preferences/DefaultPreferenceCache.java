@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.preferences;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.internal.cache.DocumentCache;
+
+/**
+ * Default implementation of {@link PreferenceCache}.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Singleton
+public class DefaultPreferenceCache implements PreferenceCache, Initializable, Disposable
+{
+    /**
+     * Identifier of the preference cache.
+     */
+    private static final String NAME = "core.preferencecache";
+
+    /**
+     * Name of the property indicating if the cache is enabled or not.
+     */
+    private static final String PROPNAME_ENABLED = NAME + ".enabled";
+
+    /**
+     * Name of the property indicating the maximum number of preference values to keep.
+     */
+    private static final String PROPNAME_SIZE = NAME + ".size";
+
+    /**
+     * The default size of the cache.
+     */
+    private static final int PROPVALUE_SIZE = 10000;
+
+    /**
+     * xwiki.properties file configurations.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * The resolved preferences, invalidated when the preferences document changes.
+     */
+    @Inject
+    private DocumentCache<String> cache;
+
+    /**
+     * True if the cache is enabled.
+     */
+    private boolean enabled;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.enabled = this.configuration.getProperty(PROPNAME_ENABLED, Boolean.TRUE);
+
+        if (this.enabled) {
+            CacheConfiguration cacheConfiguration = new CacheConfiguration();
+            cacheConfiguration.setConfigurationId(NAME);
+            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            lru.setMaxEntries(this.configuration.getProperty(PROPNAME_SIZE, PROPVALUE_SIZE));
+            cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+            try {
+                this.cache.create(cacheConfiguration);
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to initialize core preference cache", e);
+            }
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.enabled) {
+            this.cache.dispose();
+        }
+    }
+
+    @Override
+    public String getPreference(DocumentReference preferencesReference, String language, String preference)
+    {
+        return this.enabled ? this.cache.get(preferencesReference, language, preference) : null;
+    }
+
+    @Override
+    public long getVersion()
+    {
+        return this.enabled ? this.cache.getVersion() : 0;
+    }
+
+    @Override
+    public void setPreference(DocumentReference preferencesReference, String language, String preference,
+        String value, long version)
+    {
+        if (this.enabled) {
+            this.cache.set(value, version, preferencesReference, language, preference);
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        if (this.enabled) {
+            this.cache.removeAll();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.preferences;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Remember the preference values resolved from the preferences documents (wiki preferences, space preferences and
+ * user profiles) so that skins and templates asking for dozens of preferences on each request don't have to load the
+ * preferences document and look for the right object every time.
+ * <p>
+ * Values are bound to the document they have been read from and are automatically removed from the cache when this
+ * document is created, modified or deleted (locally or on another cluster member). Values which are not set are cached
+ * as empty strings.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Role
+public interface PreferenceCache
+{
+    /**
+     * @param preferencesReference the reference of the document holding the preference
+     * @param language the language of the preference object, {@code null} for user preferences
+     * @param preference the name of the preference
+     * @return the cached value, an empty string if the preference is known not to be set in the document or
+     *         {@code null} if the preference has not been resolved yet
+     */
+    String getPreference(DocumentReference preferencesReference, String language, String preference);
+
+    /**
+     * @return the current version of the cache, to read before loading the preferences document and to pass to
+     *         {@link #setPreference(DocumentReference, String, String, String, long)}
+     */
+    long getVersion();
+
+    /**
+     * Remember the resolved value unless a document has been modified since the provided version has been read, in
+     * which case the value may have been read from an outdated preferences document.
+     * 
+     * @param preferencesReference the reference of the document holding the preference
+     * @param language the language of the preference object, {@code null} for user preferences
+     * @param preference the name of the preference
+     * @param value the resolved value, an empty string if the preference is not set in the document
+     * @param version the value returned by {@link #getVersion()} before loading the preferences document
+     */
+    void setPreference(DocumentReference preferencesReference, String language, String preference, String value,
+        long version);
+
+    /**
+     * Remove all the cached preferences.
+     */
+    void flush();
+}
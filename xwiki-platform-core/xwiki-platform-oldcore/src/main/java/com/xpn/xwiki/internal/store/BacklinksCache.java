@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Keep the documents linking to a given page so that "what links here" and the refactoring of a page don't have to
+ * query the links table again as long as the links to the page don't change.
+ * <p>
+ * Entries are indexed by wiki and by link target, as stored in the links table. The store removes the entries of the
+ * targets whose links changed when saving or deleting a document. Documents modified on another cluster member
+ * remove all the entries since the links they changed are not known.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Role
+public interface BacklinksCache
+{
+    /**
+     * @param wiki the wiki where the links are stored
+     * @param link the link target, as stored in the links table
+     * @return the documents linking to the target or {@code null} if they are not cached
+     */
+    List<DocumentReference> get(String wiki, String link);
+
+    /**
+     * The version is incremented each time entries are removed. Read it before querying the links table and pass it
+     * to {@link #set(String, String, List, long)} so that backlinks loaded before a concurrent modification of the
+     * links are not cached after this modification has been committed.
+     * 
+     * @return the current version of the cache
+     */
+    long getVersion();
+
+    /**
+     * @param wiki the wiki where the links are stored
+     * @param link the link target, as stored in the links table
+     * @param backlinks the documents linking to the target
+     * @param version the value returned by {@link #getVersion()} before querying the links table
+     * @return true if the backlinks have been cached, false if entries have been removed since the provided version
+     */
+    boolean set(String wiki, String link, List<DocumentReference> backlinks, long version);
+
+    /**
+     * Remove the entries of targets whose links changed. This should be called once the modification of the links
+     * is committed.
+     * 
+     * @param wiki the wiki where the links are stored
+     * @param links the link targets, as stored in the links table
+     */
+    void remove(String wiki, Collection<String> links);
+
+    /**
+     * Remove all the entries.
+     */
+    void removeAll();
+}
@@ -0,0 +1,241 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+/**
+ * Default implementation of {@link BacklinksCache}.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Singleton
+public class DefaultBacklinksCache implements BacklinksCache, Initializable, Disposable
+{
+    /**
+     * Identifier of the backlinks cache.
+     */
+    private static final String NAME = "core.backlinkscache";
+
+    /**
+     * Name of the property indicating if the cache is enabled or not.
+     */
+    private static final String PROPNAME_ENABLED = NAME + ".enabled";
+
+    /**
+     * Name of the property indicating the maximum number of link targets to keep.
+     */
+    private static final String PROPNAME_SIZE = NAME + ".size";
+
+    /**
+     * The default size of the cache.
+     */
+    private static final int PROPVALUE_SIZE = 10000;
+
+    /**
+     * Events after which the cache might not match the links table anymore.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event> asList(new DocumentCreatedEvent(),
+        new DocumentUpdatedEvent(), new DocumentDeletedEvent(), new WikiDeletedEvent());
+
+    /**
+     * Empty the cache when documents are modified on another cluster member or when a wiki is deleted.
+     */
+    private final EventListener listener = new EventListener()
+    {
+        @Override
+        public String getName()
+        {
+            return NAME;
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return EVENTS;
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            if (event instanceof WikiDeletedEvent || remoteObservationManagerContext.isRemoteState()) {
+                removeAll();
+            }
+        }
+    };
+
+    /**
+     * xwiki.properties file configurations.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to create the cache.
+     */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * Used to register the listener emptying the cache.
+     */
+    @Inject
+    private ObservationManager observationManager;
+
+    /**
+     * Used to know if a received event is a local or remote one.
+     */
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    /**
+     * The documents linking to each target, {@code null} when the cache is disabled.
+     */
+    private Cache<List<DocumentReference>> cache;
+
+    /**
+     * Incremented each time entries are removed, see {@link #getVersion()}.
+     */
+    private volatile long version;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        if (this.configuration.getProperty(PROPNAME_ENABLED, Boolean.TRUE)) {
+            CacheConfiguration cacheConfiguration = new CacheConfiguration();
+            cacheConfiguration.setConfigurationId(NAME);
+            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            lru.setMaxEntries(this.configuration.getProperty(PROPNAME_SIZE, PROPVALUE_SIZE));
+            cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+            try {
+                this.cache = this.cacheManager.createNewCache(cacheConfiguration);
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to initialize the backlinks cache", e);
+            }
+
+            this.observationManager.addListener(this.listener);
+        }
+    }
+
+    @Override
+    public List<DocumentReference> get(String wiki, String link)
+    {
+        if (this.cache == null) {
+            return null;
+        }
+
+        List<DocumentReference> backlinks = this.cache.get(getKey(wiki, link));
+
+        // Callers are free to modify the returned list
+        return backlinks != null ? new ArrayList<DocumentReference>(backlinks) : null;
+    }
+
+    @Override
+    public long getVersion()
+    {
+        return this.version;
+    }
+
+    @Override
+    public synchronized boolean set(String wiki, String link, List<DocumentReference> backlinks, long expectedVersion)
+    {
+        if (this.cache == null || expectedVersion != this.version) {
+            return false;
+        }
+
+        this.cache.set(getKey(wiki, link), Collections.unmodifiableList(new ArrayList<DocumentReference>(backlinks)));
+
+        return true;
+    }
+
+    @Override
+    public synchronized void remove(String wiki, Collection<String> links)
+    {
+        ++this.version;
+
+        if (this.cache != null) {
+            for (String link : links) {
+                this.cache.remove(getKey(wiki, link));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeAll()
+    {
+        ++this.version;
+
+        if (this.cache != null) {
+            this.cache.removeAll();
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.cache != null) {
+            this.observationManager.removeListener(NAME);
+            this.cache.dispose();
+        }
+    }
+
+    /**
+     * @param wiki the wiki where the links are stored
+     * @param link the link target
+     * @return the cache key
+     */
+    private String getKey(String wiki, String link)
+    {
+        // Wiki names can't contain ':'
+        return wiki + ':' + link;
+    }
+}
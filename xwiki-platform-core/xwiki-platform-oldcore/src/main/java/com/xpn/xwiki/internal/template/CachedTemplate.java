@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+/**
+ * The resolved content of a template, as stored in the {@link TemplateCache}. A template which could not be found is
+ * represented by {@link #NOT_FOUND} so that repeated lookups of missing templates don't probe the skin again.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+public final class CachedTemplate
+{
+    /**
+     * Marker used for templates which don't exist in a given skin.
+     */
+    public static final CachedTemplate NOT_FOUND = new CachedTemplate(null, null);
+
+    /**
+     * The content of the template.
+     */
+    private final String content;
+
+    /**
+     * A description of where the template has been found (used for debugging).
+     */
+    private final String source;
+
+    /**
+     * @param content the content of the template
+     * @param source a description of where the template has been found
+     */
+    public CachedTemplate(String content, String source)
+    {
+        this.content = content;
+        this.source = source;
+    }
+
+    /**
+     * @return the content of the template or {@code null} if the template could not be found
+     */
+    public String getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return a description of where the template has been found
+     */
+    public String getSource()
+    {
+        return this.source;
+    }
+
+    /**
+     * @return true if the template has been found
+     */
+    public boolean isFound()
+    {
+        return this.content != null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return isFound() ? this.source : "not found";
+    }
+}
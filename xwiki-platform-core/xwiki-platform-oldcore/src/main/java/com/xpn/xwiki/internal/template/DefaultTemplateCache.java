@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.internal.cache.DocumentCache;
+
+/**
+ * Default implementation of {@link TemplateCache}.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Singleton
+public class DefaultTemplateCache implements TemplateCache, Initializable, Disposable
+{
+    /**
+     * Identifier of the template cache.
+     */
+    private static final String NAME = "core.templatecache";
+
+    /**
+     * Name of the property indicating if the cache is enabled or not.
+     */
+    private static final String PROPNAME_ENABLED = NAME + ".enabled";
+
+    /**
+     * Name of the property indicating the maximum number of templates to keep for each kind of template.
+     */
+    private static final String PROPNAME_SIZE = NAME + ".size";
+
+    /**
+     * The default size of the cache.
+     */
+    private static final int PROPVALUE_SIZE = 1000;
+
+    /**
+     * xwiki.properties file configurations.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to create the cache of webapp templates.
+     */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * The templates resolved for a skin, invalidated when the skin document changes.
+     */
+    @Inject
+    private DocumentCache<CachedTemplate> skinCache;
+
+    /**
+     * The templates loaded from the webapp {@code /templates/} directory.
+     */
+    private Cache<CachedTemplate> resourceCache;
+
+    /**
+     * @see #isEnabled()
+     */
+    private boolean enabled;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.enabled = this.configuration.getProperty(PROPNAME_ENABLED, Boolean.TRUE);
+
+        if (this.enabled) {
+            int size = this.configuration.getProperty(PROPNAME_SIZE, PROPVALUE_SIZE);
+
+            try {
+                this.skinCache.create(createCacheConfiguration(NAME + ".skin", size));
+                this.resourceCache = this.cacheManager.createNewCache(createCacheConfiguration(NAME + ".resource",
+                    size));
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to initialize core template cache", e);
+            }
+        }
+    }
+
+    /**
+     * @param id the identifier of the cache
+     * @param size the maximum number of entries
+     * @return the cache configuration
+     */
+    private CacheConfiguration createCacheConfiguration(String id, int size)
+    {
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId(id);
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(size);
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        return cacheConfiguration;
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.enabled) {
+            this.skinCache.dispose();
+            this.resourceCache.dispose();
+        }
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    @Override
+    public CachedTemplate getSkinTemplate(DocumentReference skinReference, String template)
+    {
+        return this.enabled ? this.skinCache.get(skinReference, template) : null;
+    }
+
+    @Override
+    public void setSkinTemplate(DocumentReference skinReference, String template, CachedTemplate cachedTemplate)
+    {
+        if (this.enabled) {
+            this.skinCache.set(cachedTemplate, skinReference, template);
+        }
+    }
+
+    @Override
+    public CachedTemplate getResourceTemplate(String path)
+    {
+        return this.enabled ? this.resourceCache.get(path) : null;
+    }
+
+    @Override
+    public void setResourceTemplate(String path, CachedTemplate cachedTemplate)
+    {
+        if (this.enabled) {
+            this.resourceCache.set(path, cachedTemplate);
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        if (this.enabled) {
+            this.skinCache.removeAll();
+            this.resourceCache.removeAll();
+        }
+    }
+}
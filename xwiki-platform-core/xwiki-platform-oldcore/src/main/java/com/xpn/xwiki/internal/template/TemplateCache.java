@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.template;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Remember where templates are resolved and what they contain so that evaluating a template does not require to probe
+ * the skin document (object, then attachment) and the webapp resources on every request.
+ * <p>
+ * Templates resolved for a skin are bound to the skin document and are automatically removed from the cache when the
+ * skin document is created, modified or deleted (locally or on another cluster member).
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Role
+public interface TemplateCache
+{
+    /**
+     * @return true if the cache is enabled, false if templates should be resolved every time
+     */
+    boolean isEnabled();
+
+    /**
+     * @param skinReference the reference of the skin document
+     * @param template the name of the template
+     * @return the cached template, {@link CachedTemplate#NOT_FOUND} if the template is known to be missing from the
+     *         skin or {@code null} if the template has not been resolved yet
+     */
+    CachedTemplate getSkinTemplate(DocumentReference skinReference, String template);
+
+    /**
+     * @param skinReference the reference of the skin document
+     * @param template the name of the template
+     * @param cachedTemplate the resolved template ({@link CachedTemplate#NOT_FOUND} if it does not exist)
+     */
+    void setSkinTemplate(DocumentReference skinReference, String template, CachedTemplate cachedTemplate);
+
+    /**
+     * @param path the path of the template in the webapp
+     * @return the cached template or {@code null} if the template has not been loaded yet
+     */
+    CachedTemplate getResourceTemplate(String path);
+
+    /**
+     * @param path the path of the template in the webapp
+     * @param cachedTemplate the loaded template
+     */
+    void setResourceTemplate(String path, CachedTemplate cachedTemplate);
+
+    /**
+     * Remove all the cached templates.
+     */
+    void flush();
+}
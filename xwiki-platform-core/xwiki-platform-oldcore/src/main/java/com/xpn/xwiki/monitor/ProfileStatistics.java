@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The number of times an operation has been made and the total time spent in it.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+public class ProfileStatistics
+{
+    /**
+     * The number of times the operation has been made.
+     */
+    private long count;
+
+    /**
+     * The total time spent in the operation, in nanoseconds.
+     */
+    private long time;
+
+    /**
+     * Record one more call of the operation.
+     * 
+     * @param nanos the time spent in the operation, in nanoseconds
+     */
+    public void add(long nanos)
+    {
+        this.count++;
+        this.time += nanos;
+    }
+
+    /**
+     * Add the calls recorded by other statistics to these ones.
+     * 
+     * @param statistics the statistics to add
+     */
+    public void add(ProfileStatistics statistics)
+    {
+        this.count += statistics.count;
+        this.time += statistics.time;
+    }
+
+    /**
+     * @return the number of times the operation has been made
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return the total time spent in the operation, in milliseconds
+     */
+    public long getTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(this.time);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.count + " calls, " + getTime() + " ms";
+    }
+}
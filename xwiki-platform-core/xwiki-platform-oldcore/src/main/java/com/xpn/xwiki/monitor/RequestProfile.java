@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The time spent in the various operations made while handling a request. A profile is only filled by the thread
+ * handling the request.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+public class RequestProfile
+{
+    /**
+     * The action of the request.
+     */
+    private final String action;
+
+    /**
+     * The URL of the request.
+     */
+    private final String url;
+
+    /**
+     * The name of the thread handling the request.
+     */
+    private final String threadName;
+
+    /**
+     * The time when the request started, in milliseconds.
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * True if the operations made by the request are recorded, false if only its duration is.
+     */
+    private final boolean detailed;
+
+    /**
+     * The duration of the request in milliseconds, -1 while it's running.
+     */
+    private long duration = -1;
+
+    /**
+     * The statistics of the operations made by the request, by category.
+     */
+    private final Map<String, ProfileStatistics> statistics = new LinkedHashMap<String, ProfileStatistics>();
+
+    /**
+     * @param action the action of the request
+     * @param url the URL of the request
+     * @param threadName the name of the thread handling the request
+     * @param detailed true if the operations made by the request are recorded, false if only its duration is
+     */
+    public RequestProfile(String action, String url, String threadName, boolean detailed)
+    {
+        this.action = action;
+        this.url = url;
+        this.threadName = threadName;
+        this.detailed = detailed;
+    }
+
+    /**
+     * Record an operation made by the request.
+     * 
+     * @param category the category of the operation, see the constants of {@link RequestProfiler}
+     * @param nanos the time spent in the operation, in nanoseconds
+     */
+    public void add(String category, long nanos)
+    {
+        ProfileStatistics categoryStatistics = this.statistics.get(category);
+        if (categoryStatistics == null) {
+            categoryStatistics = new ProfileStatistics();
+            this.statistics.put(category, categoryStatistics);
+        }
+        categoryStatistics.add(nanos);
+    }
+
+    /**
+     * Mark the end of the request.
+     */
+    public void end()
+    {
+        this.duration = System.currentTimeMillis() - this.startTime;
+    }
+
+    /**
+     * @return the action of the request
+     */
+    public String getAction()
+    {
+        return this.action;
+    }
+
+    /**
+     * @return the URL of the request
+     */
+    public String getURL()
+    {
+        return this.url;
+    }
+
+    /**
+     * @return the name of the thread handling the request
+     */
+    public String getThreadName()
+    {
+        return this.threadName;
+    }
+
+    /**
+     * @return the date when the request started
+     */
+    public Date getStartDate()
+    {
+        return new Date(this.startTime);
+    }
+
+    /**
+     * @return the duration of the request in milliseconds, or the time elapsed since its start if it is still running
+     */
+    public long getDuration()
+    {
+        return this.duration >= 0 ? this.duration : System.currentTimeMillis() - this.startTime;
+    }
+
+    /**
+     * @return true if the operations made by the request are recorded, false if only its duration is
+     */
+    public boolean isDetailed()
+    {
+        return this.detailed;
+    }
+
+    /**
+     * @return the statistics of the operations made by the request, by category. The times of nested operations are
+     *         included in the time of the enclosing ones, for example the time spent loading documents while
+     *         evaluating Velocity is counted in both categories.
+     */
+    public Map<String, ProfileStatistics> getStatistics()
+    {
+        return Collections.unmodifiableMap(this.statistics);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(this.action).append(' ').append(this.url).append(" (").append(getDuration()).append(" ms)");
+        for (Map.Entry<String, ProfileStatistics> entry : this.statistics.entrySet()) {
+            builder.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.monitor;
+
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Records the time spent by each request in the main operations (loading documents, running queries, evaluating
+ * Velocity, etc.). Only a sample of the requests are profiled, depending on the configuration, so that profiling can
+ * stay enabled on a loaded wiki.
+ * <p>
+ * The operations are timed with:
+ * 
+ * <pre>
+ * long start = profiler.start();
+ * try {
+ *     ...
+ * } finally {
+ *     profiler.end(RequestProfiler.STORE_LOAD, start);
+ * }
+ * </pre>
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Role
+public interface RequestProfiler
+{
+    /**
+     * Loading a document from the database.
+     */
+    String STORE_LOAD = "store.load";
+
+    /**
+     * Running a database query.
+     */
+    String QUERY = "query";
+
+    /**
+     * Evaluating a Velocity script.
+     */
+    String VELOCITY = "velocity";
+
+    /**
+     * Rendering a document content, including the execution of its macros.
+     */
+    String RENDERING = "rendering";
+
+    /**
+     * Checking the rights of a user.
+     */
+    String RIGHTS = "rights";
+
+    /**
+     * Getting a document which is in the document cache.
+     */
+    String DOCUMENT_CACHE_HIT = "cache.document.hit";
+
+    /**
+     * Getting a document which is not in the document cache.
+     */
+    String DOCUMENT_CACHE_MISS = "cache.document.miss";
+
+    /**
+     * Start handling a request in the current thread.
+     * 
+     * @param action the action of the request
+     * @param url the URL of the request
+     */
+    void startRequest(String action, String url);
+
+    /**
+     * Stop handling the request of the current thread.
+     * 
+     * @return the profile of the request, null if no request was started
+     */
+    RequestProfile endRequest();
+
+    /**
+     * Start timing an operation.
+     * 
+     * @return the start time to pass to {@link #end(String, long)}, negative if the request of the current thread is
+     *         not profiled
+     */
+    long start();
+
+    /**
+     * Record the end of an operation.
+     * 
+     * @param category the category of the operation
+     * @param start the value returned by {@link #start()} before the operation
+     */
+    void end(String category, long start);
+
+    /**
+     * Record an event which is not timed, like a cache hit.
+     * 
+     * @param category the category of the event
+     */
+    void count(String category);
+
+    /**
+     * @return the profile of the request of the current thread, null if there is no request or if it is not profiled
+     */
+    RequestProfile getCurrentProfile();
+
+    /**
+     * @return the statistics of the operations made by all the profiled requests since the last reset, by category
+     */
+    Map<String, ProfileStatistics> getStatistics();
+}
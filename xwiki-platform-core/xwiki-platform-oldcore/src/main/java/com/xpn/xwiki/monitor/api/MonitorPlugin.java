@@ -30,6 +30,13 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.plugin.XWikiDefaultPlugin;
 
+/**
+ * Times the requests and some of the sections of their processing.
+ *
+ * @version $Id$
+ * @deprecated since 5.3M1, use {@link com.xpn.xwiki.monitor.RequestProfiler} instead
+ */
+@Deprecated
 public class MonitorPlugin extends XWikiDefaultPlugin
 {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(MonitorPlugin.class);
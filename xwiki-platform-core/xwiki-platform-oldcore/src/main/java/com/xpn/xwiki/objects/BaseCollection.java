@@ -34,6 +34,7 @@
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.dom4j.Document;
 import org.dom4j.Element;
@@ -118,6 +119,13 @@
     protected DocumentReferenceResolver<EntityReference> currentReferenceDocumentReferenceResolver = Utils
         .getComponent(DocumentReferenceResolver.TYPE_REFERENCE, "current");
 
+    /**
+     * What the store knows about the rows of this collection since it has been last loaded or saved, {@code null} if
+     * nothing is known. The key includes the identifier of the collection so a copy of this collection which is stored
+     * elsewhere (another document, another number, another wiki) is not considered as persisted.
+     */
+    private transient PersistedState persistedState;
+
     public int getNumber()
     {
         return this.number;
@@ -584,6 +592,84 @@ public boolean equals(Object coll)
         return true;
     }
 
+    /**
+     * @param wiki the wiki where the collection is stored
+     * @return the key identifying the rows of this collection in the database
+     * @since 5.3M1
+     */
+    protected String getPersistedKey(String wiki)
+    {
+        return wiki + ':' + getId();
+    }
+
+    /**
+     * Remember that the current state of this collection is the one stored in the database, this is called by the
+     * store after loading or saving the collection. Only the properties which are not dirty are remembered since the
+     * value of the other ones does not match what is stored.
+     * 
+     * @param wiki the wiki where the collection has been loaded or saved
+     * @since 5.3M1
+     */
+    public void setPersisted(String wiki)
+    {
+        Map<String, Object[]> persistedFields = new HashMap<String, Object[]>();
+        for (Object field : getFieldList()) {
+            if (field instanceof BaseProperty && !((BaseProperty) field).isValueDirty()) {
+                BaseProperty property = (BaseProperty) field;
+                persistedFields.put(property.getName(), new Object[] {property.getClass(), property.getValue()});
+            }
+        }
+        this.persistedState = new PersistedState(getPersistedKey(wiki), persistedFields);
+    }
+
+    /**
+     * Forget what is stored in the database for this collection, for example because it has been deleted.
+     * 
+     * @since 5.3M1
+     */
+    public void resetPersisted()
+    {
+        this.persistedState = null;
+    }
+
+    /**
+     * @param wiki the wiki where the collection is about to be saved
+     * @return true if the collection is known to be stored in the database under its current identifier
+     * @since 5.3M1
+     */
+    public boolean isPersisted(String wiki)
+    {
+        return this.persistedState != null && this.persistedState.key.equals(getPersistedKey(wiki));
+    }
+
+    /**
+     * @param wiki the wiki where the collection is about to be saved
+     * @param property a property of this collection
+     * @return true if a row of the same type is known to be stored in the database for the passed property
+     * @since 5.3M1
+     */
+    public boolean isPersisted(String wiki, BaseProperty property)
+    {
+        if (!isPersisted(wiki)) {
+            return false;
+        }
+        Object[] persistedField = this.persistedState.fields.get(property.getName());
+
+        return persistedField != null && persistedField[0] == property.getClass();
+    }
+
+    /**
+     * @param wiki the wiki where the collection is about to be saved
+     * @param property a property of this collection
+     * @return true if the passed property is known to be stored in the database with its current value
+     * @since 5.3M1
+     */
+    public boolean isPersistedValue(String wiki, BaseProperty property)
+    {
+        return !property.isValueDirty() && isPersisted(wiki, property)
+            && ObjectUtils.equals(this.persistedState.fields.get(property.getName())[1], property.getValue());
+    }
+
     @Override
     public BaseCollection clone()
     {
@@ -865,4 +951,30 @@ public boolean apply(ElementInterface newElement, boolean clean)
 
         return modified;
     }
+
+    /**
+     * The state of a collection as stored in the database.
+     */
+    private static final class PersistedState
+    {
+        /**
+         * @see BaseCollection#getPersistedKey(String)
+         */
+        private final String key;
+
+        /**
+         * The type and the value of each stored property, by name.
+         */
+        private final Map<String, Object[]> fields;
+
+        /**
+         * @param key the key of the stored collection
+         * @param fields the type and the value of each stored property, by name
+         */
+        PersistedState(String key, Map<String, Object[]> fields)
+        {
+            this.key = key;
+            this.fields = fields;
+        }
+    }
 }
@@ -184,6 +184,13 @@ public String displayEdit(String name, XWikiContext context)
         return displayEdit(name, "", context);
     }
 
+    @Override
+    protected String getPersistedKey(String wiki)
+    {
+        // The GUID is stored in the object row, it has to be written again when it changes
+        return super.getPersistedKey(wiki) + ':' + getGuid();
+    }
+
     @Override
     public BaseObject clone()
     {
@@ -39,10 +39,15 @@
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
@@ -126,6 +131,20 @@ public class PdfExportImpl implements PdfExport
     /** XSLT transformer factory. */
     private static TransformerFactory transformerFactory = TransformerFactory.newInstance();
 
+    /** The compiled XSLT style sheets, shared by all the exports. */
+    private static final XSLTemplatesCache TEMPLATES = new XSLTemplatesCache((SAXTransformerFactory) transformerFactory)
+    {
+        @Override
+        protected Source createSource(InputSource input) throws TransformerConfigurationException
+        {
+            try {
+                return createXMLSource(input);
+            } catch (Exception e) {
+                throw new TransformerConfigurationException(e);
+            }
+        }
+    };
+
     /** The Apache FOP instance used for XSL-FO processing. */
     private static FopFactory fopFactory;
 
@@ -262,17 +281,23 @@ protected void exportXHTML(String xhtml, OutputStream out, ExportType type, XWik
     {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Final XHTML for export: " + xhtml);
-        }
-
-        // XSL Transformation to XML-FO
-        String xmlfo = convertXHtmlToXMLFO(xhtml, context);
 
-        // Debug output
-        if (LOGGER.isDebugEnabled()) {
+            // XSL Transformation to XML-FO, kept in memory to be logged
+            String xmlfo = convertXHtmlToXMLFO(xhtml, context);
             LOGGER.debug("XSL-FO source: " + xmlfo);
-        }
 
-        renderXSLFO(xmlfo, out, type, context);
+            renderXSLFO(new StreamSource(new StringReader(xmlfo)), out, type, context);
+        } else {
+            // Stream the XHTML through the XSL transformations right into FOP, without building the XSL-FO documents
+            Source source;
+            try {
+                source = createXMLSource(new InputSource(new StringReader(xhtml)));
+            } catch (Exception e) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT,
+                    XWikiException.ERROR_XWIKI_EXPORT_XSL_FAILED, "XSL Transformation Failed", e);
+            }
+            renderXSLFO(source, out, type, context, getXhtml2FopXslt(context), getFopCleanupXslt(context));
+        }
     }
 
     /**
@@ -297,16 +322,18 @@ private String convertXHtmlToXMLFO(String xhtml, XWikiContext context) throws XW
     }
 
     /**
-     * Convert an XSL-FO document into PDF.
+     * Convert an XSL-FO document into PDF. The document can be produced on the fly by XSLT transformations, the
+     * result of each transformation being streamed to the next one and the result of the last one to FOP.
      * 
-     * @param xmlfo the source FO to render
+     * @param xmlfo the source FO to render, or the source document of the XSLT transformations
      * @param out where to write the resulting document
      * @param type the type of the output: PDF or RTF
      * @param context the XWiki Context used by the custom URI Resolver we use to locate image attachment data
+     * @param stylesheets the XSLT transformations producing the FO, in the order they are applied
      * @throws XWikiException if the conversion fails for any reason
      */
-    private void renderXSLFO(String xmlfo, OutputStream out, ExportType type, final XWikiContext context)
-        throws XWikiException
+    private void renderXSLFO(Source xmlfo, OutputStream out, ExportType type, final XWikiContext context,
+        Templates... stylesheets) throws XWikiException
     {
         try {
             FOUserAgent foUserAgent = fopFactory.newFOUserAgent();
@@ -317,17 +344,20 @@ private void renderXSLFO(String xmlfo, OutputStream out, ExportType type, final
             // Construct fop with desired output format
             Fop fop = fopFactory.newFop(type.getMimeType(), foUserAgent, out);
 
-            // Identity transformer
-            Transformer transformer = transformerFactory.newTransformer();
-
-            // Setup input stream
-            Source source = new StreamSource(new StringReader(xmlfo));
-
             // Resulting SAX events (the generated FO) must be piped through to FOP
             Result res = new SAXResult(fop.getDefaultHandler());
 
+            // Chain the transformations, the first one reading the source
+            for (int i = stylesheets.length - 1; i > 0; i--) {
+                TransformerHandler handler = TEMPLATES.newTransformerHandler(stylesheets[i]);
+                handler.setResult(res);
+                res = new SAXResult(handler);
+            }
+            Transformer transformer =
+                stylesheets.length > 0 ? stylesheets[0].newTransformer() : TEMPLATES.newTransformer();
+
             // Start XSLT transformation and FOP processing
-            transformer.transform(source, res);
+            transformer.transform(xmlfo, res);
 
             // Result processing
             FormattingResults foResults = fop.getResults();
@@ -369,6 +399,41 @@ protected String applyXSLT(String xml, InputStream xslt) throws XWikiException
         }
     }
 
+    /**
+     * Applies a compiled XSLT transformation to an XML document.
+     * 
+     * @param xml the XML document to convert
+     * @param xslt the compiled XSLT to apply, see {@link #getXsltTemplates(String, String, XWikiContext)}
+     * @return the converted document
+     * @throws XWikiException if the transformation fails for any reason
+     * @since 5.3M1
+     */
+    protected String applyXSLT(String xml, Templates xslt) throws XWikiException
+    {
+        try {
+            StringWriter output = new StringWriter();
+            xslt.newTransformer().transform(createXMLSource(new InputSource(new StringReader(xml))),
+                new StreamResult(output));
+            return output.toString();
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT, XWikiException.ERROR_XWIKI_EXPORT_XSL_FAILED,
+                "XSL Transformation Failed", e);
+        }
+    }
+
+    /**
+     * @param input the XML document to read
+     * @return a source reading the document with the XML parser configured for XWiki, which resolves the entities
+     *         locally
+     * @throws Exception if the XML parser cannot be created
+     */
+    private static SAXSource createXMLSource(InputSource input) throws Exception
+    {
+        XMLReader xmlReader = Utils.getComponent(XMLReaderFactory.class).createXMLReader();
+        xmlReader.setEntityResolver(Utils.getComponent(EntityResolver.class));
+        return new SAXSource(xmlReader, input);
+    }
+
     /**
      * Apply CSS styling to an XHTML document. The style to apply is taken from:
      * <ol>
@@ -468,11 +533,12 @@ private void applyInlineStyle(Element element)
      * </ol>
      * 
      * @param context the current request context
-     * @return the content of the XSLT as a byte stream
+     * @return the compiled XSLT
+     * @throws XWikiException if the XSLT cannot be compiled
      */
-    private InputStream getXhtml2FopXslt(XWikiContext context)
+    private Templates getXhtml2FopXslt(XWikiContext context) throws XWikiException
     {
-        return getXslt("xhtmlxsl", DEFAULT_XHTML2FOP_XSLT, context);
+        return getXsltTemplates("xhtmlxsl", DEFAULT_XHTML2FOP_XSLT, context);
     }
 
     /**
@@ -483,11 +549,12 @@ private InputStream getXhtml2FopXslt(XWikiContext context)
      * </ol>
      * 
      * @param context the current request context
-     * @return the content of the XSLT as a byte stream
+     * @return the compiled XSLT
+     * @throws XWikiException if the XSLT cannot be compiled
      */
-    private InputStream getFopCleanupXslt(XWikiContext context)
+    private Templates getFopCleanupXslt(XWikiContext context) throws XWikiException
     {
-        return getXslt("fopxsl", DEFAULT_CLEANUP_XSLT, context);
+        return getXsltTemplates("fopxsl", DEFAULT_CLEANUP_XSLT, context);
     }
 
     /**
@@ -516,6 +583,35 @@ protected InputStream getXslt(String propertyName, String fallbackFile, XWikiCon
         return getClass().getClassLoader().getResourceAsStream(fallbackFile);
     }
 
+    /**
+     * Get a compiled XSLT, read with {@link #getXslt(String, String, XWikiContext)} so that the places where the XSLT
+     * is searched can still be customized. The XSLT is compiled only when it is used for the first time or when its
+     * content has changed since it was compiled.
+     * 
+     * @param propertyName the name of the <tt>XWiki.PDFClass</tt> property to read from the current PDFTemplate
+     *            document
+     * @param fallbackFile the name of a resource file to use when the PDFTemplate does not contain an override
+     * @param context the current request context
+     * @return the compiled XSLT
+     * @throws XWikiException if the XSLT cannot be read or compiled
+     * @since 5.3M1
+     */
+    protected Templates getXsltTemplates(String propertyName, String fallbackFile, XWikiContext context)
+        throws XWikiException
+    {
+        try {
+            InputStream xslt = getXslt(propertyName, fallbackFile, context);
+            if (xslt == null) {
+                throw new IOException("Missing resource [" + fallbackFile + "]");
+            }
+
+            return TEMPLATES.getTemplates(xslt);
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_EXPORT, XWikiException.ERROR_XWIKI_EXPORT_XSL_FAILED,
+                "Failed to compile the XSLT [" + propertyName + "]", e);
+        }
+    }
+
     /**
      * Read a property from the current PDFTemplate document, and pass it through the Velocity engine.
      * 
@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.pdf.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.apache.commons.io.IOUtils;
+import org.xml.sax.InputSource;
+
+/**
+ * Keeps the compiled XSLT style sheets used by the exports, so that a style sheet is compiled only once instead of
+ * once per export. The style sheets are indexed by content so that a style sheet is compiled again when it changes,
+ * wherever it comes from.
+ * <p>
+ * The transformer factory is not thread safe, so it is only used while holding the lock of this cache. The compiled
+ * style sheets are thread safe.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+public class XSLTemplatesCache
+{
+    /**
+     * The maximum number of compiled style sheets which are kept, the cache is emptied when it is reached so that the
+     * memory used stays bounded.
+     */
+    private static final int MAX_CONTENT_TEMPLATES = 50;
+
+    /**
+     * The factory used to compile the style sheets.
+     */
+    private final SAXTransformerFactory transformerFactory;
+
+    /**
+     * The compiled style sheets, by hash of their content.
+     */
+    private final Map<String, Templates> templatesByHash = new ConcurrentHashMap<String, Templates>();
+
+    /**
+     * @param transformerFactory the factory used to compile the style sheets, not used anymore by the caller
+     */
+    public XSLTemplatesCache(SAXTransformerFactory transformerFactory)
+    {
+        this.transformerFactory = transformerFactory;
+    }
+
+    /**
+     * @param stream the content of the style sheet, closed by this method
+     * @return the compiled style sheet
+     * @throws TransformerConfigurationException if the style sheet is not valid
+     * @throws IOException if the style sheet cannot be read
+     */
+    public Templates getTemplates(InputStream stream) throws TransformerConfigurationException, IOException
+    {
+        byte[] xsl;
+        try {
+            xsl = IOUtils.toByteArray(stream);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+
+        String key = hash(xsl);
+        Templates templates = this.templatesByHash.get(key);
+        if (templates == null) {
+            synchronized (this) {
+                templates = this.templatesByHash.get(key);
+                if (templates == null) {
+                    // The encoding is read from the XML declaration
+                    templates = compile(new InputSource(new ByteArrayInputStream(xsl)));
+                    if (this.templatesByHash.size() >= MAX_CONTENT_TEMPLATES) {
+                        this.templatesByHash.clear();
+                    }
+                    this.templatesByHash.put(key, templates);
+                }
+            }
+        }
+
+        return templates;
+    }
+
+    /**
+     * @param templates a compiled style sheet
+     * @return a handler applying the style sheet to the SAX events it receives
+     * @throws TransformerConfigurationException if the handler cannot be created
+     */
+    public synchronized TransformerHandler newTransformerHandler(Templates templates)
+        throws TransformerConfigurationException
+    {
+        return this.transformerFactory.newTransformerHandler(templates);
+    }
+
+    /**
+     * @return a transformer copying its source to its result
+     * @throws TransformerConfigurationException if the transformer cannot be created
+     */
+    public synchronized Transformer newTransformer() throws TransformerConfigurationException
+    {
+        return this.transformerFactory.newTransformer();
+    }
+
+    /**
+     * Forget all the compiled style sheets.
+     */
+    public void clear()
+    {
+        this.templatesByHash.clear();
+    }
+
+    /**
+     * @param input the style sheet to compile
+     * @return the compiled style sheet
+     * @throws TransformerConfigurationException if the style sheet is not valid
+     */
+    private Templates compile(InputSource input) throws TransformerConfigurationException
+    {
+        return this.transformerFactory.newTemplates(createSource(input));
+    }
+
+    /**
+     * @param input the style sheet to read
+     * @return the source used to read the style sheet
+     * @throws TransformerConfigurationException if the source cannot be created
+     */
+    protected Source createSource(InputSource input) throws TransformerConfigurationException
+    {
+        return new SAXSource(input);
+    }
+
+    /**
+     * @param content the content of a style sheet
+     * @return a hash of the content, used to index the style sheet without keeping its content
+     * @throws IOException if the hash algorithm is not available
+     */
+    private String hash(byte[] content) throws IOException
+    {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Failed to hash the style sheet", e);
+        }
+
+        StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return builder.toString();
+    }
+}
@@ -502,4 +502,47 @@ public int getLDAPTimeout(XWikiContext context)
     {
         return (int) getLDAPParamAsLong("ldap_timeout", 1000, context);
     }
+
+    /**
+     * @param context the XWiki context.
+     * @return true if the credentials used to connect to the LDAP server depend on the user being authenticated,
+     *         false if the same credentials are used for every user
+     * @since 5.3M1
+     */
+    public boolean isLDAPBindUserSpecific(XWikiContext context)
+    {
+        return getLDAPBindDN(context).contains("{") || getLDAPBindPassword(context).contains("{");
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return the maximum number of connections opened at the same time to the LDAP server with the configured bind
+     *         user, 0 to disable the connection pool
+     * @since 5.3M1
+     */
+    public int getLDAPPoolSize(XWikiContext context)
+    {
+        return (int) getLDAPParamAsLong("ldap_pool_size", 10, context);
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return the number of seconds after which an idle pooled connection is closed
+     * @since 5.3M1
+     */
+    public int getLDAPPoolIdleTimeout(XWikiContext context)
+    {
+        return (int) getLDAPParamAsLong("ldap_pool_idle_timeout", 300, context);
+    }
+
+    /**
+     * @param context the XWiki context.
+     * @return the number of entries requested in each page of results of the group searches (RFC 2696 paged
+     *         results), 0 to disable paging
+     * @since 5.3M1
+     */
+    public int getLDAPSearchPageSize(XWikiContext context)
+    {
+        return (int) getLDAPParamAsLong("ldap_search_pagesize", 500, context);
+    }
 }
@@ -61,6 +61,21 @@
      */
     private LDAPConnection connection;
 
+    /**
+     * The pool the connection comes from, null if the connection is not pooled.
+     */
+    private XWikiLDAPConnectionPool pool;
+
+    /**
+     * The DN the connection is currently bound with.
+     */
+    private String boundDN;
+
+    /**
+     * The number of entries to request in each page of results of the paged searches, 0 to disable paging.
+     */
+    private int pageSize;
+
     /**
      * @param context the XWiki context.
      * @return the maximum number of milliseconds the client waits for any operation under these constraints to
@@ -102,18 +117,75 @@ public boolean open(String ldapUserName, String password, XWikiContext context)
         String bindDN = config.getLDAPBindDN(ldapUserName, password, context);
         String bindPassword = config.getLDAPBindPassword(ldapUserName, password, context);
 
-        boolean bind;
-        if ("1".equals(config.getLDAPParam("ldap_ssl", "0", context))) {
-            String keyStore = config.getLDAPParam("ldap_ssl.keystore", "", context);
+        this.pageSize = config.getLDAPSearchPageSize(context);
+
+        boolean ssl = "1".equals(config.getLDAPParam("ldap_ssl", "0", context));
+        String keyStore = null;
+        if (ssl) {
+            keyStore = config.getLDAPParam("ldap_ssl.keystore", "", context);
 
             LOGGER.debug("Connecting to LDAP using SSL");
+        }
 
-            bind = open(ldapHost, ldapPort, bindDN, bindPassword, keyStore, true, context);
-        } else {
-            bind = open(ldapHost, ldapPort, bindDN, bindPassword, null, false, context);
+        int poolSize = config.getLDAPPoolSize(context);
+        if (poolSize > 0 && !config.isLDAPBindUserSpecific(context)) {
+            XWikiLDAPConnectionPool connectionPool = XWikiLDAPConnectionPool.getPool(ldapHost, ldapPort, ssl, bindDN,
+                bindPassword, poolSize, config.getLDAPPoolIdleTimeout(context) * 1000L);
+
+            return openPooled(connectionPool, ldapHost, ldapPort, bindPassword, keyStore, ssl, context);
+        }
+
+        return open(ldapHost, ldapPort, bindDN, bindPassword, keyStore, ssl, context);
+    }
+
+    /**
+     * Get a connection from a pool or open a new one if the pool has no idle connection.
+     * 
+     * @param connectionPool the pool to get the connection from
+     * @param ldapHost the host of the server to connect to.
+     * @param ldapPort the port of the server to connect to.
+     * @param password the password to connect to LDAP server.
+     * @param pathToKeys the path to SSL keystore to use.
+     * @param ssl if true connect using SSL.
+     * @param context the XWiki context.
+     * @return true if the connection succeed, false otherwise.
+     * @throws XWikiLDAPException error when trying to open connection.
+     */
+    private boolean openPooled(XWikiLDAPConnectionPool connectionPool, String ldapHost, int ldapPort,
+        String password, String pathToKeys, boolean ssl, XWikiContext context) throws XWikiLDAPException
+    {
+        if (!connectionPool.acquire(getTimeout(context))) {
+            throw new XWikiLDAPException("Timed out while waiting for a LDAP connection to [" + ldapHost + "]");
+        }
+
+        this.pool = connectionPool;
+        this.connection = connectionPool.getIdleConnection();
+        if (this.connection != null) {
+            LOGGER.debug("Reusing pooled connection to LDAP server [{}:{}]", ldapHost, ldapPort);
+
+            this.boundDN = connectionPool.getBindDN();
+            try {
+                setConstraints(connectionPool.getBindDN(), password, context);
+            } catch (LDAPException e) {
+                // Don't give back the connection to the pool
+                this.boundDN = null;
+                close();
+                throw new XWikiLDAPException("Failed to configure the pooled LDAP connection.", e);
+            }
+
+            return true;
+        }
+
+        boolean opened = false;
+        try {
+            opened = open(ldapHost, ldapPort, connectionPool.getBindDN(), password, pathToKeys, ssl, context);
+        } finally {
+            if (!opened) {
+                close();
+            }
         }
 
-        return bind;
+        return opened;
     }
 
     /**
@@ -170,11 +242,7 @@ public boolean open(String ldapHost, int ldapPort, String loginDN, String passwo
             connect(ldapHost, port);
 
             // set referral following
-            LDAPConstraints constraints = this.connection.getConstraints();
-            constraints.setTimeLimit(getTimeout(context));
-            constraints.setReferralFollowing(true);
-            constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, context));
-            this.connection.setConstraints(constraints);
+            setConstraints(loginDN, password, context);
 
             // bind
             bind(loginDN, password);
@@ -187,6 +255,23 @@ public boolean open(String ldapHost, int ldapPort, String loginDN, String passwo
         return true;
     }
 
+    /**
+     * Set the time limit and the referral following of the connection.
+     * 
+     * @param loginDN the user DN to connect to LDAP server when following referrals.
+     * @param password the password to connect to LDAP server when following referrals.
+     * @param context the XWiki context.
+     * @throws LDAPException error when trying to set the constraints.
+     */
+    private void setConstraints(String loginDN, String password, XWikiContext context) throws LDAPException
+    {
+        LDAPConstraints constraints = this.connection.getConstraints();
+        constraints.setTimeLimit(getTimeout(context));
+        constraints.setReferralFollowing(true);
+        constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, context));
+        this.connection.setConstraints(constraints);
+    }
+
     /**
      * Connect to server.
      * 
@@ -215,20 +300,31 @@ public void bind(String loginDN, String password) throws UnsupportedEncodingExce
         LOGGER.debug("Binding to LDAP server with credentials login=[{}]", loginDN);
 
         // authenticate to the server
+        this.boundDN = null;
         this.connection.bind(LDAPConnection.LDAP_V3, loginDN, password.getBytes("UTF8"));
+        this.boundDN = loginDN;
     }
 
     /**
-     * Close LDAP connection.
+     * Close LDAP connection. A pooled connection is given back to its pool if it's still bound with the credentials of
+     * the pool.
      */
     public void close()
     {
-        try {
-            if (this.connection != null) {
-                this.connection.disconnect();
+        if (this.pool != null) {
+            XWikiLDAPConnectionPool connectionPool = this.pool;
+            this.pool = null;
+            connectionPool.release(this.connection, connectionPool.getBindDN().equals(this.boundDN));
+            // The connection might be used by someone else from now on
+            this.connection = null;
+        } else {
+            try {
+                if (this.connection != null) {
+                    this.connection.disconnect();
+                }
+            } catch (LDAPException e) {
+                LOGGER.debug("LDAP close failed.", e);
             }
-        } catch (LDAPException e) {
-            LOGGER.debug("LDAP close failed.", e);
         }
     }
 
@@ -349,6 +445,29 @@ public LDAPSearchResults search(String baseDN, String filter, String[] attr, int
         return this.connection.search(baseDN, ldapScope, filter, attr, false);
     }
 
+    /**
+     * Execute a LDAP search query returning its results by pages (RFC 2696) so that a large number of entries can be
+     * read without hitting the size limit of the server.
+     * 
+     * @param baseDN the root DN from where to search.
+     * @param filter filter the LDAP filter
+     * @param attr the attributes names of values to return
+     * @param ldapScope the scope of the entries to search.
+     * @return the search, {@link XWikiLDAPPagedSearch#abandon()} should be called when it's not needed anymore
+     * @throws LDAPException error when searching
+     * @since 5.3M1
+     */
+    public XWikiLDAPPagedSearch searchPaged(String baseDN, String filter, String[] attr, int ldapScope)
+        throws LDAPException
+    {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("LDAP paged search: baseDN=[{}] query=[{}] attr=[{}] ldapScope=[{}]", new Object[] {baseDN,
+            filter, attr != null ? Arrays.asList(attr) : null, ldapScope});
+        }
+
+        return new XWikiLDAPPagedSearch(this.connection, baseDN, ldapScope, filter, attr, this.pageSize);
+    }
+
     /**
      * Fill provided <code>searchAttributeList</code> with provided LDAP attributes.
      * 
@@ -0,0 +1,306 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+/**
+ * Bounded pool of connections to a LDAP server, all bound with the same credentials. It limits the number of
+ * connections opened at the same time and keeps the connections which are not used anymore so that they can be reused
+ * by the next authentications instead of connecting and binding again.
+ * <p>
+ * The idle connections are checked before being reused: the ones which have been idle for too long or which are not
+ * alive anymore are closed.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+public class XWikiLDAPConnectionPool
+{
+    /**
+     * Logging tool.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiLDAPConnectionPool.class);
+
+    /**
+     * The pools, by server and credentials.
+     */
+    private static final Map<String, XWikiLDAPConnectionPool> POOLS = new HashMap<String, XWikiLDAPConnectionPool>();
+
+    /**
+     * The DN used to bind the pooled connections.
+     */
+    private final String bindDN;
+
+    /**
+     * Limits the number of connections opened at the same time.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The maximum number of connections opened at the same time.
+     */
+    private final int size;
+
+    /**
+     * The number of milliseconds after which an idle connection is closed.
+     */
+    private final long idleTimeout;
+
+    /**
+     * The connections which are not used, the most recently released first.
+     */
+    private final LinkedList<IdleConnection> idleConnections = new LinkedList<IdleConnection>();
+
+    /**
+     * True when the pool is not used anymore, the released connections are then closed instead of being kept.
+     */
+    private volatile boolean closed;
+
+    /**
+     * A connection which is not used.
+     */
+    private static final class IdleConnection
+    {
+        /**
+         * The connection.
+         */
+        private final LDAPConnection connection;
+
+        /**
+         * The date when the connection has been released, in milliseconds.
+         */
+        private final long releaseDate;
+
+        /**
+         * @param connection the connection
+         */
+        private IdleConnection(LDAPConnection connection)
+        {
+            this.connection = connection;
+            this.releaseDate = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param bindDN the DN used to bind the pooled connections
+     * @param size the maximum number of connections opened at the same time
+     * @param idleTimeout the number of milliseconds after which an idle connection is closed
+     */
+    public XWikiLDAPConnectionPool(String bindDN, int size, long idleTimeout)
+    {
+        this.bindDN = bindDN;
+        this.size = size;
+        this.permits = new Semaphore(size, true);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Get the pool of connections to a server, create it if needed.
+     *
+     * @param host the host of the LDAP server
+     * @param port the port of the LDAP server
+     * @param ssl true if the connections use SSL
+     * @param bindDN the DN used to bind the connections
+     * @param bindPassword the password used to bind the connections
+     * @param size the maximum number of connections opened at the same time
+     * @param idleTimeout the number of milliseconds after which an idle connection is closed
+     * @return the pool
+     */
+    public static XWikiLDAPConnectionPool getPool(String host, int port, boolean ssl, String bindDN,
+        String bindPassword, int size, long idleTimeout)
+    {
+        // The password is part of the key so that a pool is not used anymore when the password is changed
+        String key = host + ':' + port + ':' + ssl + ':' + bindDN + ':' + bindPassword.hashCode();
+
+        synchronized (POOLS) {
+            XWikiLDAPConnectionPool pool = POOLS.get(key);
+            if (pool == null || pool.size != size || pool.idleTimeout != idleTimeout) {
+                if (pool != null) {
+                    pool.close();
+                }
+                pool = new XWikiLDAPConnectionPool(bindDN, size, idleTimeout);
+                POOLS.put(key, pool);
+            }
+
+            return pool;
+        }
+    }
+
+    /**
+     * Close the idle connections of all the pools and forget about the pools.
+     */
+    public static void resetPools()
+    {
+        synchronized (POOLS) {
+            for (XWikiLDAPConnectionPool pool : POOLS.values()) {
+                pool.close();
+            }
+            POOLS.clear();
+        }
+    }
+
+    /**
+     * @return the DN used to bind the pooled connections
+     */
+    public String getBindDN()
+    {
+        return this.bindDN;
+    }
+
+    /**
+     * Wait until a connection can be opened. Each successful call must be followed by a call to
+     * {@link #release(LDAPConnection, boolean)}, even if no connection could be opened.
+     *
+     * @param timeout the maximum number of milliseconds to wait
+     * @return true if a connection can be opened, false if the pool is still full after the timeout
+     */
+    public boolean acquire(long timeout)
+    {
+        try {
+            return this.permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+    }
+
+    /**
+     * Get an idle connection which can be reused. Should only be called after {@link #acquire(long)}.
+     *
+     * @return a healthy connection already bound with the credentials of the pool, null if there is none and a new
+     *         connection has to be opened
+     */
+    public LDAPConnection getIdleConnection()
+    {
+        while (true) {
+            IdleConnection idle;
+            synchronized (this.idleConnections) {
+                idle = this.idleConnections.poll();
+            }
+
+            if (idle == null) {
+                return null;
+            }
+
+            boolean expired = System.currentTimeMillis() - idle.releaseDate >= this.idleTimeout;
+            // The connection is disconnected when the client noticed that the server closed it
+            if (!expired && idle.connection.isConnected() && idle.connection.isConnectionAlive()) {
+                return idle.connection;
+            }
+
+            LOGGER.debug("Closing stale LDAP connection to [{}:{}]", idle.connection.getHost(),
+                idle.connection.getPort());
+            disconnect(idle.connection);
+        }
+    }
+
+    /**
+     * Give back a connection obtained after {@link #acquire(long)}.
+     *
+     * @param connection the connection, null if no connection could be opened
+     * @param reusable true if the connection is still bound with the credentials of the pool and can be reused
+     */
+    public void release(LDAPConnection connection, boolean reusable)
+    {
+        try {
+            if (connection != null) {
+                if (reusable && !this.closed && connection.isConnected()) {
+                    synchronized (this.idleConnections) {
+                        this.idleConnections.addFirst(new IdleConnection(connection));
+                    }
+                } else {
+                    disconnect(connection);
+                }
+            }
+        } finally {
+            this.permits.release();
+        }
+
+        closeExpiredConnections();
+    }
+
+    /**
+     * Close the connections which have been idle for too long. The most recently released connections are at the
+     * beginning of the list so the oldest ones are at the end.
+     */
+    private void closeExpiredConnections()
+    {
+        long limit = System.currentTimeMillis() - this.idleTimeout;
+        synchronized (this.idleConnections) {
+            for (Iterator<IdleConnection> it = this.idleConnections.descendingIterator(); it.hasNext();) {
+                IdleConnection idle = it.next();
+                if (idle.releaseDate >= limit) {
+                    break;
+                }
+                it.remove();
+                disconnect(idle.connection);
+            }
+        }
+    }
+
+    /**
+     * Close all the idle connections. The connections in use are closed when they are released.
+     */
+    public void close()
+    {
+        this.closed = true;
+        synchronized (this.idleConnections) {
+            for (IdleConnection idle : this.idleConnections) {
+                disconnect(idle.connection);
+            }
+            this.idleConnections.clear();
+        }
+    }
+
+    /**
+     * @return the number of idle connections
+     */
+    public int getIdleCount()
+    {
+        synchronized (this.idleConnections) {
+            return this.idleConnections.size();
+        }
+    }
+
+    /**
+     * @param connection the connection to close
+     */
+    private static void disconnect(LDAPConnection connection)
+    {
+        try {
+            connection.disconnect();
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to close LDAP connection", e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPSearchResults;
+import com.novell.ldap.asn1.ASN1Integer;
+import com.novell.ldap.asn1.ASN1Object;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+
+/**
+ * A LDAP search reading its results by pages, using the Simple Paged Results control (RFC 2696). The next page is
+ * requested only when all the entries of the current page have been read. Servers which don't support the control
+ * ignore it, since it's not critical, and return all the entries at once.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+public class XWikiLDAPPagedSearch
+{
+    /**
+     * The OID of the Simple Paged Results control.
+     */
+    public static final String PAGED_RESULTS_OID = "1.2.840.113556.1.4.319";
+
+    /**
+     * Logging tool.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(XWikiLDAPPagedSearch.class);
+
+    /**
+     * The connection used to search.
+     */
+    private final LDAPConnection connection;
+
+    /**
+     * The root DN from where to search.
+     */
+    private final String baseDN;
+
+    /**
+     * The scope of the entries to search.
+     */
+    private final int scope;
+
+    /**
+     * The LDAP filter.
+     */
+    private final String filter;
+
+    /**
+     * The attributes names of values to return.
+     */
+    private final String[] attributes;
+
+    /**
+     * The number of entries to request in each page, 0 to not use paging.
+     */
+    private final int pageSize;
+
+    /**
+     * The results of the current page.
+     */
+    private LDAPSearchResults results;
+
+    /**
+     * Start a search, the first page is requested right away.
+     *
+     * @param connection the connection used to search
+     * @param baseDN the root DN from where to search
+     * @param scope the scope of the entries to search
+     * @param filter the LDAP filter
+     * @param attributes the attributes names of values to return
+     * @param pageSize the number of entries to request in each page, 0 to not use paging
+     * @throws LDAPException error when searching
+     */
+    public XWikiLDAPPagedSearch(LDAPConnection connection, String baseDN, int scope, String filter,
+        String[] attributes, int pageSize) throws LDAPException
+    {
+        this.connection = connection;
+        this.baseDN = baseDN;
+        this.scope = scope;
+        this.filter = filter;
+        this.attributes = attributes;
+        this.pageSize = pageSize;
+
+        search(new byte[0]);
+    }
+
+    /**
+     * @param cookie the cookie returned by the server with the previous page, empty for the first page
+     * @throws LDAPException error when searching
+     */
+    private void search(byte[] cookie) throws LDAPException
+    {
+        LDAPSearchConstraints constraints = this.connection.getSearchConstraints();
+        if (this.pageSize > 0) {
+            constraints.setControls(createControl(this.pageSize, cookie));
+        }
+
+        this.results = this.connection.search(this.baseDN, this.scope, this.filter, this.attributes, false,
+            constraints);
+    }
+
+    /**
+     * @return the next entry found, null if there are no more entries
+     * @throws LDAPException error when reading the results or requesting the next page
+     */
+    public LDAPEntry next() throws LDAPException
+    {
+        while (true) {
+            if (this.results.hasMore()) {
+                return this.results.next();
+            }
+
+            byte[] cookie = this.pageSize > 0 ? getCookie(this.results.getResponseControls()) : null;
+            if (cookie == null || cookie.length == 0) {
+                return null;
+            }
+
+            LOGGER.debug("Requesting the next page of results of [{}] in [{}]", this.filter, this.baseDN);
+
+            search(cookie);
+        }
+    }
+
+    /**
+     * Stop reading the results of the search.
+     */
+    public void abandon()
+    {
+        if (this.results.hasMore()) {
+            try {
+                this.connection.abandon(this.results);
+            } catch (LDAPException e) {
+                LOGGER.debug("LDAP Search clean up failed", e);
+            }
+        }
+    }
+
+    /**
+     * @param size the number of entries to request
+     * @param cookie the cookie returned by the server with the previous page, empty for the first page
+     * @return the control requesting the next page
+     */
+    public static LDAPControl createControl(int size, byte[] cookie)
+    {
+        // realSearchControlValue ::= SEQUENCE { size INTEGER, cookie OCTET STRING }
+        ASN1Sequence value = new ASN1Sequence(2);
+        value.add(new ASN1Integer(size));
+        value.add(new ASN1OctetString(cookie));
+
+        return new LDAPControl(PAGED_RESULTS_OID, false, value.getEncoding(new LBEREncoder()));
+    }
+
+    /**
+     * @param controls the controls returned by the server with a page of results
+     * @return the cookie to send to get the next page, null or empty if there are no more pages
+     */
+    public static byte[] getCookie(LDAPControl[] controls)
+    {
+        if (controls != null) {
+            for (LDAPControl control : controls) {
+                if (PAGED_RESULTS_OID.equals(control.getID())) {
+                    ASN1Object value = new LBERDecoder().decode(control.getValue());
+                    if (value instanceof ASN1Sequence && ((ASN1Sequence) value).size() > 1) {
+                        return ((ASN1OctetString) ((ASN1Sequence) value).get(1)).byteValue();
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+}
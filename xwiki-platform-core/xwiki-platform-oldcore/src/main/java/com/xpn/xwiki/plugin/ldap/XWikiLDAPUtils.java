@@ -22,12 +22,19 @@
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.cache.Cache;
@@ -35,6 +42,9 @@
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.rendering.syntax.Syntax;
 
@@ -107,6 +117,28 @@
     private static Map<String, Map<String, Cache<Map<String, String>>>> cachePool =
         new HashMap<String, Map<String, Cache<Map<String, String>>>>();
 
+    /**
+     * The date when the members of each cached group have been read from the LDAP server, by server and group.
+     */
+    private static final Map<String, Long> GROUP_LOAD_DATES = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Used to read the members of a group only once when several threads need them at the same time, by server and
+     * group.
+     */
+    private static final ConcurrentMap<String, Object> GROUP_LOCKS = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The groups whose members are being read in the background, by server and group.
+     */
+    private static final Set<String> REFRESHING_GROUPS =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Reads the members of the outdated cached groups in the background.
+     */
+    private static ExecutorService groupRefreshExecutor;
+
     /**
      * The LDAP connection.
      */
@@ -257,9 +289,7 @@ public Cache<Map<String, String>> getGroupCache(CacheConfiguration configuration
     {
         Cache<Map<String, String>> cache;
 
-        String cacheKey =
-            getUidAttributeName() + "." + this.connection.getConnection().getHost() + ":"
-                + this.connection.getConnection().getPort();
+        String cacheKey = getServerKey();
 
         synchronized (cachePool) {
             Map<String, Cache<Map<String, String>>> cacheMap;
@@ -298,6 +328,16 @@ public static void resetGroupCache()
         }
 
         cachePool.clear();
+        GROUP_LOAD_DATES.clear();
+    }
+
+    /**
+     * @return the key identifying the LDAP server and the way users are identified, used to share the groups cache
+     */
+    private String getServerKey()
+    {
+        return getUidAttributeName() + "." + this.connection.getConnection().getHost() + ":"
+            + this.connection.getConnection().getPort();
     }
 
     /**
@@ -315,7 +355,7 @@ public XWikiLDAPConnection getConnection()
      * @return the LDAP search result.
      * @throws LDAPException failed to execute LDAP query
      */
-    private LDAPSearchResults searchGroupsMembersByDN(String groupDN) throws LDAPException
+    private XWikiLDAPPagedSearch searchGroupsMembersByDN(String groupDN) throws LDAPException
     {
         String[] attrs = new String[2 + getGroupMemberFields().size()];
 
@@ -328,7 +368,7 @@ private LDAPSearchResults searchGroupsMembersByDN(String groupDN) throws LDAPExc
         // in case it's a organization unit get the users ids
         attrs[i++] = getUidAttributeName();
 
-        return getConnection().search(groupDN, null, attrs, LDAPConnection.SCOPE_SUB);
+        return getConnection().searchPaged(groupDN, null, attrs, LDAPConnection.SCOPE_SUB);
     }
 
     /**
@@ -338,7 +378,7 @@ private LDAPSearchResults searchGroupsMembersByDN(String groupDN) throws LDAPExc
      * @return the LDAP search result.
      * @throws LDAPException failed to execute LDAP query
      */
-    private LDAPSearchResults searchGroupsMembersByFilter(String filter) throws LDAPException
+    private XWikiLDAPPagedSearch searchGroupsMembersByFilter(String filter) throws LDAPException
     {
         String[] attrs = new String[2 + getGroupMemberFields().size()];
 
@@ -351,7 +391,7 @@ private LDAPSearchResults searchGroupsMembersByFilter(String filter) throws LDAP
         // in case it's a organization unit get the users ids
         attrs[i++] = getUidAttributeName();
 
-        return getConnection().search(getBaseDN(), filter, attrs, LDAPConnection.SCOPE_SUB);
+        return getConnection().searchPaged(getBaseDN(), filter, attrs, LDAPConnection.SCOPE_SUB);
     }
 
     /**
@@ -590,7 +630,7 @@ public boolean getGroupMembersFromDN(String userOrGroupDN, Map<String, String> m
             return true;
         }
 
-        LDAPSearchResults result;
+        XWikiLDAPPagedSearch result;
         try {
             result = searchGroupsMembersByDN(userOrGroupDN);
         } catch (LDAPException e) {
@@ -602,13 +642,7 @@ public boolean getGroupMembersFromDN(String userOrGroupDN, Map<String, String> m
         try {
             isGroup = getGroupMembersSearchResult(result, memberMap, subgroups, context);
         } finally {
-            if (result.hasMore()) {
-                try {
-                    getConnection().getConnection().abandon(result);
-                } catch (LDAPException e) {
-                    LOGGER.debug("LDAP Search clean up failed", e);
-                }
-            }
+            result.abandon();
         }
 
         return isGroup;
@@ -629,7 +663,7 @@ public boolean getGroupMembersFromFilter(String filter, Map<String, String> memb
     {
         boolean isGroup = false;
 
-        LDAPSearchResults result;
+        XWikiLDAPPagedSearch result;
         try {
             result = searchGroupsMembersByFilter(filter);
         } catch (LDAPException e) {
@@ -641,13 +675,7 @@ public boolean getGroupMembersFromFilter(String filter, Map<String, String> memb
         try {
             isGroup = getGroupMembersSearchResult(result, memberMap, subgroups, context);
         } finally {
-            if (result.hasMore()) {
-                try {
-                    getConnection().getConnection().abandon(result);
-                } catch (LDAPException e) {
-                    LOGGER.debug("LDAP Search clean up failed", e);
-                }
-            }
+            result.abandon();
         }
 
         return isGroup;
@@ -694,6 +722,32 @@ public boolean getGroupMembersSearchResult(LDAPSearchResults result, Map<String,
         return isGroup;
     }
 
+    /**
+     * Get all members of the groups found by a paged LDAP search. If the groups contain subgroups get these members as
+     * well. Retrieve an identifier for each member.
+     * 
+     * @param result the LDAP search.
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups all the subgroups identified.
+     * @param context the XWiki context.
+     * @return whether one of the found entries is actually a group or not.
+     */
+    private boolean getGroupMembersSearchResult(XWikiLDAPPagedSearch result, Map<String, String> memberMap,
+        List<String> subgroups, XWikiContext context)
+    {
+        boolean isGroup = false;
+
+        try {
+            for (LDAPEntry entry = result.next(); entry != null; entry = result.next()) {
+                isGroup |= getGroupMembers(memberMap, subgroups, entry, context);
+            }
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to get group members", e);
+        }
+
+        return isGroup;
+    }
+
     /**
      * Get group members from cache or update it from LDAP if it is not already cached.
      * 
@@ -706,27 +760,23 @@ public Map<String, String> getGroupMembers(String groupDN, XWikiContext context)
     {
         Map<String, String> groupMembers = null;
 
-        Cache<Map<String, String>> cache;
         try {
-            cache = getGroupCache(getGroupCacheConfiguration(context), context);
+            Cache<Map<String, String>> cache = getGroupCache(getGroupCacheConfiguration(context), context);
+            String groupKey = getServerKey() + '/' + groupDN;
 
-            synchronized (cache) {
-                groupMembers = cache.get(groupDN);
+            groupMembers = cache.get(groupDN);
 
-                if (groupMembers == null) {
-                    Map<String, String> members = new HashMap<String, String>();
-
-                    LOGGER.debug("Retrieving Members of the group [{}]", groupDN);
-
-                    boolean isGroup = getGroupMembers(groupDN, members, new ArrayList<String>(), context);
-
-                    if (isGroup || !members.isEmpty()) {
-                        groupMembers = members;
-                        cache.set(groupDN, groupMembers);
-                    }
+            if (groupMembers == null) {
+                groupMembers = loadGroupMembers(groupDN, groupKey, null, cache, context);
+            } else if (isOutdated(groupKey, context)) {
+                if (XWikiLDAPConfig.getInstance().isLDAPBindUserSpecific(context)) {
+                    // Only the current user can bind to the server, the members can't be read in the background
+                    groupMembers = loadGroupMembers(groupDN, groupKey, groupMembers, cache, context);
                 } else {
-                    LOGGER.debug("Found cache entry for group [{}]", groupDN);
+                    refreshGroupMembers(groupDN, groupKey, cache, context);
                 }
+            } else {
+                LOGGER.debug("Found cache entry for group [{}]", groupDN);
             }
         } catch (CacheException e) {
             LOGGER.error("Unknown error with cache", e);
@@ -737,6 +787,187 @@ public Map<String, String> getGroupMembers(String groupDN, XWikiContext context)
         return groupMembers;
     }
 
+    /**
+     * @param groupKey the key identifying the group in the cache of this server
+     * @param context the XWiki context.
+     * @return true if the cached members of the group are older than the cache expiration and should be refreshed
+     */
+    private boolean isOutdated(String groupKey, XWikiContext context)
+    {
+        Long loadDate = GROUP_LOAD_DATES.get(groupKey);
+        long expiration = XWikiLDAPConfig.getInstance().getCacheExpiration(context) * 1000L;
+
+        return loadDate == null || System.currentTimeMillis() - loadDate > expiration;
+    }
+
+    /**
+     * Read the members of a group from the LDAP server and put them in the cache. When several threads need the same
+     * group at the same time, the members are read only once and the other threads wait for them.
+     * 
+     * @param groupDN the name of the group.
+     * @param groupKey the key identifying the group in the cache of this server
+     * @param outdatedMembers the outdated members found in the cache, null if the group is not cached
+     * @param cache the groups cache
+     * @param context the XWiki context.
+     * @return the members of the group.
+     */
+    private Map<String, String> loadGroupMembers(String groupDN, String groupKey, Map<String, String> outdatedMembers,
+        Cache<Map<String, String>> cache, XWikiContext context)
+    {
+        Object lock = GROUP_LOCKS.get(groupKey);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = GROUP_LOCKS.putIfAbsent(groupKey, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+
+        synchronized (lock) {
+            Map<String, String> groupMembers = cache.get(groupDN);
+
+            // The members might have been read by another thread while waiting for the lock
+            if (groupMembers == null || groupMembers == outdatedMembers) {
+                groupMembers = searchGroupMembers(groupDN, context);
+
+                if (groupMembers != null) {
+                    cache.set(groupDN, groupMembers);
+                    GROUP_LOAD_DATES.put(groupKey, System.currentTimeMillis());
+                }
+            }
+
+            return groupMembers;
+        }
+    }
+
+    /**
+     * @param groupDN the name of the group.
+     * @param context the XWiki context.
+     * @return the members of the group read from the LDAP server, null if it's not a group.
+     */
+    private Map<String, String> searchGroupMembers(String groupDN, XWikiContext context)
+    {
+        Map<String, String> members = new HashMap<String, String>();
+
+        LOGGER.debug("Retrieving Members of the group [{}]", groupDN);
+
+        boolean isGroup = getGroupMembers(groupDN, members, new ArrayList<String>(), context);
+
+        return isGroup || !members.isEmpty() ? members : null;
+    }
+
+    /**
+     * Read again the members of a group in the background. The outdated members stay in the cache until then so that
+     * the logins don't have to wait for the LDAP server.
+     * 
+     * @param groupDN the name of the group.
+     * @param groupKey the key identifying the group in the cache of this server
+     * @param cache the groups cache
+     * @param context the XWiki context.
+     */
+    private void refreshGroupMembers(final String groupDN, final String groupKey,
+        final Cache<Map<String, String>> cache, XWikiContext context)
+    {
+        if (!REFRESHING_GROUPS.add(groupKey)) {
+            // Already being refreshed
+            return;
+        }
+
+        LOGGER.debug("Refreshing members of the group [{}] in the background", groupDN);
+
+        final XWikiLDAPUtils refreshUtils = copy(new XWikiLDAPConnection());
+        final String wiki = context.getDatabase();
+        try {
+            getGroupRefreshExecutor().execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    refreshUtils.runGroupMembersRefresh(groupDN, groupKey, cache, wiki);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REFRESHING_GROUPS.remove(groupKey);
+            LOGGER.warn("Failed to schedule the refresh of the members of the group [{}]", groupDN, e);
+        }
+    }
+
+    /**
+     * Read the members of a group with a new connection and put them in the cache. Called from the background thread.
+     * <p>
+     * The context of the request which found the outdated members is not shared with the background thread, a new
+     * context is created from the stub context like for the other daemon threads.
+     * 
+     * @param groupDN the name of the group.
+     * @param groupKey the key identifying the group in the cache of this server
+     * @param cache the groups cache
+     * @param wiki the wiki of the request which found the outdated members
+     */
+    private void runGroupMembersRefresh(String groupDN, String groupKey, Cache<Map<String, String>> cache,
+        String wiki)
+    {
+        Execution execution = Utils.getComponent(Execution.class);
+
+        try {
+            ExecutionContext executionContext = new ExecutionContext();
+            Utils.getComponent(ExecutionContextManager.class).initialize(executionContext);
+
+            XWikiContext context = (XWikiContext) executionContext.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+            if (context == null) {
+                LOGGER.warn("Failed to refresh the members of the group [{}]: no XWiki context available", groupDN);
+
+                return;
+            }
+
+            context.setDatabase(wiki);
+
+            // The bind credentials don't depend on the user
+            if (getConnection().open("", "", context)) {
+                Map<String, String> groupMembers = searchGroupMembers(groupDN, context);
+                if (groupMembers != null) {
+                    cache.set(groupDN, groupMembers);
+                    GROUP_LOAD_DATES.put(groupKey, System.currentTimeMillis());
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to refresh the members of the group [{}]: {}", groupDN, e.getMessage());
+        } finally {
+            getConnection().close();
+            REFRESHING_GROUPS.remove(groupKey);
+            execution.removeContext();
+        }
+    }
+
+    /**
+     * @param connection the connection to use
+     * @return a new instance of {@link XWikiLDAPUtils} configured like this one but using the provided connection
+     */
+    private XWikiLDAPUtils copy(XWikiLDAPConnection connection)
+    {
+        XWikiLDAPUtils utils = new XWikiLDAPUtils(connection);
+        utils.setUidAttributeName(getUidAttributeName());
+        utils.setBaseDN(getBaseDN());
+        utils.setUserSearchFormatString(getUserSearchFormatString());
+        utils.setGroupClasses(getGroupClasses());
+        utils.setGroupMemberFields(getGroupMemberFields());
+
+        return utils;
+    }
+
+    /**
+     * @return the executor refreshing the members of the cached groups
+     */
+    private static synchronized ExecutorService getGroupRefreshExecutor()
+    {
+        if (groupRefreshExecutor == null) {
+            groupRefreshExecutor =
+                Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+                    .namingPattern("XWiki LDAP group refresh thread %d").daemon(true).build());
+        }
+
+        return groupRefreshExecutor;
+    }
+
     /**
      * Check if provided DN is in provided LDAP group.
      * 
@@ -794,7 +1025,9 @@ public static CacheConfiguration getGroupCacheConfiguration(XWikiContext context
             cacheConfigurationGroups = new CacheConfiguration();
             cacheConfigurationGroups.setConfigurationId(CACHE_NAME_GROUPS);
             LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
-            lru.setTimeToLive(config.getCacheExpiration(context));
+            // The members are refreshed in the background once they are older than the expiration, they are kept
+            // longer so that the outdated members can be used in the meantime.
+            lru.setTimeToLive(config.getCacheExpiration(context) * 2);
             cacheConfigurationGroups.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
         }
 
@@ -35,6 +35,7 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.api.Document;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.monitor.RequestProfiler;
 import com.xpn.xwiki.util.Util;
 import com.xpn.xwiki.web.Utils;
 
@@ -100,6 +101,8 @@ public void flushCache()
     public static String evaluate(String content, String name, VelocityContext vcontext, XWikiContext context)
     {
         StringWriter writer = new StringWriter();
+        RequestProfiler profiler = Utils.getComponent(RequestProfiler.class);
+        long profilerStart = profiler.start();
         try {
             VelocityManager velocityManager = Utils.getComponent(VelocityManager.class);
             velocityManager.getVelocityEngine().evaluate(vcontext, writer, name, content);
@@ -112,6 +115,8 @@ public static String evaluate(String content, String name, VelocityContext vcont
                     XWikiException.ERROR_XWIKI_RENDERING_VELOCITY_EXCEPTION, "Error while parsing velocity page {0}",
                     e, args);
             return Util.getHTMLExceptionMessage(xe, context);
+        } finally {
+            profiler.end(RequestProfiler.VELOCITY, profilerStart);
         }
     }
 
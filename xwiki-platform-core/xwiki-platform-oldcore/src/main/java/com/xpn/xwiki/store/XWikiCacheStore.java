@@ -45,6 +45,7 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.XWikiLink;
 import com.xpn.xwiki.doc.XWikiLock;
+import com.xpn.xwiki.monitor.RequestProfiler;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.web.Utils;
 
@@ -78,6 +79,11 @@ public class XWikiCacheStore implements XWikiCacheStoreInterface, EventListener
      */
     private ObservationManager observationManager;
 
+    /**
+     * Used to count the document cache hits and misses of the current request.
+     */
+    private RequestProfiler profiler;
+
     public XWikiCacheStore(XWikiStoreInterface store, XWikiContext context) throws XWikiException
     {
         setStore(store);
@@ -87,6 +93,8 @@ public XWikiCacheStore(XWikiStoreInterface store, XWikiContext context) throws X
         this.remoteObservationManagerContext = Utils.getComponent(RemoteObservationManagerContext.class);
         this.observationManager = Utils.getComponent(ObservationManager.class);
         this.observationManager.addListener(this);
+
+        this.profiler = Utils.getComponent(RequestProfiler.class);
     }
 
     @Override
@@ -282,9 +290,11 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
         if (cachedoc != null) {
             doc = cachedoc;
             doc.setFromCache(true);
+            this.profiler.count(RequestProfiler.DOCUMENT_CACHE_HIT);
 
             LOGGER.debug("Cache: got doc {} from cache", key);
         } else {
+            this.profiler.count(RequestProfiler.DOCUMENT_CACHE_MISS);
             LOGGER.debug("Cache: Trying to get doc {} from persistent storage", key);
 
             doc = this.store.loadXWikiDoc(doc, context);
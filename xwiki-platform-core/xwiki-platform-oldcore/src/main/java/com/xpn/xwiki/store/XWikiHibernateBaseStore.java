@@ -324,7 +324,7 @@ public void updateSchema(XWikiContext context) throws HibernateException
      * @param force defines wether or not to force the update despite the xwiki.cfg settings
      * @throws HibernateException
      */
-    public synchronized void updateSchema(XWikiContext context, boolean force) throws HibernateException
+    public void updateSchema(XWikiContext context, boolean force) throws HibernateException
     {
         // We don't update the schema if the XWiki hibernate config parameter says not to update
         if ((!force) && (context.getWiki() != null)
@@ -337,7 +337,13 @@ public synchronized void updateSchema(XWikiContext context, boolean force) throw
         LOGGER.info("Updating schema for wiki [{}]...", context.getDatabase());
 
         try {
-            String[] sql = getSchemaUpdateScript(getConfiguration(), context);
+            // Generating the script alters the shared Hibernate configuration so it cannot be done concurrently, but
+            // the script itself is run with the session of the current thread and only touches the current wiki, so
+            // it can be run while the schema of another wiki is being updated.
+            String[] sql;
+            synchronized (this) {
+                sql = getSchemaUpdateScript(getConfiguration(), context);
+            }
             updateSchema(sql, context);
         } finally {
             LOGGER.info("Schema update for wiki [{}] done", context.getDatabase());
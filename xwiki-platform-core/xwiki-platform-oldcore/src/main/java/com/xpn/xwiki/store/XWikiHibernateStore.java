@@ -31,6 +31,7 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -41,6 +42,8 @@
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -50,6 +53,7 @@
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.cfg.Settings;
 import org.hibernate.connection.ConnectionProvider;
@@ -82,7 +86,9 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.doc.XWikiDocument.XWikiAttachmentToRemove;
 import com.xpn.xwiki.doc.XWikiLink;
+import com.xpn.xwiki.internal.store.BacklinksCache;
 import com.xpn.xwiki.doc.XWikiLock;
+import com.xpn.xwiki.monitor.RequestProfiler;
 import com.xpn.xwiki.monitor.api.MonitorPlugin;
 import com.xpn.xwiki.objects.BaseCollection;
 import com.xpn.xwiki.objects.BaseElement;
@@ -164,6 +170,18 @@ public class XWikiHibernateStore extends XWikiHibernateBaseStore implements XWik
     @Named("local")
     private EntityReferenceSerializer<String> localEntityReferenceSerializer;
 
+    /**
+     * The documents linking to each page, kept up to date when links are saved or deleted.
+     */
+    @Inject
+    private BacklinksCache backlinksCache;
+
+    /**
+     * Used to record the time spent loading documents and running queries in the current request.
+     */
+    @Inject
+    private RequestProfiler profiler;
+
     private Map<String, String[]> validTypesMap = new HashMap<String, String[]>();
 
     /**
@@ -521,9 +539,12 @@ public void saveXWikiDoc(XWikiDocument doc, XWikiContext context, boolean bTrans
 
             // Let's update the class XML since this is the new way to store it
             // TODO If all the properties are removed, the old xml stays?
+            boolean incrementalClass = true;
             BaseClass bclass = doc.getXClass();
             if (bclass != null) {
                 if (bclass.getFieldList().size() > 0) {
+                    // The instances of the class might be migrated below
+                    incrementalClass = false;
                     doc.setXClassXML(bclass.toXMLString());
                 } else {
                     doc.setXClassXML("");
@@ -581,9 +602,16 @@ public void saveXWikiDoc(XWikiDocument doc, XWikiContext context, boolean bTrans
 
             // Verify if the document already exists
             Query query =
-                session.createQuery("select xwikidoc.id from XWikiDocument as xwikidoc where xwikidoc.id = :id");
+                session.createQuery("select xwikidoc.version from XWikiDocument as xwikidoc where xwikidoc.id = :id");
             query.setLong("id", doc.getId());
-            if (query.uniqueResult() == null) {
+            String storedVersion = (String) query.uniqueResult();
+            // Objects are written incrementally only if the document is still stored with the version it has been
+            // loaded or last saved at. If it has been saved in between (by another thread or another cluster member) or
+            // deleted, what has been remembered about its objects can't be trusted anymore.
+            XWikiDocument originalDocument = doc.getOriginalDocument();
+            boolean incremental = storedVersion != null && originalDocument != null
+                && storedVersion.equals(originalDocument.getVersion());
+            if (storedVersion == null) {
                 // Reset the creationDate to reflect the date of the first save, not the date of the object creation
                 doc.setCreationDate(new Date());
                 session.save(doc);
@@ -737,20 +765,33 @@ else if (prop instanceof NumberClass) {
                             if (StringUtils.isEmpty(obj.getGuid())) {
                                 obj.setGuid(UUID.randomUUID().toString());
                             }
-                            saveXWikiCollection(obj, context, false);
+                            saveXWikiCollection(obj, context, false, incremental && incrementalClass);
                         }
                     }
                 }
             }
 
+            Set<String> changedLinks = Collections.emptySet();
             if (context.getWiki().hasBacklinks(context)) {
-                saveLinks(doc, context, true);
+                changedLinks = updateLinks(doc, context, session);
             }
 
             if (bTransaction) {
                 endTransaction(context, true);
             }
 
+            // Only once the transaction is committed so that the previous backlinks are not cached again
+            removeBacklinks(changedLinks, bTransaction, context);
+
+            // Remember what is now stored so that the next save only writes what changed
+            for (List<BaseObject> objects : doc.getXObjects().values()) {
+                for (BaseObject obj : objects) {
+                    if (obj != null) {
+                        obj.setPersisted(context.getDatabase());
+                    }
+                }
+            }
+
             doc.setNew(false);
 
             // We need to ensure that the saved document becomes the original document
@@ -787,6 +828,7 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
         // To change body of implemented methods use Options | File Templates.
         boolean bTransaction = true;
         MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long profilerStart = this.profiler.start();
         try {
             // Start monitoring timer
             if (monitor != null) {
@@ -931,6 +973,8 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
             } catch (Exception e) {
             }
 
+            this.profiler.end(RequestProfiler.STORE_LOAD, profilerStart);
+
             // End monitoring timer
             if (monitor != null) {
                 monitor.endTimer("hibernate");
@@ -971,8 +1015,9 @@ public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWiki
             }
 
             // deleting XWikiLinks
+            Set<String> deletedLinks = Collections.emptySet();
             if (context.getWiki().hasBacklinks(context)) {
-                deleteLinks(doc.getId(), context, true);
+                deletedLinks = deleteLinks(doc.getId(), session);
             }
 
             // Find the list of classes for which we have an object
@@ -1002,6 +1047,8 @@ public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWiki
             if (bTransaction) {
                 endTransaction(context, true);
             }
+
+            removeBacklinks(deletedLinks, bTransaction, context);
         } catch (Exception e) {
             Object[] args = {doc.getDocumentReference()};
             throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
@@ -1041,6 +1088,21 @@ private void checkObjectClassIsLocal(BaseCollection object, XWikiContext context
     @Deprecated
     public void saveXWikiCollection(BaseCollection object, XWikiContext context, boolean bTransaction)
         throws XWikiException
+    {
+        saveXWikiCollection(object, context, bTransaction, false);
+    }
+
+    /**
+     * @param object the collection to save
+     * @param context the XWiki context
+     * @param bTransaction true if the collection should be saved in its own transaction
+     * @param incremental true if what has been remembered about the rows of the collection when it has been last
+     *            loaded or saved can be trusted, in which case only the changed rows are written and the existence of
+     *            the rows is not queried
+     * @throws XWikiException when failing to save the collection
+     */
+    private void saveXWikiCollection(BaseCollection object, XWikiContext context, boolean bTransaction,
+        boolean incremental) throws XWikiException
     {
         try {
             if (object == null) {
@@ -1058,26 +1120,33 @@ public void saveXWikiCollection(BaseCollection object, XWikiContext context, boo
             }
             Session session = getSession(context);
 
-            // Verify if the property already exists
+            // The object row holds nothing but the identifier and the GUID of the object so it doesn't need to be
+            // written again when the object is stored with the same ones
+            String database = context.getDatabase();
+            boolean persisted = incremental && !stats && object.isPersisted(database);
+
             Query query;
-            if (stats) {
-                query = session.createQuery("select obj.id from " + object.getClass().getName()
-                    + " as obj where obj.id = :id");
-            } else {
-                query = session.createQuery("select obj.id from BaseObject as obj where obj.id = :id");
-            }
-            query.setLong("id", object.getId());
-            if (query.uniqueResult() == null) {
+            if (!persisted) {
+                // Verify if the property already exists
                 if (stats) {
-                    session.save(object);
+                    query = session.createQuery("select obj.id from " + object.getClass().getName()
+                        + " as obj where obj.id = :id");
                 } else {
-                    session.save("com.xpn.xwiki.objects.BaseObject", object);
+                    query = session.createQuery("select obj.id from BaseObject as obj where obj.id = :id");
                 }
-            } else {
-                if (stats) {
-                    session.update(object);
+                query.setLong("id", object.getId());
+                if (query.uniqueResult() == null) {
+                    if (stats) {
+                        session.save(object);
+                    } else {
+                        session.save("com.xpn.xwiki.objects.BaseObject", object);
+                    }
                 } else {
-                    session.update("com.xpn.xwiki.objects.BaseObject", object);
+                    if (stats) {
+                        session.update(object);
+                    } else {
+                        session.update("com.xpn.xwiki.objects.BaseObject", object);
+                    }
                 }
             }
             /*
@@ -1105,12 +1174,24 @@ public void saveXWikiCollection(BaseCollection object, XWikiContext context, boo
             if (object.getXClassReference() != null) {
                 // Remove all existing properties
                 if (object.getFieldsToRemove().size() > 0) {
+                    boolean flush = false;
                     for (int i = 0; i < object.getFieldsToRemove().size(); i++) {
                         BaseProperty prop = (BaseProperty) object.getFieldsToRemove().get(i);
                         if (!handledProps.contains(prop.getName())) {
+                            PropertyInterface newProp = object.getField(prop.getName());
+                            if (newProp != null && newProp.getClass() == prop.getClass()) {
+                                // The property has been added again with the same type, its row is updated below
+                                continue;
+                            }
                             session.delete(prop);
+                            // The row of a property added again with another type can only be inserted once the
+                            // previous one is actually deleted
+                            flush |= newProp != null;
                         }
                     }
+                    if (flush) {
+                        session.flush();
+                    }
                     object.setFieldsToRemove(new ArrayList<BaseProperty>());
                 }
 
@@ -1127,7 +1208,11 @@ public void saveXWikiCollection(BaseCollection object, XWikiContext context, boo
 
                     String pname = prop.getName();
                     if (pname != null && !pname.trim().equals("") && !handledProps.contains(pname)) {
-                        saveXWikiPropertyInternal(prop, context, false);
+                        if (!persisted) {
+                            saveXWikiPropertyInternal(prop, context, false);
+                        } else if (!object.isPersistedValue(database, prop)) {
+                            saveXWikiPropertyInternal(prop, context, false, object.isPersisted(database, prop));
+                        }
                     }
                 }
             }
@@ -1288,6 +1373,10 @@ private void loadXWikiCollectionInternal(BaseCollection object1, XWikiDocument d
                 }
             }
 
+            if (!(object instanceof XWikiStats)) {
+                object.setPersisted(context.getDatabase());
+            }
+
             if (bTransaction) {
                 endTransaction(context, false, false);
             }
@@ -1340,6 +1429,8 @@ public void deleteXWikiCollection(BaseCollection object, XWikiContext context, b
                 }
             }
 
+            object.resetPersisted();
+
             if (object.getXClassReference() != null) {
                 for (BaseElement property : (Collection<BaseElement>) object.getFieldList()) {
                     if (!handledProps.contains(property.getName())) {
@@ -1451,6 +1542,21 @@ private void loadXWikiProperty(PropertyInterface property, XWikiContext context,
     private void saveXWikiPropertyInternal(final PropertyInterface property,
                                            final XWikiContext context,
                                            final boolean runInOwnTransaction) throws XWikiException
+    {
+        saveXWikiPropertyInternal(property, context, runInOwnTransaction, false);
+    }
+
+    /**
+     * @param property the property to save
+     * @param context the XWiki context
+     * @param runInOwnTransaction true if the property should be saved in its own transaction
+     * @param exists true if the row of the property is known to be stored already, false if it is unknown
+     * @throws XWikiException when failing to save the property
+     */
+    private void saveXWikiPropertyInternal(final PropertyInterface property,
+                                           final XWikiContext context,
+                                           final boolean runInOwnTransaction,
+                                           final boolean exists) throws XWikiException
     {
         // Clone runInOwnTransaction so the value passed is not altered.
         boolean bTransaction = runInOwnTransaction;
@@ -1462,16 +1568,20 @@ private void saveXWikiPropertyInternal(final PropertyInterface property,
 
             final Session session = this.getSession(context);
 
-            final Query query =
-                session
-                    .createQuery("select prop.name from BaseProperty as prop where prop.id.id = :id and prop.id.name= :name");
-            query.setLong("id", property.getId());
-            query.setString("name", property.getName());
-
-            if (query.uniqueResult() == null) {
-                session.save(property);
-            } else {
+            if (exists) {
                 session.update(property);
+            } else {
+                final Query query =
+                    session.createQuery(
+                        "select prop.name from BaseProperty as prop where prop.id.id = :id and prop.id.name= :name");
+                query.setLong("id", property.getId());
+                query.setString("name", property.getName());
+
+                if (query.uniqueResult() == null) {
+                    session.save(property);
+                } else {
+                    session.update(property);
+                }
             }
 
             ((BaseProperty) property).setValueDirty(false);
@@ -1875,6 +1985,19 @@ public List<DocumentReference> loadBacklinks(DocumentReference documentReference
         // or add some new column for the XWikiLink table in the database.
         Set<DocumentReference> backlinkReferences = new HashSet<DocumentReference>();
 
+        String link = this.localEntityReferenceSerializer.serialize(documentReference);
+        // Links modified by a transaction in progress must not be cached
+        boolean cacheable = bTransaction && this.backlinksCache != null && getTransaction(context) == null;
+        long cacheVersion = 0;
+        if (cacheable) {
+            List<DocumentReference> cachedBacklinks = this.backlinksCache.get(context.getDatabase(), link);
+            if (cachedBacklinks != null) {
+                return cachedBacklinks;
+            }
+            // Read before the query so that links committed in the meantime prevent caching what the query returns
+            cacheVersion = this.backlinksCache.getVersion();
+        }
+
         try {
             if (bTransaction) {
                 checkHibernate(context);
@@ -1885,7 +2008,7 @@ public List<DocumentReference> loadBacklinks(DocumentReference documentReference
             // the select clause is compulsory to reach the fullName i.e. the page pointed
             Query query = session.createQuery(
                 "select backlink.fullName from XWikiLink as backlink where backlink.id.link = :backlink");
-            query.setString("backlink", this.localEntityReferenceSerializer.serialize(documentReference));
+            query.setString("backlink", link);
 
             @SuppressWarnings("unchecked")
             List<String> backlinkNames = query.list();
@@ -1909,7 +2032,13 @@ public List<DocumentReference> loadBacklinks(DocumentReference documentReference
             } catch (Exception e) {
             }
         }
-        return new ArrayList<DocumentReference>(backlinkReferences);
+
+        List<DocumentReference> backlinks = new ArrayList<DocumentReference>(backlinkReferences);
+        if (cacheable) {
+            this.backlinksCache.set(context.getDatabase(), link, backlinks, cacheVersion);
+        }
+
+        return backlinks;
     }
 
     /**
@@ -1939,21 +2068,15 @@ public void saveLinks(XWikiDocument doc, XWikiContext context, boolean bTransact
             }
             Session session = getSession(context);
 
-            // need to delete existing links before saving the page's one
-            deleteLinks(doc.getId(), context, bTransaction);
+            Set<String> changedLinks = updateLinks(doc, context, session);
 
-            // necessary to blank links from doc
-            context.remove("links");
-
-            if (doc.getSyntax().equals(Syntax.XWIKI_1_0)) {
-                saveLinks10(doc, context, session);
-            } else {
-                // When not in 1.0 content get WikiLinks directly from XDOM
-                Set<XWikiLink> links = doc.getUniqueWikiLinkedPages(context);
-                for (XWikiLink wikiLink : links) {
-                    session.save(wikiLink);
-                }
+            boolean committed = bTransaction;
+            if (bTransaction) {
+                endTransaction(context, true);
+                bTransaction = false;
             }
+
+            removeBacklinks(changedLinks, committed, context);
         } catch (Exception e) {
             throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
                 XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_LINKS, "Exception while saving links", e);
@@ -1967,7 +2090,88 @@ public void saveLinks(XWikiDocument doc, XWikiContext context, boolean bTransact
         }
     }
 
-    private void saveLinks10(XWikiDocument doc, XWikiContext context, Session session) throws XWikiException
+    /**
+     * Update the stored links of a document by writing only the difference between the stored links and the links
+     * found in the content of the document.
+     * 
+     * @param doc the document whose links are saved
+     * @param context the XWiki context
+     * @param session the Hibernate session to use
+     * @return the targets of the links which have been added or removed
+     * @throws XWikiException when failing to extract the links of the document
+     */
+    private Set<String> updateLinks(XWikiDocument doc, XWikiContext context, Session session) throws XWikiException
+    {
+        // necessary to blank links from doc
+        context.remove("links");
+
+        Set<XWikiLink> links;
+        if (doc.getSyntax().equals(Syntax.XWIKI_1_0)) {
+            links = getLinks10(doc, context);
+        } else {
+            // When not in 1.0 content get WikiLinks directly from XDOM
+            links = doc.getUniqueWikiLinkedPages(context);
+        }
+
+        Set<String> changedLinks = new HashSet<String>();
+
+        Query query = session.createQuery("from XWikiLink as link where link.id.docId = :docId");
+        query.setLong("docId", doc.getId());
+        for (XWikiLink storedLink : (List<XWikiLink>) query.list()) {
+            // Links which are still in the content are left untouched
+            if (!links.remove(storedLink)) {
+                session.delete(storedLink);
+                changedLinks.add(storedLink.getLink());
+            }
+        }
+        for (XWikiLink link : links) {
+            session.save(link);
+            changedLinks.add(link.getLink());
+        }
+
+        return changedLinks;
+    }
+
+    /**
+     * Remove the cached backlinks of the provided targets. This must happen after the links are committed, otherwise
+     * backlinks loaded in the meantime from the previous links could be cached again.
+     * 
+     * @param links the targets of the links which have been added or removed
+     * @param committed true if the transaction modifying the links has already been committed, false if it's owned by
+     *            the caller and still in progress
+     * @param context the XWiki context
+     */
+    private void removeBacklinks(final Collection<String> links, boolean committed, XWikiContext context)
+    {
+        if (this.backlinksCache == null || links.isEmpty()) {
+            return;
+        }
+
+        final String database = context.getDatabase();
+        Transaction transaction = committed ? null : getTransaction(context);
+        if (transaction == null) {
+            this.backlinksCache.remove(database, links);
+        } else {
+            transaction.registerSynchronization(new Synchronization()
+            {
+                @Override
+                public void beforeCompletion()
+                {
+                    // Nothing to do before the links are committed
+                }
+
+                @Override
+                public void afterCompletion(int status)
+                {
+                    if (status == Status.STATUS_COMMITTED) {
+                        backlinksCache.remove(database, links);
+                    }
+                }
+            });
+        }
+    }
+
+    private Set<XWikiLink> getLinks10(XWikiDocument doc, XWikiContext context)
     {
         // call to RenderEngine and converting the list of links into a list of backlinks
         // Note: We need to set the passed document as the current document as the "wiki"
@@ -1998,6 +2202,7 @@ private void saveLinks10(XWikiDocument doc, XWikiContext context, Session sessio
             econtext.setProperty("xwikicontext", context);
         }
 
+        Set<XWikiLink> wikiLinks = new LinkedHashSet<XWikiLink>();
         if (links != null) {
             for (String reference : links) {
                 // XWikiLink is the object declared in the Hibernate mapping
@@ -2006,9 +2211,11 @@ private void saveLinks10(XWikiDocument doc, XWikiContext context, Session sessio
                 link.setFullName(doc.getFullName());
                 link.setLink(reference);
 
-                session.save(link);
+                wikiLinks.add(link);
             }
         }
+
+        return wikiLinks;
     }
 
     @Override
@@ -2021,14 +2228,15 @@ public void deleteLinks(long docId, XWikiContext context, boolean bTransaction)
             }
             Session session = getSession(context);
 
-            Query query = session.createQuery("delete from XWikiLink as link where link.id.docId = :docId");
-            query.setLong("docId", docId);
-            query.executeUpdate();
+            Set<String> deletedLinks = deleteLinks(docId, session);
 
+            boolean committed = bTransaction;
             if (bTransaction) {
                 endTransaction(context, true);
                 bTransaction = false;
             }
+
+            removeBacklinks(deletedLinks, committed, context);
         } catch (Exception e) {
             throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
                 XWikiException.ERROR_XWIKI_STORE_HIBERNATE_DELETING_LINKS, "Exception while deleting links", e);
@@ -2042,6 +2250,26 @@ public void deleteLinks(long docId, XWikiContext context, boolean bTransaction)
         }
     }
 
+    /**
+     * @param docId the identifier of the document whose links are deleted
+     * @param session the Hibernate session to use
+     * @return the targets of the deleted links
+     */
+    private Set<String> deleteLinks(long docId, Session session)
+    {
+        Query query = session.createQuery("select link.id.link from XWikiLink as link where link.id.docId = :docId");
+        query.setLong("docId", docId);
+        Set<String> links = new HashSet<String>((List<String>) query.list());
+
+        if (!links.isEmpty()) {
+            query = session.createQuery("delete from XWikiLink as link where link.id.docId = :docId");
+            query.setLong("docId", docId);
+            query.executeUpdate();
+        }
+
+        return links;
+    }
+
     public void getContent(XWikiDocument doc, StringBuffer buf)
     {
         buf.append(doc.getContent());
@@ -2215,6 +2443,7 @@ public <T> List<T> search(String sql, int nb, int start, Object[][] whereParams,
         }
 
         MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long profilerStart = this.profiler.start();
         try {
             // Start monitoring timer
             if (monitor != null) {
@@ -2262,6 +2491,8 @@ public <T> List<T> search(String sql, int nb, int start, Object[][] whereParams,
             } catch (Exception e) {
             }
 
+            this.profiler.end(RequestProfiler.QUERY, profilerStart);
+
             // End monitoring timer
             if (monitor != null) {
                 monitor.endTimer("hibernate");
@@ -2306,6 +2537,7 @@ public List search(Query query, int nb, int start, XWikiContext context) throws
         }
 
         MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long profilerStart = this.profiler.start();
         try {
             // Start monitoring timer
             if (monitor != null) {
@@ -2343,6 +2575,8 @@ public List search(Query query, int nb, int start, XWikiContext context) throws
             } catch (Exception e) {
             }
 
+            this.profiler.end(RequestProfiler.QUERY, profilerStart);
+
             // End monitoring timer
             if (monitor != null) {
                 monitor.endTimer("hibernate");
@@ -2406,6 +2640,7 @@ private List<Object[]> searchGenericInternal(String sql, int nb, int start, List
     {
         boolean bTransaction = false;
         MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long profilerStart = this.profiler.start();
         try {
             // Start monitoring timer
             if (monitor != null) {
@@ -2443,6 +2678,8 @@ private List<Object[]> searchGenericInternal(String sql, int nb, int start, List
             } catch (Exception e) {
             }
 
+            this.profiler.end(RequestProfiler.QUERY, profilerStart);
+
             // End monitoring timer
             if (monitor != null) {
                 monitor.endTimer("hibernate");
@@ -2465,6 +2702,7 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
         List<Object[]> documentDatas = new ArrayList<Object[]>();
         boolean bTransaction = true;
         MonitorPlugin monitor = Util.getMonitorPlugin(context);
+        long profilerStart = this.profiler.start();
         try {
             String sql;
             if (distinctbylanguage) {
@@ -2513,6 +2751,8 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
             } catch (Exception e) {
             }
 
+            this.profiler.end(RequestProfiler.QUERY, profilerStart);
+
             // End monitoring timer
             if (monitor != null) {
                 monitor.endTimer("hibernate");
@@ -20,9 +20,12 @@
 package com.xpn.xwiki.store;
 
 import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -300,6 +303,72 @@ public XWikiRCSNodeContent doInHibernate(Session session) throws HibernateExcept
         });
     }
 
+    @Override
+    public List<XWikiRCSNodeContent> loadRCSNodeContents(final Collection<XWikiRCSNodeId> ids, boolean bTransaction,
+        XWikiContext context) throws XWikiException
+    {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // Select the range of versions covering all the requested nodes, it usually contains only those nodes since
+        // they are consecutive versions of a patch chain
+        final long docId = ids.iterator().next().getDocId();
+        int[] min = null;
+        int[] max = null;
+        for (XWikiRCSNodeId id : ids) {
+            int[] numbers = id.getVersion().getNumbers();
+            if (min == null || compareVersionNumbers(numbers, min) < 0) {
+                min = numbers;
+            }
+            if (max == null || compareVersionNumbers(numbers, max) > 0) {
+                max = numbers;
+            }
+        }
+        final int[] minVersion = min;
+        final int[] maxVersion = max;
+
+        return executeRead(context, bTransaction, new HibernateCallback<List<XWikiRCSNodeContent>>()
+        {
+            @Override
+            public List<XWikiRCSNodeContent> doInHibernate(Session session) throws HibernateException
+            {
+                List<XWikiRCSNodeContent> contents = session.createQuery("from "
+                    + XWikiRCSNodeContent.class.getName() + " as content where content.id.docId = :docId"
+                    + " and (content.id.version1 > :minVersion1"
+                    + " or (content.id.version1 = :minVersion1 and content.id.version2 >= :minVersion2))"
+                    + " and (content.id.version1 < :maxVersion1"
+                    + " or (content.id.version1 = :maxVersion1 and content.id.version2 <= :maxVersion2))")
+                    .setLong("docId", docId).setInteger("minVersion1", minVersion[0])
+                    .setInteger("minVersion2", minVersion[1]).setInteger("maxVersion1", maxVersion[0])
+                    .setInteger("maxVersion2", maxVersion[1]).list();
+
+                Set<XWikiRCSNodeId> requested = new HashSet<XWikiRCSNodeId>(ids);
+                List<XWikiRCSNodeContent> result = new ArrayList<XWikiRCSNodeContent>(ids.size());
+                for (XWikiRCSNodeContent content : contents) {
+                    if (requested.contains(content.getId())) {
+                        result.add(content);
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * @param numbers1 the numbers of a version
+     * @param numbers2 the numbers of another version
+     * @return a negative number, zero or a positive number if the first version is older, the same or newer than the
+     *         second one
+     */
+    private static int compareVersionNumbers(int[] numbers1, int[] numbers2)
+    {
+        if (numbers1[0] != numbers2[0]) {
+            return numbers1[0] < numbers2[0] ? -1 : 1;
+        }
+        return numbers1[1] < numbers2[1] ? -1 : (numbers1[1] == numbers2[1] ? 0 : 1);
+    }
+
     @Override
     public void deleteArchive(final XWikiDocument doc, boolean bTransaction, XWikiContext context)
         throws XWikiException
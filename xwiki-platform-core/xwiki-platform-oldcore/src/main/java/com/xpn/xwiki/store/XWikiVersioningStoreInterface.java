@@ -19,6 +19,9 @@
  */
 package com.xpn.xwiki.store;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.suigeneris.jrcs.rcs.Version;
 import org.xwiki.component.annotation.Role;
 
@@ -68,4 +71,15 @@ void saveXWikiDocArchive(XWikiDocumentArchive archivedoc, boolean bTransaction,
      */
     XWikiRCSNodeContent loadRCSNodeContent(XWikiRCSNodeId id, boolean bTransaction, XWikiContext context)
         throws XWikiException;
+
+    /**
+     * Load the content of several nodes of the same document history at once. This is used for rebuilding a version
+     * from a chain of patches with a single query instead of one query per patch.
+     * 
+     * @return the loaded rcs node contents, in no particular order, nodes which don't exist are not included
+     * @param ids the identifiers of the nodes to load, they must all belong to the same document
+     * @since 5.3M1
+     */
+    List<XWikiRCSNodeContent> loadRCSNodeContents(Collection<XWikiRCSNodeId> ids, boolean bTransaction,
+        XWikiContext context) throws XWikiException;
 }
@@ -39,6 +39,7 @@
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.monitor.RequestProfiler;
 import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
 import com.xpn.xwiki.store.XWikiHibernateStore;
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
@@ -72,6 +73,12 @@ public class HqlQueryExecutor implements QueryExecutor, Initializable
     @Inject
     private Execution execution;
 
+    /**
+     * Used to record the time spent running queries in the current request.
+     */
+    @Inject
+    private RequestProfiler profiler;
+
     @Override
     public void initialize() throws InitializationException
     {
@@ -82,6 +89,7 @@ public void initialize() throws InitializationException
     public <T> List<T> execute(final Query query) throws QueryException
     {
         String oldDatabase = getContext().getDatabase();
+        long profilerStart = this.profiler.start();
         try {
             if (query.getWiki() != null) {
                 getContext().setDatabase(query.getWiki());
@@ -108,6 +116,7 @@ public List<T> doInHibernate(Session session)
             throw new QueryException("Exception while execute query", query, e);
         } finally {
             getContext().setDatabase(oldDatabase);
+            this.profiler.end(RequestProfiler.QUERY, profilerStart);
         }
     }
 
@@ -25,15 +25,22 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.xwiki.bridge.event.WikiDeletedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
@@ -236,7 +243,8 @@ public Exception getLastMigrationException()
     /**
      * A cache of wiki database version.
      */
-    private final Map<String, MigrationStatus> statusCache = new HashMap<String, MigrationStatus>();
+    private final Map<String, MigrationStatus> statusCache =
+        Collections.synchronizedMap(new HashMap<String, MigrationStatus>());
 
     /**
      * The final database version when the migration process finishes.
@@ -487,7 +495,7 @@ private void updateMigrationStatus(XWikiDBVersion version, Exception e) throws D
      * @param e exception thrown by the last migration or null if the migration was successful
      * @throws DataMigrationException if any error
      */
-    private synchronized void updateMigrationStatus(XWikiDBVersion version, boolean migrationAttempted, Exception e)
+    private void updateMigrationStatus(XWikiDBVersion version, boolean migrationAttempted, Exception e)
         throws DataMigrationException
     {
         String wikiName = getXWikiContext().getDatabase();
@@ -593,6 +601,9 @@ public void checkDatabase() throws MigrationRequiredException, DataMigrationExce
 
     /**
      * Start the migration process.
+     * The main database is migrated first, the other databases are then migrated independently from each other,
+     * concurrently when the "xwiki.store.migration.threads" configuration property is greater than 1. A failure
+     * in one database does not prevent the others from being migrated.
      *
      * @throws DataMigrationException in case of any error
      */
@@ -610,19 +621,24 @@ protected synchronized void startMigrations() throws DataMigrationException
 
         int errorCount = 0;
         try {
-            for (String database : getDatabasesToMigrate()) {
-                // Set up the context so that it points to the virtual wiki corresponding to the
-                // database.
-                context.setDatabase(database);
-                context.setOriginalDatabase(database);
-                try {
-                    startMigrationsForDatabase();
-                } catch (DataMigrationException e) {
-                    // Log each failure for better troubleshooting.
-                    logger.error("Failed to migrate database [{}]", database, e);
-                    errorCount++;
+            List<String> databases = new ArrayList<String>(getDatabasesToMigrate());
+
+            // The main database is always migrated first and alone since the others may depend on it.
+            if (!startMigrationsForDatabase(databases.remove(0))) {
+                errorCount++;
+            }
+
+            int threads = getMigrationThreadCount();
+            if (threads > 1 && databases.size() > 1) {
+                errorCount += startConcurrentMigrations(databases, Math.min(threads, databases.size()));
+            } else {
+                for (String database : databases) {
+                    if (!startMigrationsForDatabase(database)) {
+                        errorCount++;
+                    }
                 }
             }
+
             if (errorCount > 0) {
                 String message =
                     String.format("%s database migration(s) failed, it is not safe to continue!", errorCount);
@@ -635,6 +651,123 @@ protected synchronized void startMigrations() throws DataMigrationException
         }
     }
 
+    /**
+     * @return the maximum number of databases to migrate at the same time, read from the
+     *         "xwiki.store.migration.threads" configuration property
+     */
+    private int getMigrationThreadCount()
+    {
+        String threads = getXWikiConfig().getProperty("xwiki.store.migration.threads", "1");
+        try {
+            return Integer.parseInt(threads.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value [{}] for xwiki.store.migration.threads, migrating one database at a time",
+                threads);
+            return 1;
+        }
+    }
+
+    /**
+     * Migrate the given database in the current thread.
+     *
+     * @param database the database to migrate
+     * @return true if the migration succeeded
+     */
+    private boolean startMigrationsForDatabase(String database)
+    {
+        // Set up the context so that it points to the virtual wiki corresponding to the database.
+        XWikiContext context = getXWikiContext();
+        context.setDatabase(database);
+        context.setOriginalDatabase(database);
+        try {
+            startMigrationsForDatabase();
+            return true;
+        } catch (DataMigrationException e) {
+            // Log each failure for better troubleshooting.
+            logger.error("Failed to migrate database [{}]", database, e);
+            return false;
+        }
+    }
+
+    /**
+     * Migrate the given databases using a bounded pool of threads. Each database is migrated by a single thread
+     * with its own copy of the XWiki context and its own store session so that the migrations of a given database
+     * still run in order.
+     *
+     * @param databases the databases to migrate
+     * @param threads the number of threads to use
+     * @return the number of databases which failed to be migrated
+     */
+    private int startConcurrentMigrations(List<String> databases, int threads)
+    {
+        logger.info("Migrating [{}] databases using [{}] threads", databases.size(), threads);
+
+        final XWikiContext context = getXWikiContext();
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            new BasicThreadFactory.Builder().namingPattern("XWiki data migration thread %d").daemon(true).build());
+
+        int errorCount = 0;
+        try {
+            Map<String, Future<Boolean>> results = new LinkedHashMap<String, Future<Boolean>>();
+            for (final String database : databases) {
+                final XWikiContext databaseContext = context.clone();
+                // Each thread has to use its own store session and transaction, the caller's ones are not thread safe
+                databaseContext.remove("hibsession");
+                databaseContext.remove("hibtransaction");
+                results.put(database, executor.submit(new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call()
+                    {
+                        return startMigrationsForDatabase(database, databaseContext);
+                    }
+                }));
+            }
+
+            for (Map.Entry<String, Future<Boolean>> result : results.entrySet()) {
+                try {
+                    if (!result.getValue().get()) {
+                        errorCount++;
+                    }
+                } catch (ExecutionException e) {
+                    logger.error("Failed to migrate database [{}]", result.getKey(), e.getCause());
+                    errorCount++;
+                } catch (InterruptedException e) {
+                    logger.error("Interrupted while waiting for the migration of database [{}]", result.getKey());
+                    Thread.currentThread().interrupt();
+                    errorCount++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return errorCount;
+    }
+
+    /**
+     * Migrate the given database in a migration thread.
+     *
+     * @param database the database to migrate
+     * @param context the copy of the XWiki context to use in this thread
+     * @return true if the migration succeeded
+     */
+    private boolean startMigrationsForDatabase(String database, XWikiContext context)
+    {
+        ExecutionContext executionContext = new ExecutionContext();
+        context.declareInExecutionContext(executionContext);
+        this.execution.setContext(executionContext);
+
+        // Prevent the database from being checked again (and the migration re-entered) from this thread
+        lock.lock();
+        try {
+            return startMigrationsForDatabase(database);
+        } finally {
+            lock.unlock();
+            this.execution.removeContext();
+        }
+    }
+
     /**
      * Returns the names of the databases that should be migrated.
      * This is controlled through the "xwiki.store.migration.databases" configuration property in xwiki.cfg.
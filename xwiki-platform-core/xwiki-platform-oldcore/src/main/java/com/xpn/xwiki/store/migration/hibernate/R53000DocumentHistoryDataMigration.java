@@ -0,0 +1,196 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store.migration.hibernate;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocumentArchive;
+import com.xpn.xwiki.doc.rcs.XWikiRCSNodeInfo;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateVersioningStore;
+import com.xpn.xwiki.store.XWikiVersioningStoreInterface;
+import com.xpn.xwiki.store.migration.DataMigrationException;
+import com.xpn.xwiki.store.migration.XWikiDBVersion;
+
+/**
+ * Migration storing as full versions the patches of the document histories which are too far from a full version,
+ * see {@link XWikiDocumentArchive#updateFullVersions(XWikiContext)}. Reading an old version of a document with a long
+ * history used to require applying a large number of patches.
+ * <p>
+ * The documents are processed in batches ordered by id, and each history is loaded and saved in its own transaction
+ * so that the migration doesn't hold a huge transaction on large databases. The database version is only updated
+ * once all the histories have been processed: if the migration is interrupted it's executed again on the next
+ * startup, and the histories which have already been updated are left unchanged.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Named("R53000DocumentHistory")
+@Singleton
+public class R53000DocumentHistoryDataMigration extends AbstractHibernateDataMigration
+{
+    /**
+     * The number of document ids to read at once.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Logger.
+     */
+    @Inject
+    private Logger logger;
+
+    @Override
+    public String getDescription()
+    {
+        return "Limit the number of patches to apply for reading a version of a document";
+    }
+
+    @Override
+    public XWikiDBVersion getVersion()
+    {
+        return new XWikiDBVersion(53000);
+    }
+
+    /**
+     * @return version store system for execute store-specific actions.
+     * @throws XWikiException if the store could not be reached
+     */
+    private XWikiHibernateVersioningStore getVersioningStore() throws XWikiException
+    {
+        try {
+            return (XWikiHibernateVersioningStore) componentManager
+                .getInstance(XWikiVersioningStoreInterface.class, "hibernate");
+        } catch (ComponentLookupException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_MIGRATION,
+                String.format("Unable to reach the versioning store for database %s", getXWikiContext().getDatabase()),
+                e);
+        }
+    }
+
+    @Override
+    public void hibernateMigrate() throws DataMigrationException, XWikiException
+    {
+        XWikiContext context = getXWikiContext();
+        XWikiHibernateVersioningStore versioningStore = getVersioningStore();
+
+        // Each batch and each history use their own transaction
+        Session originalSession = versioningStore.getSession(context);
+        Transaction originalTransaction = versioningStore.getTransaction(context);
+        versioningStore.setSession(null, context);
+        versioningStore.setTransaction(null, context);
+        try {
+            updateHistories(versioningStore, context);
+        } finally {
+            versioningStore.setSession(originalSession, context);
+            versioningStore.setTransaction(originalTransaction, context);
+        }
+    }
+
+    /**
+     * Update the histories of all the documents of the current database.
+     *
+     * @param versioningStore the store to load and save the histories
+     * @param context the context of the migration
+     * @throws XWikiException if the documents having a history cannot be listed
+     */
+    private void updateHistories(XWikiHibernateVersioningStore versioningStore, XWikiContext context)
+        throws XWikiException
+    {
+        logger.info("Updating the document histories in database [{}]", context.getDatabase());
+
+        int processed = 0;
+        int updated = 0;
+        Long lastDocId = null;
+        List<Long> docIds;
+        do {
+            docIds = getNextDocIds(lastDocId, versioningStore, context);
+            for (Long docId : docIds) {
+                XWikiDocumentArchive archive = new XWikiDocumentArchive(docId);
+                try {
+                    versioningStore.loadXWikiDocArchive(archive, true, context);
+                    if (archive.updateFullVersions(context) > 0) {
+                        versioningStore.saveXWikiDocArchive(archive, true, context);
+                        updated++;
+                    }
+                } catch (XWikiException e) {
+                    // Leave the history as it is, it's still valid
+                    logger.warn("Failed to update the history of document with id [{}]: {}", docId, e.getMessage());
+                }
+                lastDocId = docId;
+            }
+            processed += docIds.size();
+            logger.debug("Processed the history of [{}] documents in database [{}]", processed,
+                context.getDatabase());
+        } while (docIds.size() == BATCH_SIZE);
+
+        logger.info("Updated the history of [{}] documents out of [{}] in database [{}]", new Object[] {updated,
+            processed, context.getDatabase()});
+    }
+
+    /**
+     * @param lastDocId the id of the last processed document, {@code null} to start from the first one
+     * @param versioningStore the store to read the histories
+     * @param context the context of the migration
+     * @return the ids of the next documents having a history, at most {@link #BATCH_SIZE}
+     * @throws XWikiException if the documents cannot be listed
+     */
+    private List<Long> getNextDocIds(final Long lastDocId, XWikiHibernateVersioningStore versioningStore,
+        XWikiContext context) throws XWikiException
+    {
+        return versioningStore.executeRead(context, true, new HibernateCallback<List<Long>>()
+        {
+            @Override
+            public List<Long> doInHibernate(Session session) throws HibernateException
+            {
+                StringBuilder statement = new StringBuilder("select distinct nodeInfo.id.docId from ");
+                statement.append(XWikiRCSNodeInfo.class.getName()).append(" as nodeInfo");
+                if (lastDocId != null) {
+                    statement.append(" where nodeInfo.id.docId > :docId");
+                }
+                statement.append(" order by nodeInfo.id.docId");
+
+                Query query = session.createQuery(statement.toString());
+                if (lastDocId != null) {
+                    query.setLong("docId", lastDocId);
+                }
+                query.setMaxResults(BATCH_SIZE);
+
+                return query.list();
+            }
+        });
+    }
+}
@@ -27,9 +27,11 @@
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -69,8 +71,17 @@ public class ExportURLFactory extends XWikiServletURLFactory
      * When there are relative links to resources inside CSS files they are resolved based on the location of the CSS
      * file itself. When we export we put all resources and attachments in the root of the exported directory and thus
      * in order to have valid relative links we need to make them match. We use this variable to do this.
+     * <p>
+     * The stack is kept per thread since the pages of an export can be rendered concurrently.
      */
-    private Stack cssPathAdjustementStack = new Stack();
+    private final ThreadLocal<Stack<String>> cssPathAdjustementStack = new ThreadLocal<Stack<String>>()
+    {
+        @Override
+        protected Stack<String> initialValue()
+        {
+            return new Stack<String>();
+        }
+    };
 
     /**
      * Pages for which to convert URL to local.
@@ -85,9 +96,15 @@ public class ExportURLFactory extends XWikiServletURLFactory
     /**
      * Names of skins needed by rendered page(s).
      */
-    private Set<String> neededSkins = new HashSet<String>();
+    private Set<String> neededSkins = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    Set<String> exporteSkinFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    Set<String> exporteSkinFiles = new HashSet<String>();
+    /**
+     * Paths of the attachments already copied in the export directory, so that an attachment referenced by several
+     * pages rendered at the same time is copied only once.
+     */
+    private Set<String> exportedAttachments = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /**
      * ExportURLFactory constructor.
@@ -165,8 +182,8 @@ public URL createSkinURL(String filename, String skin, XWikiContext context)
             newpath.append("file://");
 
             // Adjust path for links inside CSS files.
-            if (!this.cssPathAdjustementStack.empty()) {
-                newpath.append(this.cssPathAdjustementStack.peek());
+            if (!this.cssPathAdjustementStack.get().empty()) {
+                newpath.append(this.cssPathAdjustementStack.get().peek());
             }
 
             newpath.append("skins/");
@@ -226,9 +243,8 @@ public URL createSkinURL(String fileName, String web, String name, String wikiId
 
             String filePath = filePathBuffer.toString();
 
-            if (!this.exporteSkinFiles.contains(filePath)) {
-                this.exporteSkinFiles.add(filePath);
-
+            // Only the first page needing this skin file exports it
+            if (this.exporteSkinFiles.add(filePath)) {
                 File file = new File(this.exportDir, filePath);
 
                 // Make sure the folder exists
@@ -249,11 +265,12 @@ public URL createSkinURL(String fileName, String web, String name, String wikiId
                     }
 
                     // Adjust path for links inside CSS files.
-                    this.cssPathAdjustementStack.push(StringUtils.repeat("../", StringUtils.countMatches(filePath, "/")));
+                    Stack<String> cssPathStack = this.cssPathAdjustementStack.get();
+                    cssPathStack.push(StringUtils.repeat("../", StringUtils.countMatches(filePath, "/")));
                     try {
                         SKINACTION.render(skinURL.getPath(), context);
                     } finally {
-                        this.cssPathAdjustementStack.pop();
+                        cssPathStack.pop();
                     }
                 } finally {
                     fos.close();
@@ -269,8 +286,8 @@ public URL createSkinURL(String fileName, String web, String name, String wikiId
             newpath.append("file://");
 
             // Adjust path for links inside CSS files.
-            if (!this.cssPathAdjustementStack.empty()) {
-                newpath.append(this.cssPathAdjustementStack.peek());
+            if (!this.cssPathAdjustementStack.get().empty()) {
+                newpath.append(this.cssPathAdjustementStack.get().peek());
             }
 
             newpath.append(filePath);
@@ -329,8 +346,8 @@ public URL createResourceURL(String filename, boolean forceSkinAction, XWikiCont
             newpath.append("file://");
 
             // Adjust path for links inside CSS files.
-            if (!this.cssPathAdjustementStack.empty()) {
-                newpath.append(this.cssPathAdjustementStack.peek());
+            if (!this.cssPathAdjustementStack.get().empty()) {
+                newpath.append(this.cssPathAdjustementStack.get().peek());
             }
 
             newpath.append("resources");
@@ -401,7 +418,7 @@ private URL createAttachmentURL(String filename, String space, String name, Stri
         String path = "attachment/" + db + "." + space + "." + name + "." + filename;
 
         File file = new File(this.exportDir, path);
-        if (!file.exists()) {
+        if (this.exportedAttachments.add(path) && !file.exists()) {
             XWikiDocument doc =
                 context.getWiki().getDocument(
                     db + XWikiDocument.DB_SPACE_SEP + space + XWikiDocument.SPACE_NAME_SEP + name, context);
@@ -412,8 +429,8 @@ private URL createAttachmentURL(String filename, String space, String name, Stri
         }
 
         // Adjust path for links inside CSS files.
-        if (!this.cssPathAdjustementStack.empty()) {
-            path = this.cssPathAdjustementStack.peek() + path;
+        if (!this.cssPathAdjustementStack.get().empty()) {
+            path = this.cssPathAdjustementStack.get().peek() + path;
         }
 
         return new URI("file://" + path.replace(" ", "%20")).toURL();
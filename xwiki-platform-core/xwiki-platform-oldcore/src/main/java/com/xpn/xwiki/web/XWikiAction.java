@@ -53,6 +53,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.monitor.RequestProfiler;
 import com.xpn.xwiki.monitor.api.MonitorPlugin;
 import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.plugin.fileupload.FileUploadPlugin;
@@ -141,6 +142,9 @@ public ActionForward execute(XWikiContext context) throws Exception
         FileUploadPlugin fileupload = null;
         String docName = "";
 
+        RequestProfiler profiler = Utils.getComponent(RequestProfiler.class);
+        profiler.startRequest(context.getAction(), String.valueOf(context.getURL()));
+
         try {
             String action = context.getAction();
 
@@ -406,6 +410,7 @@ public ActionForward execute(XWikiContext context) throws Exception
             if (monitor != null) {
                 monitor.endRequest();
             }
+            profiler.endRequest();
 
             if (context != null) {
 
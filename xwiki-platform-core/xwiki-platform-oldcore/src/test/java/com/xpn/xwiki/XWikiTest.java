@@ -271,6 +271,53 @@ public void testParseTemplateConsidersObjectFieldBeforeAttachment() throws Excep
         assertEquals("parsing a field", this.xwiki.parseTemplate("template.vm", getContext()));
     }
 
+    public void testParseTemplateIsRefreshedWhenSkinDocumentIsModified() throws XWikiException
+    {
+        DocumentReference skinReference = new DocumentReference("xwiki", "XWiki", "XWikiSkins");
+        XWikiDocument skinClass = new XWikiDocument(skinReference);
+        skinClass.getXClass().addTextAreaField("template.vm", "template", 80, 20);
+        this.xwiki.saveDocument(skinClass, getContext());
+
+        DocumentReference mySkinReference = new DocumentReference("xwiki", "XWiki", "Skin");
+        XWikiDocument skinDocument = new XWikiDocument(mySkinReference);
+        BaseObject obj = skinDocument.newXObject(skinReference, getContext());
+        obj.setLargeStringValue("template.vm", "parsing a field");
+        this.xwiki.saveDocument(skinDocument, getContext());
+
+        getContext().put("skin", "XWiki.Skin");
+        assertEquals("parsing a field", this.xwiki.parseTemplate("template.vm", getContext()));
+
+        skinDocument = this.xwiki.getDocument(mySkinReference, getContext());
+        skinDocument.getXObject(skinReference).setLargeStringValue("template.vm", "parsing a modified field");
+        this.xwiki.saveDocument(skinDocument, getContext());
+
+        assertEquals("parsing a modified field", this.xwiki.parseTemplate("template.vm", getContext()));
+    }
+
+    public void testGetSpacePreferenceIsRefreshedWhenPreferencesDocumentIsModified() throws XWikiException
+    {
+        assertEquals("default", this.xwiki.getSpacePreference("mypreference", "MilkyWay", "default", getContext()));
+
+        DocumentReference xwikiPreferencesReference =
+            new DocumentReference(getContext().getDatabase(), "XWiki", "XWikiPreferences");
+        DocumentReference spacePreferencesReference =
+            new DocumentReference(getContext().getDatabase(), "MilkyWay", "WebPreferences");
+        XWikiDocument spacePreferences = new XWikiDocument(spacePreferencesReference);
+        spacePreferences.newXObject(xwikiPreferencesReference, getContext()).setStringValue("mypreference",
+            "space value");
+        this.xwiki.saveDocument(spacePreferences, getContext());
+
+        assertEquals("space value", this.xwiki.getSpacePreference("mypreference", "MilkyWay", "default",
+            getContext()));
+
+        spacePreferences = this.xwiki.getDocument(spacePreferencesReference, getContext());
+        spacePreferences.getXObject(xwikiPreferencesReference).setStringValue("mypreference", "modified value");
+        this.xwiki.saveDocument(spacePreferences, getContext());
+
+        assertEquals("modified value", this.xwiki.getSpacePreference("mypreference", "MilkyWay", "default",
+            getContext()));
+    }
+
     public void testClearNameWithoutStripDotsWithoutAscii()
     {
         assertEquals("ee{&.txt", this.xwiki.clearName("\u00E9\u00EA{&.txt", false, false, getContext()));
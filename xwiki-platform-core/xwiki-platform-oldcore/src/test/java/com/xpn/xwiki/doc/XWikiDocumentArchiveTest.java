@@ -21,6 +21,7 @@
 
 import java.util.Date;
 
+import org.apache.commons.lang3.StringUtils;
 import org.jmock.Mock;
 import org.suigeneris.jrcs.rcs.Version;
 import org.xwiki.model.reference.DocumentReference;
@@ -43,6 +44,8 @@ public class XWikiDocumentArchiveTest extends AbstractBridgedXWikiComponentTestC
 
     private Mock mockXWiki;
 
+    private XWikiConfig config;
+
     @Override
     protected void setUp() throws Exception
     {
@@ -50,7 +53,8 @@ protected void setUp() throws Exception
 
         this.mockXWiki = mock(XWiki.class);
         this.mockXWiki.stubs().method("getEncoding").will(returnValue("iso-8859-1"));
-        this.mockXWiki.stubs().method("getConfig").will(returnValue(new XWikiConfig()));
+        this.config = new XWikiConfig();
+        this.mockXWiki.stubs().method("getConfig").will(returnValue(this.config));
 
         this.context = new XWikiContext();
         this.context.setWiki((XWiki) this.mockXWiki.proxy());
@@ -326,6 +330,53 @@ public void testVerifyDiffAndFullRevisionAlgorithm() throws Exception
         assertFalse(archive.getNode(new Version(6, 1)).isDiff());
     }
 
+    public void testFullRevisionKeptWhenDiffIsLarge() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        doc.setDocumentArchive(archive);
+        String author = "XWiki.some author";
+
+        addRevisionToHistory(archive, doc, StringUtils.repeat("first content\n", 1000), author, "1.1");
+        addRevisionToHistory(archive, doc, StringUtils.repeat("second content\n", 1000), author, "2.1");
+        assertFalse(archive.getNode(new Version(1, 1)).isDiff());
+        assertFalse(archive.getNode(new Version(2, 1)).isDiff());
+
+        addRevisionToHistory(archive, doc, StringUtils.repeat("second content\n", 1000) + "3.1", author, "3.1");
+        assertTrue(archive.getNode(new Version(2, 1)).isDiff());
+    }
+
+    public void testUpdateFullVersions() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("Test", "Test", "Test"));
+        XWikiDocumentArchive archive = new XWikiDocumentArchive(doc.getId());
+        doc.setDocumentArchive(archive);
+        String author = "XWiki.some author";
+
+        // Store only diffs, like histories saved with a very large interval between full versions
+        this.config.setProperty("xwiki.store.rcs.nodesPerFull", "0");
+        for (int i = 1; i <= 12; i++) {
+            addRevisionToHistory(archive, doc, "content " + i + ".1", author, i + ".1");
+        }
+        for (int i = 1; i <= 11; i++) {
+            assertTrue(archive.getNode(new Version(i, 1)).isDiff());
+        }
+        this.config.remove("xwiki.store.rcs.nodesPerFull");
+        archive.getUpdatedNodeContents().clear();
+
+        assertEquals(2, archive.updateFullVersions(context));
+        assertFalse(archive.getNode(new Version(7, 1)).isDiff());
+        assertFalse(archive.getNode(new Version(2, 1)).isDiff());
+        assertTrue(archive.getNode(new Version(6, 1)).isDiff());
+        assertTrue(archive.getNode(new Version(1, 1)).isDiff());
+        assertEquals(2, archive.getUpdatedNodeContents().size());
+        assertEquals("content 1.1", archive.loadDocument(new Version(1, 1), context).getContent());
+        assertEquals("content 7.1", archive.loadDocument(new Version(7, 1), context).getContent());
+
+        // Nothing left to update
+        assertEquals(0, archive.updateFullVersions(context));
+    }
+
     private void addRevisionToHistory(XWikiDocumentArchive archive, XWikiDocument document, String content,
         String author, String comment) throws XWikiException
     {
@@ -19,6 +19,13 @@
  */
 package com.xpn.xwiki.internal.cache;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Assert;
 
 import org.jmock.Expectations;
@@ -102,4 +109,61 @@ public void testEventBasedCleanup() throws Exception
         Assert.assertNull(this.cache.get(this.document.getDocumentReference()));
         Assert.assertNull(this.cache.get(this.document.getDocumentReference(), "ext1", "ext2"));
     }
+
+    @Test
+    public void testSetRejectedAfterInvalidation() throws Exception
+    {
+        long version = this.cache.getVersion();
+
+        ObservationManager observationManager = getComponentManager().getInstance(ObservationManager.class);
+        observationManager.notify(
+            new DocumentUpdatedEvent(this.document.getDocumentReference()), this.document, getContext());
+
+        Assert.assertFalse(this.cache.set("outdated", version, this.document.getDocumentReference()));
+        Assert.assertNull(this.cache.get(this.document.getDocumentReference()));
+
+        Assert.assertTrue(this.cache.set("data", this.cache.getVersion(), this.document.getDocumentReference()));
+        Assert.assertEquals("data", this.cache.get(this.document.getDocumentReference()));
+    }
+
+    @Test
+    public void testConcurrentSetThenEventBasedCleanup() throws Exception
+    {
+        final int threads = 8;
+        final int entriesPerThread = 100;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; ++i) {
+                final String prefix = "thread" + i;
+                futures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        for (int j = 0; j < entriesPerThread; ++j) {
+                            cache.set("data", document.getDocumentReference(), prefix, j);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        ObservationManager observationManager = getComponentManager().getInstance(ObservationManager.class);
+        observationManager.notify(
+            new DocumentUpdatedEvent(this.document.getDocumentReference()), this.document, getContext());
+
+        for (int i = 0; i < threads; ++i) {
+            for (int j = 0; j < entriesPerThread; ++j) {
+                Assert.assertNull(this.cache.get(this.document.getDocumentReference(), "thread" + i, j));
+            }
+        }
+    }
 }
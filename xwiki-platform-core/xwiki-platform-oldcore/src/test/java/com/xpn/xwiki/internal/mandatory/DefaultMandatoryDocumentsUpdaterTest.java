@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.mandatory;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.MandatoryDocumentInitializer;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+/**
+ * Unit tests for {@link DefaultMandatoryDocumentsUpdater}.
+ * 
+ * @version $Id$
+ */
+public class DefaultMandatoryDocumentsUpdaterTest
+{
+    private static final EntityReference REFERENCE = new EntityReference("Page", EntityType.DOCUMENT,
+        new EntityReference("Space", EntityType.SPACE));
+
+    /**
+     * A mandatory document initializer, not mocked so that its version can be computed.
+     */
+    private static class TestInitializer implements MandatoryDocumentInitializer
+    {
+        private final boolean modify;
+
+        TestInitializer(boolean modify)
+        {
+            this.modify = modify;
+        }
+
+        @Override
+        public EntityReference getDocumentReference()
+        {
+            return REFERENCE;
+        }
+
+        @Override
+        public boolean updateDocument(XWikiDocument document)
+        {
+            return this.modify;
+        }
+    }
+
+    @Rule
+    public final MockitoComponentMockingRule<MandatoryDocumentsUpdater> mocker =
+        new MockitoComponentMockingRule<MandatoryDocumentsUpdater>(DefaultMandatoryDocumentsUpdater.class);
+
+    private ComponentManager contextComponentManager;
+
+    private XWikiContext context;
+
+    private XWiki xwiki;
+
+    private XWikiStoreInterface store;
+
+    private XWikiDocument document;
+
+    private DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+
+    private XWikiDocument fingerprintDocument;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.contextComponentManager = mock(ComponentManager.class);
+        Provider<ComponentManager> componentManagerProvider =
+            this.mocker.getInstance(new DefaultParameterizedType(null, Provider.class, ComponentManager.class),
+                "context");
+        when(componentManagerProvider.get()).thenReturn(this.contextComponentManager);
+
+        DocumentReferenceResolver<EntityReference> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_REFERENCE, "current");
+        when(resolver.resolve(REFERENCE)).thenReturn(this.documentReference);
+        EntityReferenceSerializer<String> serializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(serializer.serialize(this.documentReference)).thenReturn("Space.Page");
+
+        this.xwiki = mock(XWiki.class);
+        this.store = mock(XWikiStoreInterface.class);
+        this.document = mock(XWikiDocument.class);
+        when(this.xwiki.getStore()).thenReturn(this.store);
+        when(this.xwiki.Param("xwiki.mandatorydocuments.skipUnchanged", "0")).thenReturn("1");
+        when(this.xwiki.ParamAsLong("xwiki.mandatorydocuments.threads", 1)).thenReturn(1L);
+
+        this.context = new XWikiContext();
+        this.context.setDatabase("wiki");
+        this.context.setWiki(this.xwiki);
+        when(this.xwiki.getDocument(this.documentReference, this.context)).thenReturn(this.document);
+
+        this.fingerprintDocument = mock(XWikiDocument.class, "fingerprint");
+        when(this.fingerprintDocument.isNew()).thenReturn(true);
+        when(this.xwiki.getDocument(new DocumentReference("wiki", "XWiki", "MandatoryDocumentsFingerprint"),
+            this.context)).thenReturn(this.fingerprintDocument);
+    }
+
+    private void setInitializers(MandatoryDocumentInitializer... initializers) throws Exception
+    {
+        List<MandatoryDocumentInitializer> list = Arrays.asList(initializers);
+        when(this.contextComponentManager.<MandatoryDocumentInitializer> getInstanceList(
+            MandatoryDocumentInitializer.class)).thenReturn(list);
+    }
+
+    @Test
+    public void updateMandatoryDocumentsSavesEachDocumentOnce() throws Exception
+    {
+        setInitializers(new TestInitializer(true), new TestInitializer(false));
+
+        this.mocker.getComponentUnderTest().updateMandatoryDocuments(this.context);
+
+        verify(this.xwiki).getDocument(this.documentReference, this.context);
+        verify(this.xwiki).saveDocument(this.document, this.context);
+    }
+
+    @Test
+    public void updateMandatoryDocumentsIgnoresOtherWikis() throws Exception
+    {
+        setInitializers(new TestInitializer(true));
+        this.context.setDatabase("otherwiki");
+
+        this.mocker.getComponentUnderTest().updateMandatoryDocuments(this.context);
+
+        verify(this.xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+    }
+
+    @Test
+    public void updateMandatoryDocumentsSkipsUnchangedInitializers() throws Exception
+    {
+        setInitializers(new TestInitializer(false));
+        when(this.store.countDocuments(anyString(), anyList(), same(this.context))).thenReturn(1);
+
+        this.mocker.getComponentUnderTest().updateMandatoryDocuments(this.context);
+
+        // The fingerprint is stored in the wiki so that it's shared by the members of a cluster
+        ArgumentCaptor<String> fingerprint = ArgumentCaptor.forClass(String.class);
+        verify(this.fingerprintDocument).setContent(fingerprint.capture());
+        verify(this.fingerprintDocument).setHidden(true);
+        verify(this.xwiki).saveDocument(same(this.fingerprintDocument), anyString(), eq(true), same(this.context));
+        when(this.fingerprintDocument.isNew()).thenReturn(false);
+        when(this.fingerprintDocument.getContent()).thenReturn(fingerprint.getValue());
+
+        this.mocker.getComponentUnderTest().updateMandatoryDocuments(this.context);
+
+        verify(this.xwiki, times(1)).getDocument(this.documentReference, this.context);
+
+        // The document has been deleted
+        when(this.store.countDocuments(anyString(), anyList(), same(this.context))).thenReturn(0);
+
+        this.mocker.getComponentUnderTest().updateMandatoryDocuments(this.context);
+
+        verify(this.xwiki, times(2)).getDocument(this.documentReference, this.context);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.internal.monitor;
+
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.test.annotation.AfterComponent;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.monitor.ProfileStatistics;
+import com.xpn.xwiki.monitor.RequestProfile;
+import com.xpn.xwiki.monitor.RequestProfiler;
+
+/**
+ * Unit tests for {@link DefaultRequestProfiler}.
+ *
+ * @version $Id$
+ */
+public class DefaultRequestProfilerTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<RequestProfiler> mocker =
+        new MockitoComponentMockingRule<RequestProfiler>(DefaultRequestProfiler.class);
+
+    private DefaultRequestProfiler profiler;
+
+    @AfterComponent
+    public void afterComponent() throws Exception
+    {
+        ConfigurationSource configuration = this.mocker.registerMockComponent(ConfigurationSource.class,
+            "xwikiproperties");
+        when(configuration.getProperty("core.profiler.sampleRate", 0)).thenReturn(2);
+        when(configuration.getProperty("core.profiler.slowRequestThreshold", 0L)).thenReturn(0L);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.profiler = (DefaultRequestProfiler) this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void profileSampledRequests()
+    {
+        // The first request is not part of the sample.
+        this.profiler.startRequest("view", "/xwiki/bin/view/Main/");
+        Assert.assertTrue(this.profiler.start() < 0);
+        Assert.assertNull(this.profiler.getCurrentProfile());
+        RequestProfile profile = this.profiler.endRequest();
+        Assert.assertFalse(profile.isDetailed());
+
+        this.profiler.startRequest("view", "/xwiki/bin/view/Main/");
+        long start = this.profiler.start();
+        Assert.assertTrue(start >= 0);
+        this.profiler.end(RequestProfiler.QUERY, start);
+        this.profiler.end(RequestProfiler.QUERY, this.profiler.start());
+        this.profiler.count(RequestProfiler.DOCUMENT_CACHE_HIT);
+        Assert.assertEquals(2,
+            this.profiler.getCurrentProfile().getStatistics().get(RequestProfiler.QUERY).getCount());
+        profile = this.profiler.endRequest();
+        Assert.assertTrue(profile.isDetailed());
+
+        Assert.assertNull(this.profiler.endRequest());
+        Assert.assertEquals(2, this.profiler.getRequestCount());
+        Assert.assertEquals(1, this.profiler.getProfiledRequestCount());
+
+        Map<String, ProfileStatistics> statistics = this.profiler.getStatistics();
+        Assert.assertEquals(2, statistics.get(RequestProfiler.QUERY).getCount());
+        Assert.assertEquals(1, statistics.get(RequestProfiler.DOCUMENT_CACHE_HIT).getCount());
+        Assert.assertNull(statistics.get(RequestProfiler.STORE_LOAD));
+
+        this.profiler.reset();
+        Assert.assertTrue(this.profiler.getStatistics().isEmpty());
+        Assert.assertEquals(0, this.profiler.getRequestCount());
+    }
+
+    @Test
+    public void countSlowRequests() throws Exception
+    {
+        this.profiler.setSlowRequestThreshold(1);
+
+        this.profiler.startRequest("view", "/xwiki/bin/view/Main/");
+        Thread.sleep(10);
+        this.profiler.endRequest();
+
+        Assert.assertEquals(1, this.profiler.getSlowRequestCount());
+        Assert.assertEquals(0, this.profiler.getActiveRequests().length);
+    }
+}
@@ -155,4 +155,45 @@ public void testMerge()
         Assert.assertEquals("Panels.Applications,Panels.QuickLinks,Panels.RecentModifications",
             currentObject.getStringValue("str"));
     }
+
+    @Test
+    public void persistedState()
+    {
+        BaseObject object = new BaseObject();
+        object.setDocumentReference(new DocumentReference("wiki", "space", "page"));
+        object.setXClassReference(new EntityReference("class", EntityType.DOCUMENT));
+        object.setGuid("guid");
+        object.setStringValue("loaded", "value");
+        ((BaseProperty) object.getField("loaded")).setValueDirty(false);
+        object.setStringValue("changed", "value");
+
+        Assert.assertFalse(object.isPersisted("wiki"));
+
+        object.setPersisted("wiki");
+
+        BaseProperty loaded = (BaseProperty) object.getField("loaded");
+        BaseProperty changed = (BaseProperty) object.getField("changed");
+        Assert.assertTrue(object.isPersisted("wiki"));
+        Assert.assertFalse(object.isPersisted("otherwiki"));
+        Assert.assertTrue(object.isPersistedValue("wiki", loaded));
+        // Dirty properties don't match what is stored
+        Assert.assertFalse(object.isPersisted("wiki", changed));
+
+        loaded.setValue("newvalue");
+        Assert.assertTrue(object.isPersisted("wiki", loaded));
+        Assert.assertFalse(object.isPersistedValue("wiki", loaded));
+
+        // A clone is stored with the same identifier
+        BaseObject clone = object.clone();
+        Assert.assertTrue(clone.isPersisted("wiki"));
+
+        // Copies are stored elsewhere
+        Assert.assertFalse(object.duplicate().isPersisted("wiki"));
+        Assert.assertFalse(object.duplicate(new DocumentReference("wiki", "space", "otherpage")).isPersisted("wiki"));
+        clone.setNumber(1);
+        Assert.assertFalse(clone.isPersisted("wiki"));
+
+        object.resetPersisted();
+        Assert.assertFalse(object.isPersisted("wiki"));
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.pdf.impl;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link XSLTemplatesCache}.
+ *
+ * @version $Id$
+ */
+public class XSLTemplatesCacheTest
+{
+    private static final String XSL_START = "<xsl:stylesheet version='1.0' "
+        + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform'><xsl:output method='text'/>"
+        + "<xsl:template match='/'>";
+
+    private static final String XSL_END = "<xsl:value-of select='.'/></xsl:template></xsl:stylesheet>";
+
+    private XSLTemplatesCache cache;
+
+    @Before
+    public void setUp()
+    {
+        this.cache = new XSLTemplatesCache((SAXTransformerFactory) TransformerFactory.newInstance());
+    }
+
+    private String transform(Templates templates, String xml) throws Exception
+    {
+        StringWriter output = new StringWriter();
+        templates.newTransformer().transform(new StreamSource(new StringReader(xml)), new StreamResult(output));
+        return output.toString();
+    }
+
+    private Templates getTemplates(String xsl) throws Exception
+    {
+        return this.cache.getTemplates(IOUtils.toInputStream(xsl, "UTF-8"));
+    }
+
+    @Test
+    public void getTemplatesFromContent() throws Exception
+    {
+        String xsl = XSL_START + "A:" + XSL_END;
+        Templates templates = getTemplates(xsl);
+
+        Assert.assertEquals("A:x", transform(templates, "<a>x</a>"));
+        Assert.assertSame(templates, getTemplates(new String(xsl)));
+        Assert.assertNotSame(templates, getTemplates(XSL_START + "B:" + XSL_END));
+    }
+
+    @Test
+    public void getTemplatesIsCompiledAgainWhenModified() throws Exception
+    {
+        Templates templates = getTemplates(XSL_START + "A:" + XSL_END);
+        Assert.assertEquals("A:x", transform(templates, "<a>x</a>"));
+
+        Templates newTemplates = getTemplates(XSL_START + "B:" + XSL_END);
+        Assert.assertNotSame(templates, newTemplates);
+        Assert.assertEquals("B:x", transform(newTemplates, "<a>x</a>"));
+
+        // The encoding is taken from the XML declaration
+        Templates latin1Templates = this.cache.getTemplates(IOUtils.toInputStream(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>" + XSL_START + "\u00e9:" + XSL_END, "ISO-8859-1"));
+        Assert.assertEquals("\u00e9:x", transform(latin1Templates, "<a>x</a>"));
+    }
+
+    @Test
+    public void chainTransformations() throws Exception
+    {
+        Templates first = getTemplates("<xsl:stylesheet version='1.0' "
+            + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform'><xsl:template match='/'>"
+            + "<b><xsl:value-of select='.'/>1</b></xsl:template></xsl:stylesheet>");
+        Templates second = getTemplates(XSL_START + "2:" + XSL_END);
+
+        StringWriter output = new StringWriter();
+        TransformerHandler handler = this.cache.newTransformerHandler(second);
+        handler.setResult(new StreamResult(output));
+        first.newTransformer().transform(new StreamSource(new StringReader("<a>x</a>")), new SAXResult(handler));
+
+        Assert.assertEquals("2:x1", output.toString());
+    }
+}
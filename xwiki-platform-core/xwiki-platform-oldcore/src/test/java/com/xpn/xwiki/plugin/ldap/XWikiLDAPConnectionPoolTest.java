@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.novell.ldap.LDAPConnection;
+
+/**
+ * Unit tests for {@link XWikiLDAPConnectionPool}.
+ *
+ * @version $Id$
+ */
+public class XWikiLDAPConnectionPoolTest
+{
+    private static final String BIND_DN = "cn=admin,o=xwiki";
+
+    @After
+    public void tearDown()
+    {
+        XWikiLDAPConnectionPool.resetPools();
+    }
+
+    private LDAPConnection mockConnection(boolean alive)
+    {
+        LDAPConnection connection = mock(LDAPConnection.class);
+        when(connection.isConnected()).thenReturn(true);
+        when(connection.isConnectionAlive()).thenReturn(alive);
+
+        return connection;
+    }
+
+    @Test
+    public void acquireIsBounded()
+    {
+        XWikiLDAPConnectionPool pool = new XWikiLDAPConnectionPool(BIND_DN, 2, 60000);
+
+        Assert.assertTrue(pool.acquire(10));
+        Assert.assertTrue(pool.acquire(10));
+        Assert.assertFalse(pool.acquire(10));
+
+        pool.release(null, false);
+        Assert.assertTrue(pool.acquire(10));
+    }
+
+    @Test
+    public void reuseReleasedConnection() throws Exception
+    {
+        XWikiLDAPConnectionPool pool = new XWikiLDAPConnectionPool(BIND_DN, 1, 60000);
+        LDAPConnection connection = mockConnection(true);
+
+        Assert.assertTrue(pool.acquire(10));
+        Assert.assertNull(pool.getIdleConnection());
+        pool.release(connection, true);
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        Assert.assertTrue(pool.acquire(10));
+        Assert.assertSame(connection, pool.getIdleConnection());
+        Assert.assertEquals(0, pool.getIdleCount());
+        verify(connection, never()).disconnect();
+    }
+
+    @Test
+    public void discardDeadAndNotReusableConnections() throws Exception
+    {
+        XWikiLDAPConnectionPool pool = new XWikiLDAPConnectionPool(BIND_DN, 2, 60000);
+        LDAPConnection dead = mockConnection(false);
+        LDAPConnection rebound = mockConnection(true);
+
+        pool.acquire(10);
+        pool.acquire(10);
+        pool.release(dead, true);
+        // Bound with the credentials of a user
+        pool.release(rebound, false);
+        verify(rebound).disconnect();
+
+        pool.acquire(10);
+        Assert.assertNull(pool.getIdleConnection());
+        verify(dead).disconnect();
+    }
+
+    @Test
+    public void closeExpiredConnections() throws Exception
+    {
+        XWikiLDAPConnectionPool pool = new XWikiLDAPConnectionPool(BIND_DN, 1, 1);
+        LDAPConnection connection = mockConnection(true);
+
+        pool.acquire(10);
+        pool.release(connection, true);
+        Thread.sleep(10);
+
+        pool.acquire(10);
+        Assert.assertNull(pool.getIdleConnection());
+        verify(connection).disconnect();
+    }
+
+    @Test
+    public void getPool()
+    {
+        XWikiLDAPConnectionPool pool =
+            XWikiLDAPConnectionPool.getPool("localhost", 389, false, BIND_DN, "pass", 2, 1000);
+
+        Assert.assertSame(pool, XWikiLDAPConnectionPool.getPool("localhost", 389, false, BIND_DN, "pass", 2, 1000));
+        Assert.assertNotSame(pool,
+            XWikiLDAPConnectionPool.getPool("localhost", 389, false, BIND_DN, "other", 2, 1000));
+
+        // The configuration changed
+        XWikiLDAPConnectionPool newPool =
+            XWikiLDAPConnectionPool.getPool("localhost", 389, false, BIND_DN, "pass", 3, 1000);
+        Assert.assertNotSame(pool, newPool);
+
+        // The connections released to the previous pool are closed
+        LDAPConnection connection = mockConnection(true);
+        pool.acquire(10);
+        pool.release(connection, true);
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+}
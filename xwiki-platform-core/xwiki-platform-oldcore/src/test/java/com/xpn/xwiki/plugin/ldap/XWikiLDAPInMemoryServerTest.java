@@ -0,0 +1,317 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.novell.ldap.LDAPConnection;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSimpleBindRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.test.MockitoOldcoreRule;
+
+/**
+ * Run the connection pool, the paged searches and the refresh of the groups cache against an in-memory LDAP server.
+ *
+ * @version $Id$
+ */
+// We need to register all components because the groups are cached and refreshed with a new execution context.
+@AllComponents
+public class XWikiLDAPInMemoryServerTest
+{
+    private static final String BASE_DN = "o=xwiki";
+
+    private static final String PEOPLE_DN = "ou=people," + BASE_DN;
+
+    private static final String GROUPS_DN = "ou=groups," + BASE_DN;
+
+    private static final String PARENT_GROUP_DN = "cn=parent," + GROUPS_DN;
+
+    private static final String CHILD_GROUP_DN = "cn=child," + GROUPS_DN;
+
+    private static final String BIND_DN = "cn=admin," + BASE_DN;
+
+    private static final String BIND_PASSWORD = "secret";
+
+    /**
+     * The number of entries requested in each page of results.
+     */
+    private static final int PAGE_SIZE = 10;
+
+    /**
+     * More users than the page size so that they are read in 3 pages.
+     */
+    private static final int USER_COUNT = 25;
+
+    /**
+     * The number of milliseconds to wait for something happening in another thread.
+     */
+    private static final long TIMEOUT = 10000;
+
+    private MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    @Rule
+    public MockitoOldcoreRule oldcore = new MockitoOldcoreRule(this.componentManager);
+
+    private InMemoryDirectoryServer server;
+
+    private final AtomicInteger binds = new AtomicInteger();
+
+    private final AtomicInteger pagedSearches = new AtomicInteger();
+
+    private XWikiContext context;
+
+    private static String getUserDN(int index)
+    {
+        return "uid=user" + index + "," + PEOPLE_DN;
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        XWikiLDAPConnectionPool.resetPools();
+        XWikiLDAPUtils.resetGroupCache();
+
+        // Use a fixed port so that the server can be restarted on the same port
+        int port;
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            port = socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        config.addAdditionalBindCredentials(BIND_DN, BIND_PASSWORD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", port));
+        config.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor()
+        {
+            @Override
+            public void processSimpleBindRequest(InMemoryInterceptedSimpleBindRequest request)
+            {
+                binds.incrementAndGet();
+            }
+
+            @Override
+            public void processSearchRequest(InMemoryInterceptedSearchRequest request)
+            {
+                if (request.getRequest().hasControl(SimplePagedResultsControl.PAGED_RESULTS_OID)) {
+                    pagedSearches.incrementAndGet();
+                }
+            }
+        });
+
+        this.server = new InMemoryDirectoryServer(config);
+        this.server.add("dn: " + BASE_DN, "objectClass: organization", "o: xwiki");
+        this.server.add("dn: " + PEOPLE_DN, "objectClass: organizationalUnit", "ou: people");
+        this.server.add("dn: " + GROUPS_DN, "objectClass: organizationalUnit", "ou: groups");
+        for (int i = 0; i < USER_COUNT; i++) {
+            this.server.add("dn: " + getUserDN(i), "objectClass: inetOrgPerson", "uid: user" + i, "cn: User " + i,
+                "sn: User");
+        }
+        this.server.add("dn: " + CHILD_GROUP_DN, "objectClass: groupOfUniqueNames", "cn: child",
+            "uniqueMember: " + getUserDN(1));
+        this.server.add("dn: " + PARENT_GROUP_DN, "objectClass: groupOfUniqueNames", "cn: parent",
+            "uniqueMember: " + getUserDN(0), "uniqueMember: " + CHILD_GROUP_DN);
+        this.server.startListening();
+
+        this.context = this.oldcore.getXWikiContext();
+
+        // The configuration is read from xwiki.cfg since the mocked wiki has no preferences. The background refresh
+        // uses its own context.
+        XWiki xwiki = this.oldcore.getMockXWiki();
+        when(xwiki.Param("xwiki.authentication.ldap.server")).thenReturn("localhost");
+        when(xwiki.getXWikiPreferenceAsInt(eq("ldap_port"), any(XWikiContext.class))).thenReturn(port);
+        when(xwiki.Param("xwiki.authentication.ldap.bind_DN")).thenReturn(BIND_DN);
+        when(xwiki.Param("xwiki.authentication.ldap.bind_pass")).thenReturn(BIND_PASSWORD);
+        when(xwiki.Param("xwiki.authentication.ldap.search_pagesize")).thenReturn(String.valueOf(PAGE_SIZE));
+        // The cached groups are outdated right away
+        when(xwiki.getXWikiPreferenceAsInt(eq("ldap_groupcache_expiration"), any(XWikiContext.class)))
+            .thenReturn(0);
+    }
+
+    @After
+    public void tearDown()
+    {
+        XWikiLDAPConnectionPool.resetPools();
+        XWikiLDAPUtils.resetGroupCache();
+
+        this.server.shutDown(true);
+    }
+
+    private XWikiLDAPConnection open() throws Exception
+    {
+        XWikiLDAPConnection connection = new XWikiLDAPConnection();
+        Assert.assertTrue(connection.open("", "", this.context));
+
+        return connection;
+    }
+
+    private XWikiLDAPUtils createUtils(XWikiLDAPConnection connection)
+    {
+        XWikiLDAPUtils utils = new XWikiLDAPUtils(connection);
+        utils.setBaseDN(BASE_DN);
+        utils.setUidAttributeName("uid");
+
+        return utils;
+    }
+
+    @Test
+    public void reusePooledConnection() throws Exception
+    {
+        XWikiLDAPConnection connection = open();
+        LDAPConnection ldapConnection = connection.getConnection();
+        connection.close();
+
+        connection = open();
+        try {
+            Assert.assertSame(ldapConnection, connection.getConnection());
+            Assert.assertNotNull(connection.searchLDAP(getUserDN(0), null, null, LDAPConnection.SCOPE_BASE));
+        } finally {
+            connection.close();
+        }
+
+        Assert.assertEquals(1, this.binds.get());
+    }
+
+    @Test
+    public void replaceConnectionClosedByServer() throws Exception
+    {
+        XWikiLDAPConnection connection = open();
+        LDAPConnection ldapConnection = connection.getConnection();
+        connection.close();
+
+        this.server.shutDown(true);
+        // The client notices in the background that the server closed the connection
+        long limit = System.currentTimeMillis() + TIMEOUT;
+        while (ldapConnection.isConnected() && System.currentTimeMillis() < limit) {
+            Thread.sleep(10);
+        }
+        this.server.startListening();
+
+        connection = open();
+        try {
+            Assert.assertNotSame(ldapConnection, connection.getConnection());
+            Assert.assertNotNull(connection.searchLDAP(getUserDN(0), null, null, LDAPConnection.SCOPE_BASE));
+        } finally {
+            connection.close();
+        }
+
+        Assert.assertEquals(2, this.binds.get());
+    }
+
+    @Test
+    public void searchPaged() throws Exception
+    {
+        XWikiLDAPConnection connection = open();
+        int count = 0;
+        try {
+            XWikiLDAPPagedSearch search = connection.searchPaged(PEOPLE_DN, "(objectClass=inetOrgPerson)",
+                new String[] {"uid"}, LDAPConnection.SCOPE_ONE);
+            try {
+                while (search.next() != null) {
+                    count++;
+                }
+            } finally {
+                search.abandon();
+            }
+        } finally {
+            connection.close();
+        }
+
+        Assert.assertEquals(USER_COUNT, count);
+        Assert.assertEquals(3, this.pagedSearches.get());
+    }
+
+    @Test
+    public void getMembersOfGroupLargerThanPage() throws Exception
+    {
+        XWikiLDAPConnection connection = open();
+        try {
+            // All the users of an organization unit
+            Map<String, String> members = createUtils(connection).getGroupMembers(PEOPLE_DN, this.context);
+
+            Assert.assertEquals(USER_COUNT, members.size());
+            Assert.assertEquals("user" + (USER_COUNT - 1), members.get(getUserDN(USER_COUNT - 1)));
+        } finally {
+            connection.close();
+        }
+
+        // The organization unit and the users
+        Assert.assertEquals(3, this.pagedSearches.get());
+    }
+
+    @Test
+    public void refreshNestedGroupInBackground() throws Exception
+    {
+        XWikiLDAPConnection connection = open();
+        try {
+            XWikiLDAPUtils utils = createUtils(connection);
+
+            Map<String, String> members = utils.getGroupMembers(PARENT_GROUP_DN, this.context);
+            Assert.assertEquals(2, members.size());
+            Assert.assertEquals("user1", members.get(getUserDN(1)));
+
+            this.server.modify(CHILD_GROUP_DN, new Modification(ModificationType.ADD, "uniqueMember",
+                getUserDN(2)));
+            Thread.sleep(10);
+
+            // The outdated members are returned while the group is read again in the background
+            Assert.assertEquals(2, utils.getGroupMembers(PARENT_GROUP_DN, this.context).size());
+
+            Cache<Map<String, String>> cache =
+                utils.getGroupCache(XWikiLDAPUtils.getGroupCacheConfiguration(this.context), this.context);
+            long limit = System.currentTimeMillis() + TIMEOUT;
+            members = cache.get(PARENT_GROUP_DN);
+            while (members.size() < 3 && System.currentTimeMillis() < limit) {
+                Thread.sleep(10);
+                members = cache.get(PARENT_GROUP_DN);
+            }
+
+            Assert.assertEquals(3, members.size());
+            Assert.assertEquals("user2", members.get(getUserDN(2)));
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.novell.ldap.LDAPControl;
+
+/**
+ * Unit tests for {@link XWikiLDAPPagedSearch}.
+ *
+ * @version $Id$
+ */
+public class XWikiLDAPPagedSearchTest
+{
+    @Test
+    public void createControlAndGetCookie()
+    {
+        byte[] cookie = new byte[] {1, 2, 3};
+        LDAPControl control = XWikiLDAPPagedSearch.createControl(500, cookie);
+
+        Assert.assertEquals(XWikiLDAPPagedSearch.PAGED_RESULTS_OID, control.getID());
+        Assert.assertFalse(control.isCritical());
+        Assert.assertArrayEquals(cookie, XWikiLDAPPagedSearch.getCookie(new LDAPControl[] {control}));
+
+        LDAPControl lastPage = XWikiLDAPPagedSearch.createControl(0, new byte[0]);
+        Assert.assertEquals(0, XWikiLDAPPagedSearch.getCookie(new LDAPControl[] {lastPage}).length);
+    }
+
+    @Test
+    public void getCookieWithoutPagingControl()
+    {
+        Assert.assertNull(XWikiLDAPPagedSearch.getCookie(null));
+        LDAPControl otherControl = new LDAPControl("1.2.3", false, new byte[0]);
+        Assert.assertNull(XWikiLDAPPagedSearch.getCookie(new LDAPControl[] {otherControl}));
+    }
+}
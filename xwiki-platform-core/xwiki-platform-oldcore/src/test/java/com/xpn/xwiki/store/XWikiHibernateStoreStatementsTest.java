@@ -0,0 +1,193 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import static org.junit.Assert.*;
+
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiConfig;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.test.MockitoOldcoreRule;
+
+/**
+ * Counts the statements sent to an in-memory HSQLDB database by {@link XWikiHibernateStore} when saving a document
+ * holding many objects after modifying one of them.
+ *
+ * @version $Id$
+ */
+// We need to register all components because we use XWikiDocument and the Hibernate store.
+@AllComponents
+public class XWikiHibernateStoreStatementsTest
+{
+    /**
+     * The number of objects of the saved document.
+     */
+    private static final int OBJECT_COUNT = 50;
+
+    /**
+     * The number of properties of each object.
+     */
+    private static final int PROPERTY_COUNT = 5;
+
+    /**
+     * The number of queries and updates made when all the objects are written: the document, each object and each
+     * property.
+     */
+    private static final int FULL_SAVE_COUNT = 1 + OBJECT_COUNT * (1 + PROPERTY_COUNT);
+
+    /**
+     * The class of the objects.
+     */
+    private static final DocumentReference CLASS_REFERENCE = new DocumentReference("xwiki", "Space", "Class");
+
+    private MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    @Rule
+    public MockitoOldcoreRule oldcore = new MockitoOldcoreRule(this.componentManager);
+
+    private XWikiContext context;
+
+    private XWikiHibernateStore store;
+
+    private XWikiDocument document;
+
+    private Statistics statistics;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.context = this.oldcore.getXWikiContext();
+
+        XWikiConfig config = new XWikiConfig();
+        config.setProperty("xwiki.store.hibernate.path", "hibernate.cfg.xml");
+        // Only the statements of the document and its objects are counted
+        config.setProperty("xwiki.store.versioning", "0");
+        config.setProperty("xwiki.backlinks", "0");
+        XWiki xwiki = new XWiki();
+        xwiki.setConfig(config);
+        this.context.setWiki(xwiki);
+
+        this.store = this.componentManager.getInstance(XWikiStoreInterface.class, "hibernate");
+
+        BaseClass xclass = new BaseClass();
+        xclass.setDocumentReference(CLASS_REFERENCE);
+        this.context.addBaseClass(xclass);
+
+        this.document = new XWikiDocument(new DocumentReference("xwiki", "Space", "Page"));
+        for (int i = 0; i < OBJECT_COUNT; i++) {
+            BaseObject object = new BaseObject();
+            object.setXClassReference(CLASS_REFERENCE);
+            for (int j = 0; j < PROPERTY_COUNT; j++) {
+                object.setStringValue("property" + j, "value" + i);
+            }
+            this.document.addXObject(object);
+        }
+
+        // Create the database and the document
+        this.store.saveXWikiDoc(this.document, this.context);
+
+        this.statistics = this.store.getSessionFactory().getStatistics();
+        this.statistics.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Drops the in-memory database
+        this.store.shutdownHibernate(this.context);
+    }
+
+    /**
+     * Modify one property of one object and save the document.
+     *
+     * @return the number of statements prepared while saving the document
+     */
+    private long saveWithOneModifiedObject() throws Exception
+    {
+        this.document.getXObjects(CLASS_REFERENCE).get(OBJECT_COUNT / 2).setStringValue("property0", "modified");
+
+        this.store.saveXWikiDoc(this.document, this.context);
+
+        return this.statistics.getPrepareStatementCount();
+    }
+
+    @Test
+    public void saveWritesOnlyTheModifiedProperty() throws Exception
+    {
+        long statements = saveWithOneModifiedObject();
+
+        // Only the stored version of the document is queried
+        assertEquals(1, this.statistics.getQueryExecutionCount());
+        // Only the document and the modified property are written
+        assertEquals(2, this.statistics.getEntityUpdateCount());
+        assertEquals(0, this.statistics.getEntityInsertCount());
+        assertEquals(0, this.statistics.getEntityDeleteCount());
+        // The version query, the document row and the two rows of the string property
+        assertTrue("Prepared statements: " + statements, statements <= 4);
+    }
+
+    @Test
+    public void saveWritesAllObjectsWhenTheirStoredStateIsUnknown() throws Exception
+    {
+        // This is how all the documents were saved before objects were written incrementally
+        for (BaseObject object : this.document.getXObjects(CLASS_REFERENCE)) {
+            object.resetPersisted();
+        }
+
+        long statements = saveWithOneModifiedObject();
+
+        // The existence of each object and each property is queried and they are all written again
+        assertEquals(FULL_SAVE_COUNT, this.statistics.getQueryExecutionCount());
+        assertEquals(FULL_SAVE_COUNT, this.statistics.getEntityUpdateCount());
+        assertEquals(0, this.statistics.getEntityInsertCount());
+        assertEquals(0, this.statistics.getEntityDeleteCount());
+        // At least one statement for each query, plus the updates
+        assertTrue("Prepared statements: " + statements, statements > FULL_SAVE_COUNT);
+    }
+
+    @Test
+    public void saveAfterAFullSaveWritesOnlyTheModifiedProperty() throws Exception
+    {
+        for (BaseObject object : this.document.getXObjects(CLASS_REFERENCE)) {
+            object.resetPersisted();
+        }
+        saveWithOneModifiedObject();
+        this.statistics.clear();
+
+        // The full save remembered what is stored so the next one is incremental again
+        this.document.getXObjects(CLASS_REFERENCE).get(0).setStringValue("property1", "modified");
+        this.store.saveXWikiDoc(this.document, this.context);
+
+        assertEquals(1, this.statistics.getQueryExecutionCount());
+        assertEquals(2, this.statistics.getEntityUpdateCount());
+    }
+}
@@ -25,10 +25,16 @@
 
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
 import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
@@ -41,15 +47,23 @@
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.xwiki.bridge.event.ActionExecutingEvent;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.ObservationManager;
+import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.doc.XWikiLink;
+import com.xpn.xwiki.internal.store.BacklinksCache;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
 import com.xpn.xwiki.objects.DoubleProperty;
 import com.xpn.xwiki.objects.IntegerProperty;
+import com.xpn.xwiki.objects.StringProperty;
 import com.xpn.xwiki.objects.classes.BaseClass;
 import com.xpn.xwiki.objects.classes.NumberClass;
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
@@ -254,4 +268,196 @@ public void createHibernateSequenceIfRequired() throws Exception
         verify(session).createSQLQuery("create sequence schema.hibernate_sequence");
         verify(sqlQuery).executeUpdate();
     }
+
+    @Test
+    public void saveLinksOnlyWritesTheDifference() throws Exception
+    {
+        when(context.getDatabase()).thenReturn("wiki");
+
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getId()).thenReturn(1L);
+        when(document.getSyntax()).thenReturn(Syntax.XWIKI_2_0);
+        XWikiLink addedLink = new XWikiLink(1L, "Space.Added", "Space.Page");
+        XWikiLink keptLink = new XWikiLink(1L, "Space.Kept", "Space.Page");
+        when(document.getUniqueWikiLinkedPages(context)).thenReturn(
+            new LinkedHashSet<XWikiLink>(Arrays.asList(addedLink, keptLink)));
+
+        XWikiLink storedKeptLink = new XWikiLink(1L, "Space.Kept", "Space.Page");
+        XWikiLink removedLink = new XWikiLink(1L, "Space.Removed", "Space.Page");
+        Query query = mock(Query.class);
+        when(session.createQuery("from XWikiLink as link where link.id.docId = :docId")).thenReturn(query);
+        when(query.list()).thenReturn(Arrays.asList(storedKeptLink, removedLink));
+
+        store.saveLinks(document, context, true);
+
+        verify(session).save(addedLink);
+        verify(session).delete(removedLink);
+        verify(session, never()).save(keptLink);
+        verify(session, never()).delete(storedKeptLink);
+        verify(transaction).commit();
+
+        BacklinksCache backlinksCache = mocker.getInstance(BacklinksCache.class);
+        verify(backlinksCache).remove("wiki", new HashSet<String>(Arrays.asList("Space.Added", "Space.Removed")));
+    }
+
+    @Test
+    public void loadBacklinksFromCache() throws Exception
+    {
+        when(context.getDatabase()).thenReturn("wiki");
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+        List<DocumentReference> backlinks =
+            Collections.singletonList(new DocumentReference("wiki", "Space", "Other"));
+
+        EntityReferenceSerializer<String> localSerializer =
+            mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localSerializer.serialize(documentReference)).thenReturn("Space.Page");
+        BacklinksCache backlinksCache = mocker.getInstance(BacklinksCache.class);
+        when(backlinksCache.get("wiki", "Space.Page")).thenReturn(backlinks);
+
+        assertEquals(backlinks, store.loadBacklinks(documentReference, true, context));
+
+        verify(session, never()).createQuery(anyString());
+    }
+
+    @Test
+    public void saveLinksInCallerTransactionRemovesBacklinksOnCommit() throws Exception
+    {
+        when(context.getDatabase()).thenReturn("wiki");
+        when(context.get("hibsession")).thenReturn(session);
+        when(context.get("hibtransaction")).thenReturn(transaction);
+
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getId()).thenReturn(1L);
+        when(document.getSyntax()).thenReturn(Syntax.XWIKI_2_0);
+        when(document.getUniqueWikiLinkedPages(context)).thenReturn(
+            new LinkedHashSet<XWikiLink>(Arrays.asList(new XWikiLink(1L, "Space.Added", "Space.Page"))));
+        Query query = mock(Query.class);
+        when(session.createQuery("from XWikiLink as link where link.id.docId = :docId")).thenReturn(query);
+        when(query.list()).thenReturn(Collections.emptyList());
+
+        store.saveLinks(document, context, false);
+
+        // The transaction belongs to the caller: the backlinks must not be removed before it's committed
+        BacklinksCache backlinksCache = mocker.getInstance(BacklinksCache.class);
+        verify(backlinksCache, never()).remove(anyString(), anyCollectionOf(String.class));
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(transaction).registerSynchronization(synchronization.capture());
+
+        synchronization.getValue().afterCompletion(Status.STATUS_ROLLEDBACK);
+        verify(backlinksCache, never()).remove(anyString(), anyCollectionOf(String.class));
+
+        synchronization.getValue().afterCompletion(Status.STATUS_COMMITTED);
+        verify(backlinksCache).remove("wiki", Collections.singleton("Space.Added"));
+    }
+
+    @Test
+    public void loadBacklinksCachesWithTheVersionReadBeforeTheQuery() throws Exception
+    {
+        when(context.getDatabase()).thenReturn("wiki");
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+
+        EntityReferenceSerializer<String> localSerializer =
+            mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localSerializer.serialize(documentReference)).thenReturn("Space.Page");
+        BacklinksCache backlinksCache = mocker.getInstance(BacklinksCache.class);
+        when(backlinksCache.getVersion()).thenReturn(3L);
+
+        Query query = mock(Query.class);
+        when(session.createQuery(
+            "select backlink.fullName from XWikiLink as backlink where backlink.id.link = :backlink")).thenReturn(
+            query);
+        when(query.list()).thenReturn(Collections.emptyList());
+
+        store.loadBacklinks(documentReference, true, context);
+
+        InOrder inOrder = inOrder(backlinksCache, query);
+        inOrder.verify(backlinksCache).getVersion();
+        inOrder.verify(query).list();
+        inOrder.verify(backlinksCache).set("wiki", "Space.Page", Collections.<DocumentReference> emptyList(), 3L);
+    }
+
+    /**
+     * Save a document holding an object which is known to be stored.
+     * 
+     * @param loadedVersion the version of the document when it has been loaded
+     * @param storedVersion the version of the document currently stored
+     * @param object the object of the document
+     * @return the query checking if the object is stored
+     */
+    private Query saveDocumentWithStoredObject(String loadedVersion, String storedVersion, BaseObject object)
+        throws Exception
+    {
+        when(context.getDatabase()).thenReturn("wiki");
+
+        DocumentReference classReference = new DocumentReference("wiki", "Space", "Class");
+        when(object.getXClassReference()).thenReturn(classReference);
+        when(object.getId()).thenReturn(2L);
+        when(object.getGuid()).thenReturn("guid");
+        when(object.isPersisted("wiki")).thenReturn(true);
+
+        XWikiDocument originalDocument = mock(XWikiDocument.class, "original");
+        when(originalDocument.getVersion()).thenReturn(loadedVersion);
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getId()).thenReturn(1L);
+        when(document.getOriginalDocument()).thenReturn(originalDocument);
+        when(document.hasElement(XWikiDocument.HAS_OBJECTS)).thenReturn(true);
+        when(document.getXObjects()).thenReturn(
+            Collections.singletonMap(classReference, Collections.singletonList(object)));
+
+        Query documentQuery = mock(Query.class, "document");
+        when(session.createQuery("select xwikidoc.version from XWikiDocument as xwikidoc where xwikidoc.id = :id"))
+            .thenReturn(documentQuery);
+        when(documentQuery.uniqueResult()).thenReturn(storedVersion);
+        Query objectQuery = mock(Query.class, "object");
+        when(session.createQuery("select obj.id from BaseObject as obj where obj.id = :id")).thenReturn(objectQuery);
+        when(objectQuery.uniqueResult()).thenReturn(2L);
+
+        store.saveXWikiDoc(document, context);
+
+        return objectQuery;
+    }
+
+    @Test
+    public void saveXWikiDocSkipsUnchangedObjects() throws Exception
+    {
+        BaseObject object = mock(BaseObject.class);
+
+        saveDocumentWithStoredObject("1.1", "1.1", object);
+
+        verify(session, never()).createQuery("select obj.id from BaseObject as obj where obj.id = :id");
+        verify(session, never()).update("com.xpn.xwiki.objects.BaseObject", object);
+        verify(object).setPersisted("wiki");
+    }
+
+    @Test
+    public void saveXWikiDocRewritesObjectsWhenTheDocumentWasSavedConcurrently() throws Exception
+    {
+        BaseObject object = mock(BaseObject.class);
+
+        // The document has been saved by someone else since it has been loaded
+        Query objectQuery = saveDocumentWithStoredObject("1.1", "1.2", object);
+
+        verify(objectQuery).uniqueResult();
+        verify(session).update("com.xpn.xwiki.objects.BaseObject", object);
+    }
+
+    @Test
+    public void saveXWikiDocUpdatesPropertyRemovedAndAddedAgain() throws Exception
+    {
+        BaseObject object = mock(BaseObject.class);
+        StringProperty removedProperty = mock(StringProperty.class, "removed");
+        when(removedProperty.getName()).thenReturn("prop");
+        StringProperty property = mock(StringProperty.class);
+        when(property.getName()).thenReturn("prop");
+        when(object.getFieldsToRemove()).thenReturn(new ArrayList<BaseProperty>(Arrays.asList(removedProperty)));
+        when(object.getPropertyList()).thenReturn(Collections.singleton("prop"));
+        when(object.getField("prop")).thenReturn(property);
+        when(object.isPersisted("wiki", property)).thenReturn(true);
+
+        saveDocumentWithStoredObject("1.1", "1.1", object);
+
+        // The row of the property is updated, not deleted and updated
+        verify(session, never()).delete(removedProperty);
+        verify(session).update(property);
+    }
 }
@@ -22,7 +22,12 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -99,6 +104,10 @@ protected List<DataMigration> getAllMigrations()
 
         XWikiDBVersion curversion;
 
+        Map<String, XWikiDBVersion> versions = new ConcurrentHashMap<String, XWikiDBVersion>();
+
+        Map<String, Object> sessions = new ConcurrentHashMap<String, Object>();
+
         @Override
         protected void initializeEmptyDB() throws DataMigrationException
         {
@@ -108,14 +117,23 @@ protected void initializeEmptyDB() throws DataMigrationException
         protected void setDBVersionToDatabase(XWikiDBVersion version)
         {
             this.curversion = version;
+            this.versions.put(getXWikiContext().getDatabase(), version);
         }
 
         @Override
         protected void updateSchema(Collection<XWikiMigration> migrations)
         {
+            // Open a session the way the store does when there's none in the context
+            XWikiContext context = getXWikiContext();
+            if (context.get("hibsession") == null) {
+                context.put("hibsession", new Object());
+            }
+            this.sessions.put(context.getDatabase(), context.get("hibsession"));
         }
     }
 
+    private List<String> wikis = Arrays.asList("xwiki");
+
     private void registerComponent(Class<?> klass) throws Exception
     {
         ComponentAnnotationLoader loader = new ComponentAnnotationLoader();
@@ -135,7 +153,7 @@ protected void setUp() throws Exception
             @Override
             public List<String> getVirtualWikisDatabaseNames(XWikiContext context) throws XWikiException
             {
-                return Arrays.asList("xwiki");
+                return wikis;
             }
         });
         getContext().getWiki().setConfig(config);
@@ -154,6 +172,48 @@ public void testMigrationWhenNoVersion() throws Exception
         assertEquals(456, mm.curversion.getVersion());
     }
 
+    /** test "xwiki.store.migration.threads" parameter */
+    public void testConcurrentMigrations() throws Exception
+    {
+        this.wikis = Arrays.asList("xwiki", "wiki1", "wiki2", "wiki3", "wiki4");
+        getContext().getWiki().getConfig().setProperty("xwiki.store.migration.threads", "2");
+        String database = getContext().getDatabase();
+
+        TestDataMigrationManager mm = (TestDataMigrationManager) getComponentManager().getInstance(
+            DataMigrationManager.class,"TestDataMigration");
+        mm.startMigrations();
+
+        assertEquals(database, getContext().getDatabase());
+        assertEquals(this.wikis.size(), mm.versions.size());
+        for (String wiki : this.wikis) {
+            assertEquals(456, mm.versions.get(wiki).getVersion());
+            getContext().setDatabase(wiki);
+            assertEquals(456, mm.getDBVersion().getVersion());
+        }
+    }
+
+    /** each database migrated concurrently has to use its own store session */
+    public void testConcurrentMigrationsUseTheirOwnSession() throws Exception
+    {
+        this.wikis = Arrays.asList("xwiki", "wiki1", "wiki2", "wiki3", "wiki4");
+        getContext().getWiki().getConfig().setProperty("xwiki.store.migration.threads", "2");
+        Object callerSession = new Object();
+        getContext().put("hibsession", callerSession);
+        getContext().put("hibtransaction", new Object());
+
+        TestDataMigrationManager mm = (TestDataMigrationManager) getComponentManager().getInstance(
+            DataMigrationManager.class, "TestDataMigration");
+        mm.startMigrations();
+
+        assertSame(callerSession, getContext().get("hibsession"));
+        assertSame(callerSession, mm.sessions.get("xwiki"));
+        Set<Object> workerSessions = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (String wiki : this.wikis.subList(1, this.wikis.size())) {
+            assertNotSame(callerSession, mm.sessions.get(wiki));
+            assertTrue(workerSessions.add(mm.sessions.get(wiki)));
+        }
+    }
+
     /**
      * test parameters "xwiki.store.migration.version", "xwiki.store.migration.ignored" and migrations order
      */
@@ -89,6 +89,27 @@ public void testCreateAttachmentURL() throws Exception
         assertEquals(new URL("file://attachment/x.%20Space%20.Pa%20ge.img%20.jpg"), url);
     }
 
+    /**
+     * Test that an attachment referenced by several exported pages is copied only once in the export directory.
+     */
+    public void testCreateAttachmentURLCopiesAttachmentOnce() throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(new DocumentReference("xwiki", "Space", "Page"));
+        XWikiAttachment attachment = new XWikiAttachment(doc, "image.png");
+        attachment.setContent(new ByteArrayInputStream("test".getBytes()));
+        doc.getAttachmentList().add(attachment);
+        this.mockXWiki.expects(once()).method("getDocument").will(returnValue(doc));
+
+        URL url = this.urlFactory.createAttachmentURL("image.png", "Space", "Page", "view", "", "x", getContext());
+        File file = new File(this.tmpDir, "attachment/x.Space.Page.image.png");
+        assertEquals("test", FileUtils.readFileToString(file));
+
+        // The attachment is not copied again for the next pages referencing it
+        file.delete();
+        assertEquals(url,
+            this.urlFactory.createAttachmentURL("image.png", "Space", "Page", "view", "", "x", getContext()));
+    }
+
     /** When the test is over, delete the folder where the exported attachments were placed. */
     @Override
     protected void tearDown() throws Exception
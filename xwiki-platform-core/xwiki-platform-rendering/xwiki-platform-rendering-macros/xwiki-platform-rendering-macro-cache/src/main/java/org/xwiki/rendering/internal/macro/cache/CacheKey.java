@@ -20,15 +20,19 @@
 package org.xwiki.rendering.internal.macro.cache;
 
 /**
- * Key to recognize a given Cache. We need to have several caches since currently there's one cache per 
- * timeToLive/maxEntry combination. This is because currently we cannot set these configuration values at the cache
- * entry level but only for the whole cache.
+ * Key of a cached content. Contents cached with different timeToLive/maxEntries parameters are cached separately, even
+ * when they have the same id.
  *
  * @version $Id$ 
  * @since 3.3M1
  */
 public class CacheKey
 {
+    /**
+     * @see #getId()
+     */
+    private String id;
+
     /**
      * @see #getTimeToLive()
      */
@@ -40,15 +44,27 @@
     private int maxEntries;
 
     /**
+     * @param id see {@link #getId()}
      * @param timeToLive see {@link #getTimeToLive()}
      * @param maxEntries see {@link #getMaxEntries()}
+     * @since 5.3M1
      */
-    public CacheKey(int timeToLive, int maxEntries)
+    public CacheKey(String id, int timeToLive, int maxEntries)
     {
+        this.id = id;
         this.timeToLive = timeToLive;
         this.maxEntries = maxEntries;
     }
 
+    /**
+     * @return the hash of the id of the cached content (or of the macro content when no id is specified)
+     * @since 5.3M1
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
     /**
      * @return the number of seconds to cache the content
      */
@@ -65,6 +81,16 @@ public int getMaxEntries()
         return this.maxEntries;
     }
 
+    /**
+     * @param cacheKey the key to compare with
+     * @return true if both keys have the same timeToLive and maxEntries parameters
+     * @since 5.3M1
+     */
+    public boolean isSameCache(CacheKey cacheKey)
+    {
+        return getTimeToLive() == cacheKey.getTimeToLive() && getMaxEntries() == cacheKey.getMaxEntries();
+    }
+
     @Override
     public boolean equals(Object object)
     {
@@ -77,9 +103,9 @@ public boolean equals(Object object)
             if ((object == null) || (object.getClass() != this.getClass())) {
                 result = false;
             } else {
-                // object must be Syntax at this point
+                // object must be CacheKey at this point
                 CacheKey cacheKey = (CacheKey) object;
-                result = (getTimeToLive() == cacheKey.getTimeToLive() && getMaxEntries() == cacheKey.getMaxEntries());
+                result = isSameCache(cacheKey) && getId().equals(cacheKey.getId());
             }
         }
         return result;
@@ -91,6 +117,7 @@ public int hashCode()
         // Random number. See http://www.technofundo.com/tech/java/equalhash.html for the detail of this
         // algorithm.
         int hash = 9;
+        hash = 31 * hash + getId().hashCode();
         hash = 31 * hash + getTimeToLive();
         hash = 31 * hash + getMaxEntries();
         return hash;
@@ -19,20 +19,30 @@
  */
 package org.xwiki.rendering.internal.macro.cache;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import org.xwiki.cache.Cache;
-import org.xwiki.cache.CacheException;
-import org.xwiki.cache.CacheManager;
-import org.xwiki.cache.config.CacheConfiguration;
-import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.macro.AbstractMacro;
 import org.xwiki.rendering.macro.MacroContentParser;
@@ -46,6 +56,10 @@
 
 /**
  * Provides Caching for the content of the macro.
+ * <p>
+ * All the cache macros share the same {@link ContentCache}. When several threads need the same missing content at the
+ * same time, only one of them executes it and the others wait for the result. The documents read while executing the
+ * content are remembered so that the content is removed from the cache when one of them is modified.
  * 
  * @version $Id$
  * @since 3.0M1
@@ -66,10 +80,21 @@ public class CacheMacro extends AbstractMacro<CacheMacroParameters>
     private static final String CONTENT_DESCRIPTION = "the content to cache.";
 
     /**
-     * Used to create the macro content cache.
+     * The name of the XWiki context property where the references of the read documents are collected (see
+     * XWikiContext#READ_DOCUMENTS_KEY).
+     */
+    private static final String READ_DOCUMENTS_KEY = "readDocumentReferences";
+
+    /**
+     * The maximum number of seconds to wait for another thread executing the same content before executing it locally.
+     */
+    private static final long WAIT_TIMEOUT = 30;
+
+    /**
+     * The cache shared by all the cache macros.
      */
     @Inject
-    private CacheManager cacheManager;
+    private ContentCache contentCache;
 
     /**
      * The parser used to parse the content (when not cached).
@@ -85,10 +110,16 @@ public class CacheMacro extends AbstractMacro<CacheMacroParameters>
     private BlockRenderer plainTextBlockRenderer;
 
     /**
-     * Map of all caches. There's one cache per timeToLive/maxEntry combination since currently we cannot set these
-     * configuration values at the cache entry level but only for the whole cache.
+     * Used to access the XWiki context where the read documents are collected.
      */
-    private Map<CacheKey, Cache<List<Block>>> contentCacheMap = new ConcurrentHashMap<CacheKey, Cache<List<Block>>>();
+    @Inject
+    private Execution execution;
+
+    /**
+     * The contents being executed, used to make the other threads needing the same content wait for the result.
+     */
+    private final ConcurrentMap<CacheKey, PendingContent> pendingContents =
+        new ConcurrentHashMap<CacheKey, PendingContent>();
 
     /**
      * Create and initialize the descriptor of the macro.
@@ -111,66 +142,230 @@ public List<Block> execute(CacheMacroParameters parameters, String content, Macr
     {
         // Idea for improvement: use context.getId() (which contains the document name) as part of the cache key to
         // make it even more unique (when the cache macro parameter id is not specified).
-        String cacheKey;
+        String id;
         if (parameters.getId() != null) {
             // Consider that the id contains wiki syntax and parse it with the same wiki parser than the current
             // transformation is using and render the result as plain text.
             WikiPrinter printer = new DefaultWikiPrinter();
             this.plainTextBlockRenderer.render(
                 this.contentParser.parse(parameters.getId(), context, true, false), printer);
-            cacheKey = printer.toString();
+            id = printer.toString();
         } else {
-            cacheKey = content;
+            id = content;
+        }
+
+        CacheKey cacheKey = new CacheKey(hash(id), parameters.getTimeToLive(), parameters.getMaxEntries());
+
+        CachedContent cachedContent = getContent(cacheKey, content, context);
+
+        // The content depends on the documents it read, even when it was executed by another macro
+        Collection<DocumentReference> readDocuments = getReadDocuments();
+        if (readDocuments != null) {
+            readDocuments.addAll(cachedContent.getDependencies());
         }
 
-        Cache<List<Block>> contentCache = getContentCache(parameters.getTimeToLive(), parameters.getMaxEntries());
-        List<Block> result = contentCache.get(cacheKey);
-        if (result == null) {
+        return cachedContent.getContent();
+    }
+
+    /**
+     * Get the cached content or execute it, making sure a given content is executed only once at a given time.
+     * 
+     * @param key the key of the content
+     * @param content the content of the macro
+     * @param context the macro transformation context
+     * @return the content
+     * @throws MacroExecutionException when failing to execute the content
+     */
+    private CachedContent getContent(final CacheKey key, final String content,
+        final MacroTransformationContext context) throws MacroExecutionException
+    {
+        CachedContent cachedContent = this.contentCache.get(key);
+        if (cachedContent == null) {
+            PendingContent pendingContent = new PendingContent(new Callable<CachedContent>()
+            {
+                @Override
+                public CachedContent call() throws MacroExecutionException
+                {
+                    return executeContent(key, content, context);
+                }
+            });
+
+            PendingContent currentPendingContent = this.pendingContents.putIfAbsent(key, pendingContent);
+            if (currentPendingContent == null) {
+                try {
+                    // The content might have been cached since the first check
+                    cachedContent = this.contentCache.get(key);
+                    if (cachedContent == null) {
+                        pendingContent.run();
+                        cachedContent = pendingContent.getContent();
+                    }
+                } finally {
+                    this.pendingContents.remove(key, pendingContent);
+                }
+            } else {
+                cachedContent = currentPendingContent.waitForContent();
+                if (cachedContent == null) {
+                    cachedContent = executeContent(key, content, context);
+                }
+            }
+        }
+
+        return cachedContent;
+    }
+
+    /**
+     * Execute the content and cache the result.
+     * 
+     * @param key the key of the content
+     * @param content the content of the macro
+     * @param context the macro transformation context
+     * @return the executed content
+     * @throws MacroExecutionException when failing to execute the content
+     */
+    private CachedContent executeContent(CacheKey key, String content, MacroTransformationContext context)
+        throws MacroExecutionException
+    {
+        Map<Object, Object> xcontext = getXWikiContext();
+
+        // Collect the documents read while executing the content
+        Set<DocumentReference> dependencies = new HashSet<DocumentReference>();
+        Object readDocuments = null;
+        if (xcontext != null) {
+            readDocuments = xcontext.put(READ_DOCUMENTS_KEY, dependencies);
+        }
+
+        try {
             // Run the parser for the syntax on the content
             // We run the current transformation on the cache macro content. We need to do this since we want to cache
             // the XDOM resulting from the execution of Macros because that's where lengthy processing happens.
-            result = this.contentParser.parse(content, context, true, context.isInline()).getChildren();
-            contentCache.set(cacheKey, result);
+            List<Block> result = this.contentParser.parse(content, context, true, context.isInline()).getChildren();
+
+            CachedContent cachedContent = new CachedContent(result, dependencies, key.getTimeToLive());
+            this.contentCache.set(key, cachedContent);
+
+            return cachedContent;
+        } finally {
+            if (xcontext != null) {
+                if (readDocuments != null) {
+                    xcontext.put(READ_DOCUMENTS_KEY, readDocuments);
+                } else {
+                    xcontext.remove(READ_DOCUMENTS_KEY);
+                }
+            }
         }
+    }
+
+    /**
+     * @return the collection where the documents read by the current execution are collected, if any
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<DocumentReference> getReadDocuments()
+    {
+        Map<Object, Object> xcontext = getXWikiContext();
+
+        return xcontext != null ? (Collection<DocumentReference>) xcontext.get(READ_DOCUMENTS_KEY) : null;
+    }
+
+    /**
+     * @return the XWiki context, if any
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> getXWikiContext()
+    {
+        ExecutionContext executionContext = this.execution.getContext();
+
+        return executionContext != null ? (Map<Object, Object>) executionContext.getProperty("xwikicontext") : null;
+    }
+
+    /**
+     * @param id the id of the content
+     * @return a short hash of the id, to not keep the complete content in memory
+     * @throws MacroExecutionException when the hash algorithm is not available
+     */
+    private String hash(String id) throws MacroExecutionException
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(id.getBytes("UTF-8"));
+
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
 
-        return result;
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new MacroExecutionException("Failed to compute the cache key", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new MacroExecutionException("Failed to compute the cache key", e);
+        }
     }
 
     /**
-     * Get a cache matching the passed time to live and max entries.
-     * <p>
-     * Note that whenever a new cache is created it currently means a new thread is used too (since the JBoss cache
-     * used underneath uses a thread for evicting entries from the cache).
-     * We need to modify our xwiki-cache module to allow setting time to live on cache items, see
-     * http://jira.xwiki.org/jira/browse/XWIKI-5907
-     * </p>
-     *
-     * @param timeToLive the number of seconds to cache the content
-     * @param maxEntries the maximum number of entries in the cache (Least Recently Used entries are ejected)
-     * @return the matching cache (a new cache is created if no existing one is found)
-     * @throws MacroExecutionException in case we fail to create the new cache
-     */
-    private Cache<List<Block>> getContentCache(int timeToLive, int maxEntries) throws MacroExecutionException
+     * A content being executed by a thread.
+     */
+    private static final class PendingContent extends FutureTask<CachedContent>
     {
-        CacheKey cacheKey = new CacheKey(timeToLive, maxEntries);
-        Cache<List<Block>> contentCache = this.contentCacheMap.get(cacheKey);
-        if (contentCache == null) {
-            // Create Cache
-            CacheConfiguration configuration = new CacheConfiguration();
+        /**
+         * The thread executing the content.
+         */
+        private final Thread owner = Thread.currentThread();
+
+        /**
+         * @param callable the execution of the content
+         */
+        PendingContent(Callable<CachedContent> callable)
+        {
+            super(callable);
+        }
+
+        /**
+         * @return the executed content
+         * @throws MacroExecutionException when failing to execute the content
+         */
+        CachedContent getContent() throws MacroExecutionException
+        {
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new MacroExecutionException("Interrupted while executing the cache macro content", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof MacroExecutionException) {
+                    throw (MacroExecutionException) e.getCause();
+                } else if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
 
-            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
-            lru.setMaxEntries(maxEntries);
-            lru.setTimeToLive(timeToLive);
-            configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+                throw new MacroExecutionException("Failed to execute the cache macro content", e.getCause());
+            }
+        }
+
+        /**
+         * Wait for another thread to execute the content. The wait is bounded so that a slow or stuck execution
+         * doesn't block all the requests needing the same content.
+         * 
+         * @return the executed content or null if the content should be executed by the current thread
+         */
+        CachedContent waitForContent()
+        {
+            // The content contains itself
+            if (this.owner == Thread.currentThread()) {
+                return null;
+            }
 
             try {
-                contentCache = this.cacheManager.createNewLocalCache(configuration);
-            } catch (CacheException e) {
-                throw new MacroExecutionException("Failed to create content cache", e);
+                return get(WAIT_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // The execution might depend on the current user, try again
+            } catch (TimeoutException e) {
+                // Don't wait any longer, execute the content locally
             }
 
-            this.contentCacheMap.put(cacheKey, contentCache);
+            return null;
         }
-        return contentCache;
     }
 }
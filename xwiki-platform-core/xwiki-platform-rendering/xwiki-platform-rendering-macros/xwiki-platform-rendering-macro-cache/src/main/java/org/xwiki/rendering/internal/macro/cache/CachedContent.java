@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.cache;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.Block;
+
+/**
+ * A content cached by the cache macro, with the documents read when it was computed.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+public class CachedContent
+{
+    /**
+     * @see #getContent()
+     */
+    private final List<Block> content;
+
+    /**
+     * @see #getDependencies()
+     */
+    private final Collection<DocumentReference> dependencies;
+
+    /**
+     * The date (in milliseconds) after which the content is not valid anymore.
+     */
+    private final long expirationDate;
+
+    /**
+     * @see #getWeight()
+     */
+    private final long weight;
+
+    /**
+     * @param content see {@link #getContent()}
+     * @param dependencies see {@link #getDependencies()}
+     * @param timeToLive the number of seconds to cache the content
+     */
+    public CachedContent(List<Block> content, Collection<DocumentReference> dependencies, int timeToLive)
+    {
+        this.content = content;
+        this.dependencies = dependencies;
+        this.expirationDate = System.currentTimeMillis() + timeToLive * 1000L;
+        this.weight = ContentCache.estimateWeight(content);
+    }
+
+    /**
+     * @return the result of the execution of the macro content
+     */
+    public List<Block> getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return the references of the documents read when executing the macro content
+     */
+    public Collection<DocumentReference> getDependencies()
+    {
+        return this.dependencies;
+    }
+
+    /**
+     * @return the estimated memory used by the content
+     */
+    public long getWeight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * @param now the current date in milliseconds
+     * @return true if the content should not be used anymore
+     */
+    public boolean isExpired(long now)
+    {
+        return now >= this.expirationDate;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MacroMarkerBlock;
+import org.xwiki.rendering.block.RawBlock;
+import org.xwiki.rendering.block.VerbatimBlock;
+import org.xwiki.rendering.block.WordBlock;
+
+/**
+ * The cache shared by all the cache macros. The cache is bounded by the estimated size of the cached contents, the
+ * least recently used contents being evicted first. The timeToLive and maxEntries parameters of the cache macro are
+ * applied to each content.
+ * <p>
+ * The contents are also indexed by cache parameters and by dependency so that applying maxEntries and invalidating the
+ * contents of a modified document don't have to go through all the cached contents.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component(roles = ContentCache.class)
+@Singleton
+public class ContentCache
+{
+    /**
+     * The maximum estimated size of the cached contents.
+     */
+    public static final long MAX_WEIGHT = 32L * 1024 * 1024;
+
+    /**
+     * The estimated size of a block, without its text.
+     */
+    private static final int BLOCK_WEIGHT = 128;
+
+    /**
+     * The cached contents, in least recently used order.
+     */
+    private final Map<CacheKey, CachedContent> contents = new LinkedHashMap<CacheKey, CachedContent>(16, 0.75F, true);
+
+    /**
+     * The keys of the cached contents indexed by timeToLive/maxEntries parameters, each in least recently used order.
+     */
+    private final Map<Long, Map<CacheKey, Boolean>> parametersIndex = new HashMap<Long, Map<CacheKey, Boolean>>();
+
+    /**
+     * The keys of the cached contents indexed by the documents they were computed with.
+     */
+    private final Map<DocumentReference, Set<CacheKey>> dependenciesIndex =
+        new HashMap<DocumentReference, Set<CacheKey>>();
+
+    /**
+     * The maximum estimated size of the cached contents.
+     */
+    private final long maxWeight;
+
+    /**
+     * The estimated size of the cached contents.
+     */
+    private long weight;
+
+    /**
+     * Create a cache with the default maximum size.
+     */
+    public ContentCache()
+    {
+        this(MAX_WEIGHT);
+    }
+
+    /**
+     * @param maxWeight the maximum estimated size of the cached contents
+     */
+    public ContentCache(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @param key the key of the content
+     * @return the cached content or null if there is none or if it expired
+     */
+    public synchronized CachedContent get(CacheKey key)
+    {
+        CachedContent content = this.contents.get(key);
+        if (content != null) {
+            if (content.isExpired(System.currentTimeMillis())) {
+                remove(key);
+
+                return null;
+            }
+
+            // Update the least recently used order of the contents with the same parameters
+            this.parametersIndex.get(getParameters(key)).get(key);
+        }
+
+        return content;
+    }
+
+    /**
+     * Add a content to the cache, evicting the least recently used contents when the cache is full.
+     *
+     * @param key the key of the content
+     * @param content the content to cache
+     */
+    public synchronized void set(CacheKey key, CachedContent content)
+    {
+        // Too big to be cached
+        if (content.getWeight() > this.maxWeight) {
+            return;
+        }
+
+        remove(key);
+        evictEntryOfSameCache(key);
+
+        this.contents.put(key, content);
+        this.weight += content.getWeight();
+
+        Long parameters = getParameters(key);
+        Map<CacheKey, Boolean> sameCache = this.parametersIndex.get(parameters);
+        if (sameCache == null) {
+            sameCache = new LinkedHashMap<CacheKey, Boolean>(16, 0.75F, true);
+            this.parametersIndex.put(parameters, sameCache);
+        }
+        sameCache.put(key, Boolean.TRUE);
+
+        for (DocumentReference dependency : content.getDependencies()) {
+            Set<CacheKey> dependents = this.dependenciesIndex.get(dependency);
+            if (dependents == null) {
+                dependents = new HashSet<CacheKey>();
+                this.dependenciesIndex.put(dependency, dependents);
+            }
+            dependents.add(key);
+        }
+
+        while (this.weight > this.maxWeight) {
+            remove(this.contents.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Remove the contents which were computed using the passed document.
+     *
+     * @param reference the reference of the modified document
+     */
+    public synchronized void invalidate(DocumentReference reference)
+    {
+        Set<CacheKey> dependents = this.dependenciesIndex.get(reference);
+        if (dependents != null) {
+            for (CacheKey key : new ArrayList<CacheKey>(dependents)) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached contents
+     */
+    public synchronized int size()
+    {
+        return this.contents.size();
+    }
+
+    /**
+     * @return the estimated size of the cached contents
+     */
+    public synchronized long getWeight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * @param key the key of the content to remove
+     */
+    private void remove(CacheKey key)
+    {
+        CachedContent content = this.contents.remove(key);
+        if (content != null) {
+            this.weight -= content.getWeight();
+
+            Long parameters = getParameters(key);
+            Map<CacheKey, Boolean> sameCache = this.parametersIndex.get(parameters);
+            sameCache.remove(key);
+            if (sameCache.isEmpty()) {
+                this.parametersIndex.remove(parameters);
+            }
+
+            for (DocumentReference dependency : content.getDependencies()) {
+                Set<CacheKey> dependents = this.dependenciesIndex.get(dependency);
+                if (dependents != null) {
+                    dependents.remove(key);
+                    if (dependents.isEmpty()) {
+                        this.dependenciesIndex.remove(dependency);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure there's room for a new content for the timeToLive/maxEntries parameters of the passed key.
+     *
+     * @param key the key of the content to add
+     */
+    private void evictEntryOfSameCache(CacheKey key)
+    {
+        Map<CacheKey, Boolean> sameCache = this.parametersIndex.get(getParameters(key));
+        if (sameCache != null && sameCache.size() >= key.getMaxEntries()) {
+            remove(sameCache.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * @param key the key of a content
+     * @return the timeToLive and maxEntries parameters of the key, combined in a single value
+     */
+    private static Long getParameters(CacheKey key)
+    {
+        return ((long) key.getTimeToLive() << 32) | (key.getMaxEntries() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param blocks the blocks to measure
+     * @return the estimated memory used by the passed blocks
+     */
+    public static long estimateWeight(List<? extends Block> blocks)
+    {
+        long blocksWeight = 0;
+        for (Block block : blocks) {
+            blocksWeight += BLOCK_WEIGHT + 2L * getText(block).length() + estimateWeight(block.getChildren());
+        }
+
+        return blocksWeight;
+    }
+
+    /**
+     * @param block a block
+     * @return the text held by the block
+     */
+    private static String getText(Block block)
+    {
+        String text = null;
+        if (block instanceof WordBlock) {
+            text = ((WordBlock) block).getWord();
+        } else if (block instanceof RawBlock) {
+            text = ((RawBlock) block).getRawContent();
+        } else if (block instanceof VerbatimBlock) {
+            text = ((VerbatimBlock) block).getProtectedString();
+        } else if (block instanceof MacroMarkerBlock) {
+            text = ((MacroMarkerBlock) block).getContent();
+        }
+
+        return text != null ? text : "";
+    }
+}
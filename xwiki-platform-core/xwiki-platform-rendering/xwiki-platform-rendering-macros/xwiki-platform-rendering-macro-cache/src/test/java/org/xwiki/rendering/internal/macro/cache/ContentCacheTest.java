@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.macro.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.WordBlock;
+
+/**
+ * Unit tests for {@link ContentCache}.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+public class ContentCacheTest
+{
+    private static final DocumentReference DOCUMENT = new DocumentReference("wiki", "Space", "Page");
+
+    private CachedContent createContent(String word, int timeToLive, DocumentReference... dependencies)
+    {
+        List<Block> blocks = Arrays.<Block>asList(new ParagraphBlock(Arrays.<Block>asList(new WordBlock(word))));
+
+        return new CachedContent(blocks, Arrays.asList(dependencies), timeToLive);
+    }
+
+    @Test
+    public void estimateWeight()
+    {
+        long wordWeight = ContentCache.estimateWeight(Arrays.<Block>asList(new WordBlock("word")));
+        long paragraphWeight = ContentCache.estimateWeight(
+            Arrays.<Block>asList(new ParagraphBlock(Arrays.<Block>asList(new WordBlock("word")))));
+
+        Assert.assertTrue(wordWeight > ContentCache.estimateWeight(Arrays.<Block>asList(new WordBlock("w"))));
+        Assert.assertTrue(paragraphWeight > wordWeight);
+        Assert.assertEquals(0, ContentCache.estimateWeight(Collections.<Block>emptyList()));
+    }
+
+    @Test
+    public void getAndSet()
+    {
+        ContentCache cache = new ContentCache();
+        CachedContent content = createContent("content", 100);
+
+        Assert.assertNull(cache.get(new CacheKey("id", 100, 10)));
+        cache.set(new CacheKey("id", 100, 10), content);
+
+        Assert.assertSame(content, cache.get(new CacheKey("id", 100, 10)));
+        Assert.assertNull(cache.get(new CacheKey("id", 200, 10)));
+        Assert.assertNull(cache.get(new CacheKey("id", 100, 11)));
+        Assert.assertEquals(content.getWeight(), cache.getWeight());
+    }
+
+    @Test
+    public void expiredContentIsRemoved()
+    {
+        ContentCache cache = new ContentCache();
+        cache.set(new CacheKey("id", 0, 10), createContent("content", 0));
+
+        Assert.assertNull(cache.get(new CacheKey("id", 0, 10)));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void leastRecentlyUsedContentIsEvictedWhenFull()
+    {
+        CachedContent content1 = createContent("content1", 100);
+        CachedContent content2 = createContent("content2", 100);
+        CachedContent content3 = createContent("content3", 100);
+        ContentCache cache = new ContentCache(content1.getWeight() * 2);
+
+        cache.set(new CacheKey("id1", 100, 10), content1);
+        cache.set(new CacheKey("id2", 100, 10), content2);
+        // Use the first content so that the second one becomes the least recently used
+        cache.get(new CacheKey("id1", 100, 10));
+        cache.set(new CacheKey("id3", 100, 10), content3);
+
+        Assert.assertSame(content1, cache.get(new CacheKey("id1", 100, 10)));
+        Assert.assertNull(cache.get(new CacheKey("id2", 100, 10)));
+        Assert.assertSame(content3, cache.get(new CacheKey("id3", 100, 10)));
+        Assert.assertEquals(content1.getWeight() * 2, cache.getWeight());
+    }
+
+    @Test
+    public void maxEntriesIsAppliedPerParameters()
+    {
+        ContentCache cache = new ContentCache();
+
+        cache.set(new CacheKey("id1", 100, 1), createContent("content1", 100));
+        cache.set(new CacheKey("id1", 100, 2), createContent("content1", 100));
+        cache.set(new CacheKey("id2", 100, 1), createContent("content2", 100));
+        cache.set(new CacheKey("id2", 100, 2), createContent("content2", 100));
+
+        Assert.assertNull(cache.get(new CacheKey("id1", 100, 1)));
+        Assert.assertNotNull(cache.get(new CacheKey("id2", 100, 1)));
+        Assert.assertNotNull(cache.get(new CacheKey("id1", 100, 2)));
+        Assert.assertNotNull(cache.get(new CacheKey("id2", 100, 2)));
+    }
+
+    @Test
+    public void invalidate()
+    {
+        ContentCache cache = new ContentCache();
+        cache.set(new CacheKey("id1", 100, 10), createContent("content1", 100, DOCUMENT));
+        cache.set(new CacheKey("id2", 100, 10), createContent("content2", 100));
+
+        cache.invalidate(new DocumentReference("wiki", "Space", "Other"));
+        Assert.assertEquals(2, cache.size());
+
+        cache.invalidate(new DocumentReference("wiki", "Space", "Page"));
+        Assert.assertNull(cache.get(new CacheKey("id1", 100, 10)));
+        Assert.assertNotNull(cache.get(new CacheKey("id2", 100, 10)));
+    }
+
+    @Test
+    public void maxEntriesEvictsLeastRecentlyUsedOfSameParameters()
+    {
+        ContentCache cache = new ContentCache();
+
+        cache.set(new CacheKey("id1", 100, 2), createContent("content1", 100));
+        cache.set(new CacheKey("id2", 100, 2), createContent("content2", 100));
+        cache.set(new CacheKey("other", 100, 3), createContent("other", 100));
+        // Use the first content so that the second one becomes the least recently used
+        cache.get(new CacheKey("id1", 100, 2));
+        cache.set(new CacheKey("id3", 100, 2), createContent("content3", 100));
+
+        Assert.assertNotNull(cache.get(new CacheKey("id1", 100, 2)));
+        Assert.assertNull(cache.get(new CacheKey("id2", 100, 2)));
+        Assert.assertNotNull(cache.get(new CacheKey("id3", 100, 2)));
+        Assert.assertNotNull(cache.get(new CacheKey("other", 100, 3)));
+    }
+
+    @Test
+    public void invalidateAfterReplacedContent()
+    {
+        ContentCache cache = new ContentCache();
+        DocumentReference other = new DocumentReference("wiki", "Space", "Other");
+
+        cache.set(new CacheKey("id", 100, 10), createContent("content1", 100, DOCUMENT));
+        // The new content doesn't depend on the document anymore
+        cache.set(new CacheKey("id", 100, 10), createContent("content2", 100, other));
+
+        cache.invalidate(DOCUMENT);
+        Assert.assertNotNull(cache.get(new CacheKey("id", 100, 10)));
+
+        cache.invalidate(other);
+        Assert.assertNull(cache.get(new CacheKey("id", 100, 10)));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getWeight());
+    }
+}
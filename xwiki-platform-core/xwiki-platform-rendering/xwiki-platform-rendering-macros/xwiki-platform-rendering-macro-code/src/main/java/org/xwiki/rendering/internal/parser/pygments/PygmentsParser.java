@@ -23,12 +23,24 @@
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -51,6 +63,9 @@
 
 /**
  * Highlight provided source using Pygments.
+ * <p>
+ * The Python script is compiled once and the Python engine is started in the background as soon as the component is
+ * initialized (see {@link PygmentsParserInitializerListener}). The highlighted codes are cached.
  * 
  * @version $Id$
  * @since 1.7RC1
@@ -87,11 +102,26 @@ public class PygmentsParser extends AbstractHighlightParser implements Initializ
      */
     private static final String PY_LEXER_VARNAME = "pygmentLexer";
 
+    /**
+     * The name of the variable containing the lexers already created in Python code.
+     */
+    private static final String PY_LEXERS_VARNAME = "lexers";
+
+    /**
+     * The name of the variable containing the formatters already created in Python code.
+     */
+    private static final String PY_FORMATTERS_VARNAME = "formatters";
+
     /**
      * The identifier of the Java Scripting engine to use.
      */
     private static final String ENGINE_ID = "python";
 
+    /**
+     * The maximum number of highlighted codes kept in the cache.
+     */
+    private static final int CACHE_SIZE = 500;
+
     /**
      * The syntax identifier.
      */
@@ -120,6 +150,40 @@ public class PygmentsParser extends AbstractHighlightParser implements Initializ
      */
     private String script;
 
+    /**
+     * The compiled Python script, null if the engine does not support compilation.
+     */
+    private CompiledScript compiledScript;
+
+    /**
+     * The initialization of the Python engine, started in the background.
+     */
+    private FutureTask<ScriptEngine> engineInitialization;
+
+    /**
+     * The Pygments lexers indexed by language, shared by the executions of the script.
+     */
+    private final Map<String, Object> lexers = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The Pygments formatters indexed by style, shared by the executions of the script.
+     */
+    private final Map<String, Object> formatters = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The last highlighted codes, indexed by a hash of the language, the style and the code.
+     */
+    private final Map<String, List<Block>> cache = new LinkedHashMap<String, List<Block>>(16, 0.75F, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Block>> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
     /**
      * The logger to log.
      */
@@ -129,8 +193,6 @@ public class PygmentsParser extends AbstractHighlightParser implements Initializ
     @Override
     public void initialize() throws InitializationException
     {
-        ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
-
         // Get the script
         InputStream is = getClass().getResourceAsStream("/pygments/code.py");
         if (is != null) {
@@ -145,6 +207,33 @@ public void initialize() throws InitializationException
             throw new InitializationException("Failed to find resource /pygments/code.py resource");
         }
 
+        String highlightSyntaxId = getSyntaxId() + "-highlight";
+        this.syntax = new Syntax(new SyntaxType(highlightSyntaxId, highlightSyntaxId), "1.0");
+
+        // Starting Jython and loading Pygments takes several seconds so it's done in the background
+        this.engineInitialization = new FutureTask<ScriptEngine>(new Callable<ScriptEngine>()
+        {
+            @Override
+            public ScriptEngine call() throws Exception
+            {
+                return initializeEngine();
+            }
+        });
+        Thread thread = new Thread(this.engineInitialization, "Pygments initialization");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the Python engine, compile the script and highlight some code to load Pygments.
+     * 
+     * @return the Python engine
+     * @throws InitializationException when the Python engine can't be found
+     */
+    private ScriptEngine initializeEngine() throws InitializationException
+    {
+        ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
+
         // Get the Python engine
         this.engine = scriptEngineManager.getEngineByName(ENGINE_ID);
 
@@ -152,8 +241,41 @@ public void initialize() throws InitializationException
             throw new InitializationException("Failed to find engine for Python script language");
         }
 
-        String highlightSyntaxId = getSyntaxId() + "-highlight";
-        this.syntax = new Syntax(new SyntaxType(highlightSyntaxId, highlightSyntaxId), "1.0");
+        if (this.engine instanceof Compilable) {
+            try {
+                this.compiledScript = ((Compilable) this.engine).compile(this.script);
+            } catch (ScriptException e) {
+                this.logger.warn("Failed to compile the Pygments script, it will be interpreted each time: [{}]",
+                    e.getMessage());
+            }
+        }
+
+        // Load Pygments
+        try {
+            evaluate("java", null, "class Pygments {}", new BlocksGeneratorPygmentsListener(this.plainTextParser));
+        } catch (Exception e) {
+            this.logger.warn("Failed to load Pygments: [{}]", e.getMessage());
+        }
+
+        return this.engine;
+    }
+
+    /**
+     * Wait for the Python engine to be initialized.
+     * 
+     * @throws ParseException when the Python engine failed to be initialized
+     */
+    private void waitForEngine() throws ParseException
+    {
+        try {
+            this.engineInitialization.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new ParseException("Interrupted while waiting for the Python engine", e);
+        } catch (ExecutionException e) {
+            throw new ParseException("Failed to initialize the Python engine", e.getCause());
+        }
     }
 
     @Override
@@ -176,43 +298,58 @@ public List<Block> highlight(String syntaxId, Reader source) throws ParseExcepti
             return Collections.emptyList();
         }
 
+        String style = this.configuration.getStyle();
+        String cacheKey = getCacheKey(syntaxId, style, code);
+
         List<Block> blocks;
-        try {
-            blocks = highlight(syntaxId, code);
-        } catch (ScriptException e) {
-            throw new ParseException("Failed to highlight code", e);
+        synchronized (this.cache) {
+            blocks = this.cache.get(cacheKey);
         }
 
-        // TODO: there is a bug in Pygments that makes it always put a newline at the end of the content
-        if (code.charAt(code.length() - 1) != '\n' && !blocks.isEmpty()
-            && blocks.get(blocks.size() - 1) instanceof NewLineBlock) {
-            blocks.remove(blocks.size() - 1);
+        if (blocks == null) {
+            waitForEngine();
+
+            try {
+                blocks = highlight(syntaxId, style, code);
+            } catch (ScriptException e) {
+                throw new ParseException("Failed to highlight code", e);
+            }
+
+            // TODO: there is a bug in Pygments that makes it always put a newline at the end of the content
+            if (code.charAt(code.length() - 1) != '\n' && !blocks.isEmpty()
+                && blocks.get(blocks.size() - 1) instanceof NewLineBlock) {
+                blocks.remove(blocks.size() - 1);
+            }
+
+            synchronized (this.cache) {
+                this.cache.put(cacheKey, blocks);
+            }
         }
 
-        return blocks;
+        // The returned blocks are modified by the caller (they are attached to the XDOM)
+        List<Block> clonedBlocks = new ArrayList<Block>(blocks.size());
+        for (Block block : blocks) {
+            clonedBlocks.add(block.clone());
+        }
+
+        return clonedBlocks;
     }
 
     /**
      * Return a highlighted version of the provided content.
      * 
      * @param syntaxId the identifier of the source syntax.
+     * @param style the Pygments style to use
      * @param code the content to highlight.
      * @return the highlighted version of the provided source.
      * @throws ScriptException when failed to execute the script
      * @throws ParseException when failed to parse the content as plain text
      */
-    private List<Block> highlight(String syntaxId, String code) throws ScriptException, ParseException
+    private List<Block> highlight(String syntaxId, String style, String code) throws ScriptException, ParseException
     {
         BlocksGeneratorPygmentsListener listener = new BlocksGeneratorPygmentsListener(this.plainTextParser);
 
-        ScriptContext scriptContext = new SimpleScriptContext();
-
-        scriptContext.setAttribute(PY_LANGUAGE_VARNAME, syntaxId, ScriptContext.ENGINE_SCOPE);
-        scriptContext.setAttribute(PY_CODE_VARNAME, code, ScriptContext.ENGINE_SCOPE);
-        scriptContext.setAttribute(PY_STYLE_VARNAME, this.configuration.getStyle(), ScriptContext.ENGINE_SCOPE);
-        scriptContext.setAttribute(PY_LISTENER_VARNAME, listener, ScriptContext.ENGINE_SCOPE);
-
-        this.engine.eval(this.script, scriptContext);
+        ScriptContext scriptContext = evaluate(syntaxId, style, code, listener);
 
         List<Block> blocks;
         if (scriptContext.getAttribute(PY_LEXER_VARNAME) != null) {
@@ -223,4 +360,81 @@ private List<Block> highlight(String syntaxId, String code) throws ScriptExcepti
 
         return blocks;
     }
+
+    /**
+     * Execute the Pygments script.
+     * 
+     * @param syntaxId the identifier of the source syntax
+     * @param style the Pygments style to use
+     * @param code the content to highlight
+     * @param listener the listener receiving the highlighted content
+     * @return the script context after the execution
+     * @throws ScriptException when failed to execute the script
+     */
+    private ScriptContext evaluate(String syntaxId, String style, String code, PygmentsListener listener)
+        throws ScriptException
+    {
+        ScriptContext scriptContext = new SimpleScriptContext();
+
+        scriptContext.setAttribute(PY_LANGUAGE_VARNAME, syntaxId, ScriptContext.ENGINE_SCOPE);
+        scriptContext.setAttribute(PY_CODE_VARNAME, code, ScriptContext.ENGINE_SCOPE);
+        scriptContext.setAttribute(PY_STYLE_VARNAME, style, ScriptContext.ENGINE_SCOPE);
+        scriptContext.setAttribute(PY_LISTENER_VARNAME, listener, ScriptContext.ENGINE_SCOPE);
+        scriptContext.setAttribute(PY_LEXERS_VARNAME, this.lexers, ScriptContext.ENGINE_SCOPE);
+        scriptContext.setAttribute(PY_FORMATTERS_VARNAME, this.formatters, ScriptContext.ENGINE_SCOPE);
+
+        if (this.compiledScript != null) {
+            this.compiledScript.eval(scriptContext);
+        } else {
+            this.engine.eval(this.script, scriptContext);
+        }
+
+        return scriptContext;
+    }
+
+    /**
+     * @param syntaxId the identifier of the source syntax
+     * @param style the Pygments style to use
+     * @param code the content to highlight
+     * @return the key of the highlighted code in the cache
+     * @throws ParseException when failing to compute the key
+     */
+    private String getCacheKey(String syntaxId, String style, String code) throws ParseException
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            update(digest, syntaxId);
+            update(digest, style);
+            byte[] hash = digest.digest(code.getBytes("UTF-8"));
+
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ParseException("Failed to compute the cache key", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new ParseException("Failed to compute the cache key", e);
+        }
+    }
+
+    /**
+     * Add a nullable value to the cache key. A null value (the language is guessed from the code) must not produce the
+     * same key as the "null" string.
+     * 
+     * @param digest the digest computing the cache key
+     * @param value the value to add, can be null
+     * @throws UnsupportedEncodingException when UTF-8 is not supported
+     */
+    private void update(MessageDigest digest, String value) throws UnsupportedEncodingException
+    {
+        if (value != null) {
+            digest.update((byte) 1);
+            digest.update(value.getBytes("UTF-8"));
+        }
+        digest.update((byte) 0);
+    }
 }
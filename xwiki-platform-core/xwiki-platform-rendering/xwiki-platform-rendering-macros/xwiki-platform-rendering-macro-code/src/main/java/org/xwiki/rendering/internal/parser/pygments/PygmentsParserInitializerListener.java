@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.parser.pygments;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.ApplicationStartedEvent;
+import org.xwiki.observation.event.Event;
+import org.xwiki.rendering.parser.HighlightParser;
+
+/**
+ * Initialize the Pygments highlight parser when the application starts so that the Python engine is loaded in the
+ * background instead of during the first request using the code macro.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Named(PygmentsParserInitializerListener.NAME)
+@Singleton
+public class PygmentsParserInitializerListener implements EventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "PygmentsParserInitializerListener";
+
+    /**
+     * The events observed by this event listener.
+     */
+    private static final List<Event> EVENTS = Arrays.<Event>asList(new ApplicationStartedEvent());
+
+    /**
+     * Used to lazily initialize the highlight parser.
+     */
+    @Inject
+    private Provider<HighlightParser> highlightParserProvider;
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return EVENTS;
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        // The initialization of the parser starts the Python engine in the background
+        this.highlightParserProvider.get();
+    }
+}
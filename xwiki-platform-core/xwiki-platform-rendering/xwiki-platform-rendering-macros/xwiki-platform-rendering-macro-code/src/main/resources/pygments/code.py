@@ -18,6 +18,10 @@
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
 """
 
+# This script is compiled once and evaluated for each code to highlight. The lexers (by language) and the formatters
+# (by style) are kept in the "lexers" and "formatters" Java maps so that they are created only once. Formatters don't
+# keep the listener so that they can be used by several threads at the same time.
+
 import pygments
 from pygments.lexers import guess_lexer
 from pygments.lexers import get_lexer_by_name
@@ -26,10 +30,13 @@ from pygments.util import ClassNotFound
 from pygments.formatters.xdom import XDOMFormatter
 
 if language:
-  try:
-    pygmentLexer = get_lexer_by_name(language, stripnl=False)
-  except ClassNotFound:
-    pygmentLexer = None
+  pygmentLexer = lexers.get(language)
+  if not pygmentLexer:
+    try:
+      pygmentLexer = get_lexer_by_name(language, stripnl=False)
+      lexers.put(language, pygmentLexer)
+    except ClassNotFound:
+      pygmentLexer = None
 else:
   try:
     pygmentLexer = guess_lexer(code, stripnl=False)
@@ -37,16 +44,21 @@ else:
     pygmentLexer = None
 
 if pygmentLexer:
-  pygmentStyle = None
-  if style:
-    try:
-      pygmentStyle = get_style_by_name(style)
-    except ClassNotFound:
-      ""
+  styleKey = style or ''
+  pygmentFormatter = formatters.get(styleKey)
+  if not pygmentFormatter:
+    pygmentStyle = None
+    if style:
+      try:
+        pygmentStyle = get_style_by_name(style)
+      except ClassNotFound:
+        ""
 
-  if pygmentStyle:
-    pygmentFormatter = XDOMFormatter(listener, style=style)
-  else:
-    pygmentFormatter = XDOMFormatter(listener)
+    if pygmentStyle:
+      pygmentFormatter = XDOMFormatter(style=style)
+    else:
+      pygmentFormatter = XDOMFormatter()
+    formatters.put(styleKey, pygmentFormatter)
 
-  pygments.highlight(code, pygmentLexer, pygmentFormatter)
\ No newline at end of file
+  # The listener receiving the formatted tokens is passed as the output
+  pygments.highlight(code, pygmentLexer, pygmentFormatter, listener)
@@ -26,18 +26,17 @@ __all__ = ['XDOMFormatter']
 
 class XDOMFormatter(Formatter):
     """
-    Call the provided XDOM listener.
+    Call the XDOM listener provided as output file. The formatter does not keep any state so it can be reused.
     """
     name = 'XWiki listener'
     aliases = ['text', 'null']
     filenames = []
 
-    def __init__(self, listener, **options):
+    def __init__(self, **options):
         Formatter.__init__(self, **options)
-        self.listener = listener
         self.styles = dict(self.style)
 
-    def format(self, tokensource, outfile):
+    def format(self, tokensource, listener):
         lastval = ''
         lasttype = None
         
@@ -48,9 +47,9 @@ class XDOMFormatter(Formatter):
                 lastval += value
             else:
                 if lastval:
-                    self.listener.format(lasttype.__str__(), lastval, self.style.style_for_token(lasttype))
+                    listener.format(lasttype.__str__(), lastval, self.style.style_for_token(lasttype))
                 lasttype = ttype
                 lastval = value
 
         if lastval:
-           self.listener.format(lasttype.__str__(), lastval, self.style.style_for_token(lasttype))
+           listener.format(lasttype.__str__(), lastval, self.style.style_for_token(lasttype))
@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.rendering.internal.parser.pygments;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.parser.HighlightParser;
+import org.xwiki.rendering.parser.ParseException;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link PygmentsParser}.
+ * 
+ * @version $Id$
+ */
+public class PygmentsParserTest
+{
+    private static final String PYTHON_CODE = "#!/usr/bin/env python\nprint 'hello'";
+
+    @Rule
+    public MockitoComponentMockingRule<HighlightParser> mocker = new MockitoComponentMockingRule<HighlightParser>(
+        PygmentsParser.class);
+
+    private final AtomicInteger plainTextParses = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Parser plainTextParser = this.mocker.getInstance(Parser.class, "plain/1.0");
+        when(plainTextParser.parse(any(Reader.class))).thenAnswer(new Answer<XDOM>()
+        {
+            @Override
+            public XDOM answer(InvocationOnMock invocation) throws Throwable
+            {
+                plainTextParses.incrementAndGet();
+
+                String text = IOUtils.toString((Reader) invocation.getArguments()[0]);
+
+                return new XDOM(Arrays.<Block>asList(new ParagraphBlock(Arrays.<Block>asList(new WordBlock(text)))));
+            }
+        });
+    }
+
+    @Test
+    public void highlightTwiceReturnsEqualButDistinctBlocks() throws Exception
+    {
+        HighlightParser parser = this.mocker.getComponentUnderTest();
+
+        List<Block> first = parser.highlight("python", new StringReader(PYTHON_CODE));
+        int parses = this.plainTextParses.get();
+        List<Block> second = parser.highlight("python", new StringReader(PYTHON_CODE));
+
+        Assert.assertFalse(first.isEmpty());
+        Assert.assertEquals(first, second);
+        for (int i = 0; i < first.size(); i++) {
+            Assert.assertNotSame(first.get(i), second.get(i));
+        }
+
+        // The second call is served by the cache
+        Assert.assertEquals(parses, this.plainTextParses.get());
+    }
+
+    @Test
+    public void highlightWithGuessedLanguageIsNotCachedAsNullString() throws Exception
+    {
+        HighlightParser parser = this.mocker.getComponentUnderTest();
+
+        // "null" is not a known Pygments language so the code is returned as plain text
+        List<Block> plain = parser.highlight("null", new StringReader(PYTHON_CODE));
+        Assert.assertEquals(Arrays.<Block>asList(new WordBlock(PYTHON_CODE)), plain);
+
+        // Without language the lexer is guessed from the code
+        List<Block> guessed = parser.highlight(null, new StringReader(PYTHON_CODE));
+        Assert.assertFalse(plain.equals(guessed));
+
+        Assert.assertEquals(guessed, parser.highlight(null, new StringReader(PYTHON_CODE)));
+        Assert.assertEquals(plain, parser.highlight("null", new StringReader(PYTHON_CODE)));
+    }
+
+    @Test(expected = ParseException.class)
+    public void highlightWhenEngineInitializationFailed() throws Exception
+    {
+        HighlightParser parser;
+
+        // The Python engine is looked up with the context class loader of the initialization thread, which is
+        // inherited from the thread initializing the component
+        Thread thread = Thread.currentThread();
+        ClassLoader classLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(new URLClassLoader(new URL[0], null));
+        try {
+            parser = this.mocker.getComponentUnderTest();
+        } finally {
+            thread.setContextClassLoader(classLoader);
+        }
+
+        parser.highlight("python", new StringReader(PYTHON_CODE));
+    }
+}
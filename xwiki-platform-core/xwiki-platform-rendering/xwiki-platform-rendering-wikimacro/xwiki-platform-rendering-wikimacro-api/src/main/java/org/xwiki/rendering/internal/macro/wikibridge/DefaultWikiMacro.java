@@ -35,6 +35,7 @@
 import org.xwiki.rendering.block.MetaDataBlock;
 import org.xwiki.rendering.block.ParagraphBlock;
 import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
 import org.xwiki.rendering.internal.macro.script.NestedScriptMacroEnabled;
 import org.xwiki.rendering.macro.Macro;
 import org.xwiki.rendering.macro.MacroExecutionException;
@@ -52,6 +53,12 @@
 
 /**
  * Default implementation of {@link WikiMacro}.
+ * <p>
+ * The macro content is parsed once when the macro is registered and the inline variant of the content is prepared on
+ * first use, but the whole content is still cloned and transformed on each execution. The static parts of the content
+ * can't be shared between executions: the returned blocks are inserted in the caller's XDOM, which sets their parent,
+ * and can then be modified by the other transformations (e.g. icon, link checker). The transformation is skipped when
+ * the content doesn't contain any macro.
  * 
  * @version $Id$
  * @since 2.0M1
@@ -119,10 +126,20 @@ public class DefaultWikiMacro implements WikiMacro, NestedScriptMacroEnabled
     private boolean supportsInlineMode;
 
     /**
-     * Macro content.
+     * Macro content, never returned as is since it's reused by the next executions.
      */
     private XDOM content;
 
+    /**
+     * Macro content to use when the macro is executed inline, prepared on first inline execution.
+     */
+    private volatile XDOM inlineContent;
+
+    /**
+     * Whether the macro content contains macros. If not, the content is static and doesn't need to be transformed.
+     */
+    private boolean dynamicContent;
+
     /**
      * Syntax id.
      */
@@ -133,6 +150,16 @@ public class DefaultWikiMacro implements WikiMacro, NestedScriptMacroEnabled
      */
     private ComponentManager componentManager;
 
+    /**
+     * The macro transformation, looked up on first execution.
+     */
+    private Transformation macroTransformation;
+
+    /**
+     * Used to access the XWiki context, looked up on first execution.
+     */
+    private Execution execution;
+
     /**
      * Constructs a new {@link DefaultWikiMacro}.
      * 
@@ -155,6 +182,11 @@ public DefaultWikiMacro(DocumentReference macroDocumentReference, DocumentRefere
         this.content = macroContent;
         this.syntax = syntax;
         this.componentManager = componentManager;
+
+        // Note: the macro is created again when the document containing its definition is modified, so this and the
+        // inline content are never stale.
+        this.dynamicContent =
+            macroContent.getFirstBlock(new ClassBlockMatcher(MacroBlock.class), Block.Axes.DESCENDANT) != null;
     }
 
     @Override
@@ -195,11 +227,15 @@ public List<Block> execute(WikiMacroParameters parameters, String macroContent,
         }
 
         try {
-            Transformation macroTransformation = this.componentManager.getInstance(Transformation.class, MACRO_HINT);
+            Execution currentExecution = this.execution;
+            if (currentExecution == null) {
+                currentExecution = this.componentManager.getInstance(Execution.class);
+                this.execution = currentExecution;
+            }
 
             // Place macro context inside xwiki context ($context.macro).
-            Execution execution = this.componentManager.getInstance(Execution.class);
-            Map<String, Object> xwikiContext = (Map<String, Object>) execution.getContext().getProperty("xwikicontext");
+            Map<String, Object> xwikiContext =
+                (Map<String, Object>) currentExecution.getContext().getProperty("xwikicontext");
             xwikiContext.put(MACRO_KEY, macroBinding);
 
             MacroBlock wikiMacroBlock = context.getCurrentMacroBlock();
@@ -219,10 +255,18 @@ public List<Block> execute(WikiMacroParameters parameters, String macroContent,
                 observation.notify(STARTEXECUTION_EVENT, this, macroBinding);
             }
 
-            // Perform internal macro transformations.
-            TransformationContext txContext = new TransformationContext(context.getXDOM(), this.syntax);
-            txContext.setId(context.getId());
-            macroTransformation.transform(wikiMacroMarker, txContext);
+            // Perform internal macro transformations, if there's any macro to execute.
+            if (this.dynamicContent) {
+                Transformation transformation = this.macroTransformation;
+                if (transformation == null) {
+                    transformation = this.componentManager.getInstance(Transformation.class, MACRO_HINT);
+                    this.macroTransformation = transformation;
+                }
+
+                TransformationContext txContext = new TransformationContext(context.getXDOM(), this.syntax);
+                txContext.setId(context.getId());
+                transformation.transform(wikiMacroMarker, txContext);
+            }
 
             return extractResult(wikiMacroMarker.getChildren(), macroBinding, context);
         } catch (Exception ex) {
@@ -285,6 +329,20 @@ private void removeTopLevelParagraph(List<Block> blocks)
      */
     private XDOM prepareWikiMacroContent(MacroTransformationContext context)
     {
+        // The whole content is cloned, including the parts without macros, since the returned blocks belong to the
+        // caller (see the class documentation).
+        return (context.isInline() ? getInlineContent() : this.content).clone();
+    }
+
+    /**
+     * @return the wiki macro content to use when the macro is executed inline
+     */
+    private XDOM getInlineContent()
+    {
+        if (this.inlineContent != null) {
+            return this.inlineContent;
+        }
+
         XDOM xdom = this.content.clone();
 
         // Macro code segment is always parsed into a separate xdom document. Now if this code segment starts with
@@ -292,15 +350,15 @@ private XDOM prepareWikiMacroContent(MacroTransformationContext context)
         // context (because as far as the nested macro is concerned, it starts on a new line). This will introduce
         // unnecessary paragraph elements when the wiki macro is used inline, so we need to force such opening macro
         // blocks to behave as inline macros if the wiki macro is used inline.
-        if (context.isInline()) {
-            List<Block> children = xdom.getChildren();
-            if (children.size() > 0 && children.get(0) instanceof MacroBlock) {
-                MacroBlock old = (MacroBlock) children.get(0);
-                MacroBlock replacement = new MacroBlock(old.getId(), old.getParameters(), old.getContent(), true);
-                xdom.replaceChild(replacement, old);
-            }
+        List<Block> children = xdom.getChildren();
+        if (children.size() > 0 && children.get(0) instanceof MacroBlock) {
+            MacroBlock old = (MacroBlock) children.get(0);
+            MacroBlock replacement = new MacroBlock(old.getId(), old.getParameters(), old.getContent(), true);
+            xdom.replaceChild(replacement, old);
         }
 
+        this.inlineContent = xdom;
+
         return xdom;
     }
 
@@ -170,6 +170,27 @@ public void testExecuteWhenInlineAndWithMacro() throws Exception
         Assert.assertEquals("<p>Hello This is <strong>bold</strong></p>", printer.toString());
     }
 
+    /**
+     * The prepared content of a wiki macro must not be modified by its executions, whether inline or not.
+     */
+    @Test
+    public void testExecuteSeveralTimes() throws Exception
+    {
+        registerWikiMacro("wikimacro1", "This is **bold**", Syntax.XWIKI_2_0);
+        registerWikiMacro("wikimacro2", "{{wikimacro1 param1=\"v1\" param2=\"v2\"/}}", Syntax.XWIKI_2_0);
+
+        Converter converter = getComponentManager().getInstance(Converter.class);
+
+        DefaultWikiPrinter printer = new DefaultWikiPrinter();
+        String macro = "{{wikimacro2 param1=\"value1\" param2=\"value2\"/}}";
+        converter.convert(new StringReader(macro + "\n\nHello " + macro + "\n\n" + macro + "\n\nHello " + macro),
+            Syntax.XWIKI_2_0, Syntax.XHTML_1_0, printer);
+
+        String block = "<p>This is <strong>bold</strong></p>";
+        String inline = "<p>Hello This is <strong>bold</strong></p>";
+        Assert.assertEquals(block + inline + block + inline, printer.toString());
+    }
+
     /**
      * Check that macro used inside wiki macro are executed as part of the document.
      */
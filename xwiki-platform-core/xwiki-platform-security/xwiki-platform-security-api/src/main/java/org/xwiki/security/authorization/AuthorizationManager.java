@@ -19,6 +19,9 @@
  */
 package org.xwiki.security.authorization;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -74,6 +77,22 @@ void checkAccess(Right right, DocumentReference userReference, EntityReference e
      */
     boolean hasAccess(Right right, DocumentReference userReference, EntityReference entityReference);
 
+    /**
+     * Filter the entities on which the user identified by {@code userReference} has the access identified by
+     * {@code right}. This gives the same result as calling {@link #hasAccess} for each entity but is faster for
+     * large collections, since the security entries shared by the entities (like the ones of their wiki and spaces)
+     * are only looked up once. This function should be used for interface matters, like filtering search results.
+     *
+     * @param <T> the type of the entity references
+     * @param right the right to check
+     * @param userReference the user to check the right for
+     * @param entityReferences the entities on which to check the right
+     * @return the entities on which the user has the specified right, in the same order as they were given
+     * @since 5.3M1
+     */
+    <T extends EntityReference> List<T> filterAccessible(Right right, DocumentReference userReference,
+        Collection<T> entityReferences);
+
     /**
      * Register a new custom {@link Right}.
      *
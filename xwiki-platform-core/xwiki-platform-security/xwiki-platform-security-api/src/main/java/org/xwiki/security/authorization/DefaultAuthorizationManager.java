@@ -19,6 +19,12 @@
  */
 package org.xwiki.security.authorization;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -163,6 +169,101 @@ private boolean hasSecurityAccess(Right right, DocumentReference userReference,
         return access == RuleState.ALLOW;
     }
 
+    @Override
+    public <T extends EntityReference> List<T> filterAccessible(Right right, DocumentReference userReference,
+        Collection<T> entityReferences)
+    {
+        if (isSuperAdmin(userReference)) {
+            return new ArrayList<T>(entityReferences);
+        }
+
+        List<T> result = new ArrayList<T>();
+        if (right == null || right == Right.ILLEGAL || (!right.isReadOnly() && xwikiBridge.isWikiReadOnly())) {
+            return result;
+        }
+
+        List<T> references = new ArrayList<T>(entityReferences);
+        SecurityAccess[] accesses = new SecurityAccess[references.size()];
+        List<Integer> missingIndexes = new ArrayList<Integer>();
+        List<SecurityReference> missingEntities = new ArrayList<SecurityReference>();
+
+        UserSecurityReference user = securityReferenceFactory.newUserReference(userReference);
+        Map<SecurityReference, SecurityAccess> parentAccesses = new HashMap<SecurityReference, SecurityAccess>();
+        for (int i = 0; i < accesses.length; i++) {
+            SecurityReference entity = securityReferenceFactory.newEntityReference(references.get(i));
+            accesses[i] = getCachedAccess(user, entity, parentAccesses);
+            if (accesses[i] == null) {
+                missingIndexes.add(i);
+                missingEntities.add(entity);
+            }
+        }
+
+        if (!missingEntities.isEmpty()) {
+            try {
+                List<SecurityAccessEntry> loadedEntries = securityCacheLoader.load(user, missingEntities);
+                for (int i = 0; i < loadedEntries.size(); i++) {
+                    accesses[missingIndexes.get(i)] = loadedEntries.get(i).getAccess();
+                }
+            } catch (Exception e) {
+                this.logger.debug("Failed to load the rights of user [{}] on [{}] entities at once, loading them"
+                    + " one by one.", userReference, missingEntities.size(), e);
+            }
+        }
+
+        for (int i = 0; i < accesses.length; i++) {
+            T reference = references.get(i);
+            // Fall back on the check of a single entity when the bulk load failed, to get the same error handling
+            boolean allowed = (accesses[i] != null) ? accesses[i].get(right) == RuleState.ALLOW
+                : hasAccess(right, userReference, reference);
+            if (allowed) {
+                result.add(reference);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Obtain the access for the user on the given entity if it is available in the cache. The parts of the lookup
+     * which only depend on the parents of the entity are shared between the entities having the same parents.
+     *
+     * @param user The user identity.
+     * @param entity The entity.
+     * @param parentAccesses The result of the lookups already made for parent entities, a null value meaning that
+     * the access is not in the cache. This is updated with the lookups made by this call.
+     * @return the cached access entry, null if it needs to be loaded.
+     */
+    private SecurityAccess getCachedAccess(UserSecurityReference user, SecurityReference entity,
+        Map<SecurityReference, SecurityAccess> parentAccesses)
+    {
+        SecurityAccess access = null;
+        List<SecurityReference> parents = new ArrayList<SecurityReference>();
+        for (SecurityReference ref = entity; ref != null; ref = ref.getParentSecurityReference()) {
+            if (ref != entity) {
+                if (parentAccesses.containsKey(ref)) {
+                    access = parentAccesses.get(ref);
+                    break;
+                }
+                parents.add(ref);
+            }
+            SecurityRuleEntry entry = securityCache.get(ref);
+            if (entry == null) {
+                break;
+            }
+            if (!entry.isEmpty()) {
+                SecurityAccessEntry accessEntry = securityCache.get(user, ref);
+                access = (accessEntry != null) ? accessEntry.getAccess() : null;
+                break;
+            }
+        }
+
+        for (SecurityReference parent : parents) {
+            parentAccesses.put(parent, access);
+        }
+
+        return access;
+    }
+
     @Override
     public Right register(RightDescription rightDescription) throws UnableToRegisterRightException
     {
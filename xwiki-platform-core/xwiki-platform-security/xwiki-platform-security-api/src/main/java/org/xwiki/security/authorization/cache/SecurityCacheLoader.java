@@ -19,6 +19,8 @@
  */
 package org.xwiki.security.authorization.cache;
 
+import java.util.List;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.security.SecurityReference;
 import org.xwiki.security.UserSecurityReference;
@@ -49,4 +51,20 @@
      */
     SecurityAccessEntry load(UserSecurityReference user, SecurityReference entity)
         throws AuthorizationException;
+
+    /**
+     * Load the cache with the required entries to look up the access
+     * for a given user on several entities. This is equivalent to calling
+     * {@link #load(UserSecurityReference, SecurityReference)} for each entity,
+     * but the user, its groups and the rules of the entities shared by the
+     * given entities (like their wiki and spaces) are only looked up once.
+     *
+     * @param user The user to check access for.
+     * @param entities The entities to check access to.
+     * @return The resulting access levels for the user at the entities, in the same order as the entities.
+     * @exception org.xwiki.security.authorization.AuthorizationException if an error occurs.
+     * @since 5.3M1
+     */
+    List<SecurityAccessEntry> load(UserSecurityReference user, List<SecurityReference> entities)
+        throws AuthorizationException;
 }
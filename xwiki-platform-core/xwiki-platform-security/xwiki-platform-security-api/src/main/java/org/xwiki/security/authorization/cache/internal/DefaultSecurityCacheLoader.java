@@ -22,8 +22,11 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -64,6 +67,12 @@ public class DefaultSecurityCacheLoader implements SecurityCacheLoader
     /** Maximum number of attempts at loading an entry. */
     private static final int MAX_RETRIES = 5;
 
+    /**
+     * Maximum number of entities loaded at once when loading several entities, the rules invalidator is suspended
+     * while they are loaded.
+     */
+    private static final int BULK_SIZE = 100;
+
     /** Logger. **/
     @Inject
     private Logger logger;
@@ -120,6 +129,81 @@ public SecurityAccessEntry load(UserSecurityReference user, SecurityReference en
         }
     }
 
+    @Override
+    public List<SecurityAccessEntry> load(UserSecurityReference user, List<SecurityReference> entities)
+        throws AuthorizationException
+    {
+        List<SecurityAccessEntry> result = new ArrayList<SecurityAccessEntry>(entities.size());
+
+        // Load the entities by chunks so that cache invalidations are not delayed for too long
+        for (int start = 0; start < entities.size(); start += BULK_SIZE) {
+            List<SecurityReference> chunk = entities.subList(start, Math.min(start + BULK_SIZE, entities.size()));
+            int retries = 0;
+
+            while (true) {
+                rulesInvalidator.suspend();
+
+                try {
+                    retries++;
+                    result.addAll(loadRequiredEntriesBulk(user, chunk));
+                    break;
+                } catch (ParentEntryEvictedException e) {
+                    if (retries < MAX_RETRIES) {
+                        this.logger.debug("The parent entry was evicted. Have tried {} times.  Trying again...",
+                            retries);
+                        continue;
+                    }
+                } catch (ConflictingInsertionException e) {
+                    if (retries < MAX_RETRIES) {
+                        this.logger.debug("There were conflicting insertions. Have tried {} times.  Retrying...",
+                            retries);
+                        continue;
+                    }
+                } finally {
+                    rulesInvalidator.resume();
+                }
+                String message = String.format("Failed to load the cache in %d attempts.  Giving up.", retries);
+                this.logger.error(message);
+                throw new AuthorizationException(user.getOriginalDocumentReference(), null, message);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Load the entries required to settle the access of a user on several entities, settle them, add these decisions
+     * into the cache and return them. The rules of the entities and the groups of the user are looked up once for
+     * all the entities.
+     *
+     * @param user The user to check access for.
+     * @param entities The entities to check access to.
+     * @return The resulting accesses for the user on the entities.
+     * @throws ParentEntryEvictedException If one of the parent entries are evicted before the load is completed.
+     * @throws ConflictingInsertionException When different threads have inserted conflicting entries into the cache.
+     * @throws org.xwiki.security.authorization.AuthorizationException On error.
+     */
+    private List<SecurityAccessEntry> loadRequiredEntriesBulk(UserSecurityReference user,
+        List<SecurityReference> entities)
+        throws ParentEntryEvictedException, ConflictingInsertionException, AuthorizationException
+    {
+        Map<SecurityReference, Deque<SecurityRuleEntry>> rules =
+            new HashMap<SecurityReference, Deque<SecurityRuleEntry>>();
+        Map<SecurityReference, Collection<GroupSecurityReference>> groups =
+            new HashMap<SecurityReference, Collection<GroupSecurityReference>>();
+
+        List<SecurityAccessEntry> result = new ArrayList<SecurityAccessEntry>(entities.size());
+        for (SecurityReference entity : entities) {
+            if (entity == null) {
+                result.add(loadRequiredEntries(user, null));
+            } else {
+                result.add(loadAccessEntries(user, entity, getRules(entity, rules), groups));
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Load entity entries, group entries, and user entries required to settle the access, settle it,
      * add this decision into the cache and return the access.
@@ -144,7 +228,8 @@ private SecurityAccessEntry loadRequiredEntries(UserSecurityReference user, Secu
         Deque<SecurityRuleEntry> ruleEntries = getRules(entity);
 
         // Evaluate, store and return the access right
-        return loadAccessEntries(user, entity, ruleEntries);
+        return loadAccessEntries(user, entity, ruleEntries,
+            new HashMap<SecurityReference, Collection<GroupSecurityReference>>());
     }
 
     /**
@@ -154,13 +239,15 @@ private SecurityAccessEntry loadRequiredEntries(UserSecurityReference user, Secu
      * @param user The user to check access for.
      * @param entity The lowest entity providing security rules on the path of the entity to check access for.
      * @param ruleEntries The rule entries associated with the above entity.
+     * @param loadedGroups The groups of the user already loaded, by entity wiki, this is updated with the groups
+     *                     loaded by this call.
      * @return The access for the user at the entity (equivalent to the one of the entity to check access for).
      * @throws ParentEntryEvictedException If one of the parent entries are evicted before the load is completed.
      * @throws ConflictingInsertionException When different threads have inserted conflicting entries into the cache.
      * @throws org.xwiki.security.authorization.AuthorizationException On error.
      */
     private SecurityAccessEntry loadAccessEntries(UserSecurityReference user, SecurityReference entity,
-        Deque<SecurityRuleEntry> ruleEntries)
+        Deque<SecurityRuleEntry> ruleEntries, Map<SecurityReference, Collection<GroupSecurityReference>> loadedGroups)
         throws ParentEntryEvictedException, ConflictingInsertionException, AuthorizationException
     {
         // userWiki is the wiki of the user
@@ -172,7 +259,11 @@ private SecurityAccessEntry loadAccessEntries(UserSecurityReference user, Securi
         }
 
         // Load user and related groups into the cache (global and shadowed locals) as needed
-        Collection<GroupSecurityReference> groups = loadUserEntry(user, userWiki, entityWiki);
+        Collection<GroupSecurityReference> groups = loadedGroups.get(entityWiki);
+        if (groups == null) {
+            groups = loadUserEntry(user, userWiki, entityWiki);
+            loadedGroups.put(entityWiki, groups);
+        }
 
         // Settle the access
         SecurityAccessEntry accessEntry = authorizationSettlerProvider.get().settle(user, groups, ruleEntries);
@@ -328,6 +419,40 @@ private Deque<SecurityRuleEntry> getRules(SecurityReference entity)
         return rules;
     }
 
+    /**
+     * Retrieve rules for all hierarchy levels of the provided reference, reusing the rules already retrieved for its
+     * parents. Rules may be read from the cache, or from the entities and fill the cache.
+     *
+     * @param entity The entity for which rules should be loaded and retrieve.
+     * @param loadedRules The rules already retrieved, by entity, this is updated with the rules of the entity and
+     * its parents.
+     * @return A collection of security rule entry, once for each level of the hierarchy.
+     * @exception org.xwiki.security.authorization.AuthorizationException if an error occurs
+     * @exception ParentEntryEvictedException if any parent entry is
+     * evicted before the operation completes.
+     * @throws ConflictingInsertionException When different threads
+     * have inserted conflicting entries into the cache.
+     */
+    private Deque<SecurityRuleEntry> getRules(SecurityReference entity,
+        Map<SecurityReference, Deque<SecurityRuleEntry>> loadedRules)
+        throws AuthorizationException, ParentEntryEvictedException, ConflictingInsertionException
+    {
+        Deque<SecurityRuleEntry> rules = loadedRules.get(entity);
+        if (rules == null) {
+            SecurityReference parent = entity.getParentSecurityReference();
+            rules = (parent != null) ? new LinkedList<SecurityRuleEntry>(getRules(parent, loadedRules))
+                : new LinkedList<SecurityRuleEntry>();
+            SecurityRuleEntry entry = securityCache.get(entity);
+            if (entry == null) {
+                entry = securityEntryReader.read(entity);
+                securityCache.add(entry);
+            }
+            rules.push(entry);
+            loadedRules.put(entity, rules);
+        }
+        return rules;
+    }
+
     /**
      * Extract the SecurityReference of EntityType.WIKI from the given SecurityReference.
      * @param entity The entity to be parsed.
@@ -21,8 +21,10 @@
 package org.xwiki.security.authorization;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -65,6 +67,7 @@
 
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
@@ -580,4 +583,39 @@ public void testCheckAccess() throws Exception
                 e.getCause(), nullValue());
         }
     }
+
+    @Test
+    public void testFilterAccessible() throws Exception
+    {
+        initialiseWikiMock("inheritancePolicyForGlobalFullWikiAccess");
+
+        List<DocumentReference> documents = Arrays.asList(
+            getXDoc("any document", "any space"),
+            getXDoc("docDenyA", "spaceAllowA"),
+            getDoc("any document", "any space", "wikiNoRules"),
+            getXDoc("docAllowA", "any space"),
+            getXDoc("any document", "spaceAllowA"),
+            getDoc("docDenyA", "any space", "wikiAllowA"));
+
+        // Filter with an empty cache first, then compare with the checks made one by one
+        List<DocumentReference> filtered = authorizationManager.filterAccessible(VIEW, getXUser("userA"), documents);
+
+        List<DocumentReference> expected = new ArrayList<DocumentReference>();
+        for (DocumentReference document : documents) {
+            if (authorizationManager.hasAccess(VIEW, getXUser("userA"), document)) {
+                expected.add(document);
+            }
+        }
+
+        assertEquals(Arrays.asList(getXDoc("docDenyA", "spaceAllowA"), getXDoc("docAllowA", "any space"),
+            getXDoc("any document", "spaceAllowA"), getDoc("docDenyA", "any space", "wikiAllowA")), expected);
+        assertEquals(expected, filtered);
+
+        // Filter again with the rights already in the cache
+        assertEquals(expected, authorizationManager.filterAccessible(VIEW, getXUser("userA"), documents));
+
+        assertEquals(documents, authorizationManager.filterAccessible(VIEW, SUPERADMIN, documents));
+        assertEquals(Collections.emptyList(), authorizationManager.filterAccessible(ILLEGAL, getXUser("userA"),
+            documents));
+    }
 }
@@ -19,9 +19,11 @@
  */
 package org.xwiki.security.authorization.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -38,6 +40,7 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
@@ -50,11 +53,16 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.user.api.XWikiGroupService;
 
 /**
  * The instance of this class monitors updates and invalidates right
  * cache entries whenever necessary.
+ * <p>
+ * Updated documents are compared with their original version and the cache is only invalidated when something
+ * read by the {@link DefaultSecurityEntryReader} has changed: the rights objects, the group members or the creator.
+ * Creating or deleting a document always invalidates its entry.
  * @version $Id$
  * @since 4.0M2
  */
@@ -68,6 +76,21 @@ public class DefaultSecurityCacheRulesInvalidator implements SecurityCacheRulesI
      */
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
 
+    /** Number of events which did not require any invalidation. */
+    private final AtomicLong skippedEvents = new AtomicLong();
+
+    /** Number of invalidations of a single document entry. */
+    private final AtomicLong documentInvalidations = new AtomicLong();
+
+    /** Number of invalidations of a whole space or wiki entry. */
+    private final AtomicLong subtreeInvalidations = new AtomicLong();
+
+    /** Number of invalidations of the members of a group. */
+    private final AtomicLong groupMembersInvalidations = new AtomicLong();
+
+    /** Total time spent invalidating the cache, in nanoseconds, including the time waiting for the lock. */
+    private final AtomicLong invalidationTime = new AtomicLong();
+
     /** Logger. **/
     @Inject
     private Logger logger;
@@ -201,21 +224,179 @@ public void invalidateGroupMembers(DocumentReference group, SecurityCache securi
     public void onEvent(Event event, Object source, Object data)
     {
         DocumentReference ref = getDocumentReference(source);
+        XWikiDocument doc = (XWikiDocument) source;
+
+        // Translations don't hold any object and the rules are always read from the default document
+        if (isTranslation(doc)) {
+            skippedEvents.incrementAndGet();
+            return;
+        }
+
+        // Only updates come with a previous version which can be compared
+        XWikiDocument originalDoc = event instanceof DocumentUpdatedEvent ? doc.getOriginalDocument() : null;
+        boolean globalRightsChanged = isGlobalRightsDocument(ref)
+            && haveObjectsChanged(doc, originalDoc, getRightsClass(ref, XWikiConstants.GLOBAL_CLASSNAME));
+        boolean groupChanged =
+            haveObjectsChanged(doc, originalDoc, resolver.resolve(XWikiConstants.GROUP_CLASS, ref));
+
+        if (!globalRightsChanged && !groupChanged && !haveLocalRulesChanged(doc, originalDoc)) {
+            skippedEvents.incrementAndGet();
+            return;
+        }
+
+        long startTime = System.nanoTime();
         readWriteLock.writeLock().lock();
         try {
-            deliverUpdateEvent(ref);
-            if (isGroupDocument(source)) {
+            if (globalRightsChanged) {
+                deliverUpdateEvent(ref);
+                subtreeInvalidations.incrementAndGet();
+            } else {
+                securityCache.remove(securityReferenceFactory.newEntityReference(ref));
+                documentInvalidations.incrementAndGet();
+            }
+            if (groupChanged && isGroupDocument(source)) {
                 // When a group receive a new member, the update event is triggered and the above invalidate the group
                 // and also all its existing members already in cache, but NOT the new member that could be currently
                 // in the cache, and is not yet linked to the group. Here, we invalidate individually all members of
                 // the group based on the updated group, which will only have the effect of invaliding new members.
                 invalidateGroupMembers(ref, securityCache);
+                groupMembersInvalidations.incrementAndGet();
             }
         } catch (AuthorizationException e) {
             this.logger.error("Failed to invalidate group members on the document: {}", ref, e);
         } finally {
             readWriteLock.writeLock().unlock();
+            invalidationTime.addAndGet(System.nanoTime() - startTime);
+        }
+
+        this.logger.debug("Invalidated security cache for document [{}] (global rights changed: {})", ref,
+            globalRightsChanged);
+    }
+
+    /**
+     * @param ref a document reference
+     * @return true if the document may hold global rights objects, see {@link DefaultSecurityEntryReader}
+     */
+    private static boolean isGlobalRightsDocument(DocumentReference ref)
+    {
+        return ref.getName().equals(XWikiConstants.SPACE_DOC)
+            || (ref.getName().equals(XWikiConstants.WIKI_DOC)
+            && ref.getLastSpaceReference().getName().equals(XWikiConstants.XWIKI_SPACE));
+    }
+
+    /**
+     * @param ref the reference of a document
+     * @param className the name of a rights class
+     * @return the reference of the rights class in the wiki of the document
+     */
+    private static DocumentReference getRightsClass(DocumentReference ref, String className)
+    {
+        return new DocumentReference(className, new SpaceReference(XWikiConstants.XWIKI_SPACE,
+            ref.getWikiReference()));
+    }
+
+    /**
+     * @param doc the document which has been modified
+     * @return true if the document, or its previous version, is a translation
+     */
+    private static boolean isTranslation(XWikiDocument doc)
+    {
+        XWikiDocument originalDoc = doc.getOriginalDocument();
+        return doc.getTranslation() == 1 || (originalDoc != null && originalDoc.getTranslation() == 1);
+    }
+
+    /**
+     * @param doc a document
+     * @param originalDoc the previous version of the document, null if it cannot be compared
+     * @param classReference the class of the objects to compare
+     * @return true if the objects of the given class may have changed between both versions
+     */
+    private static boolean haveObjectsChanged(XWikiDocument doc, XWikiDocument originalDoc,
+        DocumentReference classReference)
+    {
+        return originalDoc == null || !getObjects(doc, classReference).equals(getObjects(originalDoc, classReference));
+    }
+
+    /**
+     * @param doc a document
+     * @param originalDoc the previous version of the document, null if it cannot be compared
+     * @return true if the rules read for the document itself may have changed between both versions
+     */
+    private static boolean haveLocalRulesChanged(XWikiDocument doc, XWikiDocument originalDoc)
+    {
+        if (haveObjectsChanged(doc, originalDoc, getRightsClass(doc.getDocumentReference(),
+            XWikiConstants.LOCAL_CLASSNAME))) {
+            return true;
         }
+
+        DocumentReference creator = doc.getCreatorReference();
+        return creator == null ? originalDoc.getCreatorReference() != null
+            : !creator.equals(originalDoc.getCreatorReference());
+    }
+
+    /**
+     * @param doc a document
+     * @param classReference a class
+     * @return the objects of the given class in the document, without the holes left by removed objects
+     */
+    private static List<BaseObject> getObjects(XWikiDocument doc, DocumentReference classReference)
+    {
+        List<BaseObject> result = new ArrayList<BaseObject>();
+        List<BaseObject> objects = doc.getXObjects(classReference);
+        if (objects != null) {
+            for (BaseObject object : objects) {
+                if (object != null) {
+                    result.add(object);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of document events which did not require to invalidate the cache
+     * @since 5.3M1
+     */
+    public long getSkippedEventCount()
+    {
+        return skippedEvents.get();
+    }
+
+    /**
+     * @return the number of times the entry of a single document was invalidated
+     * @since 5.3M1
+     */
+    public long getDocumentInvalidationCount()
+    {
+        return documentInvalidations.get();
+    }
+
+    /**
+     * @return the number of times the entries of a whole space or wiki were invalidated
+     * @since 5.3M1
+     */
+    public long getSubtreeInvalidationCount()
+    {
+        return subtreeInvalidations.get();
+    }
+
+    /**
+     * @return the number of times the members of a group were invalidated
+     * @since 5.3M1
+     */
+    public long getGroupMembersInvalidationCount()
+    {
+        return groupMembersInvalidations.get();
+    }
+
+    /**
+     * @return the total time spent invalidating the cache, in milliseconds, including the time waiting for the
+     *         loads in progress to finish
+     * @since 5.3M1
+     */
+    public long getInvalidationTime()
+    {
+        return invalidationTime.get() / 1000000L;
     }
 
     /**
@@ -35,6 +35,7 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.monitor.RequestProfiler;
 import com.xpn.xwiki.user.api.XWikiRightService;
 import com.xpn.xwiki.user.api.XWikiUser;
 import com.xpn.xwiki.web.Utils;
@@ -136,6 +137,9 @@ public class XWikiCachingRightService implements XWikiRightService
     private final AuthorizationManager authorizationManager
         = Utils.getComponent(AuthorizationManager.class);
 
+    /** Used to record the time spent checking rights in the current request. */
+    private final RequestProfiler profiler = Utils.getComponent(RequestProfiler.class);
+
     /**
      * Specialized map with a chainable put action to avoid exceeding code complexity during initialization.
      */
@@ -310,7 +314,7 @@ public boolean checkAccess(String action, XWikiDocument doc, XWikiContext contex
             return false;
         }
 
-        if (authorizationManager.hasAccess(right, userReference, entityReference)) {
+        if (hasAccess(right, userReference, entityReference)) {
             return true;
         }
 
@@ -343,7 +347,25 @@ public boolean hasAccessLevel(String right, String username, String docname, XWi
             user = null;
         }
 
-        return authorizationManager.hasAccess(Right.toRight(right), user, document);
+        return hasAccess(Right.toRight(right), user, document);
+    }
+
+    /**
+     * Check the access of a user with the authorization manager, recording the time spent in the request profile.
+     *
+     * @param right the right to check
+     * @param userReference the user, null for the guest user
+     * @param entityReference the entity on which the right is checked
+     * @return {@code true} if the user has the right on the entity
+     */
+    private boolean hasAccess(Right right, DocumentReference userReference, EntityReference entityReference)
+    {
+        long profilerStart = this.profiler.start();
+        try {
+            return this.authorizationManager.hasAccess(right, userReference, entityReference);
+        } finally {
+            this.profiler.end(RequestProfiler.RIGHTS, profilerStart);
+        }
     }
 
     @Override
@@ -378,7 +400,7 @@ public boolean hasProgrammingRights(XWikiDocument doc, XWikiContext context)
             user = null;
         }
 
-        return authorizationManager.hasAccess(Right.PROGRAM, user, wiki);
+        return hasAccess(Right.PROGRAM, user, wiki);
     }
 
     @Override
@@ -397,7 +419,7 @@ public boolean hasAdminRights(XWikiContext context)
             user = null;
         }
 
-        return authorizationManager.hasAccess(Right.ADMIN, user, document);
+        return hasAccess(Right.ADMIN, user, document);
     }
 
     @Override
@@ -412,7 +434,7 @@ public boolean hasWikiAdminRights(XWikiContext context)
             user = null;
         }
 
-        return authorizationManager.hasAccess(Right.ADMIN, user, wiki);
+        return hasAccess(Right.ADMIN, user, wiki);
     }
 
     @Override
@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.security.authorization.internal.script;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Provides authorization related scripting APIs, mainly to check the rights of the current user on a large number of
+ * entities at once, for example for filtering search results.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Named("authorization")
+@Singleton
+public class AuthorizationScriptService implements ScriptService
+{
+    /** The authorization manager used to check the rights. */
+    @Inject
+    private AuthorizationManager authorizationManager;
+
+    /** Used to get the current user. */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /** Used to resolve the document names passed by scripts. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    /**
+     * Filter the entities on which the current user has the given right.
+     *
+     * @param right the name of the right to check, for example "view"
+     * @param entityReferences the entities on which to check the right
+     * @return the entities on which the current user has the right, in the same order as they were given
+     */
+    public List<EntityReference> filterAccessible(String right, Collection<EntityReference> entityReferences)
+    {
+        return this.authorizationManager.filterAccessible(Right.toRight(right),
+            this.documentAccessBridge.getCurrentUserReference(), entityReferences);
+    }
+
+    /**
+     * Filter the documents on which the current user has the given right.
+     *
+     * @param right the name of the right to check, for example "view"
+     * @param documents the names of the documents on which to check the right, relative to the current document
+     * @return the names of the documents on which the current user has the right, in the same order as they were
+     *         given
+     */
+    public List<String> filterAccessibleDocuments(String right, Collection<String> documents)
+    {
+        List<String> names = new ArrayList<String>(documents);
+        List<DocumentReference> references = new ArrayList<DocumentReference>(names.size());
+        for (String document : names) {
+            references.add(this.documentReferenceResolver.resolve(document));
+        }
+
+        List<DocumentReference> accessibleReferences = this.authorizationManager.filterAccessible(
+            Right.toRight(right), this.documentAccessBridge.getCurrentUserReference(), references);
+
+        // Return the names as they were given by the script, the accessible references being in the same order
+        List<String> result = new ArrayList<String>(accessibleReferences.size());
+        int index = 0;
+        for (int i = 0; i < references.size() && index < accessibleReferences.size(); i++) {
+            if (references.get(i).equals(accessibleReferences.get(index))) {
+                result.add(names.get(i));
+                index++;
+            }
+        }
+        return result;
+    }
+}
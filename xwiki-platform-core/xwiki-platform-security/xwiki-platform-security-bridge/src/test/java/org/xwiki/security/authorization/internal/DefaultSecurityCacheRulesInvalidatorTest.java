@@ -0,0 +1,298 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.security.authorization.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.event.Event;
+import org.xwiki.security.SecurityReference;
+import org.xwiki.security.SecurityReferenceFactory;
+import org.xwiki.security.UserSecurityReference;
+import org.xwiki.security.authorization.cache.SecurityCache;
+import org.xwiki.security.authorization.cache.SecurityCacheRulesInvalidator;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+/**
+ * Unit tests for {@link DefaultSecurityCacheRulesInvalidator}.
+ * 
+ * @version $Id$
+ */
+public class DefaultSecurityCacheRulesInvalidatorTest
+{
+    private static final WikiReference WIKI = new WikiReference("wiki");
+
+    private static final SpaceReference SPACE = new SpaceReference("Space", WIKI);
+
+    private static final DocumentReference DOCUMENT = new DocumentReference("Page", SPACE);
+
+    private static final DocumentReference LOCAL_RIGHTS_CLASS =
+        new DocumentReference("wiki", "XWiki", "XWikiRights");
+
+    private static final DocumentReference GLOBAL_RIGHTS_CLASS =
+        new DocumentReference("wiki", "XWiki", "XWikiGlobalRights");
+
+    private static final DocumentReference GROUP_CLASS = new DocumentReference("wiki", "XWiki", "XWikiGroups");
+
+    @Rule
+    public MockitoComponentMockingRule<SecurityCacheRulesInvalidator> mocker =
+        new MockitoComponentMockingRule<SecurityCacheRulesInvalidator>(DefaultSecurityCacheRulesInvalidator.class);
+
+    private DefaultSecurityCacheRulesInvalidator invalidator;
+
+    private SecurityCache securityCache;
+
+    private SecurityReferenceFactory securityReferenceFactory;
+
+    private DocumentReferenceResolver<String> resolver;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.invalidator = (DefaultSecurityCacheRulesInvalidator) this.mocker.getComponentUnderTest();
+        this.securityCache = this.mocker.getInstance(SecurityCache.class);
+        this.securityReferenceFactory = this.mocker.getInstance(SecurityReferenceFactory.class);
+
+        this.resolver = this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        when(this.resolver.resolve(eq("XWiki.XWikiGroups"), any(DocumentReference.class))).thenReturn(GROUP_CLASS);
+    }
+
+    private SecurityReference mockSecurityReference(EntityReference reference)
+    {
+        SecurityReference securityReference = mock(SecurityReference.class, reference.toString());
+        when(this.securityReferenceFactory.newEntityReference(reference)).thenReturn(securityReference);
+        return securityReference;
+    }
+
+    private XWikiDocument mockDocument(DocumentReference reference, DocumentReference creator)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(reference);
+        when(document.getCreatorReference()).thenReturn(creator);
+        return document;
+    }
+
+    private XWikiDocument mockUpdatedDocument(DocumentReference reference, XWikiDocument originalDocument,
+        DocumentReference creator)
+    {
+        XWikiDocument document = mockDocument(reference, creator);
+        when(document.getOriginalDocument()).thenReturn(originalDocument);
+        return document;
+    }
+
+    private void setObjects(XWikiDocument document, DocumentReference classReference, BaseObject... objects)
+    {
+        when(document.getXObjects(classReference)).thenReturn(Arrays.asList(objects));
+    }
+
+    private void notify(Event event, XWikiDocument document)
+    {
+        this.invalidator.onEvent(event, document, null);
+    }
+
+    @Test
+    public void saveWithoutRightsChangeKeepsTheEntry()
+    {
+        DocumentReference creator = new DocumentReference("wiki", "XWiki", "Creator");
+        BaseObject rights = mock(BaseObject.class);
+
+        XWikiDocument originalDocument = mockDocument(DOCUMENT, creator);
+        setObjects(originalDocument, LOCAL_RIGHTS_CLASS, rights);
+        XWikiDocument document = mockUpdatedDocument(DOCUMENT, originalDocument, creator);
+        setObjects(document, LOCAL_RIGHTS_CLASS, rights);
+
+        notify(new DocumentUpdatedEvent(DOCUMENT), document);
+
+        verify(this.securityCache, never()).remove(any(SecurityReference.class));
+        assertEquals(1, this.invalidator.getSkippedEventCount());
+    }
+
+    @Test
+    public void localRightsChangeDropsTheDocumentEntry()
+    {
+        SecurityReference documentSecurityReference = mockSecurityReference(DOCUMENT);
+
+        XWikiDocument originalDocument = mockDocument(DOCUMENT, null);
+        setObjects(originalDocument, LOCAL_RIGHTS_CLASS, mock(BaseObject.class));
+        XWikiDocument document = mockUpdatedDocument(DOCUMENT, originalDocument, null);
+        setObjects(document, LOCAL_RIGHTS_CLASS, mock(BaseObject.class));
+
+        notify(new DocumentUpdatedEvent(DOCUMENT), document);
+
+        verify(this.securityCache).remove(documentSecurityReference);
+        verify(this.securityCache, times(1)).remove(any(SecurityReference.class));
+        assertEquals(1, this.invalidator.getDocumentInvalidationCount());
+    }
+
+    @Test
+    public void spaceRightsChangeDropsTheSpaceEntry()
+    {
+        DocumentReference spacePreferences = new DocumentReference("WebPreferences", SPACE);
+        SecurityReference spaceSecurityReference = mockSecurityReference(SPACE);
+
+        XWikiDocument originalDocument = mockDocument(spacePreferences, null);
+        XWikiDocument document = mockUpdatedDocument(spacePreferences, originalDocument, null);
+        setObjects(document, GLOBAL_RIGHTS_CLASS, mock(BaseObject.class));
+
+        notify(new DocumentUpdatedEvent(spacePreferences), document);
+
+        verify(this.securityCache).remove(spaceSecurityReference);
+        verify(this.securityCache, times(1)).remove(any(SecurityReference.class));
+        assertEquals(1, this.invalidator.getSubtreeInvalidationCount());
+    }
+
+    @Test
+    public void wikiRightsChangeDropsTheWikiEntry()
+    {
+        DocumentReference wikiPreferences = new DocumentReference("wiki", "XWiki", "XWikiPreferences");
+        SecurityReference wikiSecurityReference = mockSecurityReference(WIKI);
+
+        XWikiDocument originalDocument = mockDocument(wikiPreferences, null);
+        setObjects(originalDocument, GLOBAL_RIGHTS_CLASS, mock(BaseObject.class));
+        XWikiDocument document = mockUpdatedDocument(wikiPreferences, originalDocument, null);
+
+        notify(new DocumentUpdatedEvent(wikiPreferences), document);
+
+        verify(this.securityCache).remove(wikiSecurityReference);
+        verify(this.securityCache, times(1)).remove(any(SecurityReference.class));
+        assertEquals(1, this.invalidator.getSubtreeInvalidationCount());
+    }
+
+    @Test
+    public void globalRightsInAnotherDocumentAreIgnored()
+    {
+        XWikiDocument originalDocument = mockDocument(DOCUMENT, null);
+        XWikiDocument document = mockUpdatedDocument(DOCUMENT, originalDocument, null);
+        setObjects(document, GLOBAL_RIGHTS_CLASS, mock(BaseObject.class));
+
+        notify(new DocumentUpdatedEvent(DOCUMENT), document);
+
+        verify(this.securityCache, never()).remove(any(SecurityReference.class));
+    }
+
+    @Test
+    public void groupMembershipChangeDropsTheMembers() throws Exception
+    {
+        DocumentReference group = new DocumentReference("wiki", "XWiki", "Group");
+        DocumentReference member = new DocumentReference("wiki", "XWiki", "Member");
+        SecurityReference groupSecurityReference = mockSecurityReference(group);
+        UserSecurityReference memberSecurityReference = mock(UserSecurityReference.class);
+        when(this.securityReferenceFactory.newUserReference(member)).thenReturn(memberSecurityReference);
+
+        XWikiContext xcontext = mock(XWikiContext.class);
+        ExecutionContext executionContext = new ExecutionContext();
+        executionContext.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, xcontext);
+        Execution execution = this.mocker.getInstance(Execution.class);
+        when(execution.getContext()).thenReturn(executionContext);
+        XWiki xwiki = mock(XWiki.class);
+        when(xcontext.getWiki()).thenReturn(xwiki);
+        XWikiGroupService groupService = mock(XWikiGroupService.class);
+        when(xwiki.getGroupService(xcontext)).thenReturn(groupService);
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(group)).thenReturn("wiki:XWiki.Group");
+        List<String> members = Collections.singletonList("XWiki.Member");
+        when(groupService.getAllMembersNamesForGroup("wiki:XWiki.Group", 100, 0, xcontext)).thenReturn(members);
+        DocumentReferenceResolver<String> userResolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "user");
+        when(userResolver.resolve("XWiki.Member", WIKI)).thenReturn(member);
+
+        XWikiDocument originalDocument = mockDocument(group, null);
+        XWikiDocument document = mockUpdatedDocument(group, originalDocument, null);
+        setObjects(document, GROUP_CLASS, mock(BaseObject.class));
+
+        notify(new DocumentUpdatedEvent(group), document);
+
+        verify(this.securityCache).remove(groupSecurityReference);
+        verify(this.securityCache).remove(memberSecurityReference);
+        assertEquals(1, this.invalidator.getGroupMembersInvalidationCount());
+    }
+
+    @Test
+    public void creatorChangeDropsTheDocumentEntry()
+    {
+        SecurityReference documentSecurityReference = mockSecurityReference(DOCUMENT);
+
+        XWikiDocument originalDocument = mockDocument(DOCUMENT, new DocumentReference("wiki", "XWiki", "Before"));
+        XWikiDocument document =
+            mockUpdatedDocument(DOCUMENT, originalDocument, new DocumentReference("wiki", "XWiki", "After"));
+
+        notify(new DocumentUpdatedEvent(DOCUMENT), document);
+
+        verify(this.securityCache).remove(documentSecurityReference);
+    }
+
+    @Test
+    public void createAndDeleteDropTheDocumentEntry()
+    {
+        SecurityReference documentSecurityReference = mockSecurityReference(DOCUMENT);
+
+        // Without any rights: only the existence of the document matters
+        XWikiDocument originalDocument = mockDocument(DOCUMENT, null);
+        XWikiDocument document = mockUpdatedDocument(DOCUMENT, originalDocument, null);
+
+        notify(new DocumentCreatedEvent(DOCUMENT), document);
+        notify(new DocumentDeletedEvent(DOCUMENT), document);
+
+        verify(this.securityCache, times(2)).remove(documentSecurityReference);
+        assertEquals(2, this.invalidator.getDocumentInvalidationCount());
+    }
+
+    @Test
+    public void translationsAreSkipped()
+    {
+        XWikiDocument originalDocument = mockDocument(DOCUMENT, null);
+        when(originalDocument.getTranslation()).thenReturn(1);
+        XWikiDocument document = mockUpdatedDocument(DOCUMENT, originalDocument, null);
+        when(document.getTranslation()).thenReturn(1);
+        setObjects(document, LOCAL_RIGHTS_CLASS, mock(BaseObject.class));
+
+        notify(new DocumentUpdatedEvent(DOCUMENT), document);
+        notify(new DocumentCreatedEvent(DOCUMENT), document);
+        notify(new DocumentDeletedEvent(DOCUMENT), document);
+
+        verify(this.securityCache, never()).remove(any(SecurityReference.class));
+        assertEquals(3, this.invalidator.getSkippedEventCount());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.sheet.internal;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Keeps the sheets bound to a class for each action so that the class document and the sheet descriptors don't have
+ * to be read again each time a document holding an object of that class is displayed.
+ * <p>
+ * NOTE: Keep this interface internal because it's not part of the public API exposed by the sheet module.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Role
+public interface ClassSheetCache
+{
+    /**
+     * The version changes each time the cache is invalidated. It has to be read before computing a value that is put
+     * in the cache so that a value computed from a document that was modified in the meantime is not stored.
+     * 
+     * @return the current version of the cache
+     */
+    long getVersion();
+
+    /**
+     * @param classReference a reference to a XWiki class
+     * @param action the action for which the class sheets were retrieved
+     * @return the cached list of sheets bound to the specified class and matching the specified action, {@code null}
+     *         if they are not cached
+     */
+    List<DocumentReference> get(DocumentReference classReference, String action);
+
+    /**
+     * Caches the sheets bound to a class for an action.
+     * 
+     * @param classReference a reference to a XWiki class
+     * @param action the action for which the class sheets were retrieved
+     * @param sheets the sheets bound to the specified class and matching the specified action
+     * @param dependencies the documents that were read to determine the sheets; the cached sheets are dropped when one
+     *            of them is modified
+     * @param version the version of the cache read before the sheets were computed, see {@link #getVersion()}
+     */
+    void set(DocumentReference classReference, String action, List<DocumentReference> sheets,
+        Collection<DocumentReference> dependencies, long version);
+
+    /**
+     * Drops the cached class sheets that depend on the specified document.
+     * 
+     * @param documentReference a document that has been created, modified or deleted
+     */
+    void invalidate(DocumentReference documentReference);
+}
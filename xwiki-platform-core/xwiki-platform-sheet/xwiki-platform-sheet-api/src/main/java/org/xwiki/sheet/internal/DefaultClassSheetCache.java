@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.sheet.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Default {@link ClassSheetCache} implementation, keeping the class sheets in memory until one of the documents they
+ * were computed from is modified.
+ * 
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Singleton
+public class DefaultClassSheetCache implements ClassSheetCache
+{
+    /**
+     * The maximum number of cached classes, the cache is emptied when it is reached so that the memory used stays
+     * bounded.
+     */
+    private static final int MAX_SIZE = 10000;
+
+    /**
+     * The cached class sheets, by class reference.
+     */
+    private final ConcurrentMap<DocumentReference, Entry> entries = new ConcurrentHashMap<DocumentReference, Entry>();
+
+    /**
+     * The version of the cache, incremented each time it is invalidated.
+     */
+    private volatile long version;
+
+    /**
+     * The sheets bound to a class.
+     */
+    private static class Entry
+    {
+        /**
+         * The documents the sheets were computed from.
+         */
+        private final Set<DocumentReference> dependencies;
+
+        /**
+         * The sheets matching each action.
+         */
+        private final ConcurrentMap<String, List<DocumentReference>> sheets =
+            new ConcurrentHashMap<String, List<DocumentReference>>();
+
+        /**
+         * @param dependencies the documents the sheets are computed from
+         */
+        Entry(Collection<DocumentReference> dependencies)
+        {
+            this.dependencies = new HashSet<DocumentReference>(dependencies);
+        }
+    }
+
+    @Override
+    public long getVersion()
+    {
+        return this.version;
+    }
+
+    @Override
+    public List<DocumentReference> get(DocumentReference classReference, String action)
+    {
+        Entry entry = this.entries.get(classReference);
+
+        return entry != null ? entry.sheets.get(StringUtils.defaultString(action)) : null;
+    }
+
+    @Override
+    public synchronized void set(DocumentReference classReference, String action, List<DocumentReference> sheets,
+        Collection<DocumentReference> dependencies, long version)
+    {
+        if (version != this.version) {
+            // One of the documents may have been modified while the sheets were computed.
+            return;
+        }
+
+        Entry entry = this.entries.get(classReference);
+        if (entry == null) {
+            if (this.entries.size() >= MAX_SIZE) {
+                this.entries.clear();
+            }
+            entry = new Entry(dependencies);
+            this.entries.put(classReference, entry);
+        }
+        entry.sheets.put(StringUtils.defaultString(action),
+            Collections.unmodifiableList(new ArrayList<DocumentReference>(sheets)));
+    }
+
+    @Override
+    public synchronized void invalidate(DocumentReference documentReference)
+    {
+        this.version++;
+
+        for (Iterator<Entry> it = this.entries.values().iterator(); it.hasNext();) {
+            if (it.next().dependencies.contains(documentReference)) {
+                it.remove();
+            }
+        }
+    }
+}
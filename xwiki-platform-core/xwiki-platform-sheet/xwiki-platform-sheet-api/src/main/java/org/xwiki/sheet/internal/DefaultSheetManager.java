@@ -104,6 +104,12 @@ public class DefaultSheetManager implements SheetManager
     @Named("class")
     private SheetBinder classSheetBinder;
 
+    /**
+     * The component used to cache the class sheets.
+     */
+    @Inject
+    private ClassSheetCache classSheetCache;
+
     @Override
     public List<DocumentReference> getSheets(DocumentModelBridge document, String action)
     {
@@ -142,6 +148,14 @@ public List<DocumentReference> getSheets(DocumentModelBridge document, String ac
      */
     private List<DocumentReference> getClassSheets(DocumentReference classReference, String action)
     {
+        List<DocumentReference> cachedSheetReferences = classSheetCache.get(classReference, action);
+        if (cachedSheetReferences != null) {
+            return cachedSheetReferences;
+        }
+
+        // Read the version before reading the documents so that we don't cache sheets computed from a document that
+        // is modified in the meantime.
+        long cacheVersion = classSheetCache.getVersion();
         DocumentModelBridge classDocument;
         try {
             classDocument = documentAccessBridge.getDocument(classReference);
@@ -150,12 +164,19 @@ private List<DocumentReference> getClassSheets(DocumentReference classReference,
             logger.warn("Failed to get class sheets for [{}]. Reason: [{}]", classStringReference, e.getMessage());
             return Collections.emptyList();
         }
+        List<DocumentReference> boundSheetReferences = classSheetBinder.getSheets(classDocument);
         List<DocumentReference> sheetReferences = new ArrayList<DocumentReference>();
-        for (DocumentReference sheetReference : classSheetBinder.getSheets(classDocument)) {
+        for (DocumentReference sheetReference : boundSheetReferences) {
             if (matchSheet(sheetReference, action)) {
                 sheetReferences.add(sheetReference);
             }
         }
+
+        // The sheets depend on the bindings of the class document and on the existence and the action of each sheet.
+        List<DocumentReference> dependencies = new ArrayList<DocumentReference>(boundSheetReferences);
+        dependencies.add(classReference);
+        classSheetCache.set(classReference, action, sheetReferences, dependencies, cacheVersion);
+
         return sheetReferences;
     }
 
@@ -21,6 +21,7 @@
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Assert;
 
@@ -47,7 +48,8 @@
  * @since 4.2M1
  */
 @AllComponents
-@MockingRequirement(value = DefaultSheetManager.class, exceptions = { DocumentReferenceResolver.class })
+@MockingRequirement(value = DefaultSheetManager.class, exceptions = { DocumentReferenceResolver.class,
+    ClassSheetCache.class })
 public class DefaultSheetManagerTest extends AbstractMockingComponentTestCase<SheetManager>
 {
     /**
@@ -254,4 +256,50 @@ public void testSheetResolutionSequence() throws Exception
 
         getMockedComponent().getSheets(document, currentAction);
     }
+
+    /**
+     * Tests that the class sheets are computed only once until the class document or one of its sheets is modified.
+     * 
+     * @throws Exception shouldn't happen, but some methods include "throws" in their signature
+     */
+    @Test
+    public void testClassSheetsAreCached() throws Exception
+    {
+        final DocumentReference classSheetReference = new DocumentReference(WIKI_NAME, "BlogCode", "BlogPostSheet");
+        final DocumentReference classReference = new DocumentReference(WIKI_NAME, "Blog", "BlogPostClass");
+        final DocumentModelBridge classDocument = getMockery().mock(DocumentModelBridge.class, "xclass");
+        final String currentAction = "view";
+
+        getMockery().checking(new Expectations()
+        {
+            {
+                exactly(3).of(documentSheetBinder).getSheets(document);
+                will(returnValue(Collections.emptyList()));
+
+                exactly(3).of(modelBridge).getXObjectClassReferences(document);
+                will(returnValue(Collections.singleton(classReference)));
+
+                // The class sheets are computed for the first call and after the sheet is modified.
+                exactly(2).of(documentAccessBridge).getDocument(classReference);
+                will(returnValue(classDocument));
+
+                exactly(2).of(classSheetBinder).getSheets(classDocument);
+                will(returnValue(Collections.singletonList(classSheetReference)));
+
+                exactly(2).of(documentAccessBridge).exists(classSheetReference);
+                will(returnValue(true));
+
+                exactly(2).of(documentAccessBridge).getProperty(classSheetReference, SHEET_CLASS_REFERENCE,
+                    ACTION_PROPERTY);
+                will(returnValue(currentAction));
+            }
+        });
+
+        List<DocumentReference> expectedSheets = Arrays.asList(classSheetReference);
+        Assert.assertEquals(expectedSheets, getMockedComponent().getSheets(document, currentAction));
+        Assert.assertEquals(expectedSheets, getMockedComponent().getSheets(document, currentAction));
+
+        getComponentManager().<ClassSheetCache>getInstance(ClassSheetCache.class).invalidate(classSheetReference);
+        Assert.assertEquals(expectedSheets, getMockedComponent().getSheets(document, currentAction));
+    }
 }
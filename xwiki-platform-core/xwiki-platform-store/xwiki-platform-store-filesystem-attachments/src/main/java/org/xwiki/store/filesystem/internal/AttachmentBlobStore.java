@@ -0,0 +1,454 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.filesystem.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+
+/**
+ * A content addressed store for attachment content.
+ * Each distinct content is stored exactly once in a file named after the SHA-256 hash of the content, every
+ * attachment version which has this content refers to the same file. The number of references to each blob
+ * is kept in a small file next to the blob and the blob is removed when the last reference is released.
+ * The reference count is updated before the reference file is written, so a crash can leave it off by one,
+ * see {@link #rebuildReferenceCounts(File, String)}.
+ * Content is always streamed, it is never held in memory as a whole.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+public class AttachmentBlobStore
+{
+    /**
+     * The algorithm used to compute the address of a content.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * The reference count of a blob is stored in a file named like the blob followed by this suffix.
+     */
+    private static final String REFERENCE_COUNT_SUFFIX = "~refs";
+
+    /**
+     * The directory where content is written before its hash is known.
+     */
+    private static final String TEMP_DIR_NAME = "~tmp";
+
+    /**
+     * The number of characters of the hash used to name the sub directory holding the blob, this keeps the
+     * number of files in a single directory reasonable.
+     */
+    private static final int PREFIX_LENGTH = 2;
+
+    /**
+     * Number of locks used to serialize reference count updates, blobs are spread among them by hash.
+     */
+    private static final int LOCK_COUNT = 64;
+
+    /**
+     * The encoding of the hashes and reference counts written on disk.
+     */
+    private static final String HASH_ENCODING = "US-ASCII";
+
+    /**
+     * The characters used to write the hash.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The directory where all of the blobs are stored.
+     */
+    private final File blobDir;
+
+    /**
+     * Locks guarding the creation, deletion and reference counts of the blobs.
+     */
+    private final Object[] locks = new Object[LOCK_COUNT];
+
+    /**
+     * The Constructor.
+     *
+     * @param blobDir the directory where the blobs will be stored.
+     */
+    public AttachmentBlobStore(final File blobDir)
+    {
+        this.blobDir = blobDir;
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @param hash the hash of the content.
+     * @return the file where the content with the given hash is (or would be) stored.
+     */
+    public File getBlobFile(final String hash)
+    {
+        if (hash == null || hash.length() <= PREFIX_LENGTH || !hash.matches("[0-9a-f]+")) {
+            throw new IllegalArgumentException("Invalid blob hash [" + hash + "]");
+        }
+        return new File(new File(this.blobDir, hash.substring(0, PREFIX_LENGTH)), hash);
+    }
+
+    /**
+     * Store some content and record a reference to it. If a blob with the same content already exists, the new
+     * copy is discarded and only the reference count of the existing blob is incremented.
+     *
+     * @param content the content to store, it is read entirely but not closed.
+     * @return the hash of the content which can be used to get the blob file.
+     * @throws IOException if writing the content fails.
+     */
+    public String store(final InputStream content) throws IOException
+    {
+        final File tempDir = new File(this.blobDir, TEMP_DIR_NAME);
+        if (!tempDir.exists() && !tempDir.mkdirs()) {
+            throw new IOException("Could not create the directory [" + tempDir.getAbsolutePath() + "]");
+        }
+        final File tempFile = new File(tempDir, RandomStringUtils.randomAlphanumeric(16));
+
+        final MessageDigest digest = newDigest();
+        final OutputStream out = new DigestOutputStream(new FileOutputStream(tempFile), digest);
+        boolean written = false;
+        try {
+            IOUtils.copy(content, out);
+            written = true;
+        } finally {
+            out.close();
+            if (!written) {
+                tempFile.delete();
+            }
+        }
+
+        final String hash = toHex(digest.digest());
+        final File blobFile = getBlobFile(hash);
+        synchronized (getLock(hash)) {
+            if (blobFile.exists()) {
+                tempFile.delete();
+            } else {
+                if (!blobFile.getParentFile().exists()) {
+                    blobFile.getParentFile().mkdirs();
+                }
+                if (!tempFile.renameTo(blobFile)) {
+                    tempFile.delete();
+                    throw new IOException("Could not move [" + tempFile.getAbsolutePath() + "] to ["
+                        + blobFile.getAbsolutePath() + "]");
+                }
+            }
+            writeReferenceCount(blobFile, readReferenceCount(blobFile) + 1);
+        }
+        return hash;
+    }
+
+    /**
+     * Record a new reference to a blob.
+     *
+     * @param hash the hash of the referenced content.
+     * @return the new number of references to the blob.
+     * @throws IOException if the blob does not exist or the reference count cannot be written.
+     */
+    public int addReference(final String hash) throws IOException
+    {
+        final File blobFile = getBlobFile(hash);
+        synchronized (getLock(hash)) {
+            if (!blobFile.exists()) {
+                throw new IOException("No content with hash [" + hash + "] is stored");
+            }
+            final int count = readReferenceCount(blobFile) + 1;
+            writeReferenceCount(blobFile, count);
+            return count;
+        }
+    }
+
+    /**
+     * Release a reference to a blob, the blob is deleted when it is not referenced anymore.
+     *
+     * @param hash the hash of the content which is not referenced anymore.
+     * @return the number of references left, 0 means the blob has been deleted.
+     * @throws IOException if the reference count cannot be written.
+     */
+    public int removeReference(final String hash) throws IOException
+    {
+        final File blobFile = getBlobFile(hash);
+        synchronized (getLock(hash)) {
+            final int count = Math.max(readReferenceCount(blobFile) - 1, 0);
+            if (count == 0) {
+                blobFile.delete();
+                getReferenceCountFile(blobFile).delete();
+            } else {
+                writeReferenceCount(blobFile, count);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @param hash the hash of a content.
+     * @return the number of references to the blob holding this content.
+     * @throws IOException if the reference count cannot be read.
+     */
+    public int getReferenceCount(final String hash) throws IOException
+    {
+        final File blobFile = getBlobFile(hash);
+        synchronized (getLock(hash)) {
+            return readReferenceCount(blobFile);
+        }
+    }
+
+    /**
+     * Read the hash stored in a blob reference file.
+     *
+     * @param referenceFile a file holding the hash of some content.
+     * @return the hash or null if the file does not exist.
+     * @throws IOException if the file cannot be read.
+     */
+    public String readReference(final File referenceFile) throws IOException
+    {
+        if (!referenceFile.exists()) {
+            return null;
+        }
+        return FileUtils.readFileToString(referenceFile, HASH_ENCODING).trim();
+    }
+
+    /**
+     * Recompute the reference count of every blob from the reference files which actually exist. The reference
+     * files are the source of truth: a crash between the update of a reference count and the write (or the
+     * release) of the matching reference file leaves the count too high, which would keep the blob forever.
+     * This must only be called while no content is being saved, typically on startup. Blobs which end up without
+     * any reference are left for {@link #deleteOrphans(long)}.
+     *
+     * @param referenceDir the directory holding the reference files, searched recursively.
+     * @param referenceSuffix the suffix of the names of the reference files.
+     * @return the number of blobs whose reference count has been corrected.
+     * @throws IOException if a reference file cannot be read or a reference count cannot be written.
+     */
+    public int rebuildReferenceCounts(final File referenceDir, final String referenceSuffix) throws IOException
+    {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        countReferences(referenceDir, referenceSuffix, counts);
+
+        int corrected = 0;
+        final File[] dirs = this.blobDir.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                final File[] files = TEMP_DIR_NAME.equals(dir.getName()) ? null : dir.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    // Skip the reference counts and their temporary files.
+                    if (file.getName().indexOf('~') < 0 && updateReferenceCount(file, counts.get(file.getName()))) {
+                        corrected++;
+                    }
+                }
+            }
+        }
+        return corrected;
+    }
+
+    /**
+     * Count the references found in the reference files under a directory.
+     *
+     * @param dir the directory to search.
+     * @param referenceSuffix the suffix of the names of the reference files.
+     * @param counts the number of references found for each hash.
+     * @throws IOException if a reference file cannot be read.
+     */
+    private void countReferences(final File dir, final String referenceSuffix, final Map<String, Integer> counts)
+        throws IOException
+    {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!file.equals(this.blobDir)) {
+                    countReferences(file, referenceSuffix, counts);
+                }
+            } else if (file.getName().endsWith(referenceSuffix)) {
+                final String hash = readReference(file);
+                final Integer count = counts.get(hash);
+                counts.put(hash, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    /**
+     * Set the reference count of a blob if it is not right.
+     *
+     * @param blobFile the blob file.
+     * @param count the number of references to the blob, null if there are none.
+     * @return true if the reference count has been changed.
+     * @throws IOException if the reference count cannot be read or written.
+     */
+    private boolean updateReferenceCount(final File blobFile, final Integer count) throws IOException
+    {
+        synchronized (getLock(blobFile.getName())) {
+            final int actual = count == null ? 0 : count;
+            if (readReferenceCount(blobFile) == actual) {
+                return false;
+            }
+            if (actual == 0) {
+                getReferenceCountFile(blobFile).delete();
+            } else {
+                writeReferenceCount(blobFile, actual);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Delete the blobs which are not referenced and the temporary files which are left over. Those are
+     * remains of saves which were interrupted before the reference count could be written. Only files older than
+     * the given age are removed so that content being saved right now is not touched.
+     *
+     * @param minimumAge the minimum age in milliseconds of the files to delete.
+     * @return the number of deleted files.
+     */
+    public int deleteOrphans(final long minimumAge)
+    {
+        final long limit = System.currentTimeMillis() - minimumAge;
+        int deleted = 0;
+        final File[] dirs = this.blobDir.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                final File[] files = dir.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                final boolean isTempDir = TEMP_DIR_NAME.equals(dir.getName());
+                for (File file : files) {
+                    if (file.lastModified() >= limit || file.getName().endsWith(REFERENCE_COUNT_SUFFIX)) {
+                        continue;
+                    }
+                    if (isTempDir ? file.delete() : deleteIfOrphan(file)) {
+                        deleted++;
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Delete a blob file if it is not referenced.
+     *
+     * @param blobFile the blob file.
+     * @return true if the blob was not referenced and has been deleted.
+     */
+    private boolean deleteIfOrphan(final File blobFile)
+    {
+        synchronized (getLock(blobFile.getName())) {
+            return !getReferenceCountFile(blobFile).exists() && blobFile.delete();
+        }
+    }
+
+    /**
+     * @param hash the hash of a blob.
+     * @return the lock guarding this blob.
+     */
+    private Object getLock(final String hash)
+    {
+        return this.locks[(hash.hashCode() & Integer.MAX_VALUE) % LOCK_COUNT];
+    }
+
+    /**
+     * @param blobFile a blob file.
+     * @return the file holding the reference count of the blob.
+     */
+    private static File getReferenceCountFile(final File blobFile)
+    {
+        return new File(blobFile.getParentFile(), blobFile.getName() + REFERENCE_COUNT_SUFFIX);
+    }
+
+    /**
+     * @param blobFile a blob file.
+     * @return the number of references to the blob, 0 if none are recorded.
+     * @throws IOException if the reference count file cannot be read or is corrupted.
+     */
+    private static int readReferenceCount(final File blobFile) throws IOException
+    {
+        final File countFile = getReferenceCountFile(blobFile);
+        if (!countFile.exists()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(FileUtils.readFileToString(countFile, HASH_ENCODING).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupted reference count in [" + countFile.getAbsolutePath() + "]", e);
+        }
+    }
+
+    /**
+     * Write the reference count of a blob, the count is written to a temporary file first and then renamed so a
+     * failure cannot leave a truncated count behind.
+     *
+     * @param blobFile a blob file.
+     * @param count the number of references to the blob.
+     * @throws IOException if the count cannot be written.
+     */
+    private static void writeReferenceCount(final File blobFile, final int count) throws IOException
+    {
+        final File countFile = getReferenceCountFile(blobFile);
+        final File tempFile = new File(countFile.getParentFile(), countFile.getName() + TEMP_DIR_NAME);
+        FileUtils.writeStringToFile(tempFile, String.valueOf(count), HASH_ENCODING);
+        if (countFile.exists() && !countFile.delete() || !tempFile.renameTo(countFile)) {
+            throw new IOException("Could not update [" + countFile.getAbsolutePath() + "]");
+        }
+    }
+
+    /**
+     * @return a new digest used to compute content hashes.
+     */
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("The " + DIGEST_ALGORITHM + " algorithm is not available", e);
+        }
+    }
+
+    /**
+     * @param bytes some bytes.
+     * @return the bytes as a lower case hexadecimal string.
+     */
+    private static String toHex(final byte[] bytes)
+    {
+        final char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
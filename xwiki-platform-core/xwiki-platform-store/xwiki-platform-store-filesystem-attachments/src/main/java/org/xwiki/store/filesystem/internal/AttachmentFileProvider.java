@@ -49,4 +49,15 @@
      * @return the File for storing the content of a particular version of the attachment.
      */
     File getAttachmentVersionContentFile(final String versionName);
+
+    /**
+     * Get a uniquely named file for storing the hash of the content of a particular version of the attachment.
+     * The content itself is stored once for all the versions and attachments which share it, see
+     * {@link AttachmentBlobStore}.
+     *
+     * @param versionName the name of the version of the attachment eg: "1.1" or "1.2"
+     * @return the File for storing a reference to the content of a particular version of the attachment.
+     * @since 5.3M1
+     */
+    File getAttachmentVersionBlobReferenceFile(final String versionName);
 }
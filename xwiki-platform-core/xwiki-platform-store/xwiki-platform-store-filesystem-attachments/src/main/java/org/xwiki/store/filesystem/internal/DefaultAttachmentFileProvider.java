@@ -36,6 +36,15 @@ public class DefaultAttachmentFileProvider implements AttachmentFileProvider
      */
     private static final String ATTACH_ARCHIVE_META_FILENAME = "~METADATA.xml";
 
+    /**
+     * Appended to the versioned file name to get the file holding the hash of the version content.
+     * The file names are URL encoded so no other file can end with this.
+     *
+     * @see #getAttachmentVersionBlobReferenceFile(String)
+     * @since 5.3M1
+     */
+    public static final String BLOB_REFERENCE_SUFFIX = "~blob";
+
     /**
      * The directory where all information about this attachment resides.
      */
@@ -119,4 +128,17 @@ public File getAttachmentVersionContentFile(final String versionName)
         return new File(this.attachmentDir,
             GenericFileUtils.getVersionedFilename(this.attachmentFileName, versionName));
     }
+
+    /**
+     * {@inheritDoc}
+     * This is the versioned file name followed by ~blob,
+     * version 1.1 of an attachment called file.txt will be referenced by file~v1.1.txt~blob
+     *
+     * @see AttachmentFileProvider#getAttachmentVersionBlobReferenceFile(String)
+     */
+    public File getAttachmentVersionBlobReferenceFile(final String versionName)
+    {
+        return new File(this.attachmentDir,
+            GenericFileUtils.getVersionedFilename(this.attachmentFileName, versionName) + BLOB_REFERENCE_SUFFIX);
+    }
 }
@@ -20,6 +20,7 @@
 package org.xwiki.store.filesystem.internal;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -31,6 +32,7 @@
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.context.Execution;
@@ -81,6 +83,17 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
      */
     private static final String DELETED_ATTACHMENT_NAME_SEPARATOR = "-";
 
+    /**
+     * The directory in the storage directory where the content of the attachment versions is stored, indexed
+     * by hash. This must have a URL illegal character in it so it cannot collide with a wiki directory.
+     */
+    private static final String BLOB_DIR_NAME = "~blobs";
+
+    /**
+     * Unreferenced blobs which are older than this (in milliseconds) are removed on startup.
+     */
+    private static final long ORPHAN_BLOB_AGE = 60L * 60L * 1000L;
+
     /**
      * When a file is being saved, the original will be moved to the same name with this after it.
      * If the save operation fails then this file will be moved back to the regular position to come as
@@ -123,11 +136,22 @@ public class DefaultFilesystemStoreTools implements FilesystemStoreTools, Initia
     @Inject
     private Environment environment;
 
+    /**
+     * The logger to log.
+     */
+    @Inject
+    private Logger logger;
+
     /**
      * This is the directory where all of the attachments will stored.
      */
     private File storageDir;
 
+    /**
+     * The content addressed store holding the content of the attachment versions.
+     */
+    private AttachmentBlobStore blobStore;
+
     /**
      * Testing Constructor.
      *
@@ -143,6 +167,7 @@ public DefaultFilesystemStoreTools(final EntityReferenceSerializer<String> pathS
         this.pathSerializer = pathSerializer;
         this.storageDir = storageDir;
         this.lockProvider = lockProvider;
+        this.blobStore = new AttachmentBlobStore(new File(storageDir, BLOB_DIR_NAME));
     }
 
     /**
@@ -157,6 +182,18 @@ public void initialize()
     {
         this.storageDir = new File(this.environment.getPermanentDirectory(), STORAGE_DIR_NAME);
         deleteEmptyDirs(this.storageDir);
+        this.blobStore = new AttachmentBlobStore(new File(this.storageDir, BLOB_DIR_NAME));
+        try {
+            final int corrected = this.blobStore.rebuildReferenceCounts(this.storageDir,
+                DefaultAttachmentFileProvider.BLOB_REFERENCE_SUFFIX);
+            if (corrected > 0) {
+                this.logger.info("Corrected the reference count of [{}] attachment blobs", corrected);
+            }
+        } catch (IOException e) {
+            // The reference counts are left as they are, at worst some blobs are kept longer than needed.
+            this.logger.warn("Failed to rebuild the reference counts of the attachment blobs", e);
+        }
+        this.blobStore.deleteOrphans(ORPHAN_BLOB_AGE);
     }
 
     /**
@@ -274,6 +311,12 @@ public File getGlobalFile(final String name)
         return new File(this.storageDir, "~GLOBAL_" + GenericFileUtils.getURLEncoded(name));
     }
 
+    @Override
+    public AttachmentBlobStore getAttachmentBlobStore()
+    {
+        return this.blobStore;
+    }
+
     @Override
     public AttachmentFileProvider getAttachmentFileProvider(final XWikiAttachment attachment)
     {
@@ -102,6 +102,12 @@ DeletedAttachmentFileProvider getDeletedAttachmentFileProvider(final XWikiAttach
      */
     File getGlobalFile(final String name);
 
+    /**
+     * @return the store holding the content of the attachment versions, shared by all attachments.
+     * @since 5.3M1
+     */
+    AttachmentBlobStore getAttachmentBlobStore();
+
     /**
      * Get a deleted attachment file provider from a path to the deleted attachment directory.
      *
@@ -33,7 +33,8 @@
 /**
  * A TransactionRunnable for deleting attachment archives.
  * It uses FileDeleteTransactionRunnable so the attachment will either be deleted or fail
- * safely, it should not hang in a halfway state.
+ * safely, it should not hang in a halfway state. The blobs holding the content of the versions are released
+ * once the transaction is complete.
  *
  * @version $Id$
  * @since 3.0M2
@@ -55,6 +56,10 @@ public AttachmentArchiveDeleteRunnable(final XWikiAttachmentArchive archive,
         final Version[] versions = archive.getVersions();
         for (int i = 0; i < versions.length; i++) {
             toDelete.add(provider.getAttachmentVersionContentFile(versions[i].toString()));
+
+            final File referenceFile = provider.getAttachmentVersionBlobReferenceFile(versions[i].toString());
+            new AttachmentBlobReleaseRunnable(fileTools.getAttachmentBlobStore(), referenceFile).runIn(this);
+            toDelete.add(referenceFile);
         }
 
         for (File file : toDelete) {
@@ -30,6 +30,7 @@
 import com.xpn.xwiki.store.VoidAttachmentVersioningStore;
 
 import org.suigeneris.jrcs.rcs.Version;
+import org.xwiki.store.FileDeleteTransactionRunnable;
 import org.xwiki.store.FileSaveTransactionRunnable;
 import org.xwiki.store.StartableTransactionRunnable;
 import org.xwiki.store.StreamProvider;
@@ -42,6 +43,8 @@
  * A TransactionRunnable for saving attachment archives.
  * It uses a chain of FileSaveTransactionRunnable so the attachment will either be saved or fail
  * safely, it should not hang in a halfway state.
+ * The content of each version is kept in the content addressed blob store so versions which have the same
+ * content as another version or another attachment do not use more disk space.
  *
  * @version $Id$
  * @since 3.0M2
@@ -87,12 +90,19 @@ public AttachmentArchiveSaveRunnable(final XWikiAttachmentArchive archive,
             attachmentVersions.add(attachVer);
 
             // If the content is not dirty and the file was already saved then we will not update.
-            if (attachVer.isContentDirty()
-                || !provider.getAttachmentVersionContentFile(versionName).exists())
-            {
+            final File referenceFile = provider.getAttachmentVersionBlobReferenceFile(versionName);
+            final File legacyContentFile = provider.getAttachmentVersionContentFile(versionName);
+            if (attachVer.isContentDirty() || !(referenceFile.exists() || legacyContentFile.exists())) {
                 final StreamProvider contentProvider =
                     new AttachmentContentStreamProvider(attachVer, context);
-                addSaver(contentProvider, fileTools, provider.getAttachmentVersionContentFile(versionName));
+                new AttachmentBlobSaveRunnable(contentProvider, fileTools, referenceFile).runIn(this);
+
+                // Content saved before the blob store existed is replaced by the reference.
+                if (legacyContentFile.exists()) {
+                    new FileDeleteTransactionRunnable(legacyContentFile,
+                        fileTools.getBackupFile(legacyContentFile),
+                        fileTools.getLockForFile(legacyContentFile)).runIn(this);
+                }
             }
         }
 
@@ -0,0 +1,95 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.legacy.store.internal;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.filesystem.internal.AttachmentBlobStore;
+
+/**
+ * A TransactionRunnable for releasing the blob referenced by a blob reference file which is being deleted.
+ * The reference is only released once the transaction is complete so that a rollback can restore the
+ * reference file without having to restore the blob.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+class AttachmentBlobReleaseRunnable extends StartableTransactionRunnable
+{
+    /**
+     * The store holding the blob.
+     */
+    private final AttachmentBlobStore blobStore;
+
+    /**
+     * The reference file which is being deleted.
+     */
+    private final File referenceFile;
+
+    /**
+     * The hash of the released blob, null if the reference file did not exist.
+     */
+    private String hash;
+
+    /**
+     * True if the transaction has been committed and not rolled back.
+     */
+    private boolean committed;
+
+    /**
+     * The Constructor.
+     *
+     * @param blobStore the store holding the blob.
+     * @param referenceFile the reference file which is being deleted.
+     */
+    AttachmentBlobReleaseRunnable(final AttachmentBlobStore blobStore, final File referenceFile)
+    {
+        this.blobStore = blobStore;
+        this.referenceFile = referenceFile;
+    }
+
+    @Override
+    protected void onPreRun() throws IOException
+    {
+        this.hash = this.blobStore.readReference(this.referenceFile);
+    }
+
+    @Override
+    protected void onCommit()
+    {
+        this.committed = true;
+    }
+
+    @Override
+    protected void onRollback()
+    {
+        this.committed = false;
+    }
+
+    @Override
+    protected void onComplete() throws IOException
+    {
+        if (this.committed && this.hash != null) {
+            this.blobStore.removeReference(this.hash);
+        }
+    }
+}
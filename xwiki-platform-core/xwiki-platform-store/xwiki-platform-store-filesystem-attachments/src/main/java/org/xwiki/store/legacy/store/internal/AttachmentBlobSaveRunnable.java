@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.legacy.store.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xwiki.store.FileSaveTransactionRunnable;
+import org.xwiki.store.StartableTransactionRunnable;
+import org.xwiki.store.StreamProvider;
+import org.xwiki.store.filesystem.internal.AttachmentBlobStore;
+import org.xwiki.store.filesystem.internal.FilesystemStoreTools;
+
+/**
+ * A TransactionRunnable for saving the content of an attachment version in the {@link AttachmentBlobStore}.
+ * The content is streamed into the blob store and the resulting hash is then saved in the reference file using
+ * a FileSaveTransactionRunnable. The new blob reference is released if the transaction is rolled back and the
+ * blob previously referenced by the reference file is released once the transaction is complete.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+class AttachmentBlobSaveRunnable extends StartableTransactionRunnable implements StreamProvider
+{
+    /**
+     * The encoding of the hash in the reference file.
+     */
+    private static final String REFERENCE_ENCODING = "US-ASCII";
+
+    /**
+     * The source of the content to store.
+     */
+    private final StreamProvider contentProvider;
+
+    /**
+     * The store where the content is put.
+     */
+    private final AttachmentBlobStore blobStore;
+
+    /**
+     * The file where the hash of the content is saved.
+     */
+    private final File referenceFile;
+
+    /**
+     * The hash which was in the reference file before this save, null if there was none.
+     */
+    private String previousHash;
+
+    /**
+     * The hash of the saved content, null until the content has been stored.
+     */
+    private String hash;
+
+    /**
+     * True if the transaction has been committed and not rolled back.
+     */
+    private boolean committed;
+
+    /**
+     * The Constructor.
+     *
+     * @param contentProvider the means to get the content to save.
+     * @param fileTools the means to get the blob store, the backup file, temporary file, and lock.
+     * @param referenceFile the file where the hash of the content is saved.
+     */
+    AttachmentBlobSaveRunnable(final StreamProvider contentProvider,
+        final FilesystemStoreTools fileTools,
+        final File referenceFile)
+    {
+        this.contentProvider = contentProvider;
+        this.blobStore = fileTools.getAttachmentBlobStore();
+        this.referenceFile = referenceFile;
+
+        new FileSaveTransactionRunnable(referenceFile,
+            fileTools.getTempFile(referenceFile),
+            fileTools.getBackupFile(referenceFile),
+            fileTools.getLockForFile(referenceFile),
+            this).runIn(this);
+    }
+
+    @Override
+    protected void onPreRun() throws IOException
+    {
+        this.previousHash = this.blobStore.readReference(this.referenceFile);
+    }
+
+    @Override
+    protected void onRun() throws Exception
+    {
+        final InputStream in = this.contentProvider.getStream();
+        try {
+            this.hash = this.blobStore.store(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Provide the hash of the stored content to the FileSaveTransactionRunnable which writes the reference file.
+     *
+     * @see StreamProvider#getStream()
+     */
+    @Override
+    public InputStream getStream() throws IOException
+    {
+        return new ByteArrayInputStream(this.hash.getBytes(REFERENCE_ENCODING));
+    }
+
+    @Override
+    protected void onCommit()
+    {
+        this.committed = true;
+    }
+
+    @Override
+    protected void onRollback() throws IOException
+    {
+        this.committed = false;
+        if (this.hash != null) {
+            this.blobStore.removeReference(this.hash);
+            this.hash = null;
+        }
+    }
+
+    @Override
+    protected void onComplete() throws IOException
+    {
+        if (this.committed && this.previousHash != null) {
+            this.blobStore.removeReference(this.previousHash);
+        }
+    }
+}
@@ -46,6 +46,7 @@
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.store.FileDeleteTransactionRunnable;
 import org.xwiki.store.FileSaveTransactionRunnable;
+import org.xwiki.store.filesystem.internal.DefaultAttachmentFileProvider;
 import org.xwiki.store.filesystem.internal.DeletedAttachmentFileProvider;
 import org.xwiki.store.filesystem.internal.FilesystemStoreTools;
 import org.xwiki.store.legacy.doc.internal.DeletedFilesystemAttachment;
@@ -398,6 +399,10 @@ private StartableTransactionRunnable getDeletedAttachmentPurgeRunnable(
         }
         // Easy thing to do is just delete everything in the deleted-attachment directory.
         for (File toDelete : deletedAttachDir.listFiles()) {
+            // The content of the versions is shared so it is released rather than deleted.
+            if (toDelete.getName().endsWith(DefaultAttachmentFileProvider.BLOB_REFERENCE_SUFFIX)) {
+                new AttachmentBlobReleaseRunnable(this.fileTools.getAttachmentBlobStore(), toDelete).runIn(out);
+            }
             new FileDeleteTransactionRunnable(toDelete,
                 this.fileTools.getBackupFile(toDelete),
                 this.fileTools.getLockForFile(toDelete)).runIn(out);
@@ -37,6 +37,7 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.store.legacy.doc.internal.FilesystemAttachmentContent;
 import org.xwiki.store.legacy.doc.internal.ListAttachmentArchive;
+import org.xwiki.store.filesystem.internal.AttachmentBlobStore;
 import org.xwiki.store.filesystem.internal.AttachmentFileProvider;
 import org.xwiki.store.filesystem.internal.FilesystemStoreTools;
 import org.xwiki.store.serialization.Serializer;
@@ -147,8 +148,17 @@ XWikiAttachmentArchive loadArchive(final XWikiAttachment attachment,
         }
 
         // Get the content file and lock for each revision.
+        final AttachmentBlobStore blobStore = this.fileTools.getAttachmentBlobStore();
         for (XWikiAttachment attach : attachList) {
-            final File contentFile = provider.getAttachmentVersionContentFile(attach.getVersion());
+            // Versions saved before the blob store existed have their own content file.
+            final String hash =
+                blobStore.readReference(provider.getAttachmentVersionBlobReferenceFile(attach.getVersion()));
+            final File contentFile;
+            if (hash != null) {
+                contentFile = blobStore.getBlobFile(hash);
+            } else {
+                contentFile = provider.getAttachmentVersionContentFile(attach.getVersion());
+            }
             attach.setAttachment_content(new FilesystemAttachmentContent(contentFile, attach));
             // Pass the document since it will be lost in the serialize/deserialize.
             attach.setDoc(attachment.getDoc());
@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.store.filesystem.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for {@link AttachmentBlobStore}.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+public class AttachmentBlobStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AttachmentBlobStore blobStore;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.blobStore = new AttachmentBlobStore(this.folder.newFolder("blobs"));
+    }
+
+    @Test
+    public void storeIdenticalContentOnce() throws Exception
+    {
+        final String hash = store("content");
+        Assert.assertEquals(hash, store("content"));
+        Assert.assertFalse(hash.equals(store("other content")));
+
+        final File blob = this.blobStore.getBlobFile(hash);
+        Assert.assertEquals("content", FileUtils.readFileToString(blob));
+        Assert.assertEquals(2, this.blobStore.getReferenceCount(hash));
+
+        Assert.assertEquals(1, this.blobStore.removeReference(hash));
+        Assert.assertTrue(blob.exists());
+        Assert.assertEquals(0, this.blobStore.removeReference(hash));
+        Assert.assertFalse(blob.exists());
+    }
+
+    @Test
+    public void addReference() throws Exception
+    {
+        final String hash = store("content");
+        Assert.assertEquals(2, this.blobStore.addReference(hash));
+    }
+
+    @Test(expected = IOException.class)
+    public void addReferenceToMissingBlob() throws Exception
+    {
+        final String hash = store("content");
+        this.blobStore.removeReference(hash);
+        this.blobStore.addReference(hash);
+    }
+
+    @Test
+    public void deleteOrphans() throws Exception
+    {
+        final String referenced = store("referenced");
+        final File orphan = this.blobStore.getBlobFile(store("orphan"));
+        this.blobStore.getBlobFile(referenced).setLastModified(0);
+        orphan.setLastModified(0);
+        new File(orphan.getParentFile(), orphan.getName() + "~refs").delete();
+
+        Assert.assertEquals(1, this.blobStore.deleteOrphans(1000));
+        Assert.assertFalse(orphan.exists());
+        Assert.assertTrue(this.blobStore.getBlobFile(referenced).exists());
+    }
+
+    @Test
+    public void rebuildReferenceCounts() throws Exception
+    {
+        final File referenceDir = this.folder.newFolder("references");
+        final String shared = store("shared");
+        final String leaked = store("leaked");
+        final String lost = store("lost");
+        store("shared");
+
+        // The leaked blob was stored but its reference file was never written.
+        FileUtils.writeStringToFile(new File(referenceDir, "a/file~v1.1.txt~blob"), shared, "US-ASCII");
+        FileUtils.writeStringToFile(new File(referenceDir, "b/file~v1.1.txt~blob"), shared, "US-ASCII");
+        FileUtils.writeStringToFile(new File(referenceDir, "b/file~v1.2.txt~blob"), lost, "US-ASCII");
+        FileUtils.writeStringToFile(new File(referenceDir, "b/file~v1.3.txt~blob"), lost, "US-ASCII");
+        // Left over from an interrupted save, not a reference.
+        FileUtils.writeStringToFile(new File(referenceDir, "b/file~v1.1.txt~blob~bakabcdefgh"), leaked, "US-ASCII");
+
+        Assert.assertEquals(2, this.blobStore.rebuildReferenceCounts(referenceDir, "~blob"));
+        Assert.assertEquals(2, this.blobStore.getReferenceCount(shared));
+        Assert.assertEquals(0, this.blobStore.getReferenceCount(leaked));
+        Assert.assertEquals(2, this.blobStore.getReferenceCount(lost));
+
+        this.blobStore.getBlobFile(leaked).setLastModified(0);
+        Assert.assertEquals(1, this.blobStore.deleteOrphans(1000));
+        Assert.assertFalse(this.blobStore.getBlobFile(leaked).exists());
+
+        Assert.assertEquals(0, this.blobStore.rebuildReferenceCounts(referenceDir, "~blob"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getBlobFileWithInvalidHash()
+    {
+        this.blobStore.getBlobFile("../../etc");
+    }
+
+    private String store(final String content) throws IOException
+    {
+        return this.blobStore.store(new ByteArrayInputStream(content.getBytes()));
+    }
+}
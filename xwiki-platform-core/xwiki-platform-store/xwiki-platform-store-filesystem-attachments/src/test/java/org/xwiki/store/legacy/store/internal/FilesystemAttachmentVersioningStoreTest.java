@@ -24,6 +24,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 
 import com.xpn.xwiki.doc.XWikiAttachment;
 import com.xpn.xwiki.doc.XWikiAttachmentArchive;
@@ -31,6 +32,7 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.store.AttachmentVersioningStore;
 import com.xpn.xwiki.web.Utils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Assert;
@@ -38,6 +40,7 @@
 import org.junit.Test;
 import org.xwiki.model.internal.reference.PathStringEntityReferenceSerializer;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.store.filesystem.internal.AttachmentBlobStore;
 import org.xwiki.store.filesystem.internal.AttachmentFileProvider;
 import org.xwiki.store.filesystem.internal.DefaultFilesystemStoreTools;
 import org.xwiki.store.filesystem.internal.FilesystemStoreTools;
@@ -122,9 +125,9 @@ public void saveArchiveTest() throws Exception
         final XWikiAttachment attach = this.archive.getAttachment();
 
         Assert.assertFalse(this.provider.getAttachmentVersioningMetaFile().exists());
-        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.1").exists());
-        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.2").exists());
-        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.3").exists());
+        Assert.assertFalse(this.provider.getAttachmentVersionBlobReferenceFile("1.1").exists());
+        Assert.assertFalse(this.provider.getAttachmentVersionBlobReferenceFile("1.2").exists());
+        Assert.assertFalse(this.provider.getAttachmentVersionBlobReferenceFile("1.3").exists());
 
         // Because the context is only used by the legacy implementation, it is safe to pass null.
         this.versionStore.saveArchive(this.archive, null, false);
@@ -137,9 +140,11 @@ public void saveArchiveTest() throws Exception
         // </attachment-list>
         Assert.assertTrue(this.provider.getAttachmentVersioningMetaFile().length() > 120);
 
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.1").exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.2").exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.3").exists());
+        // The content of the versions is stored in the blob store, not next to the metadata.
+        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.1").exists());
+        Assert.assertTrue(this.getBlobFile("1.1").exists());
+        Assert.assertTrue(this.getBlobFile("1.2").exists());
+        Assert.assertTrue(this.getBlobFile("1.3").exists());
 
         // Prove that the attachment and attachment content are the same after saving.
         Assert.assertSame(attach, this.archive.getAttachment());
@@ -178,21 +183,78 @@ public void deleteArchiveTest() throws Exception
     {
         this.versionStore.saveArchive(this.archive, null, false);
 
+        final File blob1 = this.getBlobFile("1.1");
+        final File blob2 = this.getBlobFile("1.2");
+        final File blob3 = this.getBlobFile("1.3");
         Assert.assertTrue(this.provider.getAttachmentVersioningMetaFile().exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.1").exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.2").exists());
-        Assert.assertTrue(this.provider.getAttachmentVersionContentFile("1.3").exists());
+        Assert.assertTrue(blob1.exists());
+        Assert.assertTrue(blob2.exists());
+        Assert.assertTrue(blob3.exists());
 
         this.versionStore.deleteArchive(this.archive.getAttachment(), null, false);
 
         Assert.assertFalse(this.provider.getAttachmentVersioningMetaFile().exists());
-        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.1").exists());
-        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.2").exists());
-        Assert.assertFalse(this.provider.getAttachmentVersionContentFile("1.3").exists());
+        Assert.assertFalse(this.provider.getAttachmentVersionBlobReferenceFile("1.1").exists());
+        Assert.assertFalse(this.provider.getAttachmentVersionBlobReferenceFile("1.2").exists());
+        Assert.assertFalse(this.provider.getAttachmentVersionBlobReferenceFile("1.3").exists());
+        Assert.assertFalse(blob1.exists());
+        Assert.assertFalse(blob2.exists());
+        Assert.assertFalse(blob3.exists());
+    }
+
+    @Test
+    public void identicalContentIsStoredOnce() throws Exception
+    {
+        final XWikiDocument otherDoc = new XWikiDocument(new DocumentReference("xwiki", "Main", "Other"));
+        final XWikiAttachment copy = new XWikiAttachment();
+        copy.setVersion("1.1");
+        copy.setFilename("copy.txt");
+        copy.setDoc(otherDoc);
+        copy.setAttachment_content(new StringAttachmentContent("I am version 1.2"));
+        final XWikiAttachmentArchive otherArchive = new ListAttachmentArchive(Collections.singletonList(copy));
+        final AttachmentFileProvider otherProvider = this.fileTools.getAttachmentFileProvider(copy);
+
+        this.versionStore.saveArchive(this.archive, null, false);
+        this.versionStore.saveArchive(otherArchive, null, false);
+
+        final AttachmentBlobStore blobStore = this.fileTools.getAttachmentBlobStore();
+        final String hash = blobStore.readReference(otherProvider.getAttachmentVersionBlobReferenceFile("1.1"));
+        Assert.assertEquals(hash, blobStore.readReference(this.provider.getAttachmentVersionBlobReferenceFile("1.2")));
+        Assert.assertEquals(2, blobStore.getReferenceCount(hash));
+
+        // Deleting one of the attachments must not remove the content of the other.
+        this.versionStore.deleteArchive(this.archive.getAttachment(), null, false);
+
+        Assert.assertEquals(1, blobStore.getReferenceCount(hash));
+        Assert.assertEquals("I am version 1.2", IOUtils.toString(
+            this.versionStore.loadArchive(copy, null, false).getRevision(copy, "1.1", null)
+                .getContentInputStream(null)));
+    }
+
+    @Test
+    public void loadArchiveSavedWithoutBlobStore() throws Exception
+    {
+        this.versionStore.saveArchive(this.archive, null, false);
+
+        // Simulate a version saved before the content was moved to the blob store.
+        final File referenceFile = this.provider.getAttachmentVersionBlobReferenceFile("1.1");
+        FileUtils.copyFile(this.getBlobFile("1.1"), this.provider.getAttachmentVersionContentFile("1.1"));
+        referenceFile.delete();
+
+        final XWikiAttachment version1 = this.versionStore.loadArchive(archive.getAttachment(), null, false)
+            .getRevision(archive.getAttachment(), "1.1", null);
+        Assert.assertEquals("I am version 1.1", IOUtils.toString(version1.getContentInputStream(null)));
     }
 
     /* -------------------- Helpers -------------------- */
 
+    private File getBlobFile(final String version) throws IOException
+    {
+        final AttachmentBlobStore blobStore = this.fileTools.getAttachmentBlobStore();
+        return blobStore.getBlobFile(
+            blobStore.readReference(this.provider.getAttachmentVersionBlobReferenceFile(version)));
+    }
+
     private static void resursiveDelete(final File toDelete) throws IOException
     {
         if (toDelete == null || !toDelete.exists()) {
@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wiki.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.wiki.WikiDescriptor;
+import org.xwiki.wiki.WikiDescriptorAlias;
+
+/**
+ * Default {@link WikiDescriptorCache} implementation. The descriptors defined by descriptor documents are kept in an
+ * immutable {@link WikiDescriptorIndex} which is replaced when one of them is modified, so that lookups don't need any
+ * lock. The other descriptors are kept in small LRU maps since any host name sent by a client can end up there.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Component
+@Singleton
+public class DefaultWikiDescriptorCache implements WikiDescriptorCache
+{
+    /**
+     * The maximum number of remembered descriptors which are not defined by a descriptor document.
+     */
+    private static final int MAX_FALLBACK_SIZE = 1000;
+
+    /**
+     * The descriptors defined by descriptor documents, {@code null} until they are loaded.
+     */
+    private volatile WikiDescriptorIndex index;
+
+    /**
+     * Incremented each time a descriptor document is added or removed.
+     */
+    private long version;
+
+    /**
+     * The descriptors which are not defined by a descriptor document, by normalized alias.
+     */
+    private final Map<String, WikiDescriptor> fallbackDescriptorsByAlias = newLRUMap();
+
+    /**
+     * The descriptors which are not defined by a descriptor document, by wiki id.
+     */
+    private final Map<String, WikiDescriptor> fallbackDescriptorsById = newLRUMap();
+
+    private static Map<String, WikiDescriptor> newLRUMap()
+    {
+        return Collections.synchronizedMap(new LinkedHashMap<String, WikiDescriptor>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, WikiDescriptor> eldest)
+            {
+                return size() > MAX_FALLBACK_SIZE;
+            }
+        });
+    }
+
+    @Override
+    public boolean isLoaded()
+    {
+        return this.index != null;
+    }
+
+    @Override
+    public synchronized long getVersion()
+    {
+        return this.version;
+    }
+
+    @Override
+    public synchronized boolean setAll(Collection<WikiDescriptor> descriptors, long version)
+    {
+        if (version != this.version) {
+            return false;
+        }
+
+        this.index = new WikiDescriptorIndex(descriptors);
+
+        return true;
+    }
+
+    @Override
+    public Collection<WikiDescriptor> getAll()
+    {
+        WikiDescriptorIndex currentIndex = this.index;
+
+        return currentIndex != null ? currentIndex.getAll() : Collections.<WikiDescriptor>emptyList();
+    }
+
+    @Override
+    public WikiDescriptor getByWikiAlias(String wikiAlias)
+    {
+        WikiDescriptorIndex currentIndex = this.index;
+        WikiDescriptor descriptor = currentIndex != null ? currentIndex.getByWikiAlias(wikiAlias) : null;
+        if (descriptor == null) {
+            descriptor = this.fallbackDescriptorsByAlias.get(WikiDescriptorIndex.normalizeAlias(wikiAlias));
+        }
+
+        return descriptor;
+    }
+
+    @Override
+    public WikiDescriptor getByWikiId(String wikiId)
+    {
+        WikiDescriptorIndex currentIndex = this.index;
+        WikiDescriptor descriptor = currentIndex != null ? currentIndex.getByWikiId(wikiId) : null;
+        if (descriptor == null) {
+            descriptor = this.fallbackDescriptorsById.get(wikiId);
+        }
+
+        return descriptor;
+    }
+
+    @Override
+    public synchronized void add(WikiDescriptor descriptor)
+    {
+        this.version++;
+
+        // If the index is not loaded yet the descriptor will be loaded with it
+        if (this.index != null) {
+            this.index = this.index.with(descriptor);
+        }
+
+        removeFallback(descriptor);
+    }
+
+    @Override
+    public synchronized void remove(WikiDescriptor descriptor)
+    {
+        this.version++;
+
+        if (this.index != null) {
+            this.index = this.index.without(descriptor);
+        }
+
+        removeFallback(descriptor);
+    }
+
+    @Override
+    public void addFallback(WikiDescriptor descriptor)
+    {
+        this.fallbackDescriptorsById.put(descriptor.getWikiId(), descriptor);
+        this.fallbackDescriptorsByAlias.put(WikiDescriptorIndex.normalizeAlias(descriptor.getWikiAlias()), descriptor);
+        for (WikiDescriptorAlias alias : descriptor.getDescriptorAliases()) {
+            this.fallbackDescriptorsByAlias.put(WikiDescriptorIndex.normalizeAlias(alias.getWikiAlias()), descriptor);
+        }
+    }
+
+    private void removeFallback(WikiDescriptor descriptor)
+    {
+        this.fallbackDescriptorsById.remove(descriptor.getWikiId());
+        this.fallbackDescriptorsByAlias.remove(WikiDescriptorIndex.normalizeAlias(descriptor.getWikiAlias()));
+        for (WikiDescriptorAlias alias : descriptor.getDescriptorAliases()) {
+            this.fallbackDescriptorsByAlias.remove(WikiDescriptorIndex.normalizeAlias(alias.getWikiAlias()));
+        }
+    }
+}
@@ -27,22 +27,13 @@
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.StringUtils;
-import org.xwiki.cache.Cache;
-import org.xwiki.cache.CacheException;
-import org.xwiki.cache.CacheFactory;
-import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.phase.Initializable;
-import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
 import org.xwiki.wiki.WikiDescriptor;
-import org.xwiki.wiki.WikiDescriptorAlias;
 import org.xwiki.wiki.WikiDescriptorException;
 import org.xwiki.wiki.WikiDescriptorManager;
 
@@ -51,19 +42,16 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
- * Default implementation of {@link org.xwiki.wiki.WikiDescriptorManager} which uses an internal cache to store wiki
- * descriptors for improved performances.
+ * Default implementation of {@link org.xwiki.wiki.WikiDescriptorManager} which loads all the wiki descriptors in a
+ * {@link WikiDescriptorCache} for improved performances.
  *
  * @version $Id$
  * @since 5.3M1
  */
 @Component
 @Singleton
-public class DefaultWikiDescriptorManager implements WikiDescriptorManager, Initializable
+public class DefaultWikiDescriptorManager implements WikiDescriptorManager
 {
-    @Inject
-    private CacheFactory cacheFactory;
-
     @Inject
     private QueryManager queryManager;
 
@@ -75,145 +63,70 @@ public class DefaultWikiDescriptorManager implements WikiDescriptorManager, Init
     private WikiDescriptorBuilder wikiDescriptorBuilder;
 
     @Inject
-    private Execution execution;
-
-    private Cache<WikiDescriptor> wikiAliasCache;
-
-    private Cache<WikiDescriptor> wikiIdCache;
-
-    @Override
-    public void initialize() throws InitializationException
-    {
-        this.wikiAliasCache = createCache("wiki.descriptor.cache.wikiAlias");
-        this.wikiIdCache = createCache("wiki.descriptor.cache.wikiId");
-    }
-
-    private Cache<WikiDescriptor> createCache(String cacheId) throws InitializationException
-    {
-        Cache<WikiDescriptor> cache;
-
-        CacheConfiguration configuration = new CacheConfiguration(cacheId);
-
-        try {
-            cache = this.cacheFactory.newCache(configuration);
-        } catch (CacheException e) {
-            throw new InitializationException(String.format("Failed to initialize wiki descriptor caches [%s]",
-                configuration.getConfigurationId()), e);
-        }
+    private WikiDescriptorCache cache;
 
-        return cache;
-    }
+    @Inject
+    private Execution execution;
 
     @Override
     public WikiDescriptor getByWikiAlias(String wikiAlias) throws WikiDescriptorException
     {
-        WikiDescriptor descriptor = this.wikiAliasCache.get(wikiAlias);
+        // Note that the cache contains all the descriptor documents: wiki descriptors are small and loading them all
+        // at once means that a burst of requests to many wikis (after a restart for example) does not turn into a
+        // burst of queries. An alias which is not in the cache has no descriptor, which is why it's not queried either.
+        load();
 
-        // If not found in the cache then query the wiki and add to the cache if found.
-        //
-        // Note that an alternative implementation would have been to find all Wiki Descriptors at startup but this
-        // would have meant keeping them all in memory at once. Since we want to be able to scale to any number of
-        // subwikis we only cache the most used one. This allows inactive wikis to not take up any memory for example.
-        // Note that In order for performance to be maximum it also means we need to have a cache size at least as
-        // large as the max # of wikis being used at once.
-        if (descriptor == null) {
-            DocumentReference reference = findXWikiServerClassDocumentReference(wikiAlias);
-            if (reference != null) {
-                descriptor = set(getDocument(reference));
-            }
-        }
-
-        return descriptor;
+        return this.cache.getByWikiAlias(wikiAlias);
     }
 
     @Override
     public WikiDescriptor getByWikiId(String wikiId) throws WikiDescriptorException
     {
-        WikiDescriptor descriptor = this.wikiIdCache.get(wikiId);
-
-        if (descriptor == null) {
-            // Try to load a page named XWiki.XWikiServer<wikiId>
-            XWikiDocument document = getDocument(new DocumentReference(getXWikiContext().getMainXWiki(), "XWiki",
-                String.format("XWikiServer%s", StringUtils.capitalize(wikiId))));
-            if (!document.isNew()) {
-                descriptor = set(document);
-            }
-        }
+        load();
 
-        return descriptor;
+        return this.cache.getByWikiId(wikiId);
     }
 
-    private WikiDescriptor set(XWikiDocument document)
+    private void load() throws WikiDescriptorException
     {
-        WikiDescriptor descriptor = this.wikiDescriptorBuilder.build(
-            document.getXObjects(WikiDescriptorListener.SERVER_CLASS), document);
-        // Add to the cache
-        if (descriptor != null) {
-            set(descriptor);
-        }
-        return descriptor;
-    }
-
-    private DocumentReference findXWikiServerClassDocumentReference(String wikiAlias)
-        throws WikiDescriptorException
-    {
-        DocumentReference result = null;
-
-        try {
-            Query query = this.queryManager.createQuery(
-                "where doc.object(XWiki.XWikiServerClass).server = :wikiAlias and doc.name like 'XWikiServer%'",
-                Query.XWQL);
-            query.bindValue("wikiAlias", wikiAlias);
-            query.setWiki(getXWikiContext().getMainXWiki());
-            List<String> documentNames = query.execute();
-
-            // Resolve the document name into a references
-            if (documentNames != null && !documentNames.isEmpty()) {
-                result = this.documentReferenceResolver.resolve(documentNames.get(0));
+        if (!this.cache.isLoaded()) {
+            // Loaded by a single thread so that the first requests don't all query the descriptor documents
+            synchronized (this) {
+                while (!this.cache.isLoaded()) {
+                    // The descriptors are loaded again if a descriptor document is modified in the meantime
+                    long version = this.cache.getVersion();
+                    this.cache.setAll(loadAll(), version);
+                }
             }
-
-        } catch (QueryException e) {
-            throw new WikiDescriptorException(String.format(
-                "Failed to locate XWiki.XWikiServerClass document for wiki alias [%s]", wikiAlias), e);
         }
-
-        return result;
     }
 
     @Override
     public void set(WikiDescriptor descriptor)
     {
-        // Update the wiki name cache
-        this.wikiIdCache.set(descriptor.getWikiId(), descriptor);
-
-        // Update the wiki alias cache
-        this.wikiAliasCache.set(descriptor.getWikiAlias(), descriptor);
-        for (WikiDescriptorAlias alias : descriptor.getDescriptorAliases()) {
-            this.wikiAliasCache.set(alias.getWikiAlias(), descriptor);
-        }
+        // The descriptor documents are added to the cache when they are saved, the descriptors set here are the ones
+        // which are not backed by a document (for example resolved from an unknown host) and are only remembered in a
+        // bounded cache.
+        this.cache.addFallback(descriptor);
     }
 
     @Override
     public void remove(WikiDescriptor descriptor)
     {
-        // Remove from the wiki name cache
-        this.wikiIdCache.remove(descriptor.getWikiId());
-
-        // Remove from the wiki alias cache
-        this.wikiAliasCache.remove(descriptor.getWikiAlias());
-        for (WikiDescriptorAlias alias : descriptor.getDescriptorAliases()) {
-            this.wikiAliasCache.remove(alias.getWikiAlias());
-        }
+        this.cache.remove(descriptor);
     }
 
     @Override
     public Collection<WikiDescriptor> getAll() throws WikiDescriptorException
     {
-        // Note: Ideally to improve performance we could imagine loading all XWikiServerClasses at initialization time
-        // (in initialize()) and thereafter only use the cache. The problem with this approach is that our Cache will
-        // need to be unbounded which is not the case right now. This would mean being able to put all descriptors in
-        // the cache and thus it might not scale if there were a very large number of wikis.
+        load();
 
+        // The cache only contains the descriptors defined by descriptor documents
+        return new ArrayList<WikiDescriptor>(this.cache.getAll());
+    }
+
+    private List<WikiDescriptor> loadAll() throws WikiDescriptorException
+    {
         List<WikiDescriptor> result = new ArrayList<WikiDescriptor>();
 
         try {
@@ -226,7 +139,8 @@ public Collection<WikiDescriptor> getAll() throws WikiDescriptorException
             if (documentNames != null && !documentNames.isEmpty()) {
                 for (String documentName : documentNames) {
                     // Resolve the document names into references and for each one extract the WikiDescriptor
-                    WikiDescriptor descriptor = set(getDocument(this.documentReferenceResolver.resolve(documentName)));
+                    WikiDescriptor descriptor =
+                        build(getDocument(this.documentReferenceResolver.resolve(documentName)));
                     if (descriptor != null) {
                         result.add(descriptor);
                     }
@@ -239,6 +153,11 @@ public Collection<WikiDescriptor> getAll() throws WikiDescriptorException
         return result;
     }
 
+    private WikiDescriptor build(XWikiDocument document)
+    {
+        return this.wikiDescriptorBuilder.build(document.getXObjects(WikiDescriptorListener.SERVER_CLASS), document);
+    }
+
     private XWikiDocument getDocument(DocumentReference reference) throws WikiDescriptorException
     {
         XWikiContext context = getXWikiContext();
@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wiki.internal;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.wiki.WikiDescriptor;
+
+/**
+ * Keeps the wiki descriptors in memory. The descriptors defined by descriptor documents are all loaded at once and
+ * kept until their document is modified, while only a bounded number of the descriptors recorded for the aliases which
+ * don't have a descriptor document are remembered.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+@Role
+public interface WikiDescriptorCache
+{
+    /**
+     * @return true if the descriptors defined by descriptor documents have been loaded
+     */
+    boolean isLoaded();
+
+    /**
+     * The version changes each time a descriptor document is added or removed. It has to be read before loading the
+     * descriptor documents so that descriptors loaded while one of them was modified are not kept.
+     *
+     * @return the current version of the cache
+     */
+    long getVersion();
+
+    /**
+     * @param descriptors all the descriptors defined by descriptor documents
+     * @param version the version of the cache read before the descriptors were loaded, see {@link #getVersion()}
+     * @return false if a descriptor document has been added or removed while the descriptors were loaded, in which
+     *         case the descriptors are not kept and have to be loaded again
+     */
+    boolean setAll(Collection<WikiDescriptor> descriptors, long version);
+
+    /**
+     * @return all the descriptors defined by descriptor documents, empty if they are not loaded
+     */
+    Collection<WikiDescriptor> getAll();
+
+    /**
+     * @param wikiAlias the alias of the wiki, a host name possibly followed by a port
+     * @return the descriptor of the wiki or {@code null} if it's unknown
+     */
+    WikiDescriptor getByWikiAlias(String wikiAlias);
+
+    /**
+     * @param wikiId the id of the wiki
+     * @return the descriptor of the wiki or {@code null} if it's unknown
+     */
+    WikiDescriptor getByWikiId(String wikiId);
+
+    /**
+     * @param descriptor a descriptor defined by a descriptor document which has been created or modified
+     */
+    void add(WikiDescriptor descriptor);
+
+    /**
+     * @param descriptor a descriptor to forget, for example because its descriptor document has been deleted
+     */
+    void remove(WikiDescriptor descriptor);
+
+    /**
+     * @param descriptor a descriptor which is not defined by a descriptor document, for example the one resolved from
+     *            an unknown host
+     */
+    void addFallback(WikiDescriptor descriptor);
+}
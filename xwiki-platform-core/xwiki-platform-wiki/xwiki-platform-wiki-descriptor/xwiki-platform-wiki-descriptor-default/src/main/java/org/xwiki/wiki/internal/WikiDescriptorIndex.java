@@ -0,0 +1,178 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wiki.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.wiki.WikiDescriptor;
+import org.xwiki.wiki.WikiDescriptorAlias;
+
+/**
+ * Immutable index of all the wiki descriptors by wiki id and by alias. The aliases are normalized when the index is
+ * built so that resolving a host is a single lookup, and an alias which is not in the index does not exist (there's no
+ * need to query the store to find it). Modifications create a new index which is meant to replace the previous one.
+ *
+ * @version $Id$
+ * @since 5.3M1
+ */
+final class WikiDescriptorIndex
+{
+    /**
+     * The descriptors indexed by normalized alias.
+     */
+    private final Map<String, WikiDescriptor> descriptorsByAlias;
+
+    /**
+     * The descriptors indexed by wiki id.
+     */
+    private final Map<String, WikiDescriptor> descriptorsById;
+
+    /**
+     * @param descriptors the descriptors to index
+     */
+    WikiDescriptorIndex(Collection<WikiDescriptor> descriptors)
+    {
+        Map<String, WikiDescriptor> byAlias = new HashMap<String, WikiDescriptor>();
+        // Keep the order in which the descriptors are loaded
+        Map<String, WikiDescriptor> byId = new LinkedHashMap<String, WikiDescriptor>();
+        for (WikiDescriptor descriptor : descriptors) {
+            put(descriptor, byAlias, byId);
+        }
+
+        this.descriptorsByAlias = Collections.unmodifiableMap(byAlias);
+        this.descriptorsById = Collections.unmodifiableMap(byId);
+    }
+
+    /**
+     * @param descriptorsByAlias the descriptors indexed by normalized alias
+     * @param descriptorsById the descriptors indexed by wiki id
+     */
+    private WikiDescriptorIndex(Map<String, WikiDescriptor> descriptorsByAlias,
+        Map<String, WikiDescriptor> descriptorsById)
+    {
+        this.descriptorsByAlias = Collections.unmodifiableMap(descriptorsByAlias);
+        this.descriptorsById = Collections.unmodifiableMap(descriptorsById);
+    }
+
+    /**
+     * @param wikiAlias the alias of the wiki, a host name possibly followed by a port
+     * @return the descriptor of the wiki or {@code null} if there's no wiki with this alias
+     */
+    WikiDescriptor getByWikiAlias(String wikiAlias)
+    {
+        return this.descriptorsByAlias.get(normalizeAlias(wikiAlias));
+    }
+
+    /**
+     * @param wikiId the id of the wiki
+     * @return the descriptor of the wiki or {@code null} if there's no wiki with this id
+     */
+    WikiDescriptor getByWikiId(String wikiId)
+    {
+        WikiDescriptor descriptor = this.descriptorsById.get(wikiId);
+
+        // The ids extracted from the descriptor documents are lower case
+        if (descriptor == null && wikiId != null) {
+            descriptor = this.descriptorsById.get(wikiId.toLowerCase(Locale.ROOT));
+        }
+
+        return descriptor;
+    }
+
+    /**
+     * @return all the indexed descriptors
+     */
+    Collection<WikiDescriptor> getAll()
+    {
+        return this.descriptorsById.values();
+    }
+
+    /**
+     * @param descriptor the descriptor to add
+     * @return a copy of this index containing the passed descriptor
+     */
+    WikiDescriptorIndex with(WikiDescriptor descriptor)
+    {
+        Map<String, WikiDescriptor> byAlias = new HashMap<String, WikiDescriptor>(this.descriptorsByAlias);
+        Map<String, WikiDescriptor> byId = new LinkedHashMap<String, WikiDescriptor>(this.descriptorsById);
+        put(descriptor, byAlias, byId);
+
+        return new WikiDescriptorIndex(byAlias, byId);
+    }
+
+    /**
+     * @param descriptor the descriptor to remove
+     * @return a copy of this index without the passed descriptor
+     */
+    WikiDescriptorIndex without(WikiDescriptor descriptor)
+    {
+        Map<String, WikiDescriptor> byAlias = new HashMap<String, WikiDescriptor>(this.descriptorsByAlias);
+        Map<String, WikiDescriptor> byId = new LinkedHashMap<String, WikiDescriptor>(this.descriptorsById);
+
+        byId.remove(descriptor.getWikiId());
+        byAlias.remove(normalizeAlias(descriptor.getWikiAlias()));
+        for (WikiDescriptorAlias alias : descriptor.getDescriptorAliases()) {
+            byAlias.remove(normalizeAlias(alias.getWikiAlias()));
+        }
+
+        return new WikiDescriptorIndex(byAlias, byId);
+    }
+
+    private static void put(WikiDescriptor descriptor, Map<String, WikiDescriptor> byAlias,
+        Map<String, WikiDescriptor> byId)
+    {
+        byId.put(descriptor.getWikiId(), descriptor);
+        byAlias.put(normalizeAlias(descriptor.getWikiAlias()), descriptor);
+        for (WikiDescriptorAlias alias : descriptor.getDescriptorAliases()) {
+            byAlias.put(normalizeAlias(alias.getWikiAlias()), descriptor);
+        }
+    }
+
+    /**
+     * Host names are case insensitive and the same wiki is served whatever the port, so "Wiki.Example.com:8080",
+     * "wiki.example.com." and "wiki.example.com" are the same alias.
+     *
+     * @param alias the alias to normalize
+     * @return the normalized alias
+     */
+    static String normalizeAlias(String alias)
+    {
+        if (alias == null) {
+            return null;
+        }
+
+        String normalizedAlias = alias.trim().toLowerCase(Locale.ROOT);
+
+        // Remove the port, but not the last group of an IPv6 address
+        int portIndex = normalizedAlias.lastIndexOf(':');
+        if (portIndex != -1 && portIndex == normalizedAlias.indexOf(':')
+            && StringUtils.isNumeric(normalizedAlias.substring(portIndex + 1))) {
+            normalizedAlias = normalizedAlias.substring(0, portIndex);
+        }
+
+        return StringUtils.removeEnd(normalizedAlias, ".");
+    }
+}
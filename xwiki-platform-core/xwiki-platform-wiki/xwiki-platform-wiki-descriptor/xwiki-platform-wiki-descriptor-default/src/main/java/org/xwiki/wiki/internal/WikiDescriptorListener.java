@@ -26,6 +26,8 @@
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.ApplicationReadyEvent;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
 import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
@@ -35,13 +37,14 @@
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
 import org.xwiki.wiki.WikiDescriptor;
+import org.xwiki.wiki.WikiDescriptorException;
 import org.xwiki.wiki.WikiDescriptorManager;
 
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
- * Used to refresh the Wiki Descriptor Cache.
+ * Used to load the wiki descriptors when the application is ready and to refresh them when they are modified.
  *
  * @version $Id$
  * @since 5.3M1
@@ -63,6 +66,12 @@ public class WikiDescriptorListener implements EventListener
     @Inject
     private WikiDescriptorManager wikiDescriptorManager;
 
+    @Inject
+    private WikiDescriptorCache cache;
+
+    @Inject
+    private Logger logger;
+
     @Override
     public String getName()
     {
@@ -73,6 +82,7 @@ public String getName()
     public List<Event> getEvents()
     {
         return Arrays.<Event>asList(
+            new ApplicationReadyEvent(),
             new DocumentCreatedEvent(),
             new DocumentUpdatedEvent(),
             new DocumentDeletedEvent());
@@ -81,6 +91,11 @@ public List<Event> getEvents()
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
+        if (event instanceof ApplicationReadyEvent) {
+            preload();
+            return;
+        }
+
         XWikiDocument document = (XWikiDocument) source;
 
         // If the document is deleted then check the original document to see if it had XWiki Server objects and if
@@ -94,7 +109,7 @@ public void onEvent(Event event, Object source, Object data)
         if (serverClassObjects != null && !serverClassObjects.isEmpty()) {
             WikiDescriptor descriptor = this.builder.build(serverClassObjects, document);
             if (descriptor != null) {
-                this.wikiDescriptorManager.set(descriptor);
+                this.cache.add(descriptor);
             }
         }
     }
@@ -106,8 +121,19 @@ private void removeExistingDescriptor(XWikiDocument document)
             WikiDescriptor existingDescriptor =
                 this.builder.build(existingServerClassObjects, document);
             if (existingDescriptor != null) {
-                this.wikiDescriptorManager.remove(existingDescriptor);
+                this.cache.remove(existingDescriptor);
             }
         }
     }
+
+    private void preload()
+    {
+        // Load all the descriptors before the first requests come in
+        try {
+            this.wikiDescriptorManager.getAll();
+        } catch (WikiDescriptorException e) {
+            this.logger.warn("Failed to load the wiki descriptors, they will be loaded on first use: {}",
+                e.getMessage());
+        }
+    }
 }
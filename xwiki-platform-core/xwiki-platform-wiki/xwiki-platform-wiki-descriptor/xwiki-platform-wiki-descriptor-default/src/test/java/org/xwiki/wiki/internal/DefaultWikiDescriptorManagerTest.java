@@ -19,16 +19,17 @@
  */
 package org.xwiki.wiki.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
-import org.xwiki.cache.Cache;
-import org.xwiki.cache.CacheFactory;
-import org.xwiki.cache.config.CacheConfiguration;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
@@ -38,8 +39,11 @@
 import org.xwiki.query.QueryExecutor;
 import org.xwiki.query.QueryManager;
 import org.xwiki.query.internal.DefaultQuery;
+import org.xwiki.test.annotation.ComponentList;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.wiki.WikiDescriptor;
+import org.xwiki.wiki.WikiDescriptorAlias;
+import org.xwiki.wiki.WikiDescriptorManager;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
@@ -55,246 +59,222 @@
  * @version $Id$
  * @since 5.1M1
  */
+@ComponentList(DefaultWikiDescriptorCache.class)
 public class DefaultWikiDescriptorManagerTest
 {
     @Rule
-    public MockitoComponentMockingRule<DefaultWikiDescriptorManager> mocker =
-        new MockitoComponentMockingRule(DefaultWikiDescriptorManager.class);
+    public MockitoComponentMockingRule<WikiDescriptorManager> mocker =
+        new MockitoComponentMockingRule<WikiDescriptorManager>(DefaultWikiDescriptorManager.class,
+            WikiDescriptorManager.class, Arrays.asList(WikiDescriptorCache.class));
 
-    @Test
-    public void getByWikiAliasWhenNotInCacheButExists() throws Exception
+    private QueryExecutor queryExecutor;
+
+    private com.xpn.xwiki.XWiki xwiki;
+
+    private WikiDescriptorBuilder wikiDescriptorBuilder;
+
+    @Before
+    public void setUp() throws Exception
     {
-        // Wiki alias is not in cache...
-        Cache<WikiDescriptor> wikiAliasCache = mock(Cache.class);
-        Cache<WikiDescriptor> wikiIdCache = mock(Cache.class);
-        CacheFactory cacheFactory = this.mocker.getInstance(CacheFactory.class);
-        when(cacheFactory.<WikiDescriptor>newCache(any(CacheConfiguration.class))).thenReturn(wikiAliasCache,
-            wikiIdCache);
-
-        // Return "space.page" document name when querying the DB for a XWiki.XWikiServerClass matching the alias
+        // Return the query used to find all the XWiki.XWikiServerClass documents
         QueryManager queryManager = this.mocker.getInstance(QueryManager.class);
-        QueryExecutor queryExecutor = mock(QueryExecutor.class);
-        when(queryManager.createQuery("where doc.object(XWiki.XWikiServerClass).server = :wikiAlias and "
+        this.queryExecutor = mock(QueryExecutor.class);
+        when(queryManager.createQuery("from doc.object(XWiki.XWikiServerClass) as descriptor where "
             + "doc.name like 'XWikiServer%'", Query.XWQL)).thenReturn(
-            new DefaultQuery("statement", "language", queryExecutor));
-        when(queryExecutor.<String>execute(any(Query.class))).thenReturn(Arrays.asList("space.page"));
+            new DefaultQuery("statement", "language", this.queryExecutor));
 
-        // Convert the returned document name represented as a String into a Document Reference
-        DocumentReferenceResolver<String> resolver =
-            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
-        DocumentReference reference = new DocumentReference("xwiki", "space", "page");
-        when(resolver.resolve("space.page")).thenReturn(reference);
-
-        // Get the XWikiDocument for the Document Reference
+        // Get the main wiki and the XWiki object
         Execution execution = this.mocker.getInstance(Execution.class);
         XWikiContext xcontext = mock(XWikiContext.class);
-        com.xpn.xwiki.XWiki xwiki = mock(com.xpn.xwiki.XWiki.class);
-        when(xcontext.getWiki()).thenReturn(xwiki);
+        this.xwiki = mock(com.xpn.xwiki.XWiki.class);
+        when(xcontext.getWiki()).thenReturn(this.xwiki);
         when(xcontext.getMainXWiki()).thenReturn("xwiki");
         ExecutionContext ec = new ExecutionContext();
         ec.setProperty("xwikicontext", xcontext);
         when(execution.getContext()).thenReturn(ec);
-        XWikiDocument document = mock(XWikiDocument.class);
-        when(xwiki.getDocument(eq(reference), any(XWikiContext.class))).thenReturn(document);
 
-        // Get all XWiki.XWikiServerClass XObjects to pass to the Wiki Descriptor Builder
-        List<BaseObject> baseObjects = Arrays.asList(mock(BaseObject.class));
-        when(document.getXObjects(any(EntityReference.class))).thenReturn(baseObjects);
+        this.wikiDescriptorBuilder = this.mocker.getInstance(WikiDescriptorBuilder.class);
+    }
 
-        // Get a WikiDescriptor from the Wiki Descriptor Builder
-        WikiDescriptorBuilder wikiDescriptorBuilder = this.mocker.getInstance(WikiDescriptorBuilder.class);
-        WikiDescriptor descriptor = new WikiDescriptor("wikiid", "wikialias");
-        when(wikiDescriptorBuilder.build(anyListOf(BaseObject.class), any(XWikiDocument.class))).thenReturn(descriptor);
+    /**
+     * Make the store return descriptor documents for the passed descriptors.
+     *
+     * @return the names of the descriptor documents
+     */
+    private List<String> setStoredDescriptors(WikiDescriptor... descriptors) throws Exception
+    {
+        List<String> documentNames = new ArrayList<String>();
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        for (WikiDescriptor descriptor : descriptors) {
+            String documentName = "XWiki.XWikiServer" + descriptor.getWikiId();
+            documentNames.add(documentName);
 
-        assertEquals(descriptor, this.mocker.getComponentUnderTest().getByWikiAlias("wikialias"));
+            // Convert the returned document name represented as a String into a Document Reference
+            DocumentReference reference =
+                new DocumentReference("xwiki", "XWiki", "XWikiServer" + descriptor.getWikiId());
+            when(resolver.resolve(documentName)).thenReturn(reference);
+
+            // Get the XWikiDocument for the Document Reference
+            XWikiDocument document = mock(XWikiDocument.class, documentName);
+            when(this.xwiki.getDocument(eq(reference), any(XWikiContext.class))).thenReturn(document);
+
+            // Get all XWiki.XWikiServerClass XObjects to pass to the Wiki Descriptor Builder
+            List<BaseObject> baseObjects = Arrays.asList(mock(BaseObject.class));
+            when(document.getXObjects(any(EntityReference.class))).thenReturn(baseObjects);
+
+            // Get a WikiDescriptor from the Wiki Descriptor Builder
+            when(this.wikiDescriptorBuilder.build(baseObjects, document)).thenReturn(descriptor);
+        }
 
-        // Verify that calling getByWikiAlias() also sets the wiki id in the cache.
-        verify(wikiIdCache).set("wikiid", descriptor);
+        when(this.queryExecutor.<String>execute(any(Query.class))).thenReturn(documentNames);
+
+        return documentNames;
     }
 
     @Test
-    public void getByWikiAliasWhenInCache() throws Exception
+    public void getByWikiAliasLoadsAllDescriptorsOnce() throws Exception
     {
-        // Wiki alias is in cache...
-        Cache<WikiDescriptor> wikiAliasCache = mock(Cache.class);
-        Cache<WikiDescriptor> wikiIdCache = mock(Cache.class);
-        CacheFactory cacheFactory = this.mocker.getInstance(CacheFactory.class);
-        when(cacheFactory.<WikiDescriptor>newCache(any(CacheConfiguration.class))).thenReturn(wikiAliasCache,
-            wikiIdCache);
-        WikiDescriptor descriptor = new WikiDescriptor("wikiid", "wikialias");
-        when(wikiAliasCache.get("wikialias")).thenReturn(descriptor);
+        WikiDescriptor descriptor1 = new WikiDescriptor("wikiid1", "wikialias1");
+        descriptor1.addDescriptorAlias(new WikiDescriptorAlias("otheralias1"));
+        WikiDescriptor descriptor2 = new WikiDescriptor("wikiid2", "wikialias2");
+        setStoredDescriptors(descriptor1, descriptor2);
 
-        assertEquals(descriptor, this.mocker.getComponentUnderTest().getByWikiAlias("wikialias"));
+        assertEquals(descriptor1, this.mocker.getComponentUnderTest().getByWikiAlias("wikialias1"));
+        assertEquals(descriptor1, this.mocker.getComponentUnderTest().getByWikiAlias("otheralias1"));
+        assertEquals(descriptor2, this.mocker.getComponentUnderTest().getByWikiAlias("wikialias2"));
+        assertEquals(descriptor2, this.mocker.getComponentUnderTest().getByWikiId("wikiid2"));
+
+        verify(this.queryExecutor, times(1)).execute(any(Query.class));
     }
 
     @Test
-    public void getByWikiAliasWhenNotInCacheAndItDoesntExist() throws Exception
+    public void getByWikiAliasNormalizesAlias() throws Exception
     {
-        // Wiki alias is not in cache...
-        Cache<WikiDescriptor> wikiAliasCache = mock(Cache.class);
-        Cache<WikiDescriptor> wikiIdCache = mock(Cache.class);
-        CacheFactory cacheFactory = this.mocker.getInstance(CacheFactory.class);
-        when(cacheFactory.<WikiDescriptor>newCache(any(CacheConfiguration.class))).thenReturn(wikiAliasCache,
-            wikiIdCache);
-
-        // No result when querying the DB for a XWiki.XWikiServerClass matching the alias
-        QueryManager queryManager = this.mocker.getInstance(QueryManager.class);
-        QueryExecutor queryExecutor = mock(QueryExecutor.class);
-        when(queryManager.createQuery("where doc.object(XWiki.XWikiServerClass).server = :wikiAlias and "
-            + "doc.name like 'XWikiServer%'", Query.XWQL)).thenReturn(
-            new DefaultQuery("statement", "language", queryExecutor));
-        when(queryExecutor.<String>execute(any(Query.class))).thenReturn(Collections.EMPTY_LIST);
+        WikiDescriptor descriptor = new WikiDescriptor("wikiid", "Wiki.Example.com");
+        setStoredDescriptors(descriptor);
 
-        // Get the main wiki
-        Execution execution = this.mocker.getInstance(Execution.class);
-        XWikiContext xcontext = mock(XWikiContext.class);
-        when(xcontext.getMainXWiki()).thenReturn("xwiki");
-        ExecutionContext ec = new ExecutionContext();
-        ec.setProperty("xwikicontext", xcontext);
-        when(execution.getContext()).thenReturn(ec);
+        assertEquals(descriptor, this.mocker.getComponentUnderTest().getByWikiAlias("wiki.example.com"));
+        assertEquals(descriptor, this.mocker.getComponentUnderTest().getByWikiAlias("WIKI.example.com:8080"));
+        assertEquals(descriptor, this.mocker.getComponentUnderTest().getByWikiAlias("wiki.example.com."));
+    }
+
+    @Test
+    public void getByWikiAliasWhenItDoesntExist() throws Exception
+    {
+        // No result when querying the DB for XWiki.XWikiServerClass documents
+        when(this.queryExecutor.<String>execute(any(Query.class))).thenReturn(Collections.<String>emptyList());
 
         assertNull(this.mocker.getComponentUnderTest().getByWikiAlias("wikialias"));
+        assertNull(this.mocker.getComponentUnderTest().getByWikiAlias("wikialias"));
+
+        // The missing alias is not looked up again
+        verify(this.queryExecutor, times(1)).execute(any(Query.class));
     }
 
     @Test
-    public void getByWikiIdWhenNotInCacheButExists() throws Exception
+    public void getByWikiIdWhenItDoesntExist() throws Exception
     {
-        // Wiki id is not in cache...
-        Cache<WikiDescriptor> wikiAliasCache = mock(Cache.class);
-        Cache<WikiDescriptor> wikiIdCache = mock(Cache.class);
-        CacheFactory cacheFactory = this.mocker.getInstance(CacheFactory.class);
-        when(cacheFactory.<WikiDescriptor>newCache(any(CacheConfiguration.class))).thenReturn(wikiAliasCache,
-            wikiIdCache);
-
-        // Get the XWikiDocument for the Document Reference
-        Execution execution = this.mocker.getInstance(Execution.class);
-        XWikiContext xcontext = mock(XWikiContext.class);
-        com.xpn.xwiki.XWiki xwiki = mock(com.xpn.xwiki.XWiki.class);
-        when(xcontext.getWiki()).thenReturn(xwiki);
-        when(xcontext.getMainXWiki()).thenReturn("xwiki");
-        ExecutionContext ec = new ExecutionContext();
-        ec.setProperty("xwikicontext", xcontext);
-        when(execution.getContext()).thenReturn(ec);
-        XWikiDocument document = mock(XWikiDocument.class);
-        DocumentReference reference = new DocumentReference("xwiki", "XWiki", "XWikiServerWikiid");
-        when(xwiki.getDocument(eq(reference), any(XWikiContext.class))).thenReturn(document);
-        when(document.isNew()).thenReturn(false);
+        setStoredDescriptors(new WikiDescriptor("wikiid", "wikialias"));
 
-        // Get all XWiki.XWikiServerClass XObjects to pass to the Wiki Descriptor Builder
-        List<BaseObject> baseObjects = Arrays.asList(mock(BaseObject.class));
-        when(document.getXObjects(any(EntityReference.class))).thenReturn(baseObjects);
+        assertNull(this.mocker.getComponentUnderTest().getByWikiId("otherwikiid"));
+    }
 
-        // Get a WikiDescriptor from the Wiki Descriptor Builder
-        WikiDescriptorBuilder wikiDescriptorBuilder = this.mocker.getInstance(WikiDescriptorBuilder.class);
+    @Test
+    public void setAndRemove() throws Exception
+    {
         WikiDescriptor descriptor = new WikiDescriptor("wikiid", "wikialias");
-        when(wikiDescriptorBuilder.build(anyListOf(BaseObject.class), any(XWikiDocument.class))).thenReturn(descriptor);
-
+        setStoredDescriptors(descriptor);
         assertEquals(descriptor, this.mocker.getComponentUnderTest().getByWikiId("wikiid"));
 
-        // Verify that calling getByWikiId() also sets the wiki alias in the cache.
-        verify(wikiAliasCache).set("wikialias", descriptor);
+        WikiDescriptor newDescriptor = new WikiDescriptor("newwikiid", "newwikialias");
+        newDescriptor.addDescriptorAlias(new WikiDescriptorAlias("newotheralias"));
+        this.mocker.getComponentUnderTest().set(newDescriptor);
+
+        assertEquals(newDescriptor, this.mocker.getComponentUnderTest().getByWikiAlias("newwikialias"));
+        assertEquals(newDescriptor, this.mocker.getComponentUnderTest().getByWikiAlias("newotheralias"));
+        assertEquals(newDescriptor, this.mocker.getComponentUnderTest().getByWikiId("newwikiid"));
+
+        this.mocker.getComponentUnderTest().remove(newDescriptor);
+
+        assertNull(this.mocker.getComponentUnderTest().getByWikiAlias("newwikialias"));
+        assertNull(this.mocker.getComponentUnderTest().getByWikiAlias("newotheralias"));
+        assertNull(this.mocker.getComponentUnderTest().getByWikiId("newwikiid"));
+        assertEquals(descriptor, this.mocker.getComponentUnderTest().getByWikiAlias("wikialias"));
+
+        // The descriptors are not loaded again
+        verify(this.queryExecutor, times(1)).execute(any(Query.class));
     }
 
     @Test
-    public void getByWikiIdWhenInCache() throws Exception
+    public void getAll() throws Exception
     {
-        // Wiki id is in cache...
-        Cache<WikiDescriptor> wikiAliasCache = mock(Cache.class);
-        Cache<WikiDescriptor> wikiIdCache = mock(Cache.class);
-        CacheFactory cacheFactory = this.mocker.getInstance(CacheFactory.class);
-        when(cacheFactory.<WikiDescriptor>newCache(any(CacheConfiguration.class))).thenReturn(wikiAliasCache,
-            wikiIdCache);
-        WikiDescriptor descriptor = new WikiDescriptor("wikiid", "wikialias");
-        when(wikiIdCache.get("wikiid")).thenReturn(descriptor);
+        WikiDescriptor descriptor1 = new WikiDescriptor("wikiid1", "wikialias1");
+        WikiDescriptor descriptor2 = new WikiDescriptor("wikiid2", "wikialias2");
+        setStoredDescriptors(descriptor1, descriptor2);
 
-        assertEquals(descriptor, this.mocker.getComponentUnderTest().getByWikiId("wikiid"));
+        Collection<WikiDescriptor> descriptors = this.mocker.getComponentUnderTest().getAll();
+        assertEquals(Arrays.asList(descriptor1, descriptor2), descriptors);
+
+        // Verify all descriptors were indexed
+        assertEquals(descriptor1, this.mocker.getComponentUnderTest().getByWikiAlias("wikialias1"));
+        assertEquals(descriptor2, this.mocker.getComponentUnderTest().getByWikiId("wikiid2"));
+        verify(this.queryExecutor, times(1)).execute(any(Query.class));
     }
 
     @Test
-    public void getByWikiIdWhenNotInCacheAndItDoesntExist() throws Exception
+    public void setDoesNotAddToTheDescriptorDocuments() throws Exception
     {
-        // Wiki id is not in cache...
-        Cache<WikiDescriptor> wikiAliasCache = mock(Cache.class);
-        Cache<WikiDescriptor> wikiIdCache = mock(Cache.class);
-        CacheFactory cacheFactory = this.mocker.getInstance(CacheFactory.class);
-        when(cacheFactory.<WikiDescriptor>newCache(any(CacheConfiguration.class))).thenReturn(wikiAliasCache,
-            wikiIdCache);
-
-        // Get the XWikiDocument for the Document Reference but mark it as new (meaning that it doesn't exist)
-        Execution execution = this.mocker.getInstance(Execution.class);
-        XWikiContext xcontext = mock(XWikiContext.class);
-        com.xpn.xwiki.XWiki xwiki = mock(com.xpn.xwiki.XWiki.class);
-        when(xcontext.getWiki()).thenReturn(xwiki);
-        when(xcontext.getMainXWiki()).thenReturn("xwiki");
-        ExecutionContext ec = new ExecutionContext();
-        ec.setProperty("xwikicontext", xcontext);
-        when(execution.getContext()).thenReturn(ec);
-        XWikiDocument document = mock(XWikiDocument.class);
-        DocumentReference reference = new DocumentReference("xwiki", "XWiki", "XWikiServerWikiid");
-        when(xwiki.getDocument(eq(reference), any(XWikiContext.class))).thenReturn(document);
-        when(document.isNew()).thenReturn(true);
+        WikiDescriptor descriptor = new WikiDescriptor("wikiid", "wikialias");
+        setStoredDescriptors(descriptor);
 
-        assertNull(this.mocker.getComponentUnderTest().getByWikiId("wikiid"));
+        // Remembered for an unknown host
+        WikiDescriptor fallbackDescriptor = new WikiDescriptor("xwiki", "unknown.example.com");
+        this.mocker.getComponentUnderTest().set(fallbackDescriptor);
+
+        assertEquals(fallbackDescriptor, this.mocker.getComponentUnderTest().getByWikiAlias("unknown.example.com"));
+        assertEquals(Arrays.asList(descriptor), this.mocker.getComponentUnderTest().getAll());
     }
 
     @Test
-    public void getAll() throws Exception
+    public void setRemembersABoundedNumberOfDescriptors() throws Exception
     {
-        // Cache setup
-        Cache<WikiDescriptor> wikiAliasCache = mock(Cache.class);
-        Cache<WikiDescriptor> wikiIdCache = mock(Cache.class);
-        CacheFactory cacheFactory = this.mocker.getInstance(CacheFactory.class);
-        when(cacheFactory.<WikiDescriptor>newCache(any(CacheConfiguration.class))).thenReturn(wikiAliasCache,
-            wikiIdCache);
+        setStoredDescriptors(new WikiDescriptor("wikiid", "wikialias"));
 
-        QueryManager queryManager = this.mocker.getInstance(QueryManager.class);
-        QueryExecutor queryExecutor = mock(QueryExecutor.class);
-        when(queryManager.createQuery("from doc.object(XWiki.XWikiServerClass) as descriptor where "
-            + "doc.name like 'XWikiServer%'", Query.XWQL)).thenReturn(
-            new DefaultQuery("statement", "language", queryExecutor));
-        when(queryExecutor.<String>execute(any(Query.class))).thenReturn(Arrays.asList("space1.page1", "space2.page2"));
+        for (int i = 0; i < 2000; i++) {
+            this.mocker.getComponentUnderTest().set(new WikiDescriptor("xwiki", "host" + i));
+        }
 
-        // Convert the returned document names represented as Strings into Document References
-        DocumentReferenceResolver<String> resolver =
-            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
-        DocumentReference reference1 = new DocumentReference("xwiki", "space1", "page1");
-        when(resolver.resolve("space1.page1")).thenReturn(reference1);
-        DocumentReference reference2 = new DocumentReference("xwiki", "space2", "page2");
-        when(resolver.resolve("space2.page2")).thenReturn(reference2);
+        assertNull(this.mocker.getComponentUnderTest().getByWikiAlias("host0"));
+        assertNotNull(this.mocker.getComponentUnderTest().getByWikiAlias("host1999"));
+        assertNotNull(this.mocker.getComponentUnderTest().getByWikiAlias("wikialias"));
+    }
 
-        // Get the XWikiDocuments for the Document References
-        Execution execution = this.mocker.getInstance(Execution.class);
-        XWikiContext xcontext = mock(XWikiContext.class);
-        com.xpn.xwiki.XWiki xwiki = mock(com.xpn.xwiki.XWiki.class);
-        when(xcontext.getWiki()).thenReturn(xwiki);
-        when(xcontext.getMainXWiki()).thenReturn("xwiki");
-        ExecutionContext ec = new ExecutionContext();
-        ec.setProperty("xwikicontext", xcontext);
-        when(execution.getContext()).thenReturn(ec);
-        XWikiDocument document1 = mock(XWikiDocument.class);
-        when(xwiki.getDocument(eq(reference1), any(XWikiContext.class))).thenReturn(document1);
-        XWikiDocument document2 = mock(XWikiDocument.class);
-        when(xwiki.getDocument(eq(reference2), any(XWikiContext.class))).thenReturn(document2);
-
-        // Get all XWiki.XWikiServerClass XObjects to pass to the Wiki Descriptor Builder
-        List<BaseObject> baseObjects = Arrays.asList(mock(BaseObject.class));
-        when(document1.getXObjects(any(EntityReference.class))).thenReturn(baseObjects);
-        when(document2.getXObjects(any(EntityReference.class))).thenReturn(baseObjects);
-
-        // Get a WikiDescriptor from the Wiki Descriptor Builder
-        WikiDescriptorBuilder wikiDescriptorBuilder = this.mocker.getInstance(WikiDescriptorBuilder.class);
-        WikiDescriptor descriptor1 = new WikiDescriptor("wikiid1", "wikialias1");
-        WikiDescriptor descriptor2 = new WikiDescriptor("wikiid2", "wikialias2");
-        when(wikiDescriptorBuilder.build(anyListOf(BaseObject.class), any(XWikiDocument.class))).thenReturn(
-            descriptor1, descriptor2);
+    @Test
+    public void descriptorDocumentSavedWhileLoading() throws Exception
+    {
+        WikiDescriptor descriptor = new WikiDescriptor("wikiid", "wikialias");
+        final List<String> documentNames = setStoredDescriptors(descriptor);
+        final WikiDescriptorCache cache = this.mocker.getInstance(WikiDescriptorCache.class);
+        when(this.queryExecutor.<String>execute(any(Query.class))).thenAnswer(new Answer<List<String>>()
+        {
+            private boolean first = true;
+
+            @Override
+            public List<String> answer(InvocationOnMock invocation) throws Throwable
+            {
+                // A descriptor document is saved while the descriptors are loaded the first time
+                if (this.first) {
+                    this.first = false;
+                    cache.add(new WikiDescriptor("newwikiid", "newwikialias"));
+                }
+                return documentNames;
+            }
+        });
 
-        Collection<WikiDescriptor> descriptors = this.mocker.getComponentUnderTest().getAll();
-        assertEquals(2, descriptors.size());
+        assertEquals(descriptor, this.mocker.getComponentUnderTest().getByWikiAlias("wikialias"));
 
-        // Verify all descriptors were put in cache
-        verify(wikiAliasCache).set("wikialias1", descriptor1);
-        verify(wikiAliasCache).set("wikialias2", descriptor2);
-        verify(wikiIdCache).set("wikiid1", descriptor1);
-        verify(wikiIdCache).set("wikiid2", descriptor2);
+        // The descriptors have been loaded again so that the saved descriptor document is not missed
+        verify(this.queryExecutor, times(2)).execute(any(Query.class));
     }
 }